@@ -0,0 +1,95 @@
+/*******************************************************************************
+ * Copyright (c) 2019 (teslanet.nl) Rogier Cobben.
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License - v 2.0 
+ * which accompanies this distribution.
+ * 
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ * 
+ * Contributors:
+ *    (teslanet.nl) Rogier Cobben - initial creation
+ ******************************************************************************/
+package nl.teslanet.mule.transport.coap.client;
+
+
+/**
+ * Key identifying a preconfigured CoapClient by the parameters it was created with.
+ * Host and port are the values given on the operation, so null means the connector default.
+ */
+final class ClientKey
+{
+    private final String scheme;
+
+    private final String host;
+
+    private final Integer port;
+
+    private final String path;
+
+    private final String query;
+
+    private final boolean confirmable;
+
+    private final int hash;
+
+    /**
+     * Constructor
+     * @param scheme The uri scheme.
+     * @param host The host address of the server, or null for the configured default.
+     * @param port The port the server is listening on, or null for the configured default.
+     * @param path The path of the resource.
+     * @param query String containing query parameters.
+     * @param confirmable When true the client sends confirmable requests.
+     */
+    ClientKey( String scheme, String host, Integer port, String path, String query, boolean confirmable )
+    {
+        this.scheme= scheme;
+        this.host= host;
+        this.port= port;
+        this.path= path;
+        this.query= query;
+        this.confirmable= confirmable;
+
+        int h= ( confirmable ? 1 : 0 );
+        h= 31 * h + hashOf( scheme );
+        h= 31 * h + hashOf( host );
+        h= 31 * h + hashOf( port );
+        h= 31 * h + hashOf( path );
+        h= 31 * h + hashOf( query );
+        this.hash= h;
+    }
+
+    private static int hashOf( Object o )
+    {
+        return ( o == null ? 0 : o.hashCode() );
+    }
+
+    private static boolean equal( Object a, Object b )
+    {
+        return ( a == null ? b == null : a.equals( b ) );
+    }
+
+    /* (non-Javadoc)
+     * @see java.lang.Object#hashCode()
+     */
+    @Override
+    public int hashCode()
+    {
+        return hash;
+    }
+
+    /* (non-Javadoc)
+     * @see java.lang.Object#equals(java.lang.Object)
+     */
+    @Override
+    public boolean equals( Object obj )
+    {
+        if ( this == obj ) return true;
+        if ( !( obj instanceof ClientKey ) ) return false;
+        ClientKey other= (ClientKey) obj;
+        return hash == other.hash && confirmable == other.confirmable && equal( scheme, other.scheme ) && equal( host, other.host ) && equal( port, other.port )
+            && equal( path, other.path ) && equal( query, other.query );
+    }
+}
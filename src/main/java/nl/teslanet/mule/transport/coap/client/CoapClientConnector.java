@@ -15,34 +15,52 @@
 package nl.teslanet.mule.transport.coap.client;
 
 
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.Serializable;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
 import java.security.KeyStore;
 import java.security.KeyStoreException;
 import java.security.NoSuchAlgorithmException;
 import java.security.PrivateKey;
 import java.security.cert.CertificateException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.inject.Inject;
 
 import org.eclipse.californium.core.CoapClient;
-import org.eclipse.californium.core.CoapHandler;
-import org.eclipse.californium.core.CoapObserveRelation;
-import org.eclipse.californium.core.CoapResponse;
 import org.eclipse.californium.core.WebLink;
+import org.eclipse.californium.core.coap.BlockOption;
 import org.eclipse.californium.core.coap.CoAP;
 import org.eclipse.californium.core.coap.CoAP.Code;
+import org.eclipse.californium.core.coap.CoAP.ResponseCode;
 import org.eclipse.californium.core.coap.MediaTypeRegistry;
+import org.eclipse.californium.core.coap.MessageObserverAdapter;
 import org.eclipse.californium.core.coap.Request;
+import org.eclipse.californium.core.coap.Response;
 import org.eclipse.californium.core.network.CoapEndpoint;
+import org.eclipse.californium.core.network.EndpointManager;
+import org.eclipse.californium.core.network.config.NetworkConfig;
 import org.eclipse.californium.core.network.interceptors.MessageTracer;
 import org.eclipse.californium.scandium.DTLSConnector;
 import org.eclipse.californium.scandium.config.DtlsConnectorConfig;
@@ -50,8 +68,10 @@ import org.eclipse.californium.scandium.dtls.pskstore.InMemoryPskStore;
 import org.mule.DefaultMuleEvent;
 import org.mule.DefaultMuleMessage;
 import org.mule.MessageExchangePattern;
+import org.mule.NonBlockingVoidMuleEvent;
 import org.mule.api.ConnectionException;
 import org.mule.api.ConnectionExceptionCode;
+import org.mule.api.MessagingException;
 import org.mule.api.MuleContext;
 import org.mule.api.MuleEvent;
 import org.mule.api.MuleException;
@@ -67,7 +87,13 @@ import org.mule.api.annotations.lifecycle.Stop;
 import org.mule.api.annotations.param.Default;
 import org.mule.api.annotations.param.Optional;
 import org.mule.api.callback.SourceCallback;
+import org.mule.api.config.MuleProperties;
 import org.mule.api.endpoint.MalformedEndpointException;
+import org.mule.api.registry.RegistrationException;
+import org.mule.api.store.ListableObjectStore;
+import org.mule.api.store.ObjectStoreManager;
+import org.mule.api.transport.ReplyToHandler;
+import org.mule.config.i18n.MessageFactory;
 import org.mule.security.oauth.processor.AbstractListeningMessageProcessor;
 import org.mule.transformer.types.DataTypeFactory;
 import org.mule.transport.NullPayload;
@@ -75,10 +101,30 @@ import org.mule.util.IOUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import nl.teslanet.mule.transport.coap.client.blockwise.BlockInputStream;
+import nl.teslanet.mule.transport.coap.client.blockwise.ResponseGuard;
+import nl.teslanet.mule.transport.coap.client.blockwise.UploadRequest;
+import nl.teslanet.mule.transport.coap.client.cache.LruCache;
+import nl.teslanet.mule.transport.coap.client.cache.RequestCoalescer;
+import nl.teslanet.mule.transport.coap.client.cache.ResponseCache;
+import nl.teslanet.mule.transport.coap.client.concurrent.BackoffScheduler;
+import nl.teslanet.mule.transport.coap.client.concurrent.Conflater;
+import nl.teslanet.mule.transport.coap.client.concurrent.DaemonThreadFactory;
+import nl.teslanet.mule.transport.coap.client.concurrent.DroppableTask;
+import nl.teslanet.mule.transport.coap.client.concurrent.HandlerExecutor;
+import nl.teslanet.mule.transport.coap.client.concurrent.InFlightLimiter;
+import nl.teslanet.mule.transport.coap.client.concurrent.MemoryBudget;
+import nl.teslanet.mule.transport.coap.client.concurrent.RateLimiter;
+import nl.teslanet.mule.transport.coap.client.concurrent.RegistrationQueue;
+import nl.teslanet.mule.transport.coap.client.concurrent.StripedExecutor;
 import nl.teslanet.mule.transport.coap.client.config.CoAPClientConfig;
+import nl.teslanet.mule.transport.coap.client.config.RequestCode;
+import nl.teslanet.mule.transport.coap.client.endpoint.EndpointPool;
+import nl.teslanet.mule.transport.coap.client.endpoint.SharedEndpoints;
 import nl.teslanet.mule.transport.coap.client.error.EndpointConstructionException;
 import nl.teslanet.mule.transport.coap.client.error.ErrorHandler;
 import nl.teslanet.mule.transport.coap.client.error.HandlerException;
+import nl.teslanet.mule.transport.coap.client.error.InFlightLimitException;
 import nl.teslanet.mule.transport.coap.client.error.MalformedUriException;
 import nl.teslanet.mule.transport.coap.commons.options.Options;
 import nl.teslanet.mule.transport.coap.commons.options.PropertyNames;
@@ -112,6 +158,11 @@ public class CoapClientConnector
      * Logger of the connector
      */
     private static final Logger logger = LoggerFactory.getLogger(CoapClientConnector.class);
+
+    /**
+     * Prefix of the names of properties that carry CoAP options.
+     */
+    private static final String OPTION_PROPERTY_PREFIX= "coap.opt.";
     
     @Config
     private CoAPClientConfig config;
@@ -119,12 +170,114 @@ public class CoapClientConnector
     @Inject
     private MuleContext muleContext;
 
-    private CoapEndpoint endpoint= null;
+    /**
+     * The endpoints requests are issued on.
+     */
+    private EndpointPool endpoints= null;
+
+    /**
+     * True when the endpoints are shared with other configurations.
+     */
+    private boolean endpointsShared= false;
+
+    /**
+     * Preconfigured clients, reused by operations on the same resource.
+     */
+    private LruCache< ClientKey, CoapClient > clients= null;
+
+    /**
+     * Compiled request uris, reused by operations on the same resource.
+     */
+    private LruCache< RequestTemplate.Key, RequestTemplate > templates= null;
+
+    /**
+     * Executor that processes responses and notifications in Mule flows.
+     */
+    private HandlerExecutor handlerExecutor= null;
+
+    /**
+     * Executor that processes notifications in Mule flows, in order per observed resource.
+     */
+    private StripedExecutor observeExecutor= null;
+
+    /**
+     * Scheduler of timed connector tasks, such as request timeouts.
+     */
+    private ScheduledThreadPoolExecutor scheduler= null;
+
+    /**
+     * Limiter of asynchronous requests in flight.
+     */
+    private InFlightLimiter inFlightLimiter= null;
+
+    /**
+     * Coalescer of identical concurrent GET requests, null when coalescing is off.
+     */
+    private RequestCoalescer coalescer= null;
+
+    /**
+     * Cache of GET responses, null when caching is off.
+     */
+    private ResponseCache responseCache= null;
+
+    /**
+     * Number of notifications dropped by conflating relations.
+     */
+    private final AtomicLong conflatedNotifications= new AtomicLong();
+
+    /**
+     * Number of observe relations the servers confirmed to be cancelled on stop.
+     */
+    private final AtomicLong cancelledRelations= new AtomicLong();
+
+    /**
+     * Number of observe relations abandoned on stop, without confirmation of cancellation.
+     */
+    private final AtomicLong abandonedRelations= new AtomicLong();
+
+    /**
+     * Number of requests cancelled because the operation timeout expired.
+     */
+    private final AtomicLong timedOutRequests= new AtomicLong();
+
+    /**
+     * Number of blockwise responses delivered as stream.
+     */
+    private final AtomicLong streamedResponses= new AtomicLong();
+
+    /**
+     * The maximum time in milliseconds to wait for a block of a streamed response.
+     */
+    private long blockTimeout= 0L;
+
+    /**
+     * Number of requests with a body uploaded lazily.
+     */
+    private final AtomicLong uploadedRequests= new AtomicLong();
+
+    /**
+     * The block size exponent used for lazily uploaded bodies.
+     */
+    private int uploadSzx= 0;
+
+    /**
+     * The memory budget shared by all blockwise responses being buffered.
+     */
+    private MemoryBudget responseBudget= new MemoryBudget( 0L );
 
     // private Set< WebLink > resources= null;
 
-    private ConcurrentSkipListMap< String, CoapObserveRelation > staticRelations= new ConcurrentSkipListMap< String, CoapObserveRelation >();
-    private ConcurrentSkipListMap< String, CoapObserveRelation > dynamicRelations= new ConcurrentSkipListMap< String, CoapObserveRelation >();
+    /**
+     * The observe subscriptions, sharing one relation per resource.
+     */
+    private final ObserveRegistry observations= new ObserveRegistry( new ObserveRegistry.Decoder()
+        {
+            @Override
+            public Map< String, Object > decode( Response response, String uri )
+            {
+                return createInboundProperties( response, uri, Code.GET );
+            }
+        } );
 
     private ConcurrentSkipListMap< String, SourceCallback > handlers= new ConcurrentSkipListMap< String, SourceCallback >();
 
@@ -137,7 +290,8 @@ public class CoapClientConnector
     @TestConnectivity
     public void test() throws MalformedUriException, ConnectionException 
     {
-        CoapClient client= createClient( true,  null, null, "/", null );
+        // when not started the client pings on the default endpoint
+        CoapClient client= newClient( true,  null, null, "/", null );
 
         if ( client == null || !client.ping() )
         {
@@ -157,24 +311,88 @@ public class CoapClientConnector
     @Start
     public void startConnector() throws ConnectionException
     {
-        if ( endpoint != null )
+        releaseEndpoints();
+        clients= new LruCache< ClientKey, CoapClient >( config.getClientCacheSize() );
+        templates= new LruCache< RequestTemplate.Key, RequestTemplate >( config.getClientCacheSize() );
+        if ( handlerExecutor != null )
+        {
+            handlerExecutor.shutdown();
+        }
+        handlerExecutor= new HandlerExecutor( "coap-client-handler", config.getHandlerThreadCount(), config.getHandlerQueueSize(), config.getHandlerRejectionPolicy() );
+        if ( observeExecutor != null )
         {
-            endpoint.destroy();
+            observeExecutor.shutdown();
         }
+        observeExecutor= new StripedExecutor( "coap-client-observe", config.getObserveThreadCount(), config.getHandlerQueueSize(), config.getHandlerRejectionPolicy() );
+        if ( scheduler != null )
+        {
+            scheduler.shutdownNow();
+        }
+        scheduler= new ScheduledThreadPoolExecutor( 1, new DaemonThreadFactory( "coap-client-scheduler" ) );
+        scheduler.setRemoveOnCancelPolicy( true );
+        int reregistrationRate= config.getReregistrationRate();
+        observations.enableBackoff(
+            new BackoffScheduler( scheduler, config.getReregistrationBackoff(), config.getReregistrationMaxBackoff(), new RateLimiter( reregistrationRate, reregistrationRate ) ) );
+        int registrationRate= config.getRegistrationRate();
+        long registrationTimeout= config.getNetworkConfig().getLong( NetworkConfig.Keys.MAX_TRANSMIT_WAIT );
+        // a block of a streamed response may take as long as any exchange
+        blockTimeout= registrationTimeout;
+        NetworkConfig networkConfig= config.getNetworkConfig();
+        uploadSzx= BlockOption.size2Szx(
+            Math.min( networkConfig.getInt( NetworkConfig.Keys.PREFERRED_BLOCK_SIZE ), networkConfig.getInt( NetworkConfig.Keys.MAX_MESSAGE_SIZE ) ) );
+        observations.enableRegistrationQueue(
+            new RegistrationQueue( scheduler, new RateLimiter( registrationRate, registrationRate ), config.getRegistrationConcurrency(), registrationTimeout ) );
+        responseBudget= new MemoryBudget( config.getResponseMemoryBudget() );
+        inFlightLimiter= new InFlightLimiter( config.getMaxInFlight(), config.getMaxInFlightPerHost(), config.getInFlightPolicy(), config.getInFlightQueueSize() );
+        coalescer= ( config.isCoalesceRequests() ? new RequestCoalescer( new RequestCoalescer.Sender()
+            {
+                @Override
+                public void send( Request request )
+                {
+                    // the request it joined was cancelled, so it is sent on its own
+                    try
+                    {
+                        sendCoalesced( request );
+                    }
+                    catch ( InFlightLimitException e )
+                    {
+                        logger.warn( "coalesced request refused { " + request.getURI() + " }", e );
+                        request.setCanceled( true );
+                    }
+                }
+            } ) : null );
+        responseCache= ( config.getResponseCacheSize() > 0 ? new ResponseCache( config.getResponseCacheSize(), config.getResponseCacheMaxBytes() ) : null );
         try
         {
-            endpoint= createEndpoint( this.config );
-            if ( config.isLogMessages() )
+            if ( config.isShareEndpoints() )
+            {
+                endpoints= SharedEndpoints.acquire( config.getEndpointSignature(), new SharedEndpoints.Factory()
+                    {
+                        @Override
+                        public EndpointPool create() throws EndpointConstructionException, IOException
+                        {
+                            return openEndpoints( config );
+                        }
+                    } );
+                endpointsShared= true;
+            }
+            else
             {
-                // add special interceptor for message traces
-                endpoint.addInterceptor( new MessageTracer() );
+                endpoints= openEndpoints( config );
             }
-            endpoint.start();
         }
         catch ( Exception e )
         {
             throw new ConnectionException( ConnectionExceptionCode.UNKNOWN, "coap endpoint fault", "coap uri endpoint", e );
         }
+        if ( responseCache != null && config.getRefreshAheadReads() > 0 )
+        {
+            responseCache.enableRefreshAhead( scheduler, endpoints, config.getRefreshAheadReads(), config.getRefreshAheadConcurrency() );
+        }
+        if ( config.isPersistRelations() )
+        {
+            resumeRelations();
+        }
     }
 
     /**
@@ -185,38 +403,234 @@ public class CoapClientConnector
     @Stop
     public void stopConnector()
     {
-        for ( CoapObserveRelation relation : staticRelations.values() )
+        if ( endpoints != null && config.isPersistRelations() )
         {
-            relation.proactiveCancel();
+            persistRelations();
         }
-        staticRelations.clear();
-        for ( CoapObserveRelation relation : dynamicRelations.values() )
+        else if ( endpoints != null )
         {
-            relation.proactiveCancel();
+            int rate= config.getObserveCancelRate();
+            ObserveRegistry.CancelReport report= observations.cancelAll( new RateLimiter( rate, rate ), config.getObserveCancelGracePeriod() );
+            cancelledRelations.addAndGet( report.getCancelled() );
+            abandonedRelations.addAndGet( report.getAbandoned() );
+            if ( report.getAbandoned() > 0 )
+            {
+                logger.warn( "observe relations cancelled { " + report.getCancelled() + " }, abandoned { " + report.getAbandoned() + " }" );
+            }
+            else if ( report.getCancelled() > 0 )
+            {
+                logger.info( "observe relations cancelled { " + report.getCancelled() + " }" );
+            }
         }
-        dynamicRelations.clear();
         handlers.clear();
+        if ( clients != null )
+        {
+            clients.clear();
+        }
+        if ( templates != null )
+        {
+            templates.clear();
+        }
+        if ( responseCache != null )
+        {
+            responseCache.clear();
+        }
 
-        if ( endpoint != null )
+        releaseEndpoints();
+        if ( handlerExecutor != null )
+        {
+            handlerExecutor.shutdown();
+            handlerExecutor= null;
+        }
+        if ( observeExecutor != null )
+        {
+            observeExecutor.shutdown();
+            observeExecutor= null;
+        }
+        if ( scheduler != null )
+        {
+            scheduler.shutdownNow();
+            scheduler= null;
+        }
+    }
+
+    /**
+     * Get the object store that keeps observe relations between runs.
+     * Each configuration has its own store, named after the configuration, 
+     * as configurations with equal endpoint parameters may observe different resources.
+     * @return The store.
+     * @throws RegistrationException when the object store manager or the name of the configuration is not available.
+     */
+    private ListableObjectStore< ObserveRelationState > getRelationStore() throws RegistrationException
+    {
+        ObjectStoreManager manager= muleContext.getRegistry().lookupObject( MuleProperties.OBJECT_STORE_MANAGER );
+        if ( manager == null ) throw new RegistrationException( MessageFactory.createStaticMessage( "no object store manager" ) );
+        String configName= getConfigName();
+        if ( configName == null ) throw new RegistrationException( MessageFactory.createStaticMessage( "name of configuration not found" ) );
+        return manager.getObjectStore( "coap-client-relations-" + configName, true );
+    }
+
+    /**
+     * Get the name the configuration is registered with.
+     * @return The name, null when not found.
+     */
+    private String getConfigName()
+    {
+        for ( Map.Entry< String, CoapClientConnector > entry : muleContext.getRegistry().lookupByType( CoapClientConnector.class ).entrySet() )
+        {
+            if ( entry.getValue() == this ) return entry.getKey();
+        }
+        for ( Map.Entry< String, CoAPClientConfig > entry : muleContext.getRegistry().lookupByType( CoAPClientConfig.class ).entrySet() )
+        {
+            if ( entry.getValue() == config ) return entry.getKey();
+        }
+        return null;
+    }
+
+    /**
+     * Offer the observe relations of the previous run to be resumed, 
+     * and schedule cancellation of those not resumed within the resume window.
+     */
+    private void resumeRelations()
+    {
+        ArrayList< ObserveRelationState > states= new ArrayList< ObserveRelationState >();
+        try
+        {
+            ListableObjectStore< ObserveRelationState > store= getRelationStore();
+            for ( Serializable key : store.allKeys() )
+            {
+                states.add( store.remove( key ) );
+            }
+        }
+        catch ( MuleException e )
+        {
+            logger.warn( "observe relations of previous run could not be loaded", e );
+            return;
+        }
+        if ( states.isEmpty() ) return;
+        int dropped= observations.resume( states, endpoints );
+        if ( dropped > 0 )
+        {
+            logger.warn( "endpoints bound to other ports than in previous run, { " + dropped + " } observe relations of previous run can not be resumed" );
+            abandonedRelations.addAndGet( dropped );
+        }
+        scheduler.schedule( new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    EndpointPool current= endpoints;
+                    if ( current == null ) return;
+                    int rate= config.getObserveCancelRate();
+                    int cancelled= observations.cancelUnresumed( current, new RateLimiter( rate, rate ), scheduler );
+                    if ( cancelled > 0 )
+                    {
+                        logger.info( "observe relations of previous run not resumed and cancelled { " + cancelled + " }" );
+                    }
+                }
+            }, config.getRelationResumeWindow(), TimeUnit.MILLISECONDS );
+    }
+
+    /**
+     * Detach the observe relations and store them, to be resumed by the next run.
+     */
+    private void persistRelations()
+    {
+        List< ObserveRelationState > states= observations.detachAll( endpoints );
+        try
+        {
+            ListableObjectStore< ObserveRelationState > store= getRelationStore();
+            for ( ObserveRelationState state : states )
+            {
+                if ( store.contains( state.getUri() ) ) store.remove( state.getUri() );
+                store.store( state.getUri(), state );
+            }
+        }
+        catch ( MuleException e )
+        {
+            logger.warn( "observe relations could not be stored, { " + states.size() + " } relations abandoned", e );
+            abandonedRelations.addAndGet( states.size() );
+            return;
+        }
+        logger.info( "observe relations stored { " + states.size() + " }" );
+    }
+
+    /**
+     * Create and start the pool of CoAP endpoints, with the interceptors the configuration asks for.
+     * @param config The configuration parameters for the CoAP Endpoints.
+     * @return The started pool.
+     * @throws EndpointConstructionException endpoint could not be created with given parameters
+     * @throws IOException endpoint could not be started
+     */
+    private EndpointPool openEndpoints( CoAPClientConfig config ) throws EndpointConstructionException, IOException
+    {
+        EndpointPool pool= createEndpoints( config );
+        if ( config.isLogMessages() )
+        {
+            // add special interceptor for message traces
+            pool.addInterceptor( new MessageTracer() );
+        }
+        if ( config.getMidWarningPercent() > 0 )
+        {
+            long lifetime= config.getNetworkConfig().getLong( NetworkConfig.Keys.EXCHANGE_LIFETIME );
+            pool.enableMidTracking( lifetime, config.getMidWarningPercent(), config.isMidSpillover() );
+        }
+        pool.enableBlockCapture();
+        pool.start();
+        return pool;
+    }
+
+    /**
+     * Release the endpoints. Shared endpoints are destroyed when no other configuration uses them.
+     */
+    private void releaseEndpoints()
+    {
+        if ( endpoints == null ) return;
+        if ( endpointsShared )
+        {
+            SharedEndpoints.release( endpoints );
+        }
+        else
+        {
+            endpoints.destroy();
+        }
+        endpoints= null;
+        endpointsShared= false;
+    }
+
+    /**
+     * Create the pool of CoAP endpoints.
+     * The first endpoint binds to the configured local address, 
+     * the others to the same host on an ephemeral port.
+     * @param config The configuration parameters for the CoAP Endpoints.
+     * @return The pool of created Endpoints.
+     * @throws EndpointConstructionException endpoint could not be created with given parameters
+     */        
+    private EndpointPool createEndpoints( CoAPClientConfig config ) throws EndpointConstructionException
+    {
+        InetSocketAddress localAddress= config.getLocalAddress();
+        ArrayList< CoapEndpoint > created= new ArrayList< CoapEndpoint >();
+        for ( int i= 0; i < Math.max( 1, config.getEndpointCount() ); i++ )
         {
-            endpoint.destroy();
-            endpoint= null;
+            created.add( createEndpoint( config, ( i == 0 ? localAddress : new InetSocketAddress( localAddress.getAddress(), 0 ) ) ) );
         }
+        return new EndpointPool( created );
     }
 
     /**
      * Create the CoAP endpoint.
      * @param config The configuration parameters for the CoAP Endpoint.
+     * @param localAddress The local address to bind to.
      * @return The CoAP created Endpoint.
      * @throws EndpointConstructionException endpoint could not be created with given parameters
      */        
-    private CoapEndpoint createEndpoint( CoAPClientConfig config ) throws EndpointConstructionException
+    private CoapEndpoint createEndpoint( CoAPClientConfig config, InetSocketAddress localAddress ) throws EndpointConstructionException
     {
         CoapEndpoint endpoint= null;
 
         if ( !config.isSecure() )
         {
-            endpoint= new CoapEndpoint( config.getLocalAddress(), config.getNetworkConfig() );
+            endpoint= new CoapEndpoint( localAddress, config.getNetworkConfig() );
         }
         else
         {
@@ -283,7 +697,7 @@ public class CoapClientConnector
             }
 
             // You can load multiple certificates if needed
-            DtlsConnectorConfig.Builder configBuider= new DtlsConnectorConfig.Builder( config.getLocalAddress() );
+            DtlsConnectorConfig.Builder configBuider= new DtlsConnectorConfig.Builder( localAddress );
             configBuider.setPskStore( pskStore );
             try
             {
@@ -372,10 +786,15 @@ public class CoapClientConnector
      * @param port The port the server is listening on.
      * @param path The path of the resource.
      * @param queryParameters List of query parameters.
+     * @param timeout Optional maximum time in milliseconds to wait for the response. When it expires the request is cancelled.
+     * @param maxResponseSize Optional maximum size in bytes of a blockwise response, overriding the connector configuration. 
+     * A larger response is aborted.
      * @return On success the contents of the CoAP resource is returned in a byte array( byte[] ) as message payload. 
+     * When responses are streamed, the contents of a blockwise response is returned as an InputStream.
      * Otherwise the payload will be empty.
      * @throws MalformedUriException cannot form valid uri with given parameters
      * @throws HandlerException response handler with given name not found
+     * @throws InFlightLimitException the request is refused by the in-flight limit
      */
     @Processor
     public MuleEvent get(
@@ -384,9 +803,11 @@ public class CoapClientConnector
         @Optional String host,
         @Optional Integer port,
         String path,
-        @Optional List< String > queryParameters ) throws MalformedUriException, HandlerException 
+        @Optional List< String > queryParameters,
+        @Optional Long timeout,
+        @Optional Long maxResponseSize ) throws MalformedUriException, HandlerException, InFlightLimitException 
     {
-        return doRequest( event, CoAP.Code.GET, confirmable, host, port, path, queryParameters, null );
+        return doRequest( event, CoAP.Code.GET, confirmable, host, port, path, queryParameters, timeout, maxResponseSize, null );
     }
 
     /**
@@ -397,10 +818,14 @@ public class CoapClientConnector
      * @param port The port the server is listening on.
      * @param path The path of the resource.
      * @param queryParameters List of query parameters.
+     * @param timeout Optional maximum time in milliseconds to wait for the response. When it expires the request is cancelled.
+     * @param maxResponseSize Optional maximum size in bytes of a blockwise response, overriding the connector configuration. 
+     * A larger response is aborted.
      * @param responseHandler Name of the handler that will process the returned response.
      * @return The MuleMessage is returned unchanged.
      * @throws MalformedUriException cannot form valid uri with given parameters
      * @throws HandlerException response handler with given name not found
+     * @throws InFlightLimitException the request is refused by the in-flight limit
      */
     @Processor
     public MuleEvent asyncGet(
@@ -410,23 +835,30 @@ public class CoapClientConnector
         @Optional Integer port,
         String path,
         @Optional List< String > queryParameters,
-        String responseHandler ) throws MalformedUriException, HandlerException 
+        @Optional Long timeout,
+        @Optional Long maxResponseSize,
+        String responseHandler ) throws MalformedUriException, HandlerException, InFlightLimitException 
     {
-        return doRequest( event, CoAP.Code.GET, confirmable, host, port, path, queryParameters, responseHandler );
+        return doRequest( event, CoAP.Code.GET, confirmable, host, port, path, queryParameters, timeout, maxResponseSize, responseHandler );
     }
 
     /**
      * Put messageprocessor changes the contents of a CoAP resource on a Server.
      * The resource url can be set, overriding connector configuration.
+     * An InputStream, ByteBuffer or File payload is uploaded blockwise and read while the blocks are sent.
      * @param confirmable When true the server must confirm the request.
      * @param host The host address of the server.
      * @param port The port the server is listening on.
      * @param path The path of the resource.
      * @param queryParameters List of query parameters.
+     * @param timeout Optional maximum time in milliseconds to wait for the response. When it expires the request is cancelled.
+     * @param maxResponseSize Optional maximum size in bytes of a blockwise response, overriding the connector configuration. 
+     * A larger response is aborted.
      * @return On success the response payload - if any - is returned in a byte array( byte[] ) as message payload. 
      * Otherwise the payload will be empty.
      * @throws MalformedUriException cannot form valid uri with given parameters
      * @throws HandlerException response handler with given name not found
+     * @throws InFlightLimitException the request is refused by the in-flight limit
      */
     @Processor
     public MuleEvent put(
@@ -435,23 +867,30 @@ public class CoapClientConnector
         @Optional String host,
         @Optional Integer port,
         String path,
-        @Optional List< String > queryParameters ) throws MalformedUriException, HandlerException 
+        @Optional List< String > queryParameters,
+        @Optional Long timeout,
+        @Optional Long maxResponseSize ) throws MalformedUriException, HandlerException, InFlightLimitException 
     {
-        return doRequest( event, CoAP.Code.PUT, confirmable, host, port, path, queryParameters, null );
+        return doRequest( event, CoAP.Code.PUT, confirmable, host, port, path, queryParameters, timeout, maxResponseSize, null );
     }
 
     /**
      * Async-Put messageprocessor asynchronously changes the contents of a CoAP resource on a Server.
      * The resource url can be set, overriding connector configuration.
+     * An InputStream, ByteBuffer or File payload is uploaded blockwise and read while the blocks are sent.
      * @param confirmable When true the server must confirm the request.
      * @param host The host address of the server.
      * @param port The port the server is listening on.
      * @param path The path of the resource.
      * @param queryParameters List of query parameters.
+     * @param timeout Optional maximum time in milliseconds to wait for the response. When it expires the request is cancelled.
+     * @param maxResponseSize Optional maximum size in bytes of a blockwise response, overriding the connector configuration. 
+     * A larger response is aborted.
      * @param responseHandler Name of the handler that will process the returned response.
      * @return The MuleMessage is returned unchanged.
      * @throws MalformedUriException cannot form valid uri with given parameters
      * @throws HandlerException response handler with given name not found
+     * @throws InFlightLimitException the request is refused by the in-flight limit
      */
     @Processor
     public MuleEvent asyncPut(
@@ -461,23 +900,30 @@ public class CoapClientConnector
         @Optional Integer port,
         String path,
         @Optional List< String > queryParameters,
-        String responseHandler ) throws MalformedUriException, HandlerException 
+        @Optional Long timeout,
+        @Optional Long maxResponseSize,
+        String responseHandler ) throws MalformedUriException, HandlerException, InFlightLimitException 
     {
-        return doRequest( event, CoAP.Code.PUT, confirmable, host, port, path, queryParameters, responseHandler );
+        return doRequest( event, CoAP.Code.PUT, confirmable, host, port, path, queryParameters, timeout, maxResponseSize, responseHandler );
     }
 
     /**
      * Post messageprocessor delivers contents to a CoAP resource on a Server.
      * The resource url can be set, overriding connector configuration.
+     * An InputStream, ByteBuffer or File payload is uploaded blockwise and read while the blocks are sent.
      * @param confirmable When true the server must confirm the request.
      * @param host The host address of the server.
      * @param port The port the server is listening on.
      * @param path The path of the resource.
      * @param queryParameters List of query parameters.
+     * @param timeout Optional maximum time in milliseconds to wait for the response. When it expires the request is cancelled.
+     * @param maxResponseSize Optional maximum size in bytes of a blockwise response, overriding the connector configuration. 
+     * A larger response is aborted.
      * @return On success the response payload - if any - is returned in a byte array( byte[] ) as message payload. 
      * Otherwise the payload will be empty.
      * @throws MalformedUriException cannot form valid uri with given parameters
      * @throws HandlerException response handler with given name not found
+     * @throws InFlightLimitException the request is refused by the in-flight limit
      */
     @Processor
     public MuleEvent post(
@@ -486,23 +932,30 @@ public class CoapClientConnector
         @Optional String host,
         @Optional Integer port,
         String path,
-        @Optional List< String > queryParameters ) throws MalformedUriException, HandlerException 
+        @Optional List< String > queryParameters,
+        @Optional Long timeout,
+        @Optional Long maxResponseSize ) throws MalformedUriException, HandlerException, InFlightLimitException 
     {
-        return doRequest( event, CoAP.Code.POST, confirmable, host, port, path, queryParameters, null );
+        return doRequest( event, CoAP.Code.POST, confirmable, host, port, path, queryParameters, timeout, maxResponseSize, null );
     }
 
     /**
      * Async-Put messageprocessor asynchronously delivers contents to a CoAP resource on a Server.
      * The resource url can be set, overriding connector configuration.
+     * An InputStream, ByteBuffer or File payload is uploaded blockwise and read while the blocks are sent.
      * @param confirmable When true the server must confirm the request.
      * @param host The host address of the server.
      * @param port The port the server is listening on.
      * @param path The path of the resource.
      * @param queryParameters List of query parameters.
+     * @param timeout Optional maximum time in milliseconds to wait for the response. When it expires the request is cancelled.
+     * @param maxResponseSize Optional maximum size in bytes of a blockwise response, overriding the connector configuration. 
+     * A larger response is aborted.
      * @param responseHandler Name of the handler that will process the returned response.
      * @return The MuleMessage is returned unchanged.
      * @throws MalformedUriException cannot form valid uri with given parameters
      * @throws HandlerException response handler with given name not found
+     * @throws InFlightLimitException the request is refused by the in-flight limit
      */
     @Processor
     public MuleEvent asyncPost(
@@ -512,9 +965,11 @@ public class CoapClientConnector
         @Optional Integer port,
         String path,
         @Optional List< String > queryParameters,
-        String responseHandler ) throws MalformedUriException, HandlerException 
+        @Optional Long timeout,
+        @Optional Long maxResponseSize,
+        String responseHandler ) throws MalformedUriException, HandlerException, InFlightLimitException 
     {
-        return doRequest( event, CoAP.Code.POST, confirmable, host, port, path, queryParameters, responseHandler );
+        return doRequest( event, CoAP.Code.POST, confirmable, host, port, path, queryParameters, timeout, maxResponseSize, responseHandler );
     }
 
     /**
@@ -525,10 +980,14 @@ public class CoapClientConnector
      * @param port The port the server is listening on.
      * @param path The path of the resource.
      * @param queryParameters List of query parameters.
+     * @param timeout Optional maximum time in milliseconds to wait for the response. When it expires the request is cancelled.
+     * @param maxResponseSize Optional maximum size in bytes of a blockwise response, overriding the connector configuration. 
+     * A larger response is aborted.
      * @return On success the response payload - if any - is returned in a byte array( byte[] ) as message payload. 
      * Otherwise the payload will be empty.
      * @throws MalformedUriException cannot form valid uri with given parameters
      * @throws HandlerException response handler with given name not found
+     * @throws InFlightLimitException the request is refused by the in-flight limit
      */
     @Processor
     public MuleEvent delete(
@@ -537,10 +996,12 @@ public class CoapClientConnector
         @Optional String host,
         @Optional Integer port,
         String path,
-        @Optional List< String > queryParameters ) throws MalformedUriException, HandlerException 
+        @Optional List< String > queryParameters,
+        @Optional Long timeout,
+        @Optional Long maxResponseSize ) throws MalformedUriException, HandlerException, InFlightLimitException 
     {
 
-        return doRequest( event, CoAP.Code.DELETE, confirmable, host, port, path, queryParameters, null );
+        return doRequest( event, CoAP.Code.DELETE, confirmable, host, port, path, queryParameters, timeout, maxResponseSize, null );
     }
 
     /**
@@ -551,10 +1012,14 @@ public class CoapClientConnector
      * @param port The port the server is listening on.
      * @param path The path of the resource.
      * @param queryParameters List of query parameters.
+     * @param timeout Optional maximum time in milliseconds to wait for the response. When it expires the request is cancelled.
+     * @param maxResponseSize Optional maximum size in bytes of a blockwise response, overriding the connector configuration. 
+     * A larger response is aborted.
      * @param responseHandler Name of the handler that will process the returned response.
      * @return The MuleMessage is returned unchanged.
      * @throws MalformedUriException cannot form valid uri with given parameters
      * @throws HandlerException response handler with given name not found
+     * @throws InFlightLimitException the request is refused by the in-flight limit
      */
     @Processor
     public MuleEvent asyncDelete(
@@ -564,10 +1029,95 @@ public class CoapClientConnector
         @Optional Integer port,
         String path,
         @Optional List< String > queryParameters,
-        String responseHandler ) throws MalformedUriException, HandlerException 
+        @Optional Long timeout,
+        @Optional Long maxResponseSize,
+        String responseHandler ) throws MalformedUriException, HandlerException, InFlightLimitException 
+    {
+
+        return doRequest( event, CoAP.Code.DELETE, confirmable, host, port, path, queryParameters, timeout, maxResponseSize, responseHandler );
+    }
+
+    /**
+     * Multi-Request messageprocessor issues the same request on a list of CoAP resources concurrently.
+     * Each target is a map containing the entries: host (optional), port (optional), path and queryParameters (optional).
+     * The message payload and outbound properties are used for every request.
+     * The operation finishes when all requests have completed, or when the timeout expires. 
+     * Requests that have not completed by then are cancelled.
+     * @param requestCode The request type.
+     * @param confirmable When true the server must confirm the requests.
+     * @param targets The list of resources to issue the request on.
+     * @param maxConcurrency The maximum number of requests in flight.
+     * @param timeout Optional maximum time in milliseconds to wait for all responses.
+     * @return The payload contains a list with a map for each target, in the same order as the targets. 
+     * The map contains the response properties, the response payload under key "payload" 
+     * and the time in milliseconds it took to complete the request under key "elapsed".
+     * @throws MalformedUriException cannot form valid uri with given parameters of a target
+     * @throws IOException the message payload could not be read
+     */
+    @Processor
+    public MuleEvent multiRequest(
+        MuleEvent event,
+        @Default(value= "GET") RequestCode requestCode,
+        @Default(value= "true") Boolean confirmable,
+        List< Map< String, Object > > targets,
+        @Default(value= "10") Integer maxConcurrency,
+        @Optional Long timeout ) throws MalformedUriException, IOException 
     {
+        EndpointPool pool= endpoints;
+        if ( pool == null ) throw new IllegalStateException( "multi-request refused, connector is not started" );
+
+        Code code= Code.valueOf( requestCode.name() );
+        // the payload is the same for every request, so a stream is read only once
+        Object requestPayload= readPayload( event.getMessage().getPayload() );
+        RequestTemplate[] compiled= new RequestTemplate [targets.size()];
+        Request[] requests= new Request [targets.size()];
+        for ( int i= 0; i < compiled.length; i++ )
+        {
+            compiled[i]= getTemplate( targets.get( i ) );
+            requests[i]= createRequest( event.getMessage(), requestPayload, code, confirmable, compiled[i], false );
+            attachGuard( requests[i], compiled[i], config.getMaxResponseSize() );
+        }
+        ScatterGather gather= new ScatterGather( requests, maxConcurrency );
+        long deadline= ( isTimeout( timeout ) ? System.nanoTime() + TimeUnit.MILLISECONDS.toNanos( timeout ) : Long.MAX_VALUE );
+        try
+        {
+            gather.execute( pool, deadline );
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+        }
 
-        return doRequest( event, CoAP.Code.DELETE, confirmable, host, port, path, queryParameters, responseHandler );
+        ArrayList< Map< String, Object > > results= new ArrayList< Map< String, Object > >( compiled.length );
+        boolean success= true;
+        for ( int i= 0; i < compiled.length; i++ )
+        {
+            Response response= gather.getResponse( i );
+            HashMap< String, Object > result= new HashMap< String, Object >();
+            result.put( PropertyNames.COAP_REQUEST_CODE, code );
+            result.put( PropertyNames.COAP_REQUEST_URI, compiled[i].getUri() );
+            result.put( "elapsed", gather.getElapsed( i ) );
+            if ( response == null )
+            {
+                result.put( PropertyNames.COAP_RESPONSE_SUCCESS, Boolean.FALSE );
+                success= false;
+            }
+            else
+            {
+                boolean responseSuccess= ResponseCode.isSuccess( response.getCode() );
+                result.put( PropertyNames.COAP_RESPONSE_SUCCESS, Boolean.valueOf( responseSuccess ) );
+                result.put( PropertyNames.COAP_RESPONSE_CODE, response.getCode().toString() );
+                Options.fillPropertyMap( response.getOptions(), result, logger, "Response option could not be converted into property" );
+                result.put( "payload", response.getPayload() );
+                success= success && responseSuccess;
+            }
+            results.add( result );
+        }
+        HashMap< String, Object > inboundProps= new HashMap< String, Object >();
+        inboundProps.put( PropertyNames.COAP_REQUEST_CODE, code );
+        inboundProps.put( PropertyNames.COAP_RESPONSE_SUCCESS, Boolean.valueOf( success ) );
+        MuleMessage resultMessage= new DefaultMuleMessage( results, inboundProps, null, null, muleContext );
+        return new DefaultMuleEvent( resultMessage, event );
     }
 
     /**
@@ -578,6 +1128,8 @@ public class CoapClientConnector
      * @param port The port the server is listening on.
      * @param path The path of the resource.
      * @param queryParameters List of query parameters.
+     * @param conflate When true, notifications that arrive while the previous one is being processed 
+     * are replaced by the newest, so only the latest resource state is processed.
      * @param responseHandler Name of the handler that will process the resource updates received from server.
      * @throws MalformedUriException cannot form valid uri with given parameters
      * @throws HandlerException response handler with given name not found
@@ -591,56 +1143,25 @@ public class CoapClientConnector
         @Optional Integer port, 
         String path, 
         @Optional List< String > queryParameters, 
+        @Default( value= "false" ) Boolean conflate,
         String responseHandler
     ) throws MalformedUriException, HandlerException 
     {
         final CoapClient client= createClient( confirmable, host, port, path, toQueryString( queryParameters ) );
+        final Conflater conflater= ( conflate ? new Conflater( client.getURI(), conflatedNotifications ) : null );
 
         final SourceCallback callback= handlers.get( responseHandler );
         if ( callback == null ) throw new HandlerException( "response handler { " + responseHandler + " }");
 
-        CoapHandler handler= new CoapHandler()
+        // a repeated start by the same handler replaces its subscription
+        observations.subscribe( client, confirmable, responseHandler, new ObserveRegistry.Subscriber()
             {
                 @Override
-                public void onError()
-                {
-                    String uri= client.getURI();
-                    CoapObserveRelation relation= dynamicRelations.get( uri );
-                    if ( relation != null )
-                    {
-                        if ( relation.isCanceled() )
-                        {
-                            dynamicRelations.remove( uri );
-                            relation= client.observe( this );
-                            dynamicRelations.put( uri, relation );
-                        }
-                        else
-                        {
-                            relation.reregister();
-                        } ;
-                    }
-                    processMuleFlow( null, client, callback, Code.GET );
-                }
-
-                @Override
-                public void onLoad( CoapResponse response )
+                public void onNotification( Response response, Map< String, Object > properties )
                 {
-                    processMuleFlow( response, client, callback, Code.GET );
+                    processNotification( response, properties, client.getURI(), callback, conflater );
                 }
-
-            };
-
-        CoapObserveRelation relation= dynamicRelations.get( client.getURI() );
-        if ( relation != null )
-        {
-            // only one observe relation allowed per connector & path
-            // TODO maybe configurable whether proactive or not
-            relation.proactiveCancel();
-            dynamicRelations.remove( client.getURI() );
-        }
-        relation= client.observe( handler );
-        dynamicRelations.put( client.getURI(), relation );
-
+            }, true );
     }
 
     /**
@@ -657,12 +1178,7 @@ public class CoapClientConnector
     public void stopObserve( @Optional String host, @Optional Integer port, String path, @Optional List< String > queryParameters ) throws MalformedUriException 
     {
         String uri= getUri( host, port, path, toQueryString( queryParameters ) );
-        CoapObserveRelation relation= dynamicRelations.get( uri );
-        if ( relation != null )
-        {
-            relation.proactiveCancel();
-            dynamicRelations.remove( uri );
-        }
+        observations.unsubscribeDynamic( uri );
         //TODO warn when no relation found
     }
 
@@ -680,69 +1196,166 @@ public class CoapClientConnector
     public List< String > listObservations()
     {
         CopyOnWriteArrayList< String > list= new CopyOnWriteArrayList< String >();
-        list.addAll( dynamicRelations.keySet() );
+        list.addAll( observations.getDynamicUris() );
         return list;
     }
 
     /**
-     * Observe messagesource observes a CoAP resource on a Server.
-     * The observation is static - meaning the observation will be active as long as the Mule-flow is running.
-     * The resource url can be set, overriding connector configuration.
-     * @param confirmable When true (default), requests are sent confirmable.
-     * @param host The host address of the server.
-     * @param port The port the server is listening on.
-     * @param path The path of the resource.
-     * @param queryParameters List of query parameters.
-     * @return Updates on the resource the server sends are returned as a MuleMessage. 
-     * CoAP message contents - if any - are delivered as a byte array ( byte[] ) message payload. 
-     * When there are no CoAP contents the payload will be empty.
-     * @throws MalformedUriException no valid uri could be formed with given parameters
-     * @throws Exception Is thrown when an unexpected error occurs
+     * Statistics messageprocessor retrieves the performance counters of the connector.
+     * @return Map containing the counter values by name.
      */
-    @Source
-    public void observe
-    ( 
-        final SourceCallback callback,
-        @Default( value= "true" ) Boolean confirmable,
-        @Optional String host, 
-        @Optional Integer port, 
-        String path, 
-        @Optional List< String > queryParameters
-    ) throws MalformedUriException 
+    @Processor
+    public Map< String, Long > statistics()
     {
-        final CoapClient client= createClient( confirmable, host, port, path, toQueryString( queryParameters ) );
-
-        CoapObserveRelation relation= client.observe( new CoapHandler()
+        LinkedHashMap< String, Long > statistics= new LinkedHashMap< String, Long >();
+        if ( endpoints != null )
+        {
+            statistics.put( "endpoints", Long.valueOf( endpoints.size() ) );
+            statistics.put( "endpoints.shared.references", Long.valueOf( SharedEndpoints.getReferences( endpoints ) ) );
+            if ( endpoints.getMidTrackers() != null )
             {
-                @Override
-                public void onError()
+                long max= 0;
+                for ( int i= 0; i < endpoints.size(); i++ )
                 {
-                    String uri= client.getURI();
-                    CoapObserveRelation relation= staticRelations.get( uri );
-                    if ( relation != null )
+                    for ( Map.Entry< InetSocketAddress, Integer > entry : endpoints.getMidTrackers().get( i ).getUtilisation().entrySet() )
                     {
-                        if ( relation.isCanceled() )
+                        long percent= entry.getValue().longValue();
+                        max= Math.max( max, percent );
+                        if ( percent > 0 )
                         {
-                            staticRelations.remove( uri );
-                            relation= client.observe( this );
-                            staticRelations.put( uri, relation );
+                            statistics.put( "mid.utilisation." + i + "." + entry.getKey().getAddress().getHostAddress() + ":" + entry.getKey().getPort(), Long.valueOf( percent ) );
                         }
-                        else
-                        {
-                            relation.reregister();
-                        } ;
                     }
-                    processMuleFlow( null, client, callback, Code.GET );
-                }
-
-                @Override
-                public void onLoad( CoapResponse response )
-                {
-                    processMuleFlow( response, client, callback, Code.GET );
                 }
-
-            } );
-        staticRelations.put( client.getURI(), relation );
+                statistics.put( "mid.utilisation.max.percent", Long.valueOf( max ) );
+            }
+        }
+        if ( clients != null )
+        {
+            statistics.put( "clientcache.size", Long.valueOf( clients.size() ) );
+            statistics.put( "clientcache.hits", clients.getHits() );
+            statistics.put( "clientcache.misses", clients.getMisses() );
+            statistics.put( "clientcache.evictions", clients.getEvictions() );
+        }
+        if ( templates != null )
+        {
+            statistics.put( "uricache.size", Long.valueOf( templates.size() ) );
+            statistics.put( "uricache.hits", templates.getHits() );
+            statistics.put( "uricache.misses", templates.getMisses() );
+            statistics.put( "uricache.evictions", templates.getEvictions() );
+        }
+        if ( handlerExecutor != null )
+        {
+            statistics.put( "handler.queue.depth", Long.valueOf( handlerExecutor.getQueueDepth() ) );
+            statistics.put( "handler.active", Long.valueOf( handlerExecutor.getActiveCount() ) );
+            statistics.put( "handler.rejected", handlerExecutor.getRejectedCount() );
+            statistics.put( "handler.dropped", handlerExecutor.getDroppedCount() );
+        }
+        if ( observeExecutor != null )
+        {
+            statistics.put( "observe.queue.depth", Long.valueOf( observeExecutor.getQueueDepth() ) );
+            statistics.put( "observe.rejected", observeExecutor.getRejectedCount() );
+            statistics.put( "observe.dropped", observeExecutor.getDroppedCount() );
+        }
+        statistics.put( "observe.conflated", conflatedNotifications.get() );
+        statistics.put( "observe.relations", Long.valueOf( observations.getRelationCount() ) );
+        statistics.put( "observe.subscriptions", Long.valueOf( observations.getSubscriptionCount() ) );
+        RegistrationQueue registrationQueue= observations.getRegistrationQueue();
+        if ( registrationQueue != null )
+        {
+            statistics.put( "observe.registration.queued", Long.valueOf( registrationQueue.getQueued() ) );
+            statistics.put( "observe.registration.inprogress", Long.valueOf( registrationQueue.getInProgress() ) );
+            statistics.put( "observe.registration.completed", registrationQueue.getCompleted() );
+            statistics.put( "observe.registration.coverage.ms", registrationQueue.getLastSeriesMillis() );
+        }
+        statistics.put( "observe.reregistration.pending", Long.valueOf( observations.getReregistrationsPending() ) );
+        statistics.put( "observe.reregistration.active", Long.valueOf( observations.getReregistrationsActive() ) );
+        statistics.put( "observe.resumed", Long.valueOf( observations.getResumed() ) );
+        statistics.put( "observe.shutdown.cancelled", cancelledRelations.get() );
+        statistics.put( "observe.shutdown.abandoned", abandonedRelations.get() );
+        statistics.put( "requests.timedout", timedOutRequests.get() );
+        statistics.put( "blockwise.streamed", streamedResponses.get() );
+        statistics.put( "blockwise.uploads", uploadedRequests.get() );
+        EndpointPool pool= endpoints;
+        if ( pool != null && pool.getBlockCapture() != null )
+        {
+            statistics.put( "blockwise.streams.waiting", Long.valueOf( pool.getBlockCapture().getWaiting() ) );
+            statistics.put( "blockwise.streams.unclaimed", Long.valueOf( pool.getBlockCapture().getUnclaimed() ) );
+            statistics.put( "blockwise.guards", Long.valueOf( pool.getBlockCapture().getGuarded() ) );
+        }
+        statistics.put( "blockwise.budget.used", responseBudget.getUsed() );
+        statistics.put( "blockwise.budget.refused", responseBudget.getRefused() );
+        if ( responseCache != null )
+        {
+            long answered= responseCache.getHits() + responseCache.getRevalidations();
+            long lookups= responseCache.getHits() + responseCache.getMisses();
+            statistics.put( "responsecache.size", Long.valueOf( responseCache.size() ) );
+            statistics.put( "responsecache.bytes", responseCache.getBytes() );
+            statistics.put( "responsecache.hits", responseCache.getHits() );
+            statistics.put( "responsecache.revalidations", responseCache.getRevalidations() );
+            statistics.put( "responsecache.misses", responseCache.getMisses() );
+            statistics.put( "responsecache.evictions", responseCache.getEvictions() );
+            statistics.put( "responsecache.refreshes", responseCache.getRefreshes() );
+            statistics.put( "responsecache.hitratio.percent", Long.valueOf( lookups == 0 ? 0 : answered * 100 / lookups ) );
+        }
+        if ( coalescer != null )
+        {
+            statistics.put( "coalesce.hits", coalescer.getHits() );
+            statistics.put( "coalesce.flights", Long.valueOf( coalescer.getFlights() ) );
+        }
+        if ( inFlightLimiter != null )
+        {
+            statistics.put( "inflight", Long.valueOf( inFlightLimiter.getInFlight() ) );
+            statistics.put( "inflight.queued", Long.valueOf( inFlightLimiter.getQueued() ) );
+            statistics.put( "inflight.refused", inFlightLimiter.getRefused() );
+            for ( Map.Entry< String, Integer > entry : inFlightLimiter.getInFlightByDestination().entrySet() )
+            {
+                statistics.put( "inflight.host." + entry.getKey(), Long.valueOf( entry.getValue() ) );
+            }
+        }
+        return statistics;
+    }
+
+    /**
+     * Observe messagesource observes a CoAP resource on a Server.
+     * The observation is static - meaning the observation will be active as long as the Mule-flow is running.
+     * The resource url can be set, overriding connector configuration.
+     * @param confirmable When true (default), requests are sent confirmable.
+     * @param host The host address of the server.
+     * @param port The port the server is listening on.
+     * @param path The path of the resource.
+     * @param queryParameters List of query parameters.
+     * @param conflate When true, notifications that arrive while the previous one is being processed 
+     * are replaced by the newest, so only the latest resource state is processed.
+     * @return Updates on the resource the server sends are returned as a MuleMessage. 
+     * CoAP message contents - if any - are delivered as a byte array ( byte[] ) message payload. 
+     * When there are no CoAP contents the payload will be empty.
+     * @throws MalformedUriException no valid uri could be formed with given parameters
+     * @throws Exception Is thrown when an unexpected error occurs
+     */
+    @Source
+    public void observe
+    ( 
+        final SourceCallback callback,
+        @Default( value= "true" ) Boolean confirmable,
+        @Optional String host, 
+        @Optional Integer port, 
+        String path, 
+        @Optional List< String > queryParameters,
+        @Default( value= "false" ) Boolean conflate
+    ) throws MalformedUriException 
+    {
+        final CoapClient client= createClient( confirmable, host, port, path, toQueryString( queryParameters ) );
+        final Conflater conflater= ( conflate ? new Conflater( client.getURI(), conflatedNotifications ) : null );
+
+        observations.subscribe( client, confirmable, callback, new ObserveRegistry.Subscriber()
+            {
+                @Override
+                public void onNotification( Response response, Map< String, Object > properties )
+                {
+                    processNotification( response, properties, client.getURI(), callback, conflater );
+                }
+            }, false );
     }
 
     /**
@@ -819,6 +1432,71 @@ public class CoapClientConnector
         return getURI( host, port, path, query ).toString();
     }
 
+    /**
+     * Get the compiled request uri of the given CoAP resource. 
+     * Templates are cached, so the uri is compiled once for operations that address the same resource.
+     * @param host The host address of the server.
+     * @param port The port the server is listening on.
+     * @param path The path of the resource.
+     * @param queryParameters List of query parameters.
+     * @return The template. 
+     * @throws MalformedUriException cannot form valid uri with given parameters
+     */     
+    private RequestTemplate getTemplate( String host, Integer port, String path, List< String > queryParameters ) throws MalformedUriException 
+    {
+        RequestTemplate.Key key= new RequestTemplate.Key( host, port, path, queryParameters );
+        RequestTemplate template= templates.get( key );
+        if ( template == null )
+        {
+            template= RequestTemplate.compile( getURI( host, port, path, toQueryString( queryParameters ) ), config.getAddressTtl() );
+            RequestTemplate cached= templates.putIfAbsent( key.stable(), template );
+            if ( cached != null )
+            {
+                template= cached;
+            }
+        }
+        return template;
+    }
+
+    /**
+     * Get the compiled request uri of a target given as map of uri parameters.
+     * @param target The map containing host, port, path and queryParameters of the resource.
+     * @return The template. 
+     * @throws MalformedUriException cannot form valid uri with given parameters
+     */     
+    private RequestTemplate getTemplate( Map< String, Object > target ) throws MalformedUriException 
+    {
+        Object host= target.get( "host" );
+        Object port= target.get( "port" );
+        Object path= target.get( "path" );
+        Object queryParameters= target.get( "queryParameters" );
+        if ( path == null ) throw new MalformedUriException( "target has no path: { " + target + " }" );
+
+        Integer targetPort;
+        try
+        {
+            targetPort= ( port == null ? null : port instanceof Number ? Integer.valueOf( ( (Number) port ).intValue() ) : Integer.valueOf( port.toString() ) );
+        }
+        catch ( NumberFormatException e )
+        {
+            throw new MalformedUriException( "target has invalid port: { " + target + " }", e );
+        }
+        List< String > targetQueryParameters= null;
+        if ( queryParameters instanceof List )
+        {
+            targetQueryParameters= new ArrayList< String >();
+            for ( Object parameter : (List< ? >) queryParameters )
+            {
+                targetQueryParameters.add( String.valueOf( parameter ) );
+            }
+        }
+        else if ( queryParameters != null )
+        {
+            targetQueryParameters= Arrays.asList( queryParameters.toString().split( "&" ) );
+        }
+        return getTemplate( ( host == null ? null : host.toString() ), targetPort, path.toString(), targetQueryParameters );
+    }
+
     /**
      * Get a querystring containing containing query parameters that can be use as part of a an Uri-string.
      * @param queryParameters List of query parameters.
@@ -840,7 +1518,9 @@ public class CoapClientConnector
     }
 
     /**
-     * Create a client object that can be used to issue requests.
+     * Get a client object that can be used to issue requests.
+     * Clients are cached, so repeated requests on the same resource reuse the client 
+     * and the uri is not built again.
      * @param confirmable 
      * @param host The host address of the server.
      * @param port The port the server is listening on.
@@ -852,8 +1532,44 @@ public class CoapClientConnector
      */     
     private CoapClient createClient( Boolean confirmable, String host, Integer port, String path, String query ) throws MalformedUriException
     {
-        CoapClient client= new CoapClient( getUri( host, port, path, query ) );
-        client.setEndpoint( endpoint );
+        LruCache< ClientKey, CoapClient > cache= clients;
+        // not started, the client is not cached
+        if ( cache == null ) return newClient( confirmable, host, port, path, query );
+        ClientKey key= new ClientKey( ( config.isSecure() ? CoAP.COAP_SECURE_URI_SCHEME : CoAP.COAP_URI_SCHEME ), host, port, path, query, confirmable );
+        CoapClient client= cache.get( key );
+        if ( client == null )
+        {
+            client= newClient( confirmable, host, port, path, query );
+            CoapClient cached= cache.putIfAbsent( key, client );
+            if ( cached != null )
+            {
+                client= cached;
+            }
+        }
+        return client;
+    }
+
+    /**
+     * Create a new client object that can be used to issue requests.
+     * @param confirmable 
+     * @param host The host address of the server.
+     * @param port The port the server is listening on.
+     * @param path The path of the resource.
+     * @param query String containing query parameters.
+     * @return The client object.
+     * @exception MalformedEndpointException The client uri is invalid.
+     * @throws MalformedUriException 
+     */     
+    private CoapClient newClient( Boolean confirmable, String host, Integer port, String path, String query ) throws MalformedUriException
+    {
+        URI uri= getURI( host, port, path, query );
+        CoapClient client= new CoapClient( uri.toString() );
+        CoapEndpoint endpoint= endpointFor( new InetSocketAddress( uri.getHost(), uri.getPort() ).getAddress(), uri.getPort() );
+        if ( endpoint != null )
+        {
+            client.setEndpoint( endpoint );
+        }
+        // else not started, the client uses the default endpoint
         if ( confirmable)
         {
             client.useCONs();
@@ -874,12 +1590,16 @@ public class CoapClientConnector
      * @param port The port the server is listening on.
      * @param path The path of the resource.
      * @param queryParameters List of query parameters.
+     * @param timeout Optional maximum time in milliseconds to wait for the response.
+     * @param maxResponseSize Optional maximum size in bytes of a blockwise response.
      * @param handlerName Optional name of the handler. Use when the response should be handled asynchronously 
-     * @return The response Mule event containing the response message.
+     * @return The response Mule event containing the response message. 
+     * When the flow is non-blocking a void event is returned and the flow is resumed when the response arrives.
      * @throws MalformedUriException no valid coap uri could be built with given parameters
      * @throws HandlerException handler not found
+     * @throws InFlightLimitException the request is refused by the in-flight limit
      */    
-    // TODO add custom timeout, endpoint, networkconfig?
+    // TODO add custom endpoint, networkconfig?
     private MuleEvent doRequest(
         MuleEvent event,
         final Code requestCode,
@@ -888,188 +1608,893 @@ public class CoapClientConnector
         Integer port,
         String path,
         List< String > queryParameters,
-        String handlerName ) throws MalformedUriException, HandlerException
+        Long timeout,
+        Long maxResponseSize,
+        String handlerName ) throws MalformedUriException, HandlerException, InFlightLimitException
     {
-        CoapHandler handler= null;
+        SourceCallback callback= null;
 
-        final CoapClient client= createClient( confirmable, host, port, path, toQueryString( queryParameters ) );
+        final RequestTemplate template= getTemplate( host, port, path, queryParameters );
  
         // build request
-        MuleMessage muleMessage= event.getMessage();
-        
-        Request request= new Request( requestCode );
+        Request request= createRequest( event.getMessage(), event.getMessage().getPayload(), requestCode, confirmable, template, true );
+        long maxSize= ( maxResponseSize != null ? maxResponseSize.longValue() : config.getMaxResponseSize() );
+        boolean streamed= isStreamed( request );
+
+        if ( handlerName != null )
+        {
+            callback= handlers.get( handlerName );
+            // verify handler existence
+            if ( callback == null ) throw new HandlerException( "referenced handler { " + handlerName + " } not found");
+        }
+        ResponseCache.Lookup lookup= ( streamed ? null : lookupResponse( request ) );
+        if ( lookup != null && lookup.getFreshResponse() != null )
+        {
+            // answered by cache
+            if ( callback == null )
+            {
+                return createProcessorMuleEvent( lookup.getFreshResponse(), template.getUri(), requestCode, event );
+            }
+            processMuleFlow( lookup.getFreshResponse(), template.getUri(), callback, requestCode );
+            return( event );
+        }
+        // registered only now, so a request that is refused or answered by the cache leaves nothing registered
+        BlockInputStream stream= ( streamed ? attachStream( request, template, maxSize ) : null );
+        ResponseGuard guard= ( streamed ? null : attachGuard( request, template, maxSize ) );
+        if ( callback == null && isNonBlocking( event ) )
+        {
+            // send out request, the flow is resumed when the response arrives
+            request.addMessageObserver( createReplyToObserver( template.getUri(), requestCode, event, lookup ) );
+            if ( streamed || !coalesce( request ) )
+            {
+                dispatch( request, true, stream, guard );
+            }
+            // armed once accepted, a refused request must not be cancelled later
+            scheduleTimeout( request, timeout );
+            return NonBlockingVoidMuleEvent.getInstance();
+        }
+        else if ( callback == null )
+        {
+            // send out synchronous request
+            if ( streamed || !coalesce( request ) )
+            {
+                dispatch( request, false, stream, guard );
+            }
+            Response response= null;
+            try
+            {
+                response= ( isTimeout( timeout ) ? request.waitForResponse( timeout ) : request.waitForResponse() );
+            }
+            catch ( InterruptedException e )
+            {
+                Thread.currentThread().interrupt();
+            }
+            if ( response == null )
+            {
+                if ( !request.isCanceled() && !request.isRejected() && !request.isTimedOut() )
+                {
+                    timedOutRequests.incrementAndGet();
+                }
+                // timed out, cancel request so the exchange is cleaned up
+                request.cancel();
+            }
+            response= completeResponse( lookup, response );
+            // return response to Mule flow
+            return createProcessorMuleEvent( response, template.getUri(), requestCode, event );
+        }
+        else
+        {
+            // asynchronous request
+            request.addMessageObserver( createResponseObserver( template.getUri(), callback, requestCode, lookup ) );
+            if ( streamed || !coalesce( request ) )
+            {
+                dispatch( request, true, stream, guard );
+            }
+            // armed once accepted, a refused request must not be cancelled later
+            scheduleTimeout( request, timeout );
+            // return unchanged event to Mule flow
+            // TODO maybe VoidMuleEvent
+            return( event );
+        }
 
-        Object requestPayload= muleMessage.getPayload();
+    }
 
-        if ( requestPayload != null && ! NullPayload.getInstance().equals( requestPayload ) )
+    /**
+     * Establish whether the blockwise response to a request is streamed, which is when streaming or parallel block retrieval is on 
+     * and the request is a GET request.
+     * Streamed requests bypass the response cache and are not coalesced.
+     * @param request The addressed request.
+     * @return True when the response will be streamed if it is blockwise.
+     */
+    private boolean isStreamed( Request request )
+    {
+        EndpointPool pool= endpoints;
+        return ( config.isStreamResponses() || config.getBlockwiseWindow() > 1 ) && request.getCode() == Code.GET && pool != null && pool.getBlockCapture() != null;
+    }
+
+    /**
+     * Have the blockwise response to a GET request streamed.
+     * Must be called right before the request is sent, as the stream stays registered until the request completes.
+     * @param request The addressed request.
+     * @param template The compiled uri of the resource.
+     * @param maxSize The maximum size of the response in bytes, 0 when unlimited.
+     * @return The stream the response will be streamed in if it is blockwise.
+     */
+    private BlockInputStream attachStream( Request request, RequestTemplate template, long maxSize )
+    {
+        EndpointPool pool= endpoints;
+        BlockInputStream stream= new BlockInputStream(
+            endpointFor( request ),
+            request,
+            template.getUri(),
+            config.getStreamBufferBlocks(),
+            config.getBlockwiseWindow(),
+            blockTimeout,
+            maxSize,
+            responseBudget );
+        stream.attach( pool.getBlockCapture() );
+        stream.closeWhenIdle( scheduler, config.getStreamIdleTimeout() );
+        return stream;
+    }
+
+    /**
+     * Have the blocks of a response the endpoint reassembles checked against the maximum size and the memory budget.
+     * The guard is only attached when a maximum size or a budget applies. 
+     * Lazily uploaded requests are not guarded, their responses are delivered by the last block request.
+     * Must be called right before the request is sent, as the guard stays registered until the request completes.
+     * @param request The addressed request.
+     * @param template The compiled uri of the resource.
+     * @param maxSize The maximum size of the response in bytes, 0 when unlimited.
+     * @return The guard, null when the response is not guarded.
+     */
+    private ResponseGuard attachGuard( Request request, RequestTemplate template, long maxSize )
+    {
+        EndpointPool pool= endpoints;
+        if ( ( maxSize <= 0L && responseBudget.getLimit() == 0L ) || request instanceof UploadRequest || pool == null || pool.getBlockCapture() == null ) return null;
+        ResponseGuard guard= new ResponseGuard( request, template.getUri(), maxSize, responseBudget );
+        guard.attach( pool.getBlockCapture() );
+        return guard;
+    }
+
+    /**
+     * Claim the stream carrying the body of a streamed response.
+     * @param response The response.
+     * @return The stream, null when the response is not streamed.
+     */
+    private BlockInputStream claimStream( Response response )
+    {
+        EndpointPool pool= endpoints;
+        if ( pool == null || pool.getBlockCapture() == null || !response.getOptions().hasBlock2() ) return null;
+        BlockInputStream stream= pool.getBlockCapture().claim( response );
+        if ( stream != null )
         {
-            if ( byte[].class.isAssignableFrom( requestPayload.getClass() ) )
+            streamedResponses.incrementAndGet();
+        }
+        return stream;
+    }
+
+    /**
+     * Send a request, within the in-flight limits when limited. 
+     * When the request is refused, its stream and guard are detached so they do not wait for a response that never comes.
+     * @param request The addressed request.
+     * @param limited When true the in-flight limits apply.
+     * @param stream The stream of the response, null when not streamed.
+     * @param guard The guard of the response, null when not guarded.
+     * @throws InFlightLimitException the request is refused by the in-flight limit
+     */
+    private void dispatch( Request request, boolean limited, BlockInputStream stream, ResponseGuard guard ) throws InFlightLimitException
+    {
+        try
+        {
+            if ( limited )
             {
-                request.setPayload( (byte[]) requestPayload );
+                sendCoalesced( request );
             }
             else
             {
-                request.setPayload( requestPayload.toString() );
+                transmit( request );
             }
         }
-        // TODO improve efficiency
-        HashMap< String, Object > outboundProps= new HashMap< String, Object >();
-        for ( String propName : event.getMessage().getOutboundPropertyNames() )
+        catch ( InFlightLimitException | RuntimeException e )
         {
-            outboundProps.put( propName, muleMessage.getOutboundProperty( propName ) );
+            if ( stream != null )
+            {
+                stream.detach();
+            }
+            if ( guard != null )
+            {
+                guard.detach();
+            }
+            throw e;
         }
-        Options.fillOptionSet( request.getOptions(), outboundProps, false );
-        // is done via Client
-        // if ( queryParameters != null )
-        // {
-        // //add query parameters
-        // request.getOptions().getUriQuery().addAll( queryParameters );
-        // }
-        String mimeType= muleMessage.getDataType().getMimeType();
-        // use mimetype when provided but do not overrule outbound props
-        if ( mimeType != null && !request.getOptions().hasContentFormat() )
+    }
+
+    /**
+     * Send a request on its endpoint. A request with a lazily read body is uploaded block by block.
+     * @param request The addressed request.
+     */
+    private void transmit( Request request )
+    {
+        EndpointPool pool= endpoints;
+        if ( pool == null )
         {
-            request.getOptions().setContentFormat( MediaTypeRegistry.parse( mimeType ) );
+            // not started, a lazily read body cannot be uploaded without the block capture
+            if ( request instanceof UploadRequest ) throw new IllegalStateException( "upload refused, connector is not started" );
+            EndpointManager.getEndpointManager().getDefaultEndpoint().sendRequest( request );
         }
-        if ( handlerName != null )
+        else if ( request instanceof UploadRequest )
         {
-            final SourceCallback callback= handlers.get( handlerName );
-            // verify handler existence
-            if ( callback == null ) throw new HandlerException( "referenced handler { " + handlerName + " } not found");
-            handler= createHandler( client, callback, requestCode );
+            uploadedRequests.incrementAndGet();
+            ( (UploadRequest) request ).start( pool.select( request.getDestination(), request.getDestinationPort() ), pool.getBlockCapture(), uploadSzx );
         }
-        if ( handler == null )
+        else
         {
-            // send out synchronous request
-            CoapResponse response= client.advanced( request );
+            pool.select( request.getDestination(), request.getDestinationPort() ).sendRequest( request );
+        }
+    }
 
-            // return response to Mule flow
-            return createProcessorMuleEvent( response, client, requestCode, event );
+    /**
+     * Get the endpoint to issue the request on.
+     * @param request The addressed request.
+     * @return The endpoint.
+     */
+    private CoapEndpoint endpointFor( Request request )
+    {
+        return endpointFor( request.getDestination(), request.getDestinationPort() );
+    }
+
+    /**
+     * Get the endpoint for communication with a destination.
+     * The same destination is always served by the same endpoint.
+     * @param address The address of the destination.
+     * @param port The port of the destination.
+     * @return The endpoint, null when the connector is not started.
+     */
+    private CoapEndpoint endpointFor( InetAddress address, int port )
+    {
+        EndpointPool pool= endpoints;
+        return ( pool == null ? null : pool.select( address, port ) );
+    }
+
+    /**
+     * Establish whether a timeout is given.
+     * @param timeout The timeout in milliseconds, null or not positive when not set.
+     * @return True when the timeout is set.
+     */
+    private static boolean isTimeout( Long timeout )
+    {
+        return timeout != null && timeout > 0;
+    }
+
+    /**
+     * Look a GET request up in the response cache, when caching is on.
+     * Observe requests are not cached.
+     * @param request The addressed request.
+     * @return The lookup, or null when the request is not cached.
+     */
+    private ResponseCache.Lookup lookupResponse( Request request )
+    {
+        ResponseCache cache= responseCache;
+        if ( cache == null || request.getCode() != Code.GET || request.getOptions().hasObserve() ) return null;
+        return cache.lookup( request );
+    }
+
+    /**
+     * Complete the cache lookup with the response of the server.
+     * @param lookup The lookup, null when the request is not cached.
+     * @param response The response, null when none was received.
+     * @return The response to deliver.
+     */
+    private static Response completeResponse( ResponseCache.Lookup lookup, Response response )
+    {
+        return ( lookup == null ? response : lookup.complete( response ) );
+    }
+
+    /**
+     * Join a GET request with an identical GET request in flight, when coalescing is on.
+     * A joined request is not sent, it completes with the outcome of the request it joined.
+     * Observe requests are never joined.
+     * @param request The addressed request, with its observers added.
+     * @return True when the request joined and must not be sent.
+     */
+    private boolean coalesce( Request request )
+    {
+        RequestCoalescer requestCoalescer= coalescer;
+        if ( requestCoalescer == null || request.getCode() != Code.GET || request.getOptions().hasObserve() ) return false;
+        return requestCoalescer.join( request );
+    }
+
+    /**
+     * Send a request that others may have joined within the in-flight limits. 
+     * When the request is refused, the requests that joined it are cancelled.
+     * @param request The addressed request.
+     * @throws InFlightLimitException the request is refused by the in-flight limit
+     */
+    private void sendCoalesced( Request request ) throws InFlightLimitException
+    {
+        try
+        {
+            sendLimited( request );
         }
-        else
+        catch ( InFlightLimitException e )
         {
-            // asynchronous request
-            client.advanced( handler, request );
-            // return unchanged event to Mule flow
-            // TODO maybe VoidMuleEvent
-            return( event );
+            RequestCoalescer requestCoalescer= coalescer;
+            if ( requestCoalescer != null )
+            {
+                requestCoalescer.abort( request );
+            }
+            throw e;
         }
+    }
 
+    /**
+     * Send a request within the in-flight limits. 
+     * The slot of the request is released when it completes, or when it is cancelled before it was sent.
+     * @param request The addressed request.
+     * @throws InFlightLimitException the request is refused by the in-flight limit
+     */
+    private void sendLimited( final Request request ) throws InFlightLimitException
+    {
+        final InFlightLimiter limiter= inFlightLimiter;
+        if ( limiter == null )
+        {
+            transmit( request );
+            return;
+        }
+        final String destination= request.getDestination().getHostAddress();
+        final AtomicBoolean acquired= new AtomicBoolean( false );
+        request.addMessageObserver( new MessageObserverAdapter()
+            {
+                @Override
+                public void onResponse( Response response )
+                {
+                    complete();
+                }
+
+                @Override
+                public void onReject()
+                {
+                    complete();
+                }
+
+                @Override
+                public void onTimeout()
+                {
+                    complete();
+                }
+
+                @Override
+                public void onCancel()
+                {
+                    complete();
+                }
+
+                private void complete()
+                {
+                    if ( acquired.compareAndSet( true, false ) )
+                    {
+                        limiter.release( destination );
+                    }
+                }
+            } );
+        limiter.submit( destination, new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    acquired.set( true );
+                    if ( !request.isCanceled() )
+                    {
+                        transmit( request );
+                    }
+                    else if ( acquired.compareAndSet( true, false ) )
+                    {
+                        // cancelled while queued
+                        limiter.release( destination );
+                    }
+                }
+            } );
+    }
+
+    /**
+     * Schedule cancellation of the request when no response has arrived within the timeout.
+     * Cancellation completes the exchange, so its resources are freed and the observers are notified.
+     * @param request The request.
+     * @param timeout The timeout in milliseconds, null or not positive when not set.
+     */
+    private void scheduleTimeout( final Request request, Long timeout )
+    {
+        ScheduledThreadPoolExecutor timer= scheduler;
+        if ( !isTimeout( timeout ) || timer == null ) return;
+
+        final ScheduledFuture< ? > future= timer.schedule( new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    if ( request.getResponse() == null && !request.isCanceled() )
+                    {
+                        timedOutRequests.incrementAndGet();
+                        request.cancel();
+                    }
+                }
+            }, timeout, TimeUnit.MILLISECONDS );
+        request.addMessageObserver( new MessageObserverAdapter()
+            {
+                @Override
+                public void onResponse( Response response )
+                {
+                    future.cancel( false );
+                }
+
+                @Override
+                public void onReject()
+                {
+                    future.cancel( false );
+                }
+
+                @Override
+                public void onTimeout()
+                {
+                    future.cancel( false );
+                }
+
+                @Override
+                public void onCancel()
+                {
+                    future.cancel( false );
+                }
+            } );
     }
 
     /**
-     * Create a Handler of CoAP responses.
-     * @param client  The Coap client that produced the response
+     * Create an Observer of CoAP responses that delivers the response to a Handler.
+     * @param requestUri The uri of the request
      * @param callback The Listening Messageprocessor that needs to be called
      * @param requestCode The coap request code from the request context
-     * @return
+     * @param lookup The response cache lookup, null when the request is not cached
+     * @return The observer.
      */
-    private CoapHandler createHandler( final CoapClient client, final SourceCallback callback, final Code requestCode )
+    private MessageObserverAdapter createResponseObserver( final String requestUri, final SourceCallback callback, final Code requestCode, final ResponseCache.Lookup lookup )
     {
-        return new CoapHandler(  )
+        return new MessageObserverAdapter()
         {
             @Override
-            public void onError()
+            public void onResponse( Response response )
             {
-                processMuleFlow( null, client, callback, requestCode );   
+                processMuleFlow( completeResponse( lookup, response ), requestUri, callback, requestCode );
             }
-    
+
             @Override
-            public void onLoad( CoapResponse response )
+            public void onReject()
             {
-                processMuleFlow( response, client, callback, requestCode );
-           }
-    
+                processMuleFlow( null, requestUri, callback, requestCode );
+            }
+
+            @Override
+            public void onTimeout()
+            {
+                processMuleFlow( null, requestUri, callback, requestCode );
+            }
+
+            @Override
+            public void onCancel()
+            {
+                processMuleFlow( null, requestUri, callback, requestCode );
+            }
         };
     }
     
+    /**
+     * Create a request from the Mule message, addressed to the resource of the template.
+     * The message payload becomes the request payload, outbound properties named coap.opt.* become CoAP options.
+     * Input stream, byte buffer and file payloads of PUT and POST requests can be read lazily while they are uploaded.
+     * @param muleMessage The message to send.
+     * @param requestPayload The payload of the message to send.
+     * @param requestCode The request type.
+     * @param confirmable When true the request must be confirmed by the server.
+     * @param template The compiled uri of the resource.
+     * @param lazy When true the payload may be read lazily, the request must then be sent using transmit.
+     * @return The request.
+     */
+    private Request createRequest( MuleMessage muleMessage, Object requestPayload, Code requestCode, Boolean confirmable, RequestTemplate template, boolean lazy )
+    {
+        Request request;
+
+        if ( lazy && ( requestCode == Code.PUT || requestCode == Code.POST ) && UploadRequest.isUploadable( requestPayload ) )
+        {
+            request= new UploadRequest( requestCode, requestPayload );
+        }
+        else
+        {
+            request= new Request( requestCode );
+            if ( requestPayload != null && ! NullPayload.getInstance().equals( requestPayload ) )
+            {
+                if ( byte[].class.isAssignableFrom( requestPayload.getClass() ) )
+                {
+                    request.setPayload( (byte[]) requestPayload );
+                }
+                else
+                {
+                    request.setPayload( requestPayload.toString() );
+                }
+            }
+        }
+        request.setConfirmable( confirmable );
+        // only option properties are copied, the map is not created when there are none
+        HashMap< String, Object > optionProps= null;
+        for ( String propName : muleMessage.getOutboundPropertyNames() )
+        {
+            if ( propName.startsWith( OPTION_PROPERTY_PREFIX ) )
+            {
+                if ( optionProps == null ) optionProps= new HashMap< String, Object >();
+                optionProps.put( propName, muleMessage.getOutboundProperty( propName ) );
+            }
+        }
+        if ( optionProps != null )
+        {
+            Options.fillOptionSet( request.getOptions(), optionProps, false );
+        }
+        // address the request, uri parameters of the operation overrule outbound props
+        template.applyTo( request );
+
+        String mimeType= muleMessage.getDataType().getMimeType();
+        // use mimetype when provided but do not overrule outbound props
+        if ( mimeType != null && !request.getOptions().hasContentFormat() )
+        {
+            request.getOptions().setContentFormat( MediaTypeRegistry.parse( mimeType ) );
+        }
+        return request;
+    }
+
+    /**
+     * Read an input stream, byte buffer or file payload into a byte array.
+     * Other payloads are returned unchanged.
+     * @param payload The payload to read.
+     * @return The payload, as byte array when it was read.
+     * @throws IOException when the payload could not be read.
+     */
+    private static Object readPayload( Object payload ) throws IOException
+    {
+        if ( payload instanceof ByteBuffer )
+        {
+            ByteBuffer buffer= ( (ByteBuffer) payload ).duplicate();
+            byte[] bytes= new byte [buffer.remaining()];
+            buffer.get( bytes );
+            return bytes;
+        }
+        if ( payload instanceof InputStream || payload instanceof File )
+        {
+            InputStream in= ( payload instanceof File ? new FileInputStream( (File) payload ) : (InputStream) payload );
+            try
+            {
+                return IOUtils.toByteArray( in );
+            }
+            finally
+            {
+                IOUtils.closeQuietly( in );
+            }
+        }
+        return payload;
+    }
+
+    /**
+     * Establish whether the flow processes the event non-blocking, 
+     * so the response can be delivered by the reply-to handler of the event.
+     * @param event The input event.
+     * @return True when the request must not block the flow thread.
+     */
+    private boolean isNonBlocking( MuleEvent event )
+    {
+        return event.isAllowNonBlocking() && event.getReplyToHandler() != null;
+    }
+
+    /**
+     * Create an Observer of CoAP responses that resumes the non-blocking flow the request was issued from.
+     * The flow is resumed once, with the response or, when there is none, with an unsuccessful result.
+     * @param requestUri The uri of the request
+     * @param requestCode The coap request code from the request context
+     * @param event The input event of the request operation.
+     * @param lookup The response cache lookup, null when the request is not cached
+     * @return The observer.
+     */
+    private MessageObserverAdapter createReplyToObserver( final String requestUri, final Code requestCode, final MuleEvent event, final ResponseCache.Lookup lookup )
+    {
+        final AtomicBoolean resumed= new AtomicBoolean( false );
+        return new MessageObserverAdapter()
+        {
+            @Override
+            public void onResponse( Response response )
+            {
+                resume( completeResponse( lookup, response ) );
+            }
+
+            @Override
+            public void onReject()
+            {
+                resume( null );
+            }
+
+            @Override
+            public void onTimeout()
+            {
+                resume( null );
+            }
+
+            @Override
+            public void onCancel()
+            {
+                resume( null );
+            }
+
+            private void resume( final Response response )
+            {
+                if ( resumed.compareAndSet( false, true ) )
+                {
+                    DroppableTask task= new DroppableTask()
+                        {
+                            @Override
+                            public void run()
+                            {
+                                resumeMuleFlow( response, requestUri, requestCode, event );
+                            }
+
+                            @Override
+                            public void onDrop()
+                            {
+                                // the suspended flow must be completed
+                                logger.warn( "handler queue full, response on { " + requestUri + " } dropped" );
+                                event.getReplyToHandler().processExceptionReplyTo(
+                                    new MessagingException( MessageFactory.createStaticMessage( "response on { " + requestUri + " } dropped, handler queue full" ), event ),
+                                    null );
+                            }
+                        };
+                    HandlerExecutor executor= handlerExecutor;
+                    if ( executor == null )
+                    {
+                        task.run();
+                    }
+                    else
+                    {
+                        executor.execute( task );
+                    }
+                }
+            }
+        };
+    }
+
+    /**
+     * Resume a non-blocking flow with the response of the request.
+     * @param response The Coap response, null when none was received
+     * @param requestUri The uri of the request that produced the response
+     * @param requestCode The coap request code from the request context
+     * @param event The input event of the request operation.
+     */
+    private void resumeMuleFlow( Response response, String requestUri, Code requestCode, MuleEvent event )
+    {
+        ReplyToHandler replyToHandler= event.getReplyToHandler();
+        try
+        {
+            replyToHandler.processReplyTo( createProcessorMuleEvent( response, requestUri, requestCode, event ), null, null );
+        }
+        catch ( MuleException e )
+        {
+            replyToHandler.processExceptionReplyTo( new MessagingException( event, e ), null );
+        }
+    }
 
-    
     /**
      * Create response MuleMessage. The payload will be set to the CoAP payload. 
      * CoAP metadata including CoAP options will be added as inbound properties.  
      * @param response the CoAP response that needs to be delivered into the Mule flow
-     * @param client The client object tht issued the request.
+     * @param requestUri The uri of the request that was issued.
      * @param requestCode The type of request that was issued.
      * @return MuleMessage created.
      */
-    private MuleMessage createMuleMessage( CoapResponse response, CoapClient client, Code requestCode )
+    private MuleMessage createMuleMessage( Response response, String requestUri, Code requestCode )
+    {
+        return createMuleMessage( response, createInboundProperties( response, requestUri, requestCode ) );
+    }
+
+    /**
+     * Create the inbound properties for a response.
+     * @param response the CoAP response, null when no response was received
+     * @param requestUri The uri of the request that was issued.
+     * @param requestCode The type of request that was issued.
+     * @return The inbound properties.
+     */
+    private Map< String, Object > createInboundProperties( Response response, String requestUri, Code requestCode )
     {
-        DefaultMuleMessage result= null;
         HashMap< String, Object > inboundProps= new HashMap< String, Object >();
+        inboundProps.put( PropertyNames.COAP_REQUEST_CODE, requestCode );
+        inboundProps.put( PropertyNames.COAP_REQUEST_URI, requestUri );
         if ( response == null )
         {
             // timeout or request rejected by server
-
-            inboundProps.put( PropertyNames.COAP_REQUEST_CODE, requestCode );
-            inboundProps.put( PropertyNames.COAP_REQUEST_URI, client.getURI() );
             inboundProps.put( PropertyNames.COAP_RESPONSE_SUCCESS, new Boolean( false ) );
-            result= new DefaultMuleMessage( null, inboundProps, null, null, muleContext );
         }
         else
         {
             //a response received from server
-        	
-        	inboundProps.put( PropertyNames.COAP_REQUEST_CODE, requestCode );
-            inboundProps.put( PropertyNames.COAP_REQUEST_URI, client.getURI() );
-            inboundProps.put( PropertyNames.COAP_RESPONSE_SUCCESS, new Boolean( response.isSuccess() ) );
+            inboundProps.put( PropertyNames.COAP_RESPONSE_SUCCESS, new Boolean( ResponseCode.isSuccess( response.getCode() ) ) );
             //TODO: response code toString gives number format (9.99), this is not in line with server connector that uses text format for the property
             inboundProps.put( PropertyNames.COAP_RESPONSE_CODE, response.getCode().toString() );
             Options.fillPropertyMap( response.getOptions(), inboundProps, logger, "Response option could not be converted into inbound property" );
+        }
+        return inboundProps;
+    }
 
-            int contentFormat= response.getOptions().getContentFormat();
-            if ( contentFormat == MediaTypeRegistry.UNDEFINED )
+    /**
+     * Create a MuleMessage from a response and its decoded inbound properties. 
+     * The property map is not changed, so it can be shared by several messages.
+     * The payload of a streamed response is an input stream delivering the blocks as they arrive.
+     * When streaming is off, a response retrieved by parallel block requests is reassembled into a byte array.
+     * @param response the CoAP response, null when no response was received
+     * @param inboundProps The inbound properties.
+     * @return MuleMessage created.
+     */
+    private MuleMessage createMuleMessage( Response response, Map< String, Object > inboundProps )
+    {
+        if ( response == null )
+        {
+            return new DefaultMuleMessage( null, inboundProps, null, null, muleContext );
+        }
+        BlockInputStream stream= claimStream( response );
+        if ( stream != null && stream.isFailed() )
+        {
+            // rejected on the first block
+            stream.close();
+            logger.warn( "blockwise response on { " + inboundProps.get( PropertyNames.COAP_REQUEST_URI ) + " } rejected" );
+            HashMap< String, Object > failedProps= new HashMap< String, Object >( inboundProps );
+            failedProps.put( PropertyNames.COAP_RESPONSE_SUCCESS, new Boolean( false ) );
+            return new DefaultMuleMessage( null, failedProps, null, null, muleContext );
+        }
+        Object payload= ( stream == null ? response.getPayload() : stream );
+        if ( stream != null && !config.isStreamResponses() )
+        {
+            try
             {
-                result= new DefaultMuleMessage( response.getPayload(), inboundProps, null, null, muleContext );
+                payload= IOUtils.toByteArray( stream );
             }
-            else
+            catch ( IOException e )
+            {
+                logger.warn( "blockwise response on { " + inboundProps.get( PropertyNames.COAP_REQUEST_URI ) + " } could not be retrieved", e );
+                HashMap< String, Object > failedProps= new HashMap< String, Object >( inboundProps );
+                failedProps.put( PropertyNames.COAP_RESPONSE_SUCCESS, new Boolean( false ) );
+                return new DefaultMuleMessage( null, failedProps, null, null, muleContext );
+            }
+            finally
             {
-                String mediaType= MediaTypeRegistry.toString( response.getOptions().getContentFormat() );
-                result= new DefaultMuleMessage(
-                    response.getPayload(),
-                    inboundProps,
-                    null,
-                    null,
-                    muleContext,
-                    DataTypeFactory.create( response.getPayload().getClass(), mediaType ) );
+                stream.close();
             }
+            stream= null;
         }
-        return result;
+        int contentFormat= response.getOptions().getContentFormat();
+        if ( contentFormat == MediaTypeRegistry.UNDEFINED )
+        {
+            return new DefaultMuleMessage( payload, inboundProps, null, null, muleContext );
+        }
+        String mediaType= MediaTypeRegistry.toString( contentFormat );
+        return new DefaultMuleMessage(
+            payload,
+            inboundProps,
+            null,
+            null,
+            muleContext,
+            DataTypeFactory.create( ( stream == null ? payload.getClass() : InputStream.class ), mediaType ) );
     }
 
     /**
      * Create response MuleEvent in the context of a Message processor. The payload will be set to the CoAP payload. 
      * CoAP metadata including CoAP options will be added as inbound properties.  
      * @param response the CoAP response that needs to be delivered into the Mule flow
-     * @param client The client object tht issued the request.
+     * @param requestUri The uri of the request that was issued.
      * @param requestCode The type of request that was issued.
      * @param rewriteEvent The input event.
      * @return MuleMessage created.
      */
-    private MuleEvent createProcessorMuleEvent( CoapResponse response, CoapClient client, Code requestCode, MuleEvent rewriteEvent )
+    private MuleEvent createProcessorMuleEvent( Response response, String requestUri, Code requestCode, MuleEvent rewriteEvent )
     {
-        MuleMessage responseMuleMessage= createMuleMessage( response, client, requestCode );
+        MuleMessage responseMuleMessage= createMuleMessage( response, requestUri, requestCode );
         DefaultMuleEvent result= new DefaultMuleEvent( responseMuleMessage, rewriteEvent );
 
         return result;
     }
     
+    /**
+     * Hands the message over to the handler executor, to be processed through the Mule flow. 
+     * The CoAP protocol thread that delivered the response is not blocked by flow processing.
+     * @param response The Coap response to handled by the mule flow
+     * @param requestUri The uri of the request that produced the response
+     * @param callback The Listening Messageprocessor that nedds to be called
+     * @param requestCode The coap request code from the request context
+     */
+    private void processMuleFlow( final Response response, final String requestUri, final SourceCallback callback, final Code requestCode )   
+    {
+        HandlerExecutor executor= handlerExecutor;
+        if ( executor == null )
+        {
+            logger.warn( "connector stopped, response on { " + requestUri + " } not processed" );
+            return;
+        }
+        executor.execute( new DroppableTask()
+            {
+                @Override
+                public void run()
+                {
+                    deliverToMuleFlow( response, requestUri, callback, requestCode );
+                }
+
+                @Override
+                public void onDrop()
+                {
+                    logger.warn( "handler queue full, response on { " + requestUri + " } dropped" );
+                }
+            } );
+    }
+
+    /**
+     * Hands the notification over to the observe executor, to be processed through the Mule flow. 
+     * Notifications on the same resource are processed in the order they were received, 
+     * notifications on different resources are processed in parallel.
+     * @param response The Coap notification to handled by the mule flow, null when the observe request failed
+     * @param properties The inbound properties decoded from the notification, null when the observe request failed
+     * @param requestUri The uri of the observed resource
+     * @param callback The Listening Messageprocessor that needs to be called
+     * @param conflater The conflater of the relation, null when notifications are not conflated
+     */
+    private void processNotification( final Response response, final Map< String, Object > properties, final String requestUri, final SourceCallback callback, Conflater conflater )   
+    {
+        StripedExecutor executor= observeExecutor;
+        if ( executor == null )
+        {
+            logger.warn( "connector stopped, notification on { " + requestUri + " } not processed" );
+            return;
+        }
+        Runnable task= new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    MuleMessage muleMessage= ( properties == null ? createMuleMessage( response, requestUri, Code.GET ) : createMuleMessage( response, properties ) );
+                    deliverToMuleFlow( muleMessage, callback );
+                }
+            };
+        if ( conflater != null )
+        {
+            conflater.submit( executor, task );
+        }
+        else
+        {
+            executor.execute( requestUri, task );
+        }
+    }
+
     /**
      * Gets the message processed through the Mule flow 
      * @param response The Coap response to handled by the mule flow
-     * @param client  The Coap client that produced the response
+     * @param requestUri The uri of the request that produced the response
      * @param callback The Listening Messageprocessor that nedds to be called
      * @param requestCode The coap request code from the request context
      */
-    private void processMuleFlow( CoapResponse response, final CoapClient client, final SourceCallback callback, final Code requestCode )   
+    private void deliverToMuleFlow( Response response, String requestUri, SourceCallback callback, Code requestCode )   
+    {
+        //TODO make safe:
+        deliverToMuleFlow( createMuleMessage( response, requestUri, requestCode ), callback );
+    }
+
+    /**
+     * Gets the message processed through the Mule flow 
+     * @param muleMessage The message to be handled by the mule flow
+     * @param callback The Listening Messageprocessor that needs to be called
+     */
+    private void deliverToMuleFlow( MuleMessage muleMessage, SourceCallback callback )   
     {
         @SuppressWarnings("unused")
         MuleEvent responseEvent= null;
         
         AbstractListeningMessageProcessor processor= (AbstractListeningMessageProcessor) callback;
 
-        //TODO make safe:
-        MuleMessage muleMessage = createMuleMessage( response, client, requestCode );
         MuleEvent muleEvent= new DefaultMuleEvent( muleMessage, MessageExchangePattern.ONE_WAY, processor.getFlowConstruct() );
         try
         {
@@ -0,0 +1,984 @@
+/*******************************************************************************
+ * Copyright (c) 2019 (teslanet.nl) Rogier Cobben.
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License - v 2.0 
+ * which accompanies this distribution.
+ * 
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ * 
+ * Contributors:
+ *    (teslanet.nl) Rogier Cobben - initial creation
+ ******************************************************************************/
+package nl.teslanet.mule.transport.coap.client;
+
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.californium.core.CoapClient;
+import org.eclipse.californium.core.CoapHandler;
+import org.eclipse.californium.core.CoapObserveRelation;
+import org.eclipse.californium.core.CoapResponse;
+import org.eclipse.californium.core.coap.CoAP.Type;
+import org.eclipse.californium.core.coap.MessageObserverAdapter;
+import org.eclipse.californium.core.coap.Request;
+import org.eclipse.californium.core.coap.Response;
+import org.eclipse.californium.core.network.CoapEndpoint;
+import org.eclipse.californium.core.network.Endpoint;
+
+import nl.teslanet.mule.transport.coap.client.concurrent.BackoffScheduler;
+import nl.teslanet.mule.transport.coap.client.concurrent.RateLimiter;
+import nl.teslanet.mule.transport.coap.client.concurrent.RegistrationQueue;
+import nl.teslanet.mule.transport.coap.client.endpoint.EndpointPool;
+
+
+/**
+ * Registry of observe subscriptions. 
+ * All subscribers of a resource that use the same message type share one CoAP observe relation, 
+ * so confirmable and non-confirmable subscriptions on a resource have a relation each. 
+ * Notifications are decoded once and handed to every subscriber. 
+ * A subscriber joining an established relation receives the latest notification. 
+ * The relation is cancelled when the last subscriber leaves.
+ */
+final class ObserveRegistry
+{
+    /**
+     * Decodes notifications into inbound properties.
+     */
+    interface Decoder
+    {
+        /**
+         * Decode a notification.
+         * @param response The notification.
+         * @param uri The uri of the observed resource.
+         * @return The inbound properties.
+         */
+        Map< String, Object > decode( Response response, String uri );
+    }
+
+    /**
+     * Receives the notifications of a resource.
+     */
+    interface Subscriber
+    {
+        /**
+         * Process a notification.
+         * @param response The notification, null when the observe request failed.
+         * @param properties The decoded inbound properties, null when the observe request failed. 
+         * The map is shared by all subscribers and must not be changed.
+         */
+        void onNotification( Response response, Map< String, Object > properties );
+    }
+
+    /**
+     * The decoder of notifications.
+     */
+    private final Decoder decoder;
+
+    /**
+     * The relations by uri and message type, in uri order.
+     */
+    private final TreeMap< String, Relation > relations= new TreeMap< String, Relation >();
+
+    /**
+     * The scheduler of re-registrations of failed relations, null when relations re-register immediately.
+     */
+    private volatile BackoffScheduler backoff= null;
+
+    /**
+     * Number of re-registrations sent and not answered yet.
+     */
+    private final AtomicInteger reregistering= new AtomicInteger();
+
+    /**
+     * The queue staggering the registration of new relations, null when relations register immediately.
+     */
+    private volatile RegistrationQueue registrationQueue= null;
+
+    /**
+     * Relations of a previous run that can be resumed, by uri and message type.
+     */
+    private final HashMap< String, ObserveRelationState > resumable= new HashMap< String, ObserveRelationState >();
+
+    /**
+     * The endpoints the relations of a previous run are resumed on, null when none are offered.
+     */
+    private EndpointPool resumeEndpoints= null;
+
+    /**
+     * Number of relations resumed.
+     */
+    private final AtomicInteger resumed= new AtomicInteger();
+
+    /**
+     * Constructor
+     * @param decoder The decoder of notifications.
+     */
+    ObserveRegistry( Decoder decoder )
+    {
+        this.decoder= decoder;
+    }
+
+    /**
+     * Re-register failed relations with backoff, instead of immediately.
+     * @param backoff The scheduler of re-registrations.
+     */
+    void enableBackoff( BackoffScheduler backoff )
+    {
+        this.backoff= backoff;
+    }
+
+    /**
+     * Register new relations through a queue that limits the rate and the number in progress.
+     * @param registrationQueue The queue.
+     */
+    void enableRegistrationQueue( RegistrationQueue registrationQueue )
+    {
+        this.registrationQueue= registrationQueue;
+    }
+
+    /**
+     * Get the key of a relation. 
+     * A space does not occur in an uri and sorts before any uri character, 
+     * so the keys keep the relations in uri order.
+     * @param uri The uri of the resource.
+     * @param confirmable True when the relation uses confirmable requests.
+     * @return The key.
+     */
+    private static String keyOf( String uri, boolean confirmable )
+    {
+        return uri + ( confirmable ? " CON" : " NON" );
+    }
+
+    /**
+     * Subscribe to a resource. The relation is established when it is the first subscription on the resource 
+     * with this message type. A subscription of the same owner on the resource is replaced, whatever its message type.
+     * A relation of a previous run on the resource is resumed with its token, on the endpoint it was registered on.
+     * A subscriber joining an established relation receives the latest notification after the registry is unlocked, 
+     * unless a newer notification has been handed to it meanwhile.
+     * @param client The client addressing the resource, used when the relation needs to be established.
+     * @param confirmable True when the relation is to use confirmable requests.
+     * @param owner The owner of the subscription.
+     * @param subscriber The subscriber.
+     * @param dynamic True when the subscription is made by a processor, false when by a message source.
+     * @return True when a new relation was established.
+     */
+    boolean subscribe( CoapClient client, boolean confirmable, Object owner, Subscriber subscriber, boolean dynamic )
+    {
+        String uri= client.getURI();
+        String key= keyOf( uri, confirmable );
+        Relation relation;
+        Notification latest;
+        synchronized ( this )
+        {
+            relation= relations.get( key );
+            boolean established= false;
+            if ( relation == null )
+            {
+                relation= new Relation( uri, client, confirmable );
+                ObserveRelationState state= resumable.remove( key );
+                CoapEndpoint endpoint= ( state == null ? null : endpointOf( resumeEndpoints, state ) );
+                if ( endpoint != null )
+                {
+                    // the server knows the relation by the address of this endpoint
+                    client.setEndpoint( endpoint );
+                    relation.resumeToken= state.getToken();
+                    resumed.incrementAndGet();
+                }
+                relations.put( key, relation );
+                established= true;
+            }
+            // the owner may have subscribed with the other message type before
+            remove( keyOf( uri, !confirmable ), owner );
+            relation.remove( owner );
+            relation.subscriptions.add( new Subscription( owner, subscriber, dynamic ) );
+            if ( established )
+            {
+                relation.register( registrationQueue );
+                return true;
+            }
+            latest= relation.latest;
+        }
+        // the subscriber may block on a busy executor, so the registry is not locked while replaying
+        if ( latest != null && relation.latest == latest ) subscriber.onNotification( latest.response, latest.properties );
+        return false;
+    }
+
+    /**
+     * Remove the dynamic subscriptions on a resource, of both message types. 
+     * A relation is cancelled when no subscriptions remain.
+     * @param uri The uri of the resource.
+     * @return The number of subscriptions removed.
+     */
+    synchronized int unsubscribeDynamic( String uri )
+    {
+        return removeDynamic( keyOf( uri, true ) ) + removeDynamic( keyOf( uri, false ) );
+    }
+
+    /**
+     * Remove the dynamic subscriptions of a relation. The relation is cancelled when no subscriptions remain.
+     * Must be called holding the registry lock.
+     * @param key The key of the relation.
+     * @return The number of subscriptions removed.
+     */
+    private int removeDynamic( String key )
+    {
+        Relation relation= relations.get( key );
+        if ( relation == null ) return 0;
+        ArrayList< Subscription > removed= new ArrayList< Subscription >();
+        for ( Subscription subscription : relation.subscriptions )
+        {
+            if ( subscription.dynamic && relation.subscriptions.remove( subscription ) ) removed.add( subscription );
+        }
+        cancelWhenUnused( relation, removed );
+        return removed.size();
+    }
+
+    /**
+     * Remove the subscription of an owner, whatever its message type. The relation is cancelled when no subscriptions remain.
+     * @param uri The uri of the resource.
+     * @param owner The owner of the subscription.
+     * @return True when a subscription was removed.
+     */
+    synchronized boolean unsubscribe( String uri, Object owner )
+    {
+        boolean removedConfirmable= remove( keyOf( uri, true ), owner );
+        boolean removedNonConfirmable= remove( keyOf( uri, false ), owner );
+        return removedConfirmable || removedNonConfirmable;
+    }
+
+    /**
+     * Remove the subscription of an owner from a relation. The relation is cancelled when no subscriptions remain.
+     * Must be called holding the registry lock.
+     * @param key The key of the relation.
+     * @param owner The owner of the subscription.
+     * @return True when a subscription was removed.
+     */
+    private boolean remove( String key, Object owner )
+    {
+        Relation relation= relations.get( key );
+        if ( relation == null ) return false;
+        Subscription removed= relation.remove( owner );
+        if ( removed == null ) return false;
+        ArrayList< Subscription > leaving= new ArrayList< Subscription >();
+        leaving.add( removed );
+        cancelWhenUnused( relation, leaving );
+        return true;
+    }
+
+    /**
+     * Cancel the relation when it has no subscriptions.
+     * @param relation The relation.
+     * @param leaving The subscriptions just removed, that receive the response on the cancel.
+     */
+    private void cancelWhenUnused( Relation relation, List< Subscription > leaving )
+    {
+        if ( relation.subscriptions.isEmpty() )
+        {
+            relations.remove( keyOf( relation.uri, relation.confirmable ) );
+            relation.cancel( leaving );
+        }
+    }
+
+    /**
+     * Cancel all relations and remove all subscriptions. 
+     * Cancellations are sent at the rate the limiter allows without waiting for each other, 
+     * after which the responses are awaited until the grace period ends. 
+     * Relations that could not be cancelled within the grace period are abandoned.
+     * Each cancellation is sent on the endpoint of its relation.
+     * @param limiter The limiter of the cancellation rate.
+     * @param graceMillis The grace period in milliseconds.
+     * @return The report of the cancellation.
+     */
+    CancelReport cancelAll( RateLimiter limiter, long graceMillis )
+    {
+        ArrayList< Relation > cancelling= new ArrayList< Relation >();
+        synchronized ( this )
+        {
+            Iterator< Relation > it= relations.values().iterator();
+            while ( it.hasNext() )
+            {
+                Relation relation= it.next();
+                it.remove();
+                relation.leaving= new ArrayList< Subscription >( relation.subscriptions );
+                relation.subscriptions.clear();
+                cancelling.add( relation );
+            }
+        }
+        long deadline= System.nanoTime() + TimeUnit.MILLISECONDS.toNanos( graceMillis );
+        CountDownLatch done= new CountDownLatch( cancelling.size() );
+        AtomicInteger cancelled= new AtomicInteger();
+        boolean interrupted= false;
+        for ( Relation relation : cancelling )
+        {
+            long delay= ( interrupted ? 0L : limiter.reserve() );
+            if ( interrupted || System.nanoTime() + delay > deadline )
+            {
+                relation.abandon();
+                done.countDown();
+                continue;
+            }
+            if ( delay > 0L )
+            {
+                try
+                {
+                    TimeUnit.NANOSECONDS.sleep( delay );
+                }
+                catch ( InterruptedException e )
+                {
+                    interrupted= true;
+                    relation.abandon();
+                    done.countDown();
+                    continue;
+                }
+            }
+            relation.cancel( done, cancelled );
+        }
+        if ( !interrupted )
+        {
+            try
+            {
+                done.await( Math.max( 0L, deadline - System.nanoTime() ), TimeUnit.NANOSECONDS );
+            }
+            catch ( InterruptedException e )
+            {
+                interrupted= true;
+            }
+        }
+        if ( interrupted )
+        {
+            Thread.currentThread().interrupt();
+        }
+        return new CancelReport( cancelled.get(), cancelling.size() - cancelled.get() );
+    }
+
+    /**
+     * Offer relations of a previous run to be resumed by subscriptions on their resource.
+     * A relation can only be resumed or cancelled from the local address it was registered on, 
+     * so relations of which the endpoint is bound to another port than before are dropped.
+     * @param states The states of the relations.
+     * @param endpoints The endpoints to resume the relations on.
+     * @return The number of relations dropped.
+     */
+    synchronized int resume( Collection< ObserveRelationState > states, EndpointPool endpoints )
+    {
+        resumeEndpoints= endpoints;
+        int dropped= 0;
+        for ( ObserveRelationState state : states )
+        {
+            if ( endpointOf( endpoints, state ) == null )
+            {
+                dropped++;
+            }
+            else
+            {
+                resumable.put( keyOf( state.getUri(), state.isConfirmable() ), state );
+            }
+        }
+        return dropped;
+    }
+
+    /**
+     * Get the endpoint a relation of a previous run was registered on.
+     * @param endpoints The endpoints of this run.
+     * @param state The state of the relation.
+     * @return The endpoint at the index of the relation, null when there is none or it is bound to another port.
+     */
+    private static CoapEndpoint endpointOf( EndpointPool endpoints, ObserveRelationState state )
+    {
+        int index= state.getEndpointIndex();
+        if ( endpoints == null || index < 0 || index >= endpoints.size() ) return null;
+        CoapEndpoint endpoint= endpoints.getEndpoints().get( index );
+        return ( endpoint.getAddress().getPort() == state.getLocalPort() ? endpoint : null );
+    }
+
+    /**
+     * Cancel the relations of a previous run that have not been resumed. 
+     * Cancellations are sent at the rate the limiter allows, without waiting for confirmation, 
+     * each on the endpoint its relation was registered on.
+     * @param endpoints The endpoints to send cancellations on.
+     * @param limiter The limiter of the cancellation rate.
+     * @param scheduler The scheduler to send the cancellations with.
+     * @return The number of relations cancelled.
+     */
+    int cancelUnresumed( EndpointPool endpoints, RateLimiter limiter, ScheduledExecutorService scheduler )
+    {
+        ArrayList< ObserveRelationState > states;
+        synchronized ( this )
+        {
+            states= new ArrayList< ObserveRelationState >( resumable.values() );
+            resumable.clear();
+        }
+        int cancelled= 0;
+        for ( ObserveRelationState state : states )
+        {
+            final CoapEndpoint endpoint= endpointOf( endpoints, state );
+            if ( endpoint == null ) continue;
+            final Request cancel= createCancel( state.getUri(), state.getToken(), state.isConfirmable() );
+            try
+            {
+                scheduler.schedule( new Runnable()
+                    {
+                        @Override
+                        public void run()
+                        {
+                            endpoint.sendRequest( cancel );
+                        }
+                    }, limiter.reserve(), TimeUnit.NANOSECONDS );
+                cancelled++;
+            }
+            catch ( RejectedExecutionException e )
+            {
+                // stopping
+                break;
+            }
+        }
+        return cancelled;
+    }
+
+    /**
+     * Stop all relations locally, without notifying the servers, so they can be resumed in a next run. 
+     * Relations of a previous run that have not been resumed are included.
+     * @param endpoints The endpoints the relations are registered on.
+     * @return The states of the relations.
+     */
+    synchronized List< ObserveRelationState > detachAll( EndpointPool endpoints )
+    {
+        ArrayList< ObserveRelationState > states= new ArrayList< ObserveRelationState >( resumable.values() );
+        resumable.clear();
+        Iterator< Relation > it= relations.values().iterator();
+        while ( it.hasNext() )
+        {
+            Relation relation= it.next();
+            it.remove();
+            relation.leaving= new ArrayList< Subscription >( relation.subscriptions );
+            relation.subscriptions.clear();
+            ObserveRelationState state= relation.getState( endpoints );
+            if ( state != null ) states.add( state );
+            relation.abandon();
+        }
+        return states;
+    }
+
+    /**
+     * Create a request cancelling a relation on the server.
+     * @param uri The uri of the observed resource.
+     * @param token The token of the relation.
+     * @param confirmable True when the request is to be confirmable.
+     * @return The request.
+     */
+    private static Request createCancel( String uri, byte[] token, boolean confirmable )
+    {
+        Request cancel= Request.newGet();
+        cancel.setURI( uri );
+        cancel.setType( confirmable ? Type.CON : Type.NON );
+        cancel.setToken( token );
+        cancel.setObserveCancel();
+        return cancel;
+    }
+
+    /**
+     * @return The number of relations resumed.
+     */
+    int getResumed()
+    {
+        return resumed.get();
+    }
+
+    /**
+     * @return The uri's of resources that have dynamic subscriptions, each listed once.
+     */
+    synchronized List< String > getDynamicUris()
+    {
+        ArrayList< String > uris= new ArrayList< String >();
+        for ( Relation relation : relations.values() )
+        {
+            for ( Subscription subscription : relation.subscriptions )
+            {
+                if ( subscription.dynamic )
+                {
+                    // relations on the same resource are adjacent
+                    if ( uris.isEmpty() || !uris.get( uris.size() - 1 ).equals( relation.uri ) ) uris.add( relation.uri );
+                    break;
+                }
+            }
+        }
+        return uris;
+    }
+
+    /**
+     * @return The number of re-registrations waiting for their backoff to pass.
+     */
+    int getReregistrationsPending()
+    {
+        BackoffScheduler current= backoff;
+        return ( current == null ? 0 : current.getPending() );
+    }
+
+    /**
+     * @return The number of re-registrations sent and not answered yet.
+     */
+    int getReregistrationsActive()
+    {
+        return reregistering.get();
+    }
+
+    /**
+     * @return The queue staggering registrations, null when relations register immediately.
+     */
+    RegistrationQueue getRegistrationQueue()
+    {
+        return registrationQueue;
+    }
+
+    /**
+     * @return The number of relations.
+     */
+    synchronized int getRelationCount()
+    {
+        return relations.size();
+    }
+
+    /**
+     * @return The number of subscriptions.
+     */
+    synchronized int getSubscriptionCount()
+    {
+        int count= 0;
+        for ( Relation relation : relations.values() )
+        {
+            count+= relation.subscriptions.size();
+        }
+        return count;
+    }
+
+    /**
+     * A subscription on a resource.
+     */
+    private static final class Subscription
+    {
+        private final Object owner;
+
+        private final Subscriber subscriber;
+
+        private final boolean dynamic;
+
+        private Subscription( Object owner, Subscriber subscriber, boolean dynamic )
+        {
+            this.owner= owner;
+            this.subscriber= subscriber;
+            this.dynamic= dynamic;
+        }
+    }
+
+    /**
+     * The outcome of cancelling all relations.
+     */
+    static final class CancelReport
+    {
+        private final int cancelled;
+
+        private final int abandoned;
+
+        private CancelReport( int cancelled, int abandoned )
+        {
+            this.cancelled= cancelled;
+            this.abandoned= abandoned;
+        }
+
+        /**
+         * @return The number of relations the servers confirmed to be cancelled.
+         */
+        int getCancelled()
+        {
+            return cancelled;
+        }
+
+        /**
+         * @return The number of relations that were not confirmed to be cancelled.
+         */
+        int getAbandoned()
+        {
+            return abandoned;
+        }
+    }
+
+    /**
+     * A decoded notification.
+     */
+    private static final class Notification
+    {
+        private final Response response;
+
+        private final Map< String, Object > properties;
+
+        private Notification( Response response, Map< String, Object > properties )
+        {
+            this.response= response;
+            this.properties= properties;
+        }
+    }
+
+    /**
+     * The observe relation on a resource, handing notifications to its subscribers.
+     */
+    private final class Relation implements CoapHandler
+    {
+        private final String uri;
+
+        private final CoapClient client;
+
+        private final boolean confirmable;
+
+        /**
+         * The token of a relation of a previous run to resume, null when not resuming.
+         */
+        private volatile byte[] resumeToken= null;
+
+        private final CopyOnWriteArrayList< Subscription > subscriptions= new CopyOnWriteArrayList< Subscription >();
+
+        private volatile CoapObserveRelation relation= null;
+
+        private volatile List< Subscription > leaving= null;
+
+        private volatile Notification latest= null;
+
+        /**
+         * The queued registration of the relation that is not answered yet, null when there is none.
+         */
+        private volatile RegistrationQueue.Registration registration= null;
+
+        /**
+         * Number of failed registrations since the last notification.
+         */
+        private int failures= 0;
+
+        /**
+         * True when a re-registration is sent and not answered yet.
+         */
+        private boolean reregistering= false;
+
+        private Relation( String uri, CoapClient client, boolean confirmable )
+        {
+            this.uri= uri;
+            this.client= client;
+            this.confirmable= confirmable;
+        }
+
+        /**
+         * Remove the subscription of an owner.
+         * @param owner The owner.
+         * @return The removed subscription, null when the owner had none.
+         */
+        private Subscription remove( Object owner )
+        {
+            for ( Subscription subscription : subscriptions )
+            {
+                if ( subscription.owner.equals( owner ) && subscriptions.remove( subscription ) ) return subscription;
+            }
+            return null;
+        }
+
+        /**
+         * Establish the relation.
+         */
+        private void observe()
+        {
+            byte[] token= resumeToken;
+            if ( token == null )
+            {
+                relation= client.observe( this );
+                return;
+            }
+            // registering with the token of the previous run replaces its registration on the server
+            resumeToken= null;
+            Request request= Request.newGet();
+            request.setURI( uri );
+            request.setType( confirmable ? Type.CON : Type.NON );
+            request.setToken( token );
+            request.setObserve();
+            relation= client.observe( request, this );
+        }
+
+        /**
+         * Get the state needed to resume the relation.
+         * @param endpoints The endpoints the relation may be registered on.
+         * @return The state, null when the relation is not established or not registered on one of the endpoints.
+         */
+        private ObserveRelationState getState( EndpointPool endpoints )
+        {
+            Notification notification= latest;
+            CoapObserveRelation current= relation;
+            if ( notification == null || current == null || current.isCanceled() ) return null;
+            Endpoint endpoint= client.getEndpoint();
+            int index= endpoints.getEndpoints().indexOf( endpoint );
+            if ( index < 0 ) return null;
+            Integer sequenceNumber= notification.response.getOptions().getObserve();
+            return new ObserveRelationState(
+                uri, notification.response.getToken(), confirmable, ( sequenceNumber == null ? -1 : sequenceNumber.intValue() ), index, endpoint.getAddress().getPort() );
+        }
+
+        /**
+         * Establish the relation, through the queue when given.
+         * @param queue The registration queue, null when registering immediately.
+         */
+        private void register( RegistrationQueue queue )
+        {
+            if ( queue == null )
+            {
+                observe();
+                return;
+            }
+            registration= new RegistrationQueue.Registration()
+                {
+                    @Override
+                    public void run()
+                    {
+                        if ( leaving != null )
+                        {
+                            release();
+                            return;
+                        }
+                        observe();
+                    }
+                };
+            queue.submit( registration );
+        }
+
+        /**
+         * Release the queued registration when it is in progress.
+         */
+        private void registered()
+        {
+            RegistrationQueue.Registration current= registration;
+            if ( current != null )
+            {
+                registration= null;
+                current.release();
+            }
+        }
+
+        /**
+         * Cancel the relation.
+         * @param leaving The subscriptions that receive the response on the cancel.
+         */
+        private void cancel( List< Subscription > leaving )
+        {
+            this.leaving= leaving;
+            registered();
+            CoapObserveRelation current= relation;
+            if ( current != null )
+            {
+                current.proactiveCancel();
+            }
+        }
+
+        /**
+         * Cancel the relation on the server, using the token of the latest notification. 
+         * The relation must have its leaving subscriptions set.
+         * The cancellation is sent on the endpoint the relation was registered on, 
+         * as the server only knows the relation by that endpoint's address.
+         * @param done Counted down when the cancellation completes.
+         * @param cancelled Incremented when the server confirms the cancellation.
+         */
+        private void cancel( final CountDownLatch done, final AtomicInteger cancelled )
+        {
+            registered();
+            CoapObserveRelation current= relation;
+            Notification notification= latest;
+            if ( current == null || current.isCanceled() )
+            {
+                // nothing registered on the server
+                cancelled.incrementAndGet();
+                done.countDown();
+                return;
+            }
+            if ( notification == null )
+            {
+                // registration not answered yet, cancel without confirmation
+                current.proactiveCancel();
+                done.countDown();
+                return;
+            }
+            // confirmable, to learn whether the server has cancelled
+            Request cancel= createCancel( uri, notification.response.getToken(), true );
+            final AtomicBoolean completed= new AtomicBoolean();
+            cancel.addMessageObserver( new MessageObserverAdapter()
+                {
+                    @Override
+                    public void onResponse( Response response )
+                    {
+                        complete( true );
+                    }
+
+                    @Override
+                    public void onReject()
+                    {
+                        // the server does not know the relation
+                        complete( true );
+                    }
+
+                    @Override
+                    public void onTimeout()
+                    {
+                        complete( false );
+                    }
+
+                    @Override
+                    public void onCancel()
+                    {
+                        complete( false );
+                    }
+
+                    private void complete( boolean confirmed )
+                    {
+                        if ( !completed.compareAndSet( false, true ) ) return;
+                        if ( confirmed ) cancelled.incrementAndGet();
+                        done.countDown();
+                    }
+                } );
+            // stop processing notifications of the relation locally
+            current.reactiveCancel();
+            client.getEndpoint().sendRequest( cancel );
+        }
+
+        /**
+         * Register the relation again, on the endpoint of the client it was registered with. 
+         * Must be called holding the relation lock.
+         */
+        private void reregister()
+        {
+            CoapObserveRelation current= relation;
+            if ( current.isCanceled() )
+            {
+                observe();
+            }
+            else
+            {
+                current.reregister();
+            }
+        }
+
+        /**
+         * Schedule registering the relation again after a backoff. Must be called holding the relation lock.
+         * @param scheduler The scheduler.
+         * @param attempt The number of the attempt, starting at 0.
+         */
+        private void scheduleReregistration( BackoffScheduler scheduler, int attempt )
+        {
+            try
+            {
+                scheduler.schedule( new Runnable()
+                    {
+                        @Override
+                        public void run()
+                        {
+                            synchronized ( Relation.this )
+                            {
+                                if ( leaving != null ) return;
+                                reregistering= true;
+                                ObserveRegistry.this.reregistering.incrementAndGet();
+                                reregister();
+                            }
+                        }
+                    }, attempt );
+            }
+            catch ( RejectedExecutionException e )
+            {
+                // connector is stopping
+            }
+        }
+
+        /**
+         * Count the end of a re-registration in progress. Must be called holding the relation lock.
+         */
+        private void finishReregistration()
+        {
+            if ( reregistering )
+            {
+                reregistering= false;
+                ObserveRegistry.this.reregistering.decrementAndGet();
+            }
+        }
+
+        /**
+         * Stop the relation locally, without notifying the server.
+         */
+        private void abandon()
+        {
+            registered();
+            CoapObserveRelation current= relation;
+            if ( current != null )
+            {
+                current.reactiveCancel();
+            }
+        }
+
+        /* (non-Javadoc)
+         * @see org.eclipse.californium.core.CoapHandler#onLoad(org.eclipse.californium.core.CoapResponse)
+         */
+        @Override
+        public void onLoad( CoapResponse response )
+        {
+            registered();
+            List< Subscription > recipients= ( leaving != null ? leaving : subscriptions );
+            if ( recipients.isEmpty() ) return;
+            Response notification= response.advanced();
+            Map< String, Object > properties= decoder.decode( notification, uri );
+            if ( leaving == null ) latest= new Notification( notification, properties );
+            synchronized ( this )
+            {
+                failures= 0;
+                finishReregistration();
+            }
+            for ( Subscription subscription : recipients )
+            {
+                subscription.subscriber.onNotification( notification, properties );
+            }
+        }
+
+        /* (non-Javadoc)
+         * @see org.eclipse.californium.core.CoapHandler#onError()
+         */
+        @Override
+        public void onError()
+        {
+            registered();
+            synchronized ( this )
+            {
+                finishReregistration();
+                if ( leaving == null && relation != null )
+                {
+                    BackoffScheduler current= backoff;
+                    if ( current == null )
+                    {
+                        reregister();
+                    }
+                    else
+                    {
+                        scheduleReregistration( current, failures++ );
+                    }
+                }
+            }
+            List< Subscription > recipients= ( leaving != null ? leaving : subscriptions );
+            for ( Subscription subscription : recipients )
+            {
+                subscription.subscriber.onNotification( null, null );
+            }
+        }
+    }
+}
@@ -0,0 +1,123 @@
+/*******************************************************************************
+ * Copyright (c) 2019 (teslanet.nl) Rogier Cobben.
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License - v 2.0 
+ * which accompanies this distribution.
+ * 
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ * 
+ * Contributors:
+ *    (teslanet.nl) Rogier Cobben - initial creation
+ ******************************************************************************/
+package nl.teslanet.mule.transport.coap.client;
+
+
+import java.io.Serializable;
+
+
+/**
+ * The state of an observe relation that is needed to resume or cancel it after a restart.
+ */
+final class ObserveRelationState implements Serializable
+{
+    private static final long serialVersionUID= 2L;
+
+    /**
+     * The uri of the observed resource.
+     */
+    private final String uri;
+
+    /**
+     * The token of the relation.
+     */
+    private final byte[] token;
+
+    /**
+     * True when the relation uses confirmable requests.
+     */
+    private final boolean confirmable;
+
+    /**
+     * The sequence number of the latest notification, -1 when unknown.
+     */
+    private final int sequenceNumber;
+
+    /**
+     * The index in the endpoint pool of the local endpoint the relation is registered on.
+     */
+    private final int endpointIndex;
+
+    /**
+     * The local port of the endpoint the relation is registered on.
+     */
+    private final int localPort;
+
+    /**
+     * Constructor
+     * @param uri The uri of the observed resource.
+     * @param token The token of the relation.
+     * @param confirmable True when the relation uses confirmable requests.
+     * @param sequenceNumber The sequence number of the latest notification, -1 when unknown.
+     * @param endpointIndex The index in the endpoint pool of the local endpoint the relation is registered on.
+     * @param localPort The local port of the endpoint the relation is registered on.
+     */
+    ObserveRelationState( String uri, byte[] token, boolean confirmable, int sequenceNumber, int endpointIndex, int localPort )
+    {
+        this.uri= uri;
+        this.token= token.clone();
+        this.confirmable= confirmable;
+        this.sequenceNumber= sequenceNumber;
+        this.endpointIndex= endpointIndex;
+        this.localPort= localPort;
+    }
+
+    /**
+     * @return The uri of the observed resource.
+     */
+    String getUri()
+    {
+        return uri;
+    }
+
+    /**
+     * @return The token of the relation.
+     */
+    byte[] getToken()
+    {
+        return token.clone();
+    }
+
+    /**
+     * @return True when the relation uses confirmable requests.
+     */
+    boolean isConfirmable()
+    {
+        return confirmable;
+    }
+
+    /**
+     * @return The sequence number of the latest notification, -1 when unknown.
+     */
+    int getSequenceNumber()
+    {
+        return sequenceNumber;
+    }
+
+    /**
+     * @return The index in the endpoint pool of the local endpoint the relation is registered on.
+     */
+    int getEndpointIndex()
+    {
+        return endpointIndex;
+    }
+
+    /**
+     * @return The local port of the endpoint the relation is registered on.
+     */
+    int getLocalPort()
+    {
+        return localPort;
+    }
+}
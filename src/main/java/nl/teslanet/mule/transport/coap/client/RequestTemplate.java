@@ -0,0 +1,325 @@
+/*******************************************************************************
+ * Copyright (c) 2019 (teslanet.nl) Rogier Cobben.
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License - v 2.0 
+ * which accompanies this distribution.
+ * 
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ * 
+ * Contributors:
+ *    (teslanet.nl) Rogier Cobben - initial creation
+ ******************************************************************************/
+package nl.teslanet.mule.transport.coap.client;
+
+
+import java.net.InetAddress;
+import java.net.URI;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.eclipse.californium.core.coap.CoAP;
+import org.eclipse.californium.core.coap.OptionSet;
+import org.eclipse.californium.core.coap.Request;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import nl.teslanet.mule.transport.coap.client.error.MalformedUriException;
+
+
+/**
+ * Precompiled addressing of a CoAP resource.
+ * The template is built once from the operation parameters and the connector defaults.
+ * It addresses requests directly by setting destination and Uri options,
+ * so the uri does not have to be formatted and parsed again for every request.
+ * The address of a host name is resolved again when it is older than the time to live, 
+ * so a server whose address record changes remains reachable.
+ */
+public final class RequestTemplate
+{
+    /**
+     * Pattern matching ip literals, for which no Uri-Host option is needed.
+     */
+    private static final String IP_LITERAL= "(\\[[0-9a-f:]+\\]|[0-9]{1,3}\\.[0-9]{1,3}\\.[0-9]{1,3}\\.[0-9]{1,3})";
+
+    /**
+     * Logger of the class
+     */
+    private static final Logger logger= LoggerFactory.getLogger( RequestTemplate.class );
+
+    /**
+     * The uri of the resource.
+     */
+    private final String uri;
+
+    /**
+     * The host of the server.
+     */
+    private final String host;
+
+    /**
+     * The time to live of the resolved address in milliseconds, 0 when it is not resolved again.
+     */
+    private final long addressTtl;
+
+    /**
+     * The resolved address of the server.
+     */
+    private volatile InetAddress destination;
+
+    /**
+     * The time in milliseconds the address must be resolved again, Long.MAX_VALUE when never.
+     */
+    private volatile long resolveAt;
+
+    /**
+     * The port of the server.
+     */
+    private final int destinationPort;
+
+    /**
+     * The Uri-Host option value, null when not needed.
+     */
+    private final String uriHost;
+
+    /**
+     * The Uri-Port option value, null when not needed.
+     */
+    private final Integer uriPort;
+
+    /**
+     * The Uri-Path option values, null when the path is not set.
+     */
+    private final List< String > uriPath;
+
+    /**
+     * The Uri-Query option values, null when no query is set.
+     */
+    private final List< String > uriQuery;
+
+    /**
+     * Constructor
+     * @param uri the compiled uri.
+     * @param addressTtl The time to live of the resolved address in milliseconds, 0 or less when it is not resolved again.
+     * @throws MalformedUriException when the uri host cannot be resolved.
+     */
+    private RequestTemplate( URI uri, long addressTtl ) throws MalformedUriException
+    {
+        this.uri= uri.toString();
+
+        host= ( uri.getHost() == null ? "localhost" : uri.getHost() );
+        try
+        {
+            destination= InetAddress.getByName( host );
+        }
+        catch ( UnknownHostException e )
+        {
+            throw new MalformedUriException( "cannot resolve host of uri { " + this.uri + " }", e );
+        }
+        uriHost= ( host.toLowerCase().matches( IP_LITERAL ) ? null : host );
+        // ip literals never change
+        this.addressTtl= ( uriHost == null ? 0L : Math.max( 0L, addressTtl ) );
+        resolveAt= ( this.addressTtl > 0L ? System.currentTimeMillis() + this.addressTtl : Long.MAX_VALUE );
+
+        boolean secure= CoAP.COAP_SECURE_URI_SCHEME.equalsIgnoreCase( uri.getScheme() );
+        int defaultPort= ( secure ? CoAP.DEFAULT_COAP_SECURE_PORT : CoAP.DEFAULT_COAP_PORT );
+        destinationPort= ( uri.getPort() > 0 ? uri.getPort() : defaultPort );
+        uriPort= ( destinationPort != defaultPort ? Integer.valueOf( destinationPort ) : null );
+
+        String path= uri.getPath();
+        if ( path != null && path.length() > 1 )
+        {
+            ArrayList< String > segments= new ArrayList< String >();
+            for ( String segment : path.substring( 1 ).split( "/" ) )
+            {
+                segments.add( segment );
+            }
+            uriPath= Collections.unmodifiableList( segments );
+        }
+        else
+        {
+            uriPath= null;
+        }
+
+        String query= uri.getQuery();
+        if ( query != null )
+        {
+            ArrayList< String > arguments= new ArrayList< String >();
+            for ( String argument : query.split( "&" ) )
+            {
+                if ( !argument.isEmpty() ) arguments.add( argument );
+            }
+            uriQuery= Collections.unmodifiableList( arguments );
+        }
+        else
+        {
+            uriQuery= null;
+        }
+    }
+
+    /**
+     * Compile a template.
+     * @param uri The uri of the resource.
+     * @param addressTtl The time to live of the resolved address in milliseconds, 0 or less when it is not resolved again.
+     * @return The template.
+     * @throws MalformedUriException when the uri host cannot be resolved.
+     */
+    public static RequestTemplate compile( URI uri, long addressTtl ) throws MalformedUriException
+    {
+        return new RequestTemplate( uri, addressTtl );
+    }
+
+    /**
+     * Get the address of the server, resolving it again when its time to live has expired.
+     * When resolving fails the previous address is kept for another time to live.
+     * @return The address.
+     */
+    private InetAddress resolve()
+    {
+        long now= System.currentTimeMillis();
+        if ( now < resolveAt ) return destination;
+        synchronized ( this )
+        {
+            if ( now < resolveAt ) return destination;
+            try
+            {
+                destination= InetAddress.getByName( host );
+            }
+            catch ( UnknownHostException e )
+            {
+                logger.warn( "cannot resolve host of uri { " + uri + " } again, keeping address { " + destination.getHostAddress() + " }" );
+            }
+            resolveAt= now + addressTtl;
+            return destination;
+        }
+    }
+
+    /**
+     * Address the request to the resource.
+     * Uri options already present on the request are overruled by those of the template.
+     * @param request The request to address.
+     */
+    public void applyTo( Request request )
+    {
+        request.setDestination( resolve() );
+        request.setDestinationPort( destinationPort );
+
+        OptionSet options= request.getOptions();
+        if ( uriHost != null ) options.setUriHost( uriHost );
+        if ( uriPort != null ) options.setUriPort( uriPort );
+        if ( uriPath != null )
+        {
+            options.clearUriPath();
+            for ( String segment : uriPath )
+            {
+                options.addUriPath( segment );
+            }
+        }
+        if ( uriQuery != null )
+        {
+            options.clearUriQuery();
+            for ( String argument : uriQuery )
+            {
+                options.addUriQuery( argument );
+            }
+        }
+    }
+
+    /**
+     * @return The uri of the resource.
+     */
+    public String getUri()
+    {
+        return uri;
+    }
+
+    /**
+     * @return The resolved address of the server.
+     */
+    public InetAddress getDestination()
+    {
+        return resolve();
+    }
+
+    /**
+     * @return The port of the server.
+     */
+    public int getDestinationPort()
+    {
+        return destinationPort;
+    }
+
+    /**
+     * Key identifying a template by the operation parameters it was compiled from.
+     * Host and port are the values given on the operation, so null means the connector default.
+     */
+    static final class Key
+    {
+        private final String host;
+
+        private final Integer port;
+
+        private final String path;
+
+        private final List< String > queryParameters;
+
+        private final int hash;
+
+        /**
+         * Constructor
+         * @param host The host address of the server.
+         * @param port The port the server is listening on.
+         * @param path The path of the resource.
+         * @param queryParameters List of query parameters.
+         */
+        Key( String host, Integer port, String path, List< String > queryParameters )
+        {
+            this.host= host;
+            this.port= port;
+            this.path= path;
+            this.queryParameters= queryParameters;
+
+            int h= ( host == null ? 0 : host.hashCode() );
+            h= 31 * h + ( port == null ? 0 : port.hashCode() );
+            h= 31 * h + ( path == null ? 0 : path.hashCode() );
+            h= 31 * h + ( queryParameters == null ? 0 : queryParameters.hashCode() );
+            this.hash= h;
+        }
+
+        /**
+         * Get a copy of the key that is not affected by later changes of the query parameter list.
+         * @return The key to store.
+         */
+        Key stable()
+        {
+            if ( queryParameters == null ) return this;
+            return new Key( host, port, path, Collections.unmodifiableList( new ArrayList< String >( queryParameters ) ) );
+        }
+
+        /* (non-Javadoc)
+         * @see java.lang.Object#hashCode()
+         */
+        @Override
+        public int hashCode()
+        {
+            return hash;
+        }
+
+        /* (non-Javadoc)
+         * @see java.lang.Object#equals(java.lang.Object)
+         */
+        @Override
+        public boolean equals( Object obj )
+        {
+            if ( this == obj ) return true;
+            if ( !( obj instanceof Key ) ) return false;
+            Key other= (Key) obj;
+            return hash == other.hash && ( host == null ? other.host == null : host.equals( other.host ) ) && ( port == null ? other.port == null : port.equals( other.port ) )
+                && ( path == null ? other.path == null : path.equals( other.path ) )
+                && ( queryParameters == null ? other.queryParameters == null : queryParameters.equals( other.queryParameters ) );
+        }
+    }
+}
@@ -0,0 +1,192 @@
+/*******************************************************************************
+ * Copyright (c) 2019 (teslanet.nl) Rogier Cobben.
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License - v 2.0 
+ * which accompanies this distribution.
+ * 
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ * 
+ * Contributors:
+ *    (teslanet.nl) Rogier Cobben - initial creation
+ ******************************************************************************/
+package nl.teslanet.mule.transport.coap.client;
+
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.eclipse.californium.core.coap.MessageObserverAdapter;
+import org.eclipse.californium.core.coap.Request;
+import org.eclipse.californium.core.coap.Response;
+
+import nl.teslanet.mule.transport.coap.client.endpoint.EndpointPool;
+
+
+/**
+ * Issues a number of requests concurrently, with a maximum number in flight, 
+ * and collects their responses and timings.
+ * Requests that have not completed at the deadline are cancelled.
+ */
+final class ScatterGather
+{
+    /**
+     * The requests, by index.
+     */
+    private final Request[] requests;
+
+    /**
+     * The responses, by index. Null when none was received.
+     */
+    private final AtomicReferenceArray< Response > responses;
+
+    /**
+     * The time in milliseconds from sending to completion, by index. Negative when not completed.
+     */
+    private final long[] elapsed;
+
+    /**
+     * Slots limiting the number of requests in flight.
+     */
+    private final Semaphore slots;
+
+    /**
+     * Counts down as requests complete.
+     */
+    private final CountDownLatch done;
+
+    /**
+     * Constructor
+     * @param requests The requests to issue.
+     * @param maxConcurrency The maximum number of requests in flight.
+     */
+    ScatterGather( Request[] requests, int maxConcurrency )
+    {
+        this.requests= requests;
+        this.responses= new AtomicReferenceArray< Response >( requests.length );
+        this.elapsed= new long [requests.length];
+        this.slots= new Semaphore( Math.max( 1, maxConcurrency ) );
+        this.done= new CountDownLatch( requests.length );
+        for ( int i= 0; i < elapsed.length; i++ )
+        {
+            elapsed[i]= -1L;
+        }
+    }
+
+    /**
+     * Send the requests and wait until all have completed or the deadline has passed.
+     * @param endpoints The endpoints to send the requests on.
+     * @param deadline The deadline as {@link System#nanoTime()} value, {@link Long#MAX_VALUE} when there is none.
+     * @throws InterruptedException when interrupted while waiting.
+     */
+    void execute( EndpointPool endpoints, long deadline ) throws InterruptedException
+    {
+        try
+        {
+            for ( int i= 0; i < requests.length; i++ )
+            {
+                if ( !slots.tryAcquire( remaining( deadline ), TimeUnit.NANOSECONDS ) )
+                {
+                    // deadline passed, the remaining requests are not sent
+                    break;
+                }
+                send( endpoints, i );
+            }
+            done.await( remaining( deadline ), TimeUnit.NANOSECONDS );
+        }
+        finally
+        {
+            for ( Request request : requests )
+            {
+                if ( !request.isCanceled() && request.getResponse() == null )
+                {
+                    request.cancel();
+                }
+            }
+        }
+    }
+
+    /**
+     * Get the time left until the deadline.
+     * @param deadline The deadline as {@link System#nanoTime()} value, {@link Long#MAX_VALUE} when there is none.
+     * @return The remaining time in nanoseconds.
+     */
+    private static long remaining( long deadline )
+    {
+        return ( deadline == Long.MAX_VALUE ? Long.MAX_VALUE : deadline - System.nanoTime() );
+    }
+
+    /**
+     * Send one request.
+     * @param endpoints The endpoints to send the request on.
+     * @param index The index of the request.
+     */
+    private void send( EndpointPool endpoints, final int index )
+    {
+        final Request request= requests[index];
+        final long start= System.nanoTime();
+        request.addMessageObserver( new MessageObserverAdapter()
+            {
+                @Override
+                public void onResponse( Response response )
+                {
+                    complete( response );
+                }
+
+                @Override
+                public void onReject()
+                {
+                    complete( null );
+                }
+
+                @Override
+                public void onTimeout()
+                {
+                    complete( null );
+                }
+
+                @Override
+                public void onCancel()
+                {
+                    complete( null );
+                }
+
+                private void complete( Response response )
+                {
+                    synchronized ( elapsed )
+                    {
+                        if ( elapsed[index] >= 0 ) return;
+                        responses.set( index, response );
+                        elapsed[index]= TimeUnit.NANOSECONDS.toMillis( System.nanoTime() - start );
+                    }
+                    slots.release();
+                    done.countDown();
+                }
+            } );
+        endpoints.select( request.getDestination(), request.getDestinationPort() ).sendRequest( request );
+    }
+
+    /**
+     * @param index The index of the request.
+     * @return The response, null when none was received.
+     */
+    Response getResponse( int index )
+    {
+        return responses.get( index );
+    }
+
+    /**
+     * @param index The index of the request.
+     * @return The time in milliseconds from sending to completion, null when the request has not completed.
+     */
+    Long getElapsed( int index )
+    {
+        synchronized ( elapsed )
+        {
+            return ( elapsed[index] < 0 ? null : Long.valueOf( elapsed[index] ) );
+        }
+    }
+}
@@ -0,0 +1,253 @@
+/*******************************************************************************
+ * Copyright (c) 2019 (teslanet.nl) Rogier Cobben.
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License - v 2.0 
+ * which accompanies this distribution.
+ * 
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ * 
+ * Contributors:
+ *    (teslanet.nl) Rogier Cobben - initial creation
+ ******************************************************************************/
+package nl.teslanet.mule.transport.coap.client.blockwise;
+
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.eclipse.californium.core.coap.BlockOption;
+import org.eclipse.californium.core.coap.EmptyMessage;
+import org.eclipse.californium.core.coap.Request;
+import org.eclipse.californium.core.coap.Response;
+import org.eclipse.californium.core.network.interceptors.MessageInterceptor;
+
+
+/**
+ * Captures the first block of blockwise responses to streamed requests.
+ * Streamed requests are registered by token. When the first block of their response arrives, 
+ * it is handed to the stream of the request and its more flag is cleared, 
+ * so the endpoint completes the request with the first block instead of fetching and reassembling the complete body.
+ * The stream then fetches the remaining blocks itself.
+ * Responses that fit in one block are not captured and are delivered as usual.
+ * <p>
+ * Likewise the acknowledgement of a block sent by an upload is handed to the upload, 
+ * and the Block1 option is removed from the response, as the endpoint did not send the block as part of a blockwise transfer of its own.
+ * <p>
+ * The blocks of responses the endpoint reassembles are checked by the guard of the request, if any.
+ * The endpoint requests the following blocks with the token of the request, so all blocks of the transfer are checked.
+ */
+public class BlockCapture implements MessageInterceptor
+{
+    /**
+     * The streams waiting for their first block, by request token.
+     */
+    private final ConcurrentHashMap< ByteBuffer, BlockInputStream > waiting= new ConcurrentHashMap< ByteBuffer, BlockInputStream >();
+
+    /**
+     * The streams that received their first block and are not claimed yet, by request token.
+     */
+    private final ConcurrentHashMap< ByteBuffer, BlockInputStream > captured= new ConcurrentHashMap< ByteBuffer, BlockInputStream >();
+
+    /**
+     * The uploads waiting for the acknowledgement of a block, by token of the block request.
+     */
+    private final ConcurrentHashMap< ByteBuffer, UploadRequest > uploads= new ConcurrentHashMap< ByteBuffer, UploadRequest >();
+
+    /**
+     * The guards of responses reassembled by the endpoint, by request token.
+     */
+    private final ConcurrentHashMap< ByteBuffer, ResponseGuard > guards= new ConcurrentHashMap< ByteBuffer, ResponseGuard >();
+
+    /**
+     * Create a token for a request that is registered before it is sent.
+     * @return The token.
+     */
+    static byte[] newToken()
+    {
+        byte[] token= new byte [8];
+        ThreadLocalRandom.current().nextBytes( token );
+        return token;
+    }
+
+    /**
+     * Register the stream of a request.
+     * @param token The token of the request.
+     * @param stream The stream to feed.
+     */
+    void register( byte[] token, BlockInputStream stream )
+    {
+        waiting.put( ByteBuffer.wrap( token.clone() ), stream );
+    }
+
+    /**
+     * Unregister the stream of a request that completed without being captured.
+     * @param token The token of the request.
+     */
+    void unregister( byte[] token )
+    {
+        ByteBuffer key= ByteBuffer.wrap( token );
+        waiting.remove( key );
+        captured.remove( key );
+    }
+
+    /**
+     * Register an upload waiting for the acknowledgement of a block.
+     * @param token The token of the block request.
+     * @param upload The upload.
+     */
+    void registerUpload( byte[] token, UploadRequest upload )
+    {
+        uploads.put( ByteBuffer.wrap( token.clone() ), upload );
+    }
+
+    /**
+     * Unregister an upload when the block request has completed.
+     * @param token The token of the block request.
+     */
+    void unregisterUpload( byte[] token )
+    {
+        uploads.remove( ByteBuffer.wrap( token ) );
+    }
+
+    /**
+     * Register the guard of a request.
+     * @param token The token of the request.
+     * @param guard The guard.
+     */
+    void registerGuard( byte[] token, ResponseGuard guard )
+    {
+        guards.put( ByteBuffer.wrap( token.clone() ), guard );
+    }
+
+    /**
+     * Unregister the guard of a request that has completed.
+     * @param token The token of the request.
+     */
+    void unregisterGuard( byte[] token )
+    {
+        guards.remove( ByteBuffer.wrap( token ) );
+    }
+
+    /**
+     * Claim the stream that carries the body of a response.
+     * @param response The response to a request.
+     * @return The stream, or null when the response was not captured.
+     */
+    public BlockInputStream claim( Response response )
+    {
+        if ( captured.isEmpty() || response.getToken() == null ) return null;
+        return captured.remove( ByteBuffer.wrap( response.getToken() ) );
+    }
+
+    /**
+     * @return The number of streams waiting for their first block.
+     */
+    public int getWaiting()
+    {
+        return waiting.size();
+    }
+
+    /**
+     * @return The number of streams that received their first block and are not claimed yet.
+     */
+    public int getUnclaimed()
+    {
+        return captured.size();
+    }
+
+    /**
+     * @return The number of requests with a guard registered.
+     */
+    public int getGuarded()
+    {
+        return guards.size();
+    }
+
+    /* (non-Javadoc)
+     * @see org.eclipse.californium.core.network.interceptors.MessageInterceptor#receiveResponse(org.eclipse.californium.core.coap.Response)
+     */
+    @Override
+    public void receiveResponse( Response response )
+    {
+        if ( !uploads.isEmpty() && response.getOptions().hasBlock1() )
+        {
+            UploadRequest upload= uploads.remove( ByteBuffer.wrap( response.getToken() ) );
+            if ( upload != null )
+            {
+                upload.onBlockAcknowledged( response.getOptions().getBlock1() );
+                response.getOptions().removeBlock1();
+            }
+        }
+        if ( !guards.isEmpty() && response.getOptions().hasBlock2() )
+        {
+            ByteBuffer key= ByteBuffer.wrap( response.getToken() );
+            ResponseGuard guard= guards.get( key );
+            if ( guard != null && !guard.admit( response ) )
+            {
+                guards.remove( key );
+                // drop the block and stop the transfer
+                response.setCanceled( true );
+                guard.abort();
+                return;
+            }
+        }
+        if ( waiting.isEmpty() || !response.getOptions().hasBlock2() ) return;
+        BlockOption block2= response.getOptions().getBlock2();
+        if ( block2.getNum() != 0 || !block2.isM() ) return;
+        ByteBuffer key= ByteBuffer.wrap( response.getToken() );
+        BlockInputStream stream= waiting.remove( key );
+        if ( stream == null ) return;
+        captured.put( key, stream );
+        stream.onFirstBlock( response );
+        // the endpoint must take the first block for the complete response
+        response.getOptions().setBlock2( block2.getSzx(), false, 0 );
+    }
+
+    /* (non-Javadoc)
+     * @see org.eclipse.californium.core.network.interceptors.MessageInterceptor#sendRequest(org.eclipse.californium.core.coap.Request)
+     */
+    @Override
+    public void sendRequest( Request request )
+    {
+        // nothing to capture
+    }
+
+    /* (non-Javadoc)
+     * @see org.eclipse.californium.core.network.interceptors.MessageInterceptor#sendResponse(org.eclipse.californium.core.coap.Response)
+     */
+    @Override
+    public void sendResponse( Response response )
+    {
+        // responses are not originated by the client
+    }
+
+    /* (non-Javadoc)
+     * @see org.eclipse.californium.core.network.interceptors.MessageInterceptor#sendEmptyMessage(org.eclipse.californium.core.coap.EmptyMessage)
+     */
+    @Override
+    public void sendEmptyMessage( EmptyMessage message )
+    {
+        // nothing to capture
+    }
+
+    /* (non-Javadoc)
+     * @see org.eclipse.californium.core.network.interceptors.MessageInterceptor#receiveRequest(org.eclipse.californium.core.coap.Request)
+     */
+    @Override
+    public void receiveRequest( Request request )
+    {
+        // requests are not handled by the client
+    }
+
+    /* (non-Javadoc)
+     * @see org.eclipse.californium.core.network.interceptors.MessageInterceptor#receiveEmptyMessage(org.eclipse.californium.core.coap.EmptyMessage)
+     */
+    @Override
+    public void receiveEmptyMessage( EmptyMessage message )
+    {
+        // nothing to capture
+    }
+}
@@ -0,0 +1,784 @@
+/*******************************************************************************
+ * Copyright (c) 2019 (teslanet.nl) Rogier Cobben.
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License - v 2.0 
+ * which accompanies this distribution.
+ * 
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ * 
+ * Contributors:
+ *    (teslanet.nl) Rogier Cobben - initial creation
+ ******************************************************************************/
+package nl.teslanet.mule.transport.coap.client.blockwise;
+
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.californium.core.coap.BlockOption;
+import org.eclipse.californium.core.coap.CoAP.ResponseCode;
+import org.eclipse.californium.core.coap.Message;
+import org.eclipse.californium.core.coap.MessageObserverAdapter;
+import org.eclipse.californium.core.coap.OptionSet;
+import org.eclipse.californium.core.coap.Request;
+import org.eclipse.californium.core.coap.Response;
+import org.eclipse.californium.core.network.CoapEndpoint;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import nl.teslanet.mule.transport.coap.client.concurrent.MemoryBudget;
+
+
+/**
+ * Input stream fed with the blocks of a blockwise response as they arrive.
+ * The first block is captured before the endpoint reassembles the body, the following blocks 
+ * are requested with an explicit Block2 option, which the endpoint delivers as they are.
+ * A block is only requested while the number of blocks buffered and in flight stays within the capacity, 
+ * so memory use per transfer is bounded and the transfer proceeds at the pace of the reader.
+ * When the server announces the size of the resource in the first block, up to window blocks 
+ * are requested concurrently and put back in order as they arrive. 
+ * Otherwise the blocks are requested one after the other.
+ * Blocks are reserved in the memory budget until the reader has consumed them. 
+ * The transfer fails when the response exceeds the maximum size or the budget is exhausted.
+ * A stream that is left unread for longer than the idle timeout is closed, so a reader that drops it
+ * does not keep its blocks reserved. A stream whose request was never sent is detached and closed as well.
+ */
+public class BlockInputStream extends InputStream
+{
+    /**
+     * Logger of the class
+     */
+    private static final Logger logger= LoggerFactory.getLogger( BlockInputStream.class );
+
+    /**
+     * The endpoint the blocks are requested on.
+     */
+    private final CoapEndpoint endpoint;
+
+    /**
+     * The request of the response.
+     */
+    private final Request request;
+
+    /**
+     * The uri of the resource, used in messages.
+     */
+    private final String uri;
+
+    /**
+     * The maximum number of blocks buffered and in flight.
+     */
+    private final int capacity;
+
+    /**
+     * The maximum number of blocks requested concurrently.
+     */
+    private final int window;
+
+    /**
+     * The maximum time in milliseconds to wait for a block.
+     */
+    private final long timeout;
+
+    /**
+     * The maximum size of the response in bytes, 0 when unlimited.
+     */
+    private final long maxSize;
+
+    /**
+     * The budget the blocks are buffered in.
+     */
+    private final MemoryBudget budget;
+
+    /**
+     * The capture the stream is registered in, null when not attached.
+     */
+    private volatile BlockCapture capture= null;
+
+    /**
+     * The number of bytes reserved in the budget.
+     */
+    private long reserved= 0L;
+
+    /**
+     * Guards the transfer state.
+     */
+    private final Object lock= new Object();
+
+    /**
+     * The blocks received and not yet read.
+     */
+    private final ArrayDeque< byte[] > buffered= new ArrayDeque< byte[] >();
+
+    /**
+     * The block requests in flight, by block number.
+     */
+    private final TreeMap< Integer, Request > inFlight= new TreeMap< Integer, Request >();
+
+    /**
+     * The blocks received ahead of a block still in flight, by block number.
+     */
+    private final TreeMap< Integer, byte[] > early= new TreeMap< Integer, byte[] >();
+
+    /**
+     * The block being read, null when none.
+     */
+    private byte[] current= null;
+
+    /**
+     * The read position in the current block.
+     */
+    private int position= 0;
+
+    /**
+     * True when the first block has been received.
+     */
+    private boolean started= false;
+
+    /**
+     * The block size exponent of the transfer.
+     */
+    private int szx= 0;
+
+    /**
+     * The number of the next block to request.
+     */
+    private int nextNum= 1;
+
+    /**
+     * The number of the next block to hand to the reader.
+     */
+    private int nextDelivery= 1;
+
+    /**
+     * The number of the last block according to the size announced by the server, -1 when unknown.
+     */
+    private int announcedLast= -1;
+
+    /**
+     * The number of the last block, -1 when it has not been received yet.
+     */
+    private int last= -1;
+
+    /**
+     * The ETag of the first block, null when the server did not provide one.
+     */
+    private byte[] etag= null;
+
+    /**
+     * The cause of failure of the transfer, null when none.
+     */
+    private IOException failure= null;
+
+    /**
+     * True when the stream has been closed.
+     */
+    private boolean closed= false;
+
+    /**
+     * The time in milliseconds the stream was last read, or the first block arrived.
+     */
+    private long lastRead= 0L;
+
+    /**
+     * True when a reader is waiting for a block.
+     */
+    private boolean reading= false;
+
+    /**
+     * Constructor
+     * @param endpoint The endpoint to request the blocks on.
+     * @param request The request of the response.
+     * @param uri The uri of the resource.
+     * @param capacity The maximum number of blocks buffered and in flight.
+     * @param window The maximum number of blocks requested concurrently.
+     * @param timeout The maximum time in milliseconds to wait for a block.
+     * @param maxSize The maximum size of the response in bytes, 0 or less means unlimited.
+     * @param budget The budget the blocks are buffered in.
+     */
+    public BlockInputStream( CoapEndpoint endpoint, Request request, String uri, int capacity, int window, long timeout, long maxSize, MemoryBudget budget )
+    {
+        this.endpoint= endpoint;
+        this.request= request;
+        this.uri= uri;
+        this.window= Math.max( 1, window );
+        this.capacity= Math.max( this.window, capacity );
+        this.timeout= timeout;
+        this.maxSize= Math.max( 0L, maxSize );
+        this.budget= budget;
+    }
+
+    /**
+     * Have the first block of the response to the request captured for this stream.
+     * Must be called before the request is sent.
+     * @param capture The capture of the endpoints the request is sent on.
+     */
+    public void attach( final BlockCapture capture )
+    {
+        if ( request.getToken() == null )
+        {
+            request.setToken( BlockCapture.newToken() );
+        }
+        if ( window > 1 && !request.getOptions().hasSize2() )
+        {
+            // ask the server to announce the size
+            request.getOptions().setSize2( 0 );
+        }
+        final byte[] token= request.getToken();
+        this.capture= capture;
+        capture.register( token, this );
+        request.addMessageObserver( new MessageObserverAdapter()
+            {
+                @Override
+                public void onResponse( Response response )
+                {
+                    if ( !isStarted() )
+                    {
+                        // not blockwise, the stream is not used
+                        capture.unregister( token );
+                        close();
+                    }
+                }
+
+                @Override
+                public void onReject()
+                {
+                    abort();
+                }
+
+                @Override
+                public void onTimeout()
+                {
+                    abort();
+                }
+
+                @Override
+                public void onCancel()
+                {
+                    abort();
+                }
+
+                private void abort()
+                {
+                    capture.unregister( token );
+                    close();
+                }
+            } );
+    }
+
+    /**
+     * Unregister the stream from the capture and close it.
+     * Used when the request is not sent after all.
+     */
+    public void detach()
+    {
+        BlockCapture attached= capture;
+        if ( attached != null )
+        {
+            attached.unregister( request.getToken() );
+        }
+        close();
+    }
+
+    /**
+     * Close the stream when it is not read for the idle timeout.
+     * @param scheduler The scheduler of the idle checks.
+     * @param idleTimeout The idle timeout in milliseconds, 0 or less means no timeout.
+     */
+    public void closeWhenIdle( ScheduledExecutorService scheduler, long idleTimeout )
+    {
+        if ( scheduler == null || idleTimeout <= 0L ) return;
+        scheduleIdleCheck( scheduler, idleTimeout, idleTimeout );
+    }
+
+    /**
+     * Schedule a check whether the stream has been idle for the idle timeout.
+     * The check is scheduled again as long as the stream holds blocks or requests.
+     * @param scheduler The scheduler of the idle checks.
+     * @param idleTimeout The idle timeout in milliseconds.
+     * @param delay The delay of the check in milliseconds.
+     */
+    private void scheduleIdleCheck( final ScheduledExecutorService scheduler, final long idleTimeout, long delay )
+    {
+        try
+        {
+            scheduler.schedule( new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        long remaining;
+                        boolean unsent= false;
+                        synchronized ( lock )
+                        {
+                            // nothing held anymore
+                            if ( closed || ( isComplete() && inFlight.isEmpty() && reserved == 0L ) ) return;
+                            if ( !started )
+                            {
+                                // a request that is done without a blockwise response or was never sent will not start the stream
+                                unsent= isDone( request ) || request.getMID() == Message.NONE;
+                            }
+                            remaining= ( started && !reading ? lastRead + idleTimeout - System.currentTimeMillis() : idleTimeout );
+                        }
+                        if ( unsent )
+                        {
+                            detach();
+                            return;
+                        }
+                        if ( remaining > 0L )
+                        {
+                            scheduleIdleCheck( scheduler, idleTimeout, remaining );
+                            return;
+                        }
+                        logger.warn( "stream of { " + uri + " } closed, not read for { " + idleTimeout + " } ms" );
+                        close();
+                    }
+                }, delay, TimeUnit.MILLISECONDS );
+        }
+        catch ( RejectedExecutionException e )
+        {
+            // stopping, the stream is not checked anymore
+            close();
+        }
+    }
+
+    /**
+     * Establish whether a request has completed.
+     * @param request The request.
+     * @return True when the request received a response, or was cancelled, rejected or timed out.
+     */
+    private static boolean isDone( Request request )
+    {
+        return request.getResponse() != null || request.isCanceled() || request.isRejected() || request.isTimedOut();
+    }
+
+    /**
+     * Take the first block of the response and start fetching the following blocks.
+     * @param response The first block.
+     */
+    void onFirstBlock( Response response )
+    {
+        List< Request > next;
+        synchronized ( lock )
+        {
+            started= true;
+            lastRead= System.currentTimeMillis();
+            szx= response.getOptions().getBlock2().getSzx();
+            etag= etagOf( response );
+            Integer size2= response.getOptions().getSize2();
+            if ( size2 != null && size2.intValue() > 0 )
+            {
+                announcedLast= ( size2.intValue() - 1 ) / BlockOption.szx2Size( szx );
+            }
+            if ( maxSize > 0L && size2 != null && size2.longValue() > maxSize )
+            {
+                failure= new IOException( "response on { " + uri + " } rejected, announced size { " + size2 + " } exceeds maximum { " + maxSize + " }" );
+            }
+            else
+            {
+                failure= admit( 0, response.getPayload() );
+            }
+            if ( failure == null )
+            {
+                buffered.add( response.getPayload() );
+            }
+            next= nextRequests();
+        }
+        send( next );
+    }
+
+    /**
+     * Take a following block of the response.
+     * @param num The number of the requested block.
+     * @param response The response carrying the block.
+     */
+    private void onBlock( int num, Response response )
+    {
+        List< Request > next;
+        List< Request > excess= null;
+        synchronized ( lock )
+        {
+            inFlight.remove( Integer.valueOf( num ) );
+            if ( closed || failure != null || ( last >= 0 && num > last ) ) return;
+            failure= verify( num, response );
+            if ( failure == null )
+            {
+                failure= admit( num, response.getPayload() );
+            }
+            if ( failure == null )
+            {
+                early.put( Integer.valueOf( num ), response.getPayload() );
+                if ( !response.getOptions().getBlock2().isM() )
+                {
+                    last= num;
+                    // blocks beyond the last one are not needed
+                    excess= new ArrayList< Request >( inFlight.tailMap( Integer.valueOf( num ), false ).values() );
+                    inFlight.tailMap( Integer.valueOf( num ), false ).clear();
+                }
+                else if ( num >= announcedLast )
+                {
+                    // the announced size was wrong, continue one block at a time
+                    announcedLast= -1;
+                }
+                deliver();
+            }
+            lock.notifyAll();
+            next= nextRequests();
+        }
+        if ( excess != null )
+        {
+            for ( Request block : excess )
+            {
+                block.cancel();
+            }
+        }
+        send( next );
+    }
+
+    /**
+     * Hand the blocks that arrived in order to the reader.
+     * Must be called holding the lock.
+     */
+    private void deliver()
+    {
+        byte[] block;
+        while ( ( block= early.remove( Integer.valueOf( nextDelivery ) ) ) != null )
+        {
+            buffered.add( block );
+            nextDelivery++;
+        }
+    }
+
+    /**
+     * Establish whether all blocks have been handed to the reader.
+     * Must be called holding the lock.
+     * @return True when the last block has been handed to the reader.
+     */
+    private boolean isComplete()
+    {
+        return last >= 0 && nextDelivery > last;
+    }
+
+    /**
+     * Fail the transfer because a block could not be retrieved.
+     * @param num The number of the requested block.
+     * @param reason The reason of failure.
+     */
+    private void onFailure( int num, String reason )
+    {
+        synchronized ( lock )
+        {
+            inFlight.remove( Integer.valueOf( num ) );
+            if ( closed || failure != null || ( last >= 0 && num > last ) ) return;
+            failure= new IOException( "block { " + num + " } of { " + uri + " } " + reason );
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * Verify a block belongs to the transfer.
+     * @param num The number of the requested block.
+     * @param response The response carrying the block.
+     * @return The cause of failure, null when the block is valid.
+     */
+    private IOException verify( int num, Response response )
+    {
+        if ( !ResponseCode.isSuccess( response.getCode() ) )
+        {
+            return new IOException( "block { " + num + " } of { " + uri + " } failed with response code { " + response.getCode() + " }" );
+        }
+        BlockOption block2= response.getOptions().getBlock2();
+        if ( block2 == null || block2.getNum() != num || block2.getSzx() != szx )
+        {
+            return new IOException( "server did not return block { " + num + " } of { " + uri + " }" );
+        }
+        if ( etag != null && !Arrays.equals( etag, etagOf( response ) ) )
+        {
+            return new IOException( "resource { " + uri + " } changed during transfer" );
+        }
+        return null;
+    }
+
+    /**
+     * Check a block fits in the maximum size and reserve it in the budget.
+     * Must be called holding the lock.
+     * @param num The number of the block.
+     * @param payload The payload of the block.
+     * @return The cause of failure, null when the block is admitted.
+     */
+    private IOException admit( int num, byte[] payload )
+    {
+        if ( maxSize > 0L && (long) num * BlockOption.szx2Size( szx ) + payload.length > maxSize )
+        {
+            return new IOException( "response on { " + uri + " } aborted, size exceeds maximum { " + maxSize + " }" );
+        }
+        if ( !budget.reserve( payload.length ) )
+        {
+            return new IOException( "response on { " + uri + " } aborted, memory budget of { " + budget.getLimit() + " } bytes exhausted" );
+        }
+        reserved+= payload.length;
+        return null;
+    }
+
+    /**
+     * Release the block the reader has consumed from the budget.
+     * Must be called holding the lock.
+     */
+    private void releaseCurrent()
+    {
+        if ( current != null )
+        {
+            budget.release( current.length );
+            reserved-= current.length;
+            current= null;
+        }
+    }
+
+    /**
+     * Get the entity tag of a response.
+     * @param response The response.
+     * @return The first ETag, null when there is none.
+     */
+    private static byte[] etagOf( Response response )
+    {
+        List< byte[] > etags= response.getOptions().getETags();
+        return ( etags.isEmpty() ? null : etags.get( 0 ) );
+    }
+
+    /**
+     * Create the requests for the next blocks there is room for.
+     * Blocks are requested concurrently only up to the last block, so when that is known.
+     * Must be called holding the lock.
+     * @return The requests to send.
+     */
+    private List< Request > nextRequests()
+    {
+        ArrayList< Request > requests= new ArrayList< Request >();
+        int limit= ( last >= 0 ? last : announcedLast );
+        int concurrency= ( limit >= 0 ? window : 1 );
+        while ( !closed && failure == null && inFlight.size() < concurrency && buffered.size() + early.size() + inFlight.size() < capacity
+            && ( limit < 0 || nextNum <= limit ) )
+        {
+            requests.add( createBlockRequest( nextNum++ ) );
+        }
+        return requests;
+    }
+
+    /**
+     * Create the request for a block.
+     * Must be called holding the lock.
+     * @param num The number of the block.
+     * @return The request.
+     */
+    private Request createBlockRequest( final int num )
+    {
+        Request block= new Request( request.getCode() );
+        block.setType( request.getType() );
+        block.setOptions( new OptionSet( request.getOptions() ) );
+        block.getOptions().setBlock2( szx, false, num );
+        block.setDestination( request.getDestination() );
+        block.setDestinationPort( request.getDestinationPort() );
+        block.addMessageObserver( new MessageObserverAdapter()
+            {
+                @Override
+                public void onResponse( Response response )
+                {
+                    onBlock( num, response );
+                }
+
+                @Override
+                public void onReject()
+                {
+                    onFailure( num, "rejected" );
+                }
+
+                @Override
+                public void onTimeout()
+                {
+                    onFailure( num, "timed out" );
+                }
+
+                @Override
+                public void onCancel()
+                {
+                    onFailure( num, "cancelled" );
+                }
+            } );
+        inFlight.put( Integer.valueOf( num ), block );
+        return block;
+    }
+
+    /**
+     * Send block requests.
+     * @param blocks The requests.
+     */
+    private void send( List< Request > blocks )
+    {
+        for ( Request block : blocks )
+        {
+            endpoint.sendRequest( block );
+        }
+    }
+
+    /**
+     * Make the current block readable, waiting for it when needed.
+     * Must be called holding the lock.
+     * @return False when the end of the stream has been reached.
+     * @throws IOException when the transfer failed or the stream is closed.
+     */
+    private boolean fill() throws IOException
+    {
+        long deadline= 0L;
+        while ( current == null || position >= current.length )
+        {
+            if ( closed ) throw new IOException( "stream of { " + uri + " } is closed" );
+            releaseCurrent();
+            byte[] block= buffered.poll();
+            if ( block != null )
+            {
+                current= block;
+                position= 0;
+                continue;
+            }
+            if ( failure != null ) throw new IOException( failure.getMessage(), failure );
+            if ( isComplete() ) return false;
+            long now= System.currentTimeMillis();
+            if ( deadline == 0L )
+            {
+                deadline= now + timeout;
+            }
+            else if ( now >= deadline )
+            {
+                failure= new IOException( "timed out waiting for block { " + nextDelivery + " } of { " + uri + " }" );
+                continue;
+            }
+            try
+            {
+                lock.wait( deadline - now );
+            }
+            catch ( InterruptedException e )
+            {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException( "interrupted waiting for block of { " + uri + " }" );
+            }
+        }
+        return true;
+    }
+
+    /* (non-Javadoc)
+     * @see java.io.InputStream#read()
+     */
+    @Override
+    public int read() throws IOException
+    {
+        byte[] b= new byte [1];
+        int count= read( b, 0, 1 );
+        return ( count < 0 ? -1 : b[0] & 0xff );
+    }
+
+    /* (non-Javadoc)
+     * @see java.io.InputStream#read(byte[], int, int)
+     */
+    @Override
+    public int read( byte[] b, int off, int len ) throws IOException
+    {
+        if ( len == 0 ) return 0;
+        int count;
+        List< Request > next;
+        synchronized ( lock )
+        {
+            reading= true;
+            try
+            {
+                if ( !fill() ) return -1;
+            }
+            finally
+            {
+                reading= false;
+                lastRead= System.currentTimeMillis();
+            }
+            count= Math.min( len, current.length - position );
+            System.arraycopy( current, position, b, off, count );
+            position+= count;
+            next= nextRequests();
+        }
+        send( next );
+        return count;
+    }
+
+    /* (non-Javadoc)
+     * @see java.io.InputStream#available()
+     */
+    @Override
+    public int available()
+    {
+        synchronized ( lock )
+        {
+            int available= ( current == null ? 0 : current.length - position );
+            for ( byte[] block : buffered )
+            {
+                available+= block.length;
+            }
+            return available;
+        }
+    }
+
+    /**
+     * Close the stream. Block requests in flight are cancelled.
+     */
+    @Override
+    public void close()
+    {
+        ArrayList< Request > pending;
+        synchronized ( lock )
+        {
+            if ( closed ) return;
+            closed= true;
+            buffered.clear();
+            early.clear();
+            current= null;
+            budget.release( reserved );
+            reserved= 0L;
+            pending= new ArrayList< Request >( inFlight.values() );
+            inFlight.clear();
+            lock.notifyAll();
+        }
+        for ( Request block : pending )
+        {
+            block.cancel();
+        }
+    }
+
+    /**
+     * @return True when the transfer has failed.
+     */
+    public boolean isFailed()
+    {
+        synchronized ( lock )
+        {
+            return failure != null;
+        }
+    }
+
+    /**
+     * @return True when the first block has been received.
+     */
+    public boolean isStarted()
+    {
+        synchronized ( lock )
+        {
+            return started;
+        }
+    }
+}
@@ -0,0 +1,204 @@
+/*******************************************************************************
+ * Copyright (c) 2019 (teslanet.nl) Rogier Cobben.
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License - v 2.0 
+ * which accompanies this distribution.
+ * 
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ * 
+ * Contributors:
+ *    (teslanet.nl) Rogier Cobben - initial creation
+ ******************************************************************************/
+package nl.teslanet.mule.transport.coap.client.blockwise;
+
+
+import org.eclipse.californium.core.coap.BlockOption;
+import org.eclipse.californium.core.coap.MessageObserverAdapter;
+import org.eclipse.californium.core.coap.Request;
+import org.eclipse.californium.core.coap.Response;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import nl.teslanet.mule.transport.coap.client.concurrent.MemoryBudget;
+
+
+/**
+ * Guards the size of a blockwise response the endpoint reassembles.
+ * Every block is checked before the endpoint buffers it. The transfer is aborted by cancelling the request 
+ * when the size announced in the first block or the size received exceeds the maximum, 
+ * or when the memory budget cannot hold the block.
+ * The memory reserved for the transfer is released when the request completes.
+ */
+public class ResponseGuard
+{
+    /**
+     * Logger of the class
+     */
+    private static final Logger logger= LoggerFactory.getLogger( ResponseGuard.class );
+
+    /**
+     * The guarded request.
+     */
+    private final Request request;
+
+    /**
+     * The uri of the resource, used in messages.
+     */
+    private final String uri;
+
+    /**
+     * The maximum size of the response in bytes, 0 when unlimited.
+     */
+    private final long maxSize;
+
+    /**
+     * The budget the blocks are buffered in.
+     */
+    private final MemoryBudget budget;
+
+    /**
+     * The capture the guard is registered in, null when not attached.
+     */
+    private volatile BlockCapture capture= null;
+
+    /**
+     * The number of bytes reserved in the budget.
+     */
+    private long reserved= 0L;
+
+    /**
+     * True when the request has completed.
+     */
+    private boolean completed= false;
+
+    /**
+     * Constructor
+     * @param request The request to guard.
+     * @param uri The uri of the resource.
+     * @param maxSize The maximum size of the response in bytes, 0 or less means unlimited.
+     * @param budget The budget the blocks are buffered in.
+     */
+    public ResponseGuard( Request request, String uri, long maxSize, MemoryBudget budget )
+    {
+        this.request= request;
+        this.uri= uri;
+        this.maxSize= Math.max( 0L, maxSize );
+        this.budget= budget;
+    }
+
+    /**
+     * Have the blocks of the response to the request checked.
+     * Must be called before the request is sent.
+     * @param capture The capture of the endpoints the request is sent on.
+     */
+    public void attach( final BlockCapture capture )
+    {
+        if ( request.getToken() == null )
+        {
+            request.setToken( BlockCapture.newToken() );
+        }
+        final byte[] token= request.getToken();
+        this.capture= capture;
+        capture.registerGuard( token, this );
+        request.addMessageObserver( new MessageObserverAdapter()
+            {
+                @Override
+                public void onResponse( Response response )
+                {
+                    complete();
+                }
+
+                @Override
+                public void onReject()
+                {
+                    complete();
+                }
+
+                @Override
+                public void onTimeout()
+                {
+                    complete();
+                }
+
+                @Override
+                public void onCancel()
+                {
+                    complete();
+                }
+
+                private void complete()
+                {
+                    capture.unregisterGuard( token );
+                    release();
+                }
+            } );
+    }
+
+    /**
+     * Unregister the guard from the capture and release its memory.
+     * Used when the request is not sent after all.
+     */
+    public void detach()
+    {
+        BlockCapture attached= capture;
+        if ( attached != null )
+        {
+            attached.unregisterGuard( request.getToken() );
+        }
+        release();
+    }
+
+    /**
+     * Check a block of the response before it is buffered.
+     * @param response The response carrying the block.
+     * @return True when the block may be buffered, false when the transfer must be aborted.
+     */
+    boolean admit( Response response )
+    {
+        BlockOption block2= response.getOptions().getBlock2();
+        Integer size2= response.getOptions().getSize2();
+        if ( maxSize > 0L && block2.getNum() == 0 && size2 != null && size2.longValue() > maxSize )
+        {
+            logger.warn( "response on { " + uri + " } rejected, announced size { " + size2 + " } exceeds maximum { " + maxSize + " }" );
+            return false;
+        }
+        int length= response.getPayloadSize();
+        long received= (long) block2.getNum() * block2.getSize() + length;
+        if ( maxSize > 0L && received > maxSize )
+        {
+            logger.warn( "response on { " + uri + " } aborted, size exceeds maximum { " + maxSize + " }" );
+            return false;
+        }
+        synchronized ( this )
+        {
+            if ( completed ) return true;
+            if ( !budget.reserve( length ) )
+            {
+                logger.warn( "response on { " + uri + " } aborted, memory budget of { " + budget.getLimit() + " } bytes exhausted" );
+                return false;
+            }
+            reserved+= length;
+        }
+        return true;
+    }
+
+    /**
+     * Abort the transfer.
+     */
+    void abort()
+    {
+        request.cancel();
+    }
+
+    /**
+     * Release the memory reserved for the transfer.
+     */
+    private synchronized void release()
+    {
+        completed= true;
+        budget.release( reserved );
+        reserved= 0L;
+    }
+}
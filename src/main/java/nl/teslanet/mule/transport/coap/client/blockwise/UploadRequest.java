@@ -0,0 +1,469 @@
+/*******************************************************************************
+ * Copyright (c) 2019 (teslanet.nl) Rogier Cobben.
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License - v 2.0 
+ * which accompanies this distribution.
+ * 
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ * 
+ * Contributors:
+ *    (teslanet.nl) Rogier Cobben - initial creation
+ ******************************************************************************/
+package nl.teslanet.mule.transport.coap.client.blockwise;
+
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.nio.ByteBuffer;
+
+import org.eclipse.californium.core.coap.BlockOption;
+import org.eclipse.californium.core.coap.CoAP.Code;
+import org.eclipse.californium.core.coap.CoAP.ResponseCode;
+import org.eclipse.californium.core.coap.MessageObserverAdapter;
+import org.eclipse.californium.core.coap.OptionSet;
+import org.eclipse.californium.core.coap.Request;
+import org.eclipse.californium.core.coap.Response;
+import org.eclipse.californium.core.network.CoapEndpoint;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Request with a body that is read lazily from an input stream, byte buffer or file.
+ * The request itself is not sent. The body is sent block by block in requests carrying a Block1 option,
+ * reading the next block only when the previous one has been acknowledged, 
+ * so the body never has to be held in memory as a whole.
+ * When the size of the body is known it is announced in the Size1 option of the first block.
+ * A body that fits in one block is sent in a plain request.
+ * The request completes with the response to the last block.
+ */
+public class UploadRequest extends Request
+{
+    /**
+     * Logger of the class
+     */
+    private static final Logger logger= LoggerFactory.getLogger( UploadRequest.class );
+
+    /**
+     * The body, an input stream, byte buffer or file.
+     */
+    private final Object body;
+
+    /**
+     * The size of the body in bytes, -1 when unknown.
+     */
+    private final long size;
+
+    /**
+     * Guards the transfer state.
+     */
+    private final Object lock= new Object();
+
+    /**
+     * The endpoint the blocks are sent on.
+     */
+    private CoapEndpoint endpoint= null;
+
+    /**
+     * The capture of block acknowledgements.
+     */
+    private BlockCapture capture= null;
+
+    /**
+     * The body being read.
+     */
+    private PushbackInputStream source= null;
+
+    /**
+     * The block size exponent of the transfer.
+     */
+    private int szx= 0;
+
+    /**
+     * The number of bytes sent.
+     */
+    private long offset= 0L;
+
+    /**
+     * True when more blocks follow the block in flight.
+     */
+    private boolean more= false;
+
+    /**
+     * The block request in flight, null when none.
+     */
+    private Request current= null;
+
+    /**
+     * True when the transfer has finished.
+     */
+    private boolean finished= false;
+
+    /**
+     * The Block1 option of the acknowledgement of the block in flight, null when none received.
+     */
+    private volatile BlockOption acknowledged= null;
+
+    /**
+     * Constructor
+     * @param code The request code.
+     * @param body The body, an input stream, byte buffer or file.
+     */
+    public UploadRequest( Code code, Object body )
+    {
+        super( code );
+        this.body= body;
+        this.size= sizeOf( body );
+    }
+
+    /**
+     * Establish whether a payload can be uploaded lazily.
+     * @param payload The payload.
+     * @return True when the payload is an input stream, byte buffer or file.
+     */
+    public static boolean isUploadable( Object payload )
+    {
+        return payload instanceof InputStream || payload instanceof ByteBuffer || payload instanceof File;
+    }
+
+    /**
+     * Get the size of a body.
+     * @param body The body.
+     * @return The size in bytes, -1 when unknown.
+     */
+    private static long sizeOf( Object body )
+    {
+        if ( body instanceof File ) return ( (File) body ).length();
+        if ( body instanceof ByteBuffer ) return ( (ByteBuffer) body ).remaining();
+        return -1L;
+    }
+
+    /**
+     * @return The size of the body in bytes, -1 when unknown.
+     */
+    public long getSize()
+    {
+        return size;
+    }
+
+    /**
+     * Open the body for reading.
+     * @return The stream to read the body from.
+     * @throws IOException when the body cannot be opened.
+     */
+    private InputStream open() throws IOException
+    {
+        if ( body instanceof File ) return new FileInputStream( (File) body );
+        if ( body instanceof ByteBuffer ) return new ByteBufferInputStream( ( (ByteBuffer) body ).duplicate() );
+        return (InputStream) body;
+    }
+
+    /**
+     * Start the transfer. 
+     * @param endpoint The endpoint to send the blocks on.
+     * @param capture The capture of block acknowledgements of the endpoint.
+     * @param szx The block size exponent to use.
+     */
+    public void start( CoapEndpoint endpoint, BlockCapture capture, int szx )
+    {
+        synchronized ( lock )
+        {
+            this.endpoint= endpoint;
+            this.capture= capture;
+            this.szx= szx;
+        }
+        addMessageObserver( new MessageObserverAdapter()
+            {
+                @Override
+                public void onCancel()
+                {
+                    abort();
+                }
+            } );
+        try
+        {
+            source= new PushbackInputStream( open(), 1 );
+        }
+        catch ( IOException e )
+        {
+            fail( "body could not be opened", e );
+            return;
+        }
+        sendBlock( 0 );
+    }
+
+    /**
+     * Read and send a block.
+     * @param num The number of the block.
+     */
+    private void sendBlock( final int num )
+    {
+        final Request block;
+        final byte[] token= BlockCapture.newToken();
+        IOException failure= null;
+        synchronized ( lock )
+        {
+            if ( finished ) return;
+            byte[] payload= null;
+            try
+            {
+                payload= readBlock( BlockOption.szx2Size( szx ) );
+                more= hasMore();
+            }
+            catch ( IOException e )
+            {
+                failure= e;
+            }
+            if ( failure != null )
+            {
+                block= null;
+            }
+            else
+            {
+                block= new Request( getCode() );
+                block.setType( getType() );
+                block.setOptions( new OptionSet( getOptions() ) );
+                block.setDestination( getDestination() );
+                block.setDestinationPort( getDestinationPort() );
+                block.setToken( token );
+                block.setPayload( payload );
+                if ( num > 0 || more )
+                {
+                    block.getOptions().setBlock1( szx, more, num );
+                    if ( num == 0 && size >= 0 ) block.getOptions().setSize1( (int) Math.min( size, Integer.MAX_VALUE ) );
+                    capture.registerUpload( token, this );
+                }
+                offset+= payload.length;
+                acknowledged= null;
+                current= block;
+            }
+        }
+        if ( failure != null )
+        {
+            fail( "body could not be read", failure );
+            return;
+        }
+        block.addMessageObserver( new MessageObserverAdapter()
+            {
+                @Override
+                public void onResponse( Response response )
+                {
+                    capture.unregisterUpload( token );
+                    onBlockResponse( num, response );
+                }
+
+                @Override
+                public void onReject()
+                {
+                    capture.unregisterUpload( token );
+                    if ( finish() ) setRejected( true );
+                }
+
+                @Override
+                public void onTimeout()
+                {
+                    capture.unregisterUpload( token );
+                    if ( finish() ) setTimedOut( true );
+                }
+
+                @Override
+                public void onCancel()
+                {
+                    capture.unregisterUpload( token );
+                }
+            } );
+        endpoint.sendRequest( block );
+    }
+
+    /**
+     * Read a block of the body.
+     * @param blockSize The size of the block.
+     * @return The block, shorter than the block size at the end of the body.
+     * @throws IOException when the body cannot be read.
+     */
+    private byte[] readBlock( int blockSize ) throws IOException
+    {
+        byte[] buffer= new byte [blockSize];
+        int count= 0;
+        while ( count < blockSize )
+        {
+            int read= source.read( buffer, count, blockSize - count );
+            if ( read < 0 ) break;
+            count+= read;
+        }
+        if ( count == blockSize ) return buffer;
+        byte[] last= new byte [count];
+        System.arraycopy( buffer, 0, last, 0, count );
+        return last;
+    }
+
+    /**
+     * Establish whether the body has more bytes to send.
+     * @return True when the end of the body has not been reached.
+     * @throws IOException when the body cannot be read.
+     */
+    private boolean hasMore() throws IOException
+    {
+        int next= source.read();
+        if ( next < 0 ) return false;
+        source.unread( next );
+        return true;
+    }
+
+    /**
+     * Keep the Block1 option of the acknowledgement of the block in flight.
+     * @param block1 The Block1 option of the acknowledgement.
+     */
+    void onBlockAcknowledged( BlockOption block1 )
+    {
+        acknowledged= block1;
+    }
+
+    /**
+     * Process the response to a block, sending the next block when the server asks to continue.
+     * @param num The number of the block.
+     * @param response The response.
+     */
+    private void onBlockResponse( int num, Response response )
+    {
+        int nextNum= -1;
+        boolean unacknowledged= false;
+        synchronized ( lock )
+        {
+            if ( finished ) return;
+            current= null;
+            BlockOption ack= acknowledged;
+            if ( more && response.getCode() == ResponseCode.CONTINUE )
+            {
+                if ( ack != null && ack.getSzx() == szx && ack.getNum() != num )
+                {
+                    unacknowledged= true;
+                }
+                else
+                {
+                    if ( ack != null && ack.getSzx() < szx )
+                    {
+                        // the server asks for smaller blocks
+                        szx= ack.getSzx();
+                    }
+                    nextNum= (int) ( offset / BlockOption.szx2Size( szx ) );
+                }
+            }
+        }
+        if ( unacknowledged )
+        {
+            fail( "block { " + num + " } was not acknowledged", null );
+        }
+        else if ( nextNum >= 0 )
+        {
+            sendBlock( nextNum );
+        }
+        else if ( finish() )
+        {
+            setResponse( response );
+        }
+    }
+
+    /**
+     * Fail the transfer.
+     * @param reason The reason of failure.
+     * @param cause The cause, null when none.
+     */
+    private void fail( String reason, Exception cause )
+    {
+        if ( finish() )
+        {
+            logger.warn( "upload to { " + getDestination() + ":" + getDestinationPort() + "/" + getOptions().getUriPathString() + " } failed: " + reason, cause );
+            setRejected( true );
+        }
+    }
+
+    /**
+     * Stop the transfer when the request is cancelled.
+     */
+    private void abort()
+    {
+        Request pending;
+        synchronized ( lock )
+        {
+            pending= current;
+            current= null;
+        }
+        if ( finish() && pending != null )
+        {
+            pending.cancel();
+        }
+    }
+
+    /**
+     * Finish the transfer and close the body.
+     * @return True when the transfer was finished by this call.
+     */
+    private boolean finish()
+    {
+        synchronized ( lock )
+        {
+            if ( finished ) return false;
+            finished= true;
+        }
+        if ( source != null )
+        {
+            try
+            {
+                source.close();
+            }
+            catch ( IOException e )
+            {
+                logger.debug( "body of upload could not be closed", e );
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Input stream reading the remaining bytes of a byte buffer.
+     */
+    private static final class ByteBufferInputStream extends InputStream
+    {
+        /**
+         * The buffer to read.
+         */
+        private final ByteBuffer buffer;
+
+        /**
+         * Constructor
+         * @param buffer The buffer to read.
+         */
+        ByteBufferInputStream( ByteBuffer buffer )
+        {
+            this.buffer= buffer;
+        }
+
+        /* (non-Javadoc)
+         * @see java.io.InputStream#read()
+         */
+        @Override
+        public int read()
+        {
+            return ( buffer.hasRemaining() ? buffer.get() & 0xff : -1 );
+        }
+
+        /* (non-Javadoc)
+         * @see java.io.InputStream#read(byte[], int, int)
+         */
+        @Override
+        public int read( byte[] b, int off, int len )
+        {
+            if ( len == 0 ) return 0;
+            if ( !buffer.hasRemaining() ) return -1;
+            int count= Math.min( len, buffer.remaining() );
+            buffer.get( b, off, count );
+            return count;
+        }
+    }
+}
@@ -0,0 +1,376 @@
+/*******************************************************************************
+ * Copyright (c) 2019 (teslanet.nl) Rogier Cobben.
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License - v 2.0 
+ * which accompanies this distribution.
+ * 
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ * 
+ * Contributors:
+ *    (teslanet.nl) Rogier Cobben - initial creation
+ ******************************************************************************/
+package nl.teslanet.mule.transport.coap.client.cache;
+
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Bounded cache that evicts a least recently used entry when full.
+ * Lookups do not lock, they only mark the entry as referenced. 
+ * Eviction uses the clock algorithm, an approximation of least recently used:
+ * entries are visited in insertion order, a referenced entry gets a second chance and moves to the back, 
+ * the first entry that is not referenced is evicted.
+ * The cache is safe for concurrent use and counts hits, misses and evictions.
+ * A maximum size of zero or less disables the cache: nothing is stored, every lookup is a miss.
+ *
+ * @param <K> The key type.
+ * @param <V> The value type.
+ */
+public class LruCache< K, V >
+{
+    /**
+     * The maximum number of entries.
+     */
+    private final int maxSize;
+
+    /**
+     * The entries by key.
+     */
+    private final ConcurrentHashMap< K, Node< K, V > > entries= new ConcurrentHashMap< K, Node< K, V > >();
+
+    /**
+     * The entries in the order they are visited for eviction, may contain removed entries.
+     * Is also the lock of eviction.
+     */
+    private final ConcurrentLinkedQueue< Node< K, V > > order= new ConcurrentLinkedQueue< Node< K, V > >();
+
+    /**
+     * Number of removed entries still in the eviction order.
+     */
+    private final AtomicInteger stale= new AtomicInteger();
+
+    /**
+     * Number of lookups that found an entry.
+     */
+    private final AtomicLong hits= new AtomicLong();
+
+    /**
+     * Number of lookups that found no entry.
+     */
+    private final AtomicLong misses= new AtomicLong();
+
+    /**
+     * Number of entries removed to make room for new ones.
+     */
+    private final AtomicLong evictions= new AtomicLong();
+
+    /**
+     * Constructor
+     * @param maxSize The maximum number of entries the cache holds.
+     */
+    public LruCache( final int maxSize )
+    {
+        this.maxSize= maxSize;
+    }
+
+    /**
+     * Get a cached value. The entry is marked as recently used.
+     * @param key The key of the entry.
+     * @return The value, or null when the key is not cached.
+     */
+    public V get( K key )
+    {
+        Node< K, V > node= entries.get( key );
+        if ( node == null )
+        {
+            misses.incrementAndGet();
+            return null;
+        }
+        node.referenced= true;
+        hits.incrementAndGet();
+        return node.value;
+    }
+
+    /**
+     * Get a cached value without marking it as used and without counting the lookup.
+     * @param key The key of the entry.
+     * @return The value, or null when the key is not cached.
+     */
+    public V peek( K key )
+    {
+        Node< K, V > node= entries.get( key );
+        return ( node == null ? null : node.value );
+    }
+
+    /**
+     * Add a value when no value is cached for the key yet.
+     * @param key The key of the entry.
+     * @param value The value to cache.
+     * @return The value that was already cached, or null when the given value was added.
+     */
+    public V putIfAbsent( K key, V value )
+    {
+        if ( maxSize <= 0 ) return null;
+        Node< K, V > node= new Node< K, V >( key, value );
+        Node< K, V > existing= entries.putIfAbsent( key, node );
+        if ( existing != null )
+        {
+            return existing.value;
+        }
+        order.offer( node );
+        trim();
+        return null;
+    }
+
+    /**
+     * Add or replace a value. A replaced value is reported to {@link #removed(Object, Object)}.
+     * The entry is replaced as a whole, so an eviction running concurrently either evicts the replaced value 
+     * or nothing at all, and every value leaves the cache through exactly one callback.
+     * @param key The key of the entry.
+     * @param value The value to cache.
+     * @return The value that was replaced, or null when there was none.
+     */
+    public V put( K key, V value )
+    {
+        if ( maxSize <= 0 ) return null;
+        Node< K, V > node= new Node< K, V >( key, value );
+        while ( true )
+        {
+            Node< K, V > existing= entries.putIfAbsent( key, node );
+            if ( existing == null )
+            {
+                order.offer( node );
+                trim();
+                return null;
+            }
+            if ( entries.replace( key, existing, node ) )
+            {
+                node.referenced= true;
+                order.offer( node );
+                stale.incrementAndGet();
+                removed( key, existing.value );
+                purge();
+                return existing.value;
+            }
+            // removed meanwhile, add the value anew
+        }
+    }
+
+    /**
+     * Remove an entry. The removal is reported to {@link #removed(Object, Object)}.
+     * @param key The key of the entry.
+     * @return The value removed, or null when the key was not cached.
+     */
+    public V remove( K key )
+    {
+        Node< K, V > node= entries.remove( key );
+        if ( node == null ) return null;
+        stale.incrementAndGet();
+        removed( key, node.value );
+        purge();
+        return node.value;
+    }
+
+    /**
+     * Evict a least recently used entry.
+     * @return True when an entry was evicted, false when the cache is empty.
+     */
+    public boolean evictEldest()
+    {
+        synchronized ( order )
+        {
+            return evictOne();
+        }
+    }
+
+    /**
+     * Evict entries until the cache is within its maximum size.
+     */
+    private void trim()
+    {
+        if ( entries.size() <= maxSize ) return;
+        synchronized ( order )
+        {
+            while ( entries.size() > maxSize && evictOne() )
+            {
+                // evicted
+            }
+        }
+        purge();
+    }
+
+    /**
+     * Evict the first entry in eviction order that is not referenced.
+     * Referenced entries get a second chance, removed entries are dropped from the order.
+     * Must be called holding the eviction lock.
+     * @return True when an entry was evicted, false when there is none.
+     */
+    private boolean evictOne()
+    {
+        // every entry is visited at most twice: once to clear its reference and once to evict it
+        int visits= 2 * ( entries.size() + stale.get() ) + 1;
+        Node< K, V > node;
+        while ( visits-- > 0 && ( node= order.poll() ) != null )
+        {
+            if ( entries.get( node.key ) != node )
+            {
+                stale.decrementAndGet();
+            }
+            else if ( node.referenced )
+            {
+                node.referenced= false;
+                order.offer( node );
+            }
+            else if ( entries.remove( node.key, node ) )
+            {
+                evictions.incrementAndGet();
+                evicted( node.key, node.value );
+                return true;
+            }
+            else
+            {
+                stale.decrementAndGet();
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Drop removed entries from the eviction order, when they outnumber the maximum size.
+     */
+    private void purge()
+    {
+        if ( stale.get() <= Math.max( 16, maxSize ) ) return;
+        synchronized ( order )
+        {
+            int visits= entries.size() + stale.get();
+            Node< K, V > node;
+            while ( visits-- > 0 && stale.get() > 0 && ( node= order.poll() ) != null )
+            {
+                if ( entries.get( node.key ) == node )
+                {
+                    order.offer( node );
+                }
+                else
+                {
+                    stale.decrementAndGet();
+                }
+            }
+        }
+    }
+
+    /**
+     * Called when an entry is evicted to make room, while eviction is locked. Does nothing by default.
+     * @param key The key of the evicted entry.
+     * @param value The value of the evicted entry.
+     */
+    protected void evicted( K key, V value )
+    {
+        // no action
+    }
+
+    /**
+     * Called when an entry is removed using {@link #remove(Object)}, or its value is replaced using {@link #put(Object, Object)}. 
+     * Does nothing by default.
+     * @param key The key of the removed entry.
+     * @param value The value of the removed entry.
+     */
+    protected void removed( K key, V value )
+    {
+        // no action
+    }
+
+    /**
+     * Remove all entries. No callbacks are made and the counters are not reset.
+     */
+    public void clear()
+    {
+        synchronized ( order )
+        {
+            entries.clear();
+            order.clear();
+            stale.set( 0 );
+        }
+    }
+
+    /**
+     * @return The number of entries currently cached.
+     */
+    public int size()
+    {
+        return entries.size();
+    }
+
+    /**
+     * @return The maximum number of entries.
+     */
+    public int getMaxSize()
+    {
+        return maxSize;
+    }
+
+    /**
+     * @return The number of lookups that found an entry.
+     */
+    public long getHits()
+    {
+        return hits.get();
+    }
+
+    /**
+     * @return The number of lookups that found no entry.
+     */
+    public long getMisses()
+    {
+        return misses.get();
+    }
+
+    /**
+     * @return The number of entries evicted because the cache was full.
+     */
+    public long getEvictions()
+    {
+        return evictions.get();
+    }
+
+    /**
+     * Entry of the cache.
+     *
+     * @param <K> The key type.
+     * @param <V> The value type.
+     */
+    private static final class Node< K, V >
+    {
+        /**
+         * The key.
+         */
+        private final K key;
+
+        /**
+         * The value.
+         */
+        private final V value;
+
+        /**
+         * True when the entry was used since it was last visited for eviction.
+         */
+        private volatile boolean referenced= false;
+
+        /**
+         * Constructor
+         * @param key The key.
+         * @param value The value.
+         */
+        private Node( K key, V value )
+        {
+            this.key= key;
+            this.value= value;
+        }
+    }
+}
@@ -0,0 +1,245 @@
+/*******************************************************************************
+ * Copyright (c) 2019 (teslanet.nl) Rogier Cobben.
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License - v 2.0 
+ * which accompanies this distribution.
+ * 
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ * 
+ * Contributors:
+ *    (teslanet.nl) Rogier Cobben - initial creation
+ ******************************************************************************/
+package nl.teslanet.mule.transport.coap.client.cache;
+
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.californium.core.coap.MessageObserverAdapter;
+import org.eclipse.californium.core.coap.Request;
+import org.eclipse.californium.core.coap.Response;
+
+
+/**
+ * Lets identical concurrent requests share one exchange. Requests are identical when method, destination 
+ * and cache key options match, including their ETags, so a conditional request never joins an unconditional one.
+ * The first request of a key is sent, requests joining while it is in flight are not sent
+ * but complete with the outcome of the first request.
+ * When the request sent is cancelled, for instance by its own timeout, the requests that joined it 
+ * are not cancelled but sent again: the first becomes the request sent, the others join it.
+ */
+public class RequestCoalescer
+{
+    /**
+     * Sends requests that must be sent again because the request they joined was cancelled.
+     */
+    public interface Sender
+    {
+        /**
+         * Send the request. A request that cannot be sent must be completed by the sender. 
+         * @param request The addressed request.
+         */
+        void send( Request request );
+    }
+
+    /**
+     * Requests in flight by key.
+     */
+    private final ConcurrentHashMap< RequestKey, Flight > flights= new ConcurrentHashMap< RequestKey, Flight >();
+
+    /**
+     * Number of requests that joined a request in flight.
+     */
+    private final AtomicLong hits= new AtomicLong();
+
+    /**
+     * The sender of requests of which the joined request was cancelled.
+     */
+    private final Sender sender;
+
+    /**
+     * Constructor
+     * @param sender The sender of requests of which the joined request was cancelled.
+     */
+    public RequestCoalescer( Sender sender )
+    {
+        this.sender= sender;
+    }
+
+    /**
+     * Join the request with an identical request in flight, if any.
+     * Observers of the request must be added before joining, as the request may complete at once.
+     * @param request The addressed request.
+     * @return True when the request joined and must not be sent, 
+     * false when the request must be sent and others may join it.
+     */
+    public boolean join( Request request )
+    {
+        if ( enter( request ) )
+        {
+            hits.incrementAndGet();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Add the request to an identical request in flight, or start a flight when there is none.
+     * @param request The addressed request.
+     * @return True when the request was added to a flight, false when it started one.
+     */
+    private boolean enter( Request request )
+    {
+        RequestKey key= new RequestKey( request, true );
+        while ( true )
+        {
+            Flight flight= flights.get( key );
+            if ( flight == null )
+            {
+                Flight created= new Flight( key, request );
+                if ( flights.putIfAbsent( key, created ) == null )
+                {
+                    request.addMessageObserver( created );
+                    return false;
+                }
+            }
+            else if ( flight.add( request ) )
+            {
+                return true;
+            }
+            else
+            {
+                // completing, make room for a new flight
+                flights.remove( key, flight );
+            }
+        }
+    }
+
+    /**
+     * Abort the flight of a request that could not be sent. 
+     * The requests that joined it are cancelled.
+     * @param request The request that was to be sent.
+     */
+    public void abort( Request request )
+    {
+        Flight flight= flights.get( new RequestKey( request, true ) );
+        if ( flight != null && flight.leader == request )
+        {
+            for ( Request follower : flight.close() )
+            {
+                if ( !follower.isCanceled() )
+                {
+                    follower.setCanceled( true );
+                }
+            }
+        }
+    }
+
+    /**
+     * @return The number of requests that were not sent because they joined an identical request.
+     */
+    public long getHits()
+    {
+        return hits.get();
+    }
+
+    /**
+     * @return The number of requests in flight that can be joined.
+     */
+    public int getFlights()
+    {
+        return flights.size();
+    }
+
+    /**
+     * A request in flight and the requests that joined it.
+     */
+    private class Flight extends MessageObserverAdapter
+    {
+        private final RequestKey key;
+
+        private final Request leader;
+
+        private List< Request > followers= new ArrayList< Request >();
+
+        private Flight( RequestKey key, Request leader )
+        {
+            this.key= key;
+            this.leader= leader;
+        }
+
+        /**
+         * Add a request, unless the flight is completing.
+         * @param follower The request to add.
+         * @return True when added.
+         */
+        private synchronized boolean add( Request follower )
+        {
+            if ( followers == null ) return false;
+            followers.add( follower );
+            return true;
+        }
+
+        /**
+         * Close the flight for joining.
+         * @return The requests that joined.
+         */
+        private List< Request > close()
+        {
+            flights.remove( key, this );
+            synchronized ( this )
+            {
+                List< Request > joined= followers;
+                followers= null;
+                return ( joined == null ? new ArrayList< Request >() : joined );
+            }
+        }
+
+        @Override
+        public void onResponse( Response response )
+        {
+            for ( Request follower : close() )
+            {
+                if ( !follower.isCanceled() )
+                {
+                    follower.setResponse( response );
+                }
+            }
+        }
+
+        @Override
+        public void onReject()
+        {
+            for ( Request follower : close() )
+            {
+                follower.setRejected( true );
+            }
+        }
+
+        @Override
+        public void onTimeout()
+        {
+            for ( Request follower : close() )
+            {
+                follower.setTimedOut( true );
+            }
+        }
+
+        @Override
+        public void onCancel()
+        {
+            // the cancellation concerns the leader only, the followers are sent again 
+            for ( Request follower : close() )
+            {
+                if ( !follower.isCanceled() && !enter( follower ) )
+                {
+                    sender.send( follower );
+                }
+            }
+        }
+    }
+}
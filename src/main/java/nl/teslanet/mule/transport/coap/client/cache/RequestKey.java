@@ -0,0 +1,105 @@
+/*******************************************************************************
+ * Copyright (c) 2019 (teslanet.nl) Rogier Cobben.
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License - v 2.0 
+ * which accompanies this distribution.
+ * 
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ * 
+ * Contributors:
+ *    (teslanet.nl) Rogier Cobben - initial creation
+ ******************************************************************************/
+package nl.teslanet.mule.transport.coap.client.cache;
+
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.eclipse.californium.core.coap.CoAP.Code;
+import org.eclipse.californium.core.coap.Option;
+import org.eclipse.californium.core.coap.OptionNumberRegistry;
+import org.eclipse.californium.core.coap.Request;
+
+
+/**
+ * Key identifying requests that can be answered by the same response, according to RFC 7252 section 5.6.
+ * The key consists of the request method, the destination and the options of the request 
+ * that are not marked NoCacheKey. For the response cache the ETag option is left out, as it is used for validation.
+ * For coalescing it is kept, as a conditional request cannot share the response of an unconditional one.
+ */
+public final class RequestKey
+{
+    private final Code code;
+
+    private final InetAddress destination;
+
+    private final int destinationPort;
+
+    private final List< Option > options;
+
+    private final int hash;
+
+    /**
+     * Constructor of a key without the ETag option.
+     * @param request The addressed request.
+     */
+    public RequestKey( Request request )
+    {
+        this( request, false );
+    }
+
+    /**
+     * Constructor
+     * @param request The addressed request.
+     * @param withEtags When true the ETag options are part of the key.
+     */
+    public RequestKey( Request request, boolean withEtags )
+    {
+        this.code= request.getCode();
+        this.destination= request.getDestination();
+        this.destinationPort= request.getDestinationPort();
+
+        ArrayList< Option > keyOptions= new ArrayList< Option >();
+        for ( Option option : request.getOptions().asSortedList() )
+        {
+            int number= option.getNumber();
+            if ( ( withEtags || number != OptionNumberRegistry.ETAG ) && !OptionNumberRegistry.isNoCacheKey( number ) )
+            {
+                keyOptions.add( option );
+            }
+        }
+        this.options= Collections.unmodifiableList( keyOptions );
+
+        int h= ( code == null ? 0 : code.hashCode() );
+        h= 31 * h + ( destination == null ? 0 : destination.hashCode() );
+        h= 31 * h + destinationPort;
+        h= 31 * h + options.hashCode();
+        this.hash= h;
+    }
+
+    /* (non-Javadoc)
+     * @see java.lang.Object#hashCode()
+     */
+    @Override
+    public int hashCode()
+    {
+        return hash;
+    }
+
+    /* (non-Javadoc)
+     * @see java.lang.Object#equals(java.lang.Object)
+     */
+    @Override
+    public boolean equals( Object obj )
+    {
+        if ( this == obj ) return true;
+        if ( !( obj instanceof RequestKey ) ) return false;
+        RequestKey other= (RequestKey) obj;
+        return hash == other.hash && code == other.code && destinationPort == other.destinationPort
+            && ( destination == null ? other.destination == null : destination.equals( other.destination ) ) && options.equals( other.options );
+    }
+}
@@ -0,0 +1,529 @@
+/*******************************************************************************
+ * Copyright (c) 2019 (teslanet.nl) Rogier Cobben.
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License - v 2.0 
+ * which accompanies this distribution.
+ * 
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ * 
+ * Contributors:
+ *    (teslanet.nl) Rogier Cobben - initial creation
+ ******************************************************************************/
+package nl.teslanet.mule.transport.coap.client.cache;
+
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.californium.core.coap.CoAP.ResponseCode;
+import org.eclipse.californium.core.coap.MessageObserverAdapter;
+import org.eclipse.californium.core.coap.Option;
+import org.eclipse.californium.core.coap.OptionSet;
+import org.eclipse.californium.core.coap.Request;
+import org.eclipse.californium.core.coap.Response;
+
+import nl.teslanet.mule.transport.coap.client.endpoint.EndpointPool;
+
+
+/**
+ * Client side cache of GET responses, following the caching model of RFC 7252 section 5.6.
+ * Responses are stored by request key and are fresh for their Max-Age. 
+ * Stale entries with an ETag are revalidated, a 2.03 Valid response makes the stored response fresh again.
+ * The cache is bounded both in number of entries and in memory, least recently used entries are evicted first.
+ * Optionally hot entries are refreshed ahead, shortly before they become stale, so readers do not have to wait.
+ */
+public class ResponseCache
+{
+    /**
+     * Max-Age in seconds that applies when the response has no Max-Age option.
+     */
+    private static final long DEFAULT_MAX_AGE= 60L;
+
+    /**
+     * Estimated memory use of an entry, apart from payload and options.
+     */
+    private static final int ENTRY_OVERHEAD= 128;
+
+    /**
+     * The entries.
+     */
+    private final LruCache< RequestKey, Entry > entries;
+
+    /**
+     * Maximum estimated memory use in bytes.
+     */
+    private final long maxBytes;
+
+    /**
+     * Estimated memory use in bytes.
+     */
+    private final AtomicLong bytes= new AtomicLong();
+
+    /**
+     * Number of requests answered by a fresh entry.
+     */
+    private final AtomicLong hits= new AtomicLong();
+
+    /**
+     * Number of requests answered by a revalidated entry.
+     */
+    private final AtomicLong revalidations= new AtomicLong();
+
+    /**
+     * Number of requests that needed a response from the server.
+     */
+    private final AtomicLong misses= new AtomicLong();
+
+    /**
+     * Number of refresh-ahead requests issued.
+     */
+    private final AtomicLong refreshes= new AtomicLong();
+
+    /**
+     * Scheduler of refresh-ahead, null when refresh-ahead is off.
+     */
+    private volatile ScheduledExecutorService scheduler= null;
+
+    /**
+     * Endpoints to issue refresh-ahead requests on.
+     */
+    private volatile EndpointPool endpoints= null;
+
+    /**
+     * Minimum number of reads during the freshness lifetime that makes an entry hot.
+     */
+    private volatile int refreshReads= 0;
+
+    /**
+     * Slots limiting the number of refresh-ahead requests in flight.
+     */
+    private volatile Semaphore refreshSlots= null;
+
+    /**
+     * Constructor
+     * @param maxSize The maximum number of entries.
+     * @param maxBytes The maximum estimated memory use in bytes.
+     */
+    public ResponseCache( int maxSize, long maxBytes )
+    {
+        this.maxBytes= maxBytes;
+        this.entries= new LruCache< RequestKey, Entry >( maxSize )
+            {
+                @Override
+                protected void evicted( RequestKey key, Entry value )
+                {
+                    bytes.addAndGet( -value.size );
+                }
+
+                @Override
+                protected void removed( RequestKey key, Entry value )
+                {
+                    bytes.addAndGet( -value.size );
+                }
+            };
+    }
+
+    /**
+     * Enable refresh-ahead. Entries that are read at least the given number of times during their 
+     * freshness lifetime are revalidated in the background shortly before they become stale.
+     * @param scheduler The scheduler to time the refreshes.
+     * @param endpoints The endpoints to issue refresh requests on.
+     * @param minReads The minimum number of reads that makes an entry hot.
+     * @param concurrency The maximum number of refresh requests in flight.
+     */
+    public void enableRefreshAhead( ScheduledExecutorService scheduler, EndpointPool endpoints, int minReads, int concurrency )
+    {
+        this.refreshSlots= new Semaphore( Math.max( 1, concurrency ) );
+        this.refreshReads= Math.max( 1, minReads );
+        this.endpoints= endpoints;
+        this.scheduler= scheduler;
+    }
+
+    /**
+     * Look the request up. When a stale entry with ETag is found, 
+     * the ETag is added to the request so the server can validate the entry.
+     * The lookup keeps the stale entry, so it can be used when it is evicted before the server validates it.
+     * @param request The addressed GET request.
+     * @return The lookup, holding the fresh response when found.
+     */
+    public Lookup lookup( Request request )
+    {
+        RequestKey key= new RequestKey( request );
+        // requests with an ETag of the application are validated by the application
+        boolean conditional= request.getOptions().getETagCount() > 0;
+        Entry entry= entries.get( key );
+        Entry validated= null;
+        if ( entry != null && !conditional )
+        {
+            if ( entry.isFresh() )
+            {
+                hits.incrementAndGet();
+                entry.reads.incrementAndGet();
+                return new Lookup( key, request, false, entry.response, null );
+            }
+            if ( entry.etag != null )
+            {
+                request.getOptions().addETag( entry.etag );
+                validated= entry;
+            }
+        }
+        misses.incrementAndGet();
+        return new Lookup( key, request, conditional, null, validated );
+    }
+
+    /**
+     * Store a response.
+     * @param key The key of the request.
+     * @param request The request.
+     * @param response The response.
+     */
+    private void store( RequestKey key, Request request, Response response )
+    {
+        long maxAge= maxAgeOf( response );
+        if ( maxAge <= 0 ) return;
+        Entry entry= new Entry( copyOf( request, null ), response, maxAge );
+        if ( entry.size > maxBytes ) return;
+        synchronized ( this )
+        {
+            insert( key, entry );
+        }
+        scheduleRefresh( key, entry );
+    }
+
+    /**
+     * Insert an entry and evict entries until the memory use is within bounds.
+     * The size of an entry is counted when it is inserted, and discounted only by the callbacks of the entries 
+     * when it is evicted, removed or replaced.
+     * The caller must hold the lock of the cache.
+     * @param key The key of the request.
+     * @param entry The entry.
+     */
+    private void insert( RequestKey key, Entry entry )
+    {
+        bytes.addAndGet( entry.size );
+        entries.put( key, entry );
+        while ( bytes.get() > maxBytes && entries.evictEldest() )
+        {
+            // evicted
+        }
+    }
+
+    /**
+     * Make a stored response fresh again, after the server validated it.
+     * The entry validated is stored again when it was evicted meanwhile, 
+     * unless another response has been stored since.
+     * @param key The key of the request.
+     * @param valid The 2.03 Valid response.
+     * @param validated The entry of which the ETag was sent, null when none.
+     * @return The stored response, or null when there is none or it does not match the ETag.
+     */
+    private Response revalidate( RequestKey key, Response valid, Entry validated )
+    {
+        if ( validated == null || validated.etag == null ) return null;
+        List< byte[] > etags= valid.getOptions().getETags();
+        if ( !etags.isEmpty() && !Arrays.equals( etags.get( 0 ), validated.etag ) ) return null;
+        long maxAge= maxAgeOf( valid );
+        Entry renewed= null;
+        synchronized ( this )
+        {
+            Entry current= entries.peek( key );
+            if ( maxAge > 0 )
+            {
+                if ( current == null || current == validated )
+                {
+                    renewed= new Entry( validated.origin, validated.response, maxAge );
+                    insert( key, renewed );
+                }
+            }
+            else if ( current == validated )
+            {
+                entries.remove( key );
+            }
+        }
+        if ( renewed != null )
+        {
+            scheduleRefresh( key, renewed );
+        }
+        return validated.response;
+    }
+
+    /**
+     * Schedule the refresh-ahead of an entry, shortly before it becomes stale.
+     * @param key The key of the entry.
+     * @param entry The entry.
+     */
+    private void scheduleRefresh( final RequestKey key, final Entry entry )
+    {
+        ScheduledExecutorService refreshScheduler= scheduler;
+        if ( refreshScheduler == null || entry.etag == null ) return;
+        // refresh when 90% of the lifetime has passed
+        long delay= entry.maxAge * 900L;
+        try
+        {
+            refreshScheduler.schedule( new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        refresh( key, entry );
+                    }
+                }, delay, TimeUnit.MILLISECONDS );
+        }
+        catch ( RuntimeException e )
+        {
+            // scheduler is shut down, the entry will just become stale
+        }
+    }
+
+    /**
+     * Revalidate an entry in the background when it is still cached and hot.
+     * @param key The key of the entry.
+     * @param entry The entry.
+     */
+    private void refresh( RequestKey key, Entry entry )
+    {
+        EndpointPool refreshEndpoints= endpoints;
+        final Semaphore slots= refreshSlots;
+        if ( refreshEndpoints == null || slots == null ) return;
+        synchronized ( this )
+        {
+            // a refresh check is no use of the entry
+            if ( entries.peek( key ) != entry ) return;
+        }
+        if ( entry.reads.get() < refreshReads || !slots.tryAcquire() ) return;
+
+        final Request request= copyOf( entry.origin, entry.etag );
+        final Lookup lookup= new Lookup( key, request, false, null, entry );
+        request.addMessageObserver( new MessageObserverAdapter()
+            {
+                @Override
+                public void onResponse( Response response )
+                {
+                    slots.release();
+                    lookup.complete( response );
+                }
+
+                @Override
+                public void onReject()
+                {
+                    slots.release();
+                }
+
+                @Override
+                public void onTimeout()
+                {
+                    slots.release();
+                }
+
+                @Override
+                public void onCancel()
+                {
+                    slots.release();
+                }
+            } );
+        refreshes.incrementAndGet();
+        refreshEndpoints.select( request.getDestination(), request.getDestinationPort() ).sendRequest( request );
+    }
+
+    /**
+     * Copy the addressing and options of a request, without its observers and state.
+     * @param request The request to copy.
+     * @param etag The ETag to validate with, null when none.
+     * @return The copy.
+     */
+    private static Request copyOf( Request request, byte[] etag )
+    {
+        Request copy= new Request( request.getCode() );
+        copy.setConfirmable( request.isConfirmable() );
+        copy.setDestination( request.getDestination() );
+        copy.setDestinationPort( request.getDestinationPort() );
+        OptionSet options= new OptionSet( request.getOptions() );
+        options.clearETags();
+        if ( etag != null )
+        {
+            options.addETag( etag );
+        }
+        copy.setOptions( options );
+        return copy;
+    }
+
+    /**
+     * Get the freshness lifetime of a response.
+     * @param response The response.
+     * @return The Max-Age in seconds.
+     */
+    private static long maxAgeOf( Response response )
+    {
+        return ( response.getOptions().hasMaxAge() ? response.getOptions().getMaxAge() : DEFAULT_MAX_AGE );
+    }
+
+    /**
+     * Remove all entries. The counters are not reset.
+     */
+    public synchronized void clear()
+    {
+        entries.clear();
+        bytes.set( 0 );
+    }
+
+    /**
+     * @return The number of entries.
+     */
+    public int size()
+    {
+        return entries.size();
+    }
+
+    /**
+     * @return The estimated memory use in bytes.
+     */
+    public long getBytes()
+    {
+        return bytes.get();
+    }
+
+    /**
+     * @return The number of requests answered by a fresh entry.
+     */
+    public long getHits()
+    {
+        return hits.get();
+    }
+
+    /**
+     * @return The number of requests answered by a revalidated entry.
+     */
+    public long getRevalidations()
+    {
+        return revalidations.get();
+    }
+
+    /**
+     * @return The number of requests that needed a response from the server.
+     */
+    public long getMisses()
+    {
+        return misses.get();
+    }
+
+    /**
+     * @return The number of refresh-ahead requests issued.
+     */
+    public long getRefreshes()
+    {
+        return refreshes.get();
+    }
+
+    /**
+     * @return The number of entries evicted because the cache was full.
+     */
+    public long getEvictions()
+    {
+        return entries.getEvictions();
+    }
+
+    /**
+     * Outcome of a cache lookup, that completes the request when the response arrives.
+     */
+    public final class Lookup
+    {
+        private final RequestKey key;
+
+        private final Request request;
+
+        private final boolean conditional;
+
+        private final Response fresh;
+
+        private final Entry validated;
+
+        private Lookup( RequestKey key, Request request, boolean conditional, Response fresh, Entry validated )
+        {
+            this.key= key;
+            this.request= request;
+            this.conditional= conditional;
+            this.fresh= fresh;
+            this.validated= validated;
+        }
+
+        /**
+         * @return The fresh response from the cache, null when the request must be sent.
+         */
+        public Response getFreshResponse()
+        {
+            return fresh;
+        }
+
+        /**
+         * Process the response of the server. 
+         * Content responses are stored, a 2.03 Valid response is replaced by the stored response.
+         * @param response The response, null when none was received.
+         * @return The response to deliver.
+         */
+        public Response complete( Response response )
+        {
+            if ( response == null ) return null;
+            if ( response.getCode() == ResponseCode.CONTENT )
+            {
+                store( key, request, response );
+            }
+            else if ( response.getCode() == ResponseCode.VALID && !conditional )
+            {
+                Response stored= revalidate( key, response, validated );
+                if ( stored != null )
+                {
+                    revalidations.incrementAndGet();
+                    return stored;
+                }
+            }
+            return response;
+        }
+    }
+
+    /**
+     * A stored response.
+     */
+    private static final class Entry
+    {
+        private final Request origin;
+
+        private final Response response;
+
+        private final byte[] etag;
+
+        private final long maxAge;
+
+        private final long expires;
+
+        private final long size;
+
+        private final AtomicLong reads= new AtomicLong();
+
+        private Entry( Request origin, Response response, long maxAge )
+        {
+            this.origin= origin;
+            this.response= response;
+            this.maxAge= maxAge;
+            List< byte[] > etags= response.getOptions().getETags();
+            this.etag= ( etags.isEmpty() ? null : etags.get( 0 ) );
+            this.expires= System.nanoTime() + TimeUnit.SECONDS.toNanos( maxAge );
+            long estimate= ENTRY_OVERHEAD + response.getPayloadSize();
+            for ( Option option : response.getOptions().asSortedList() )
+            {
+                estimate+= option.getLength() + 4;
+            }
+            this.size= estimate;
+        }
+
+        private boolean isFresh()
+        {
+            return System.nanoTime() - expires < 0;
+        }
+    }
+}
@@ -0,0 +1,150 @@
+/*******************************************************************************
+ * Copyright (c) 2019 (teslanet.nl) Rogier Cobben.
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License - v 2.0 
+ * which accompanies this distribution.
+ * 
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ * 
+ * Contributors:
+ *    (teslanet.nl) Rogier Cobben - initial creation
+ ******************************************************************************/
+package nl.teslanet.mule.transport.coap.client.concurrent;
+
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * Schedules retries with exponential backoff and full jitter, 
+ * so retries of tasks that failed together are spread out instead of repeating together.
+ * A rate limiter shared by all tasks caps the number of retries per second.
+ */
+public class BackoffScheduler
+{
+    /**
+     * The scheduler running the retries.
+     */
+    private final ScheduledExecutorService scheduler;
+
+    /**
+     * The delay ceiling of the first retry in milliseconds.
+     */
+    private final long baseMillis;
+
+    /**
+     * The maximum delay ceiling in milliseconds.
+     */
+    private final long maxMillis;
+
+    /**
+     * The limiter of the retry rate.
+     */
+    private final RateLimiter limiter;
+
+    /**
+     * Number of retries waiting to run.
+     */
+    private final AtomicInteger pending= new AtomicInteger();
+
+    /**
+     * Constructor
+     * @param scheduler The scheduler running the retries.
+     * @param baseMillis The delay ceiling of the first retry in milliseconds.
+     * @param maxMillis The maximum delay ceiling in milliseconds.
+     * @param limiter The limiter of the retry rate.
+     */
+    public BackoffScheduler( ScheduledExecutorService scheduler, long baseMillis, long maxMillis, RateLimiter limiter )
+    {
+        this.scheduler= scheduler;
+        this.baseMillis= Math.max( 1L, baseMillis );
+        this.maxMillis= Math.max( this.baseMillis, maxMillis );
+        this.limiter= limiter;
+    }
+
+    /**
+     * Get the delay ceiling of a retry. The ceiling doubles with every attempt, up to the maximum.
+     * @param attempt The number of the retry, starting at 0.
+     * @return The ceiling in milliseconds.
+     */
+    public long getCeiling( int attempt )
+    {
+        if ( attempt >= 62 ) return maxMillis;
+        long ceiling= baseMillis << Math.max( 0, attempt );
+        return ( ceiling <= 0L || ceiling > maxMillis ? maxMillis : ceiling );
+    }
+
+    /**
+     * Schedule a retry after a random delay up to the ceiling of the attempt. 
+     * When the retry is due and the rate limit is reached it is postponed further.
+     * @param task The retry.
+     * @param attempt The number of the retry, starting at 0.
+     * @throws RejectedExecutionException when the scheduler is shut down.
+     */
+    public void schedule( final Runnable task, int attempt )
+    {
+        long delay= ThreadLocalRandom.current().nextLong( getCeiling( attempt ) + 1 );
+        pending.incrementAndGet();
+        try
+        {
+            scheduler.schedule( new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        runLimited( task );
+                    }
+                }, delay, TimeUnit.MILLISECONDS );
+        }
+        catch ( RejectedExecutionException e )
+        {
+            pending.decrementAndGet();
+            throw e;
+        }
+    }
+
+    /**
+     * Run the retry when the rate allows, otherwise postpone it to its reserved time.
+     * @param task The retry.
+     */
+    private void runLimited( final Runnable task )
+    {
+        long wait= limiter.reserve();
+        if ( wait > 0L )
+        {
+            try
+            {
+                scheduler.schedule( new Runnable()
+                    {
+                        @Override
+                        public void run()
+                        {
+                            pending.decrementAndGet();
+                            task.run();
+                        }
+                    }, wait, TimeUnit.NANOSECONDS );
+            }
+            catch ( RejectedExecutionException e )
+            {
+                pending.decrementAndGet();
+            }
+            return;
+        }
+        pending.decrementAndGet();
+        task.run();
+    }
+
+    /**
+     * @return The number of retries waiting to run.
+     */
+    public int getPending()
+    {
+        return pending.get();
+    }
+}
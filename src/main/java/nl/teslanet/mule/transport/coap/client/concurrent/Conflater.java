@@ -0,0 +1,138 @@
+/*******************************************************************************
+ * Copyright (c) 2019 (teslanet.nl) Rogier Cobben.
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License - v 2.0 
+ * which accompanies this distribution.
+ * 
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ * 
+ * Contributors:
+ *    (teslanet.nl) Rogier Cobben - initial creation
+ ******************************************************************************/
+package nl.teslanet.mule.transport.coap.client.concurrent;
+
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+
+/**
+ * Conflates the tasks of one observe relation.
+ * While a task is being processed, only the most recently submitted task is kept waiting 
+ * and the tasks it replaces are dropped. So a slow consumer always gets the latest value,
+ * and no more than one task per relation is waiting in the executor.
+ */
+public class Conflater
+{
+    /**
+     * The task waiting to be run, null when none.
+     */
+    private final AtomicReference< Runnable > pending= new AtomicReference< Runnable >();
+
+    /**
+     * True when the drainer is queued or running.
+     */
+    private final AtomicBoolean scheduled= new AtomicBoolean( false );
+
+    /**
+     * Counter of dropped tasks, possibly shared by conflaters.
+     */
+    private final AtomicLong conflated;
+
+    /**
+     * The key the tasks are executed with.
+     */
+    private final Object key;
+
+    /**
+     * The drainer that runs the pending task.
+     */
+    private final Drainer drainer= new Drainer();
+
+    /**
+     * Constructor
+     * @param key The key the tasks are executed with, that keeps them in order.
+     * @param conflated The counter of tasks that are replaced by a newer one.
+     */
+    public Conflater( Object key, AtomicLong conflated )
+    {
+        this.key= key;
+        this.conflated= conflated;
+    }
+
+    /**
+     * Submit a task. It replaces the task that is still waiting, if any.
+     * @param executor The executor to run the task.
+     * @param task The task.
+     */
+    public void submit( StripedExecutor executor, Runnable task )
+    {
+        if ( pending.getAndSet( task ) != null )
+        {
+            conflated.incrementAndGet();
+        }
+        schedule( executor );
+    }
+
+    /**
+     * Queue the drainer when it is not queued or running yet.
+     * @param executor The executor to run the drainer.
+     */
+    private void schedule( StripedExecutor executor )
+    {
+        if ( scheduled.compareAndSet( false, true ) )
+        {
+            drainer.executor= executor;
+            executor.execute( key, drainer );
+        }
+    }
+
+    /**
+     * Runs the pending task and requeues itself when a newer one arrived meanwhile,
+     * so other relations on the same lane get their turn.
+     */
+    private class Drainer implements DroppableTask
+    {
+        /**
+         * The executor the drainer was queued on.
+         */
+        private volatile StripedExecutor executor;
+
+        /* (non-Javadoc)
+         * @see java.lang.Runnable#run()
+         */
+        @Override
+        public void run()
+        {
+            try
+            {
+                Runnable task= pending.getAndSet( null );
+                if ( task != null )
+                {
+                    task.run();
+                }
+            }
+            finally
+            {
+                scheduled.set( false );
+                if ( pending.get() != null )
+                {
+                    schedule( executor );
+                }
+            }
+        }
+
+        /* (non-Javadoc)
+         * @see nl.teslanet.mule.transport.coap.client.concurrent.DroppableTask#onDrop()
+         */
+        @Override
+        public void onDrop()
+        {
+            // the pending task stays, it is run when the next task is submitted
+            scheduled.set( false );
+        }
+    }
+}
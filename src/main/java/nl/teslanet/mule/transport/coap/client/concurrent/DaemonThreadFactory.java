@@ -0,0 +1,64 @@
+/*******************************************************************************
+ * Copyright (c) 2019 (teslanet.nl) Rogier Cobben.
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License - v 2.0 
+ * which accompanies this distribution.
+ * 
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ * 
+ * Contributors:
+ *    (teslanet.nl) Rogier Cobben - initial creation
+ ******************************************************************************/
+package nl.teslanet.mule.transport.coap.client.concurrent;
+
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * Factory of named daemon threads that run with the context class loader 
+ * of the thread that created the factory.
+ */
+public class DaemonThreadFactory implements ThreadFactory
+{
+    /**
+     * The name prefix of the threads.
+     */
+    private final String name;
+
+    /**
+     * The class loader the threads get.
+     */
+    private final ClassLoader contextClassLoader;
+
+    /**
+     * Number of threads created.
+     */
+    private final AtomicInteger count= new AtomicInteger();
+
+    /**
+     * Constructor
+     * @param name The name prefix of the threads.
+     */
+    public DaemonThreadFactory( String name )
+    {
+        this.name= name;
+        this.contextClassLoader= Thread.currentThread().getContextClassLoader();
+    }
+
+    /* (non-Javadoc)
+     * @see java.util.concurrent.ThreadFactory#newThread(java.lang.Runnable)
+     */
+    @Override
+    public Thread newThread( Runnable runnable )
+    {
+        Thread thread= new Thread( runnable, name + "-" + count.incrementAndGet() );
+        thread.setDaemon( true );
+        // flows expect the application class loader
+        thread.setContextClassLoader( contextClassLoader );
+        return thread;
+    }
+}
@@ -0,0 +1,27 @@
+/*******************************************************************************
+ * Copyright (c) 2019 (teslanet.nl) Rogier Cobben.
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License - v 2.0 
+ * which accompanies this distribution.
+ * 
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ * 
+ * Contributors:
+ *    (teslanet.nl) Rogier Cobben - initial creation
+ ******************************************************************************/
+package nl.teslanet.mule.transport.coap.client.concurrent;
+
+
+/**
+ * Task that needs to know when it is dropped from the queue of a {@link HandlerExecutor} 
+ * without being run.
+ */
+public interface DroppableTask extends Runnable
+{
+    /**
+     * Called when the task is dropped and will not be run.
+     */
+    void onDrop();
+}
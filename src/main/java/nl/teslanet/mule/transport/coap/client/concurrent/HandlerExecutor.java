@@ -0,0 +1,192 @@
+/*******************************************************************************
+ * Copyright (c) 2019 (teslanet.nl) Rogier Cobben.
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License - v 2.0 
+ * which accompanies this distribution.
+ * 
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ * 
+ * Contributors:
+ *    (teslanet.nl) Rogier Cobben - initial creation
+ ******************************************************************************/
+package nl.teslanet.mule.transport.coap.client.concurrent;
+
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import nl.teslanet.mule.transport.coap.client.config.RejectionPolicy;
+
+
+/**
+ * Bounded executor that takes Mule flow processing off the CoAP protocol threads.
+ * When the queue is full the configured rejection policy is applied.
+ * With zero threads tasks are run directly on the calling thread.
+ */
+public class HandlerExecutor implements Executor
+{
+    /**
+     * Logger of the class
+     */
+    private static final Logger logger= LoggerFactory.getLogger( HandlerExecutor.class );
+
+    /**
+     * The pool, null when tasks run on the calling thread.
+     */
+    private final ThreadPoolExecutor pool;
+
+    /**
+     * Number of tasks that could not be queued immediately.
+     */
+    private final AtomicLong rejected= new AtomicLong();
+
+    /**
+     * Number of queued tasks that were dropped.
+     */
+    private final AtomicLong dropped= new AtomicLong();
+
+    /**
+     * Constructor
+     * @param name The name used for the threads.
+     * @param threads The number of threads, 0 means tasks run on the calling thread.
+     * @param queueSize The maximum number of waiting tasks.
+     * @param policy The policy to apply when the queue is full.
+     */
+    public HandlerExecutor( final String name, int threads, int queueSize, final RejectionPolicy policy )
+    {
+        if ( threads <= 0 )
+        {
+            pool= null;
+            return;
+        }
+        RejectedExecutionHandler rejectionHandler= new RejectedExecutionHandler()
+            {
+                @Override
+                public void rejectedExecution( Runnable runnable, ThreadPoolExecutor executor )
+                {
+                    rejected.incrementAndGet();
+                    if ( executor.isShutdown() )
+                    {
+                        dropped( runnable );
+                        logger.warn( "handler executor { " + name + " } is shut down, task dropped" );
+                        return;
+                    }
+                    switch ( policy )
+                    {
+                        case CALLER_RUNS:
+                            runnable.run();
+                            break;
+                        case DROP_OLDEST:
+                            Runnable oldest= executor.getQueue().poll();
+                            if ( oldest != null )
+                            {
+                                dropped( oldest );
+                            }
+                            executor.execute( runnable );
+                            break;
+                        case BLOCK:
+                        default:
+                            try
+                            {
+                                executor.getQueue().put( runnable );
+                            }
+                            catch ( InterruptedException e )
+                            {
+                                dropped( runnable );
+                                Thread.currentThread().interrupt();
+                            }
+                            break;
+                    }
+                }
+            };
+        pool= new ThreadPoolExecutor(
+            threads,
+            threads,
+            60L,
+            TimeUnit.SECONDS,
+            new ArrayBlockingQueue< Runnable >( Math.max( 1, queueSize ) ),
+            new DaemonThreadFactory( name ),
+            rejectionHandler );
+    }
+
+    /**
+     * Count a dropped task and notify it when it wants to know.
+     * @param task The task that is dropped.
+     */
+    private void dropped( Runnable task )
+    {
+        dropped.incrementAndGet();
+        if ( task instanceof DroppableTask )
+        {
+            ( (DroppableTask) task ).onDrop();
+        }
+    }
+
+    /* (non-Javadoc)
+     * @see java.util.concurrent.Executor#execute(java.lang.Runnable)
+     */
+    @Override
+    public void execute( Runnable task )
+    {
+        if ( pool == null )
+        {
+            task.run();
+        }
+        else
+        {
+            pool.execute( task );
+        }
+    }
+
+    /**
+     * Stop accepting tasks. Queued tasks are still processed.
+     */
+    public void shutdown()
+    {
+        if ( pool != null )
+        {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * @return The number of tasks waiting in the queue.
+     */
+    public int getQueueDepth()
+    {
+        return ( pool == null ? 0 : pool.getQueue().size() );
+    }
+
+    /**
+     * @return The number of threads currently processing a task.
+     */
+    public int getActiveCount()
+    {
+        return ( pool == null ? 0 : pool.getActiveCount() );
+    }
+
+    /**
+     * @return The number of tasks that found the queue full.
+     */
+    public long getRejectedCount()
+    {
+        return rejected.get();
+    }
+
+    /**
+     * @return The number of tasks that were dropped.
+     */
+    public long getDroppedCount()
+    {
+        return dropped.get();
+    }
+}
@@ -0,0 +1,242 @@
+/*******************************************************************************
+ * Copyright (c) 2019 (teslanet.nl) Rogier Cobben.
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License - v 2.0 
+ * which accompanies this distribution.
+ * 
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ * 
+ * Contributors:
+ *    (teslanet.nl) Rogier Cobben - initial creation
+ ******************************************************************************/
+package nl.teslanet.mule.transport.coap.client.concurrent;
+
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import nl.teslanet.mule.transport.coap.client.config.InFlightPolicy;
+import nl.teslanet.mule.transport.coap.client.error.InFlightLimitException;
+
+
+/**
+ * Limits the number of requests in flight, in total and per destination.
+ * A send task is run when the limits allow, otherwise the policy is applied.
+ * Every send that was run must be followed by a release once the request completes.
+ */
+public class InFlightLimiter
+{
+    /**
+     * Maximum number of requests in flight, 0 or less means unlimited.
+     */
+    private final int maxInFlight;
+
+    /**
+     * Maximum number of requests in flight per destination, 0 or less means unlimited.
+     */
+    private final int maxInFlightPerDestination;
+
+    /**
+     * The policy to apply when a limit is reached.
+     */
+    private final InFlightPolicy policy;
+
+    /**
+     * Number of requests in flight.
+     */
+    private int inFlight= 0;
+
+    /**
+     * Number of requests in flight by destination.
+     */
+    private final HashMap< String, Integer > inFlightByDestination= new HashMap< String, Integer >();
+
+    /**
+     * Maximum number of queued send tasks.
+     */
+    private final int maxQueued;
+
+    /**
+     * Queued send tasks, in order of submission.
+     */
+    private final LinkedList< Pending > queue= new LinkedList< Pending >();
+
+    /**
+     * Number of requests refused.
+     */
+    private long refused= 0;
+
+    /**
+     * Constructor
+     * @param maxInFlight Maximum number of requests in flight, 0 means unlimited.
+     * @param maxInFlightPerDestination Maximum number of requests in flight per destination, 0 means unlimited.
+     * @param policy The policy to apply when a limit is reached.
+     * @param maxQueued Maximum number of queued requests when the policy is to queue.
+     */
+    public InFlightLimiter( int maxInFlight, int maxInFlightPerDestination, InFlightPolicy policy, int maxQueued )
+    {
+        this.maxInFlight= maxInFlight;
+        this.maxInFlightPerDestination= maxInFlightPerDestination;
+        this.policy= policy;
+        this.maxQueued= Math.max( 0, maxQueued );
+    }
+
+    /**
+     * Run the send task when the limits allow, otherwise apply the policy.
+     * @param destination The destination of the request.
+     * @param send The task that sends the request.
+     * @throws InFlightLimitException when the policy is to fail and a limit is reached, 
+     * when the policy is to queue and the queue is full, or when waiting is interrupted.
+     */
+    public void submit( String destination, Runnable send ) throws InFlightLimitException
+    {
+        synchronized ( this )
+        {
+            if ( !tryAcquire( destination ) )
+            {
+                switch ( policy )
+                {
+                    case FAIL:
+                        refused++;
+                        throw new InFlightLimitException( "in-flight limit reached for destination { " + destination + " }" );
+                    case QUEUE:
+                        if ( queue.size() >= maxQueued )
+                        {
+                            refused++;
+                            throw new InFlightLimitException( "in-flight queue full, { " + maxQueued + " } requests waiting" );
+                        }
+                        queue.add( new Pending( destination, send ) );
+                        return;
+                    case BLOCK:
+                    default:
+                        while ( !tryAcquire( destination ) )
+                        {
+                            try
+                            {
+                                wait();
+                            }
+                            catch ( InterruptedException e )
+                            {
+                                Thread.currentThread().interrupt();
+                                refused++;
+                                throw new InFlightLimitException( "interrupted while waiting for in-flight limit of destination { " + destination + " }", e );
+                            }
+                        }
+                        break;
+                }
+            }
+        }
+        send.run();
+    }
+
+    /**
+     * Release the slot of a completed request. Queued sends that now fit the limits are run.
+     * @param destination The destination of the request.
+     */
+    public void release( String destination )
+    {
+        List< Runnable > ready= null;
+        synchronized ( this )
+        {
+            inFlight--;
+            Integer count= inFlightByDestination.get( destination );
+            if ( count == null || count.intValue() <= 1 )
+            {
+                inFlightByDestination.remove( destination );
+            }
+            else
+            {
+                inFlightByDestination.put( destination, Integer.valueOf( count.intValue() - 1 ) );
+            }
+            Iterator< Pending > it= queue.iterator();
+            while ( it.hasNext() && ( maxInFlight <= 0 || inFlight < maxInFlight ) )
+            {
+                Pending pending= it.next();
+                if ( tryAcquire( pending.destination ) )
+                {
+                    it.remove();
+                    if ( ready == null ) ready= new ArrayList< Runnable >();
+                    ready.add( pending.send );
+                }
+            }
+            notifyAll();
+        }
+        if ( ready != null )
+        {
+            for ( Runnable send : ready )
+            {
+                send.run();
+            }
+        }
+    }
+
+    /**
+     * Take a slot when the limits allow.
+     * @param destination The destination of the request.
+     * @return True when the slot is taken.
+     */
+    private boolean tryAcquire( String destination )
+    {
+        if ( maxInFlight > 0 && inFlight >= maxInFlight ) return false;
+        Integer count= inFlightByDestination.get( destination );
+        int current= ( count == null ? 0 : count.intValue() );
+        if ( maxInFlightPerDestination > 0 && current >= maxInFlightPerDestination ) return false;
+        inFlight++;
+        inFlightByDestination.put( destination, Integer.valueOf( current + 1 ) );
+        return true;
+    }
+
+    /**
+     * @return The number of requests in flight.
+     */
+    public synchronized int getInFlight()
+    {
+        return inFlight;
+    }
+
+    /**
+     * @return The number of requests in flight by destination.
+     */
+    public synchronized Map< String, Integer > getInFlightByDestination()
+    {
+        return new HashMap< String, Integer >( inFlightByDestination );
+    }
+
+    /**
+     * @return The number of queued requests.
+     */
+    public synchronized int getQueued()
+    {
+        return queue.size();
+    }
+
+    /**
+     * @return The number of refused requests.
+     */
+    public synchronized long getRefused()
+    {
+        return refused;
+    }
+
+    /**
+     * Send task waiting for a slot.
+     */
+    private static class Pending
+    {
+        private final String destination;
+
+        private final Runnable send;
+
+        private Pending( String destination, Runnable send )
+        {
+            this.destination= destination;
+            this.send= send;
+        }
+    }
+}
@@ -0,0 +1,110 @@
+/*******************************************************************************
+ * Copyright (c) 2019 (teslanet.nl) Rogier Cobben.
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License - v 2.0 
+ * which accompanies this distribution.
+ * 
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ * 
+ * Contributors:
+ *    (teslanet.nl) Rogier Cobben - initial creation
+ ******************************************************************************/
+package nl.teslanet.mule.transport.coap.client.concurrent;
+
+
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Budget of memory shared by concurrent activities. 
+ * Bytes are reserved before they are buffered and released when they are handed over or dropped.
+ * A reservation that would exceed the budget is refused, so the total buffered memory stays within the budget.
+ * With a budget of zero or less the memory is unlimited, reservations are only counted.
+ */
+public class MemoryBudget
+{
+    /**
+     * The budget in bytes, 0 when unlimited.
+     */
+    private final long limit;
+
+    /**
+     * The number of bytes reserved.
+     */
+    private final AtomicLong used= new AtomicLong();
+
+    /**
+     * The number of refused reservations.
+     */
+    private final AtomicLong refused= new AtomicLong();
+
+    /**
+     * Constructor
+     * @param limit The budget in bytes, 0 or less means unlimited.
+     */
+    public MemoryBudget( long limit )
+    {
+        this.limit= Math.max( 0L, limit );
+    }
+
+    /**
+     * Reserve memory.
+     * @param bytes The number of bytes to reserve.
+     * @return True when reserved, false when the reservation would exceed the budget.
+     */
+    public boolean reserve( long bytes )
+    {
+        if ( limit == 0L )
+        {
+            used.addAndGet( bytes );
+            return true;
+        }
+        long current;
+        do
+        {
+            current= used.get();
+            if ( current + bytes > limit )
+            {
+                refused.incrementAndGet();
+                return false;
+            }
+        }
+        while ( !used.compareAndSet( current, current + bytes ) );
+        return true;
+    }
+
+    /**
+     * Release reserved memory.
+     * @param bytes The number of bytes to release.
+     */
+    public void release( long bytes )
+    {
+        used.addAndGet( -bytes );
+    }
+
+    /**
+     * @return The budget in bytes, 0 when unlimited.
+     */
+    public long getLimit()
+    {
+        return limit;
+    }
+
+    /**
+     * @return The number of bytes reserved.
+     */
+    public long getUsed()
+    {
+        return used.get();
+    }
+
+    /**
+     * @return The number of refused reservations.
+     */
+    public long getRefused()
+    {
+        return refused.get();
+    }
+}
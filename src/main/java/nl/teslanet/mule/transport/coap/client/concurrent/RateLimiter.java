@@ -0,0 +1,117 @@
+/*******************************************************************************
+ * Copyright (c) 2019 (teslanet.nl) Rogier Cobben.
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License - v 2.0 
+ * which accompanies this distribution.
+ * 
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ * 
+ * Contributors:
+ *    (teslanet.nl) Rogier Cobben - initial creation
+ ******************************************************************************/
+package nl.teslanet.mule.transport.coap.client.concurrent;
+
+
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Token bucket limiting the rate of an activity. 
+ * Permits are added at a fixed rate up to the burst size. 
+ * A reservation beyond the available permits is granted in the future, 
+ * so callers reserving together are spread out evenly instead of retrying together.
+ * With a rate of zero or less the rate is unlimited.
+ */
+public class RateLimiter
+{
+    /**
+     * Permits added per nanosecond, 0 when unlimited.
+     */
+    private final double permitsPerNano;
+
+    /**
+     * Maximum number of stored permits.
+     */
+    private final double burst;
+
+    /**
+     * Number of permits available, negative when permits are reserved ahead.
+     */
+    private double available;
+
+    /**
+     * Time of the last refill in nanoseconds.
+     */
+    private long last;
+
+    /**
+     * Constructor
+     * @param permitsPerSecond The rate, 0 or less means unlimited.
+     * @param burst The maximum number of permits that can be used at once, at least 1.
+     */
+    public RateLimiter( int permitsPerSecond, int burst )
+    {
+        this.permitsPerNano= ( permitsPerSecond <= 0 ? 0d : permitsPerSecond / (double) TimeUnit.SECONDS.toNanos( 1 ) );
+        this.burst= Math.max( 1, burst );
+        this.available= this.burst;
+        this.last= System.nanoTime();
+    }
+
+    /**
+     * Reserve a permit.
+     * @return The time in nanoseconds to wait before the permit may be used, 0 when immediately.
+     */
+    public synchronized long reserve()
+    {
+        if ( permitsPerNano == 0d ) return 0L;
+        refill();
+        available-= 1d;
+        return ( available >= 0d ? 0L : (long) Math.ceil( -available / permitsPerNano ) );
+    }
+
+    /**
+     * Acquire a permit when one is available immediately.
+     * @return True when the permit was acquired.
+     */
+    public synchronized boolean tryAcquire()
+    {
+        if ( permitsPerNano == 0d ) return true;
+        refill();
+        if ( available < 1d ) return false;
+        available-= 1d;
+        return true;
+    }
+
+    /**
+     * Acquire a permit, waiting until it may be used.
+     * @throws InterruptedException when interrupted while waiting.
+     */
+    public void acquire() throws InterruptedException
+    {
+        long delay= reserve();
+        if ( delay > 0L )
+        {
+            TimeUnit.NANOSECONDS.sleep( delay );
+        }
+    }
+
+    /**
+     * Add the permits accumulated since the last refill.
+     */
+    private void refill()
+    {
+        long now= System.nanoTime();
+        available= Math.min( burst, available + ( now - last ) * permitsPerNano );
+        last= now;
+    }
+
+    /**
+     * @return True when the rate is unlimited.
+     */
+    public boolean isUnlimited()
+    {
+        return permitsPerNano == 0d;
+    }
+}
@@ -0,0 +1,277 @@
+/*******************************************************************************
+ * Copyright (c) 2019 (teslanet.nl) Rogier Cobben.
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License - v 2.0 
+ * which accompanies this distribution.
+ * 
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ * 
+ * Contributors:
+ *    (teslanet.nl) Rogier Cobben - initial creation
+ ******************************************************************************/
+package nl.teslanet.mule.transport.coap.client.concurrent;
+
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+
+/**
+ * Queue that staggers registrations, so a large number of registrations made at once 
+ * does not swamp the servers and the network. 
+ * Registrations are started at a limited rate and with a limited number in progress. 
+ * A registration is in progress until it is released, or until its timeout passes.
+ */
+public class RegistrationQueue
+{
+    /**
+     * A registration. It must be released once it is answered.
+     */
+    public abstract static class Registration implements Runnable
+    {
+        private final AtomicBoolean released= new AtomicBoolean();
+
+        private volatile RegistrationQueue queue= null;
+
+        /**
+         * Release the registration, making room for the next. Only the first release counts.
+         */
+        public final void release()
+        {
+            RegistrationQueue current= queue;
+            if ( current != null && released.compareAndSet( false, true ) )
+            {
+                current.released();
+            }
+        }
+    }
+
+    /**
+     * The scheduler for postponed starts and timeouts.
+     */
+    private final ScheduledExecutorService scheduler;
+
+    /**
+     * The limiter of the start rate.
+     */
+    private final RateLimiter limiter;
+
+    /**
+     * Maximum number of registrations in progress, 0 or less means unlimited.
+     */
+    private final int maxInProgress;
+
+    /**
+     * Time in milliseconds after which a registration in progress is released.
+     */
+    private final long timeoutMillis;
+
+    /**
+     * Registrations waiting to start, in order of submission.
+     */
+    private final LinkedList< Registration > queue= new LinkedList< Registration >();
+
+    /**
+     * Number of registrations in progress.
+     */
+    private int inProgress= 0;
+
+    /**
+     * True when a start is postponed by the rate limit.
+     */
+    private boolean postponed= false;
+
+    /**
+     * Number of registrations completed.
+     */
+    private long completed= 0;
+
+    /**
+     * Start time in nanoseconds of the current series of registrations.
+     */
+    private long seriesStart= 0;
+
+    /**
+     * Duration in milliseconds of the last completed series of registrations.
+     */
+    private long lastSeriesMillis= 0;
+
+    /**
+     * Constructor
+     * @param scheduler The scheduler for postponed starts and timeouts.
+     * @param limiter The limiter of the start rate.
+     * @param maxInProgress Maximum number of registrations in progress, 0 means unlimited.
+     * @param timeoutMillis Time in milliseconds after which a registration in progress is released.
+     */
+    public RegistrationQueue( ScheduledExecutorService scheduler, RateLimiter limiter, int maxInProgress, long timeoutMillis )
+    {
+        this.scheduler= scheduler;
+        this.limiter= limiter;
+        this.maxInProgress= maxInProgress;
+        this.timeoutMillis= timeoutMillis;
+    }
+
+    /**
+     * Submit a registration. It is started when the rate and the number in progress allow.
+     * @param registration The registration.
+     */
+    public void submit( Registration registration )
+    {
+        registration.queue= this;
+        List< Registration > startable;
+        synchronized ( this )
+        {
+            if ( queue.isEmpty() && inProgress == 0 )
+            {
+                seriesStart= System.nanoTime();
+            }
+            queue.add( registration );
+            startable= takeStartable();
+        }
+        start( startable );
+    }
+
+    /**
+     * Take the registrations that can start now. 
+     * When the rate limit is reached a start is postponed.
+     * @return The registrations to start.
+     */
+    private List< Registration > takeStartable()
+    {
+        ArrayList< Registration > startable= new ArrayList< Registration >();
+        while ( !postponed && !queue.isEmpty() && ( maxInProgress <= 0 || inProgress < maxInProgress ) )
+        {
+            long wait= limiter.reserve();
+            inProgress++;
+            if ( wait > 0L )
+            {
+                postpone( queue.removeFirst(), wait );
+            }
+            else
+            {
+                startable.add( queue.removeFirst() );
+            }
+        }
+        return startable;
+    }
+
+    /**
+     * Postpone the start of a registration to its reserved time.
+     * @param registration The registration.
+     * @param wait The time to wait in nanoseconds.
+     */
+    private void postpone( final Registration registration, long wait )
+    {
+        postponed= true;
+        try
+        {
+            scheduler.schedule( new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        List< Registration > startable;
+                        synchronized ( RegistrationQueue.this )
+                        {
+                            postponed= false;
+                            startable= takeStartable();
+                        }
+                        startable.add( 0, registration );
+                        start( startable );
+                    }
+                }, wait, TimeUnit.NANOSECONDS );
+        }
+        catch ( RejectedExecutionException e )
+        {
+            // stopping, drop the registration
+            postponed= false;
+            inProgress--;
+        }
+    }
+
+    /**
+     * Start registrations and schedule their timeouts.
+     * @param startable The registrations to start.
+     */
+    private void start( List< Registration > startable )
+    {
+        for ( final Registration registration : startable )
+        {
+            try
+            {
+                scheduler.schedule( new Runnable()
+                    {
+                        @Override
+                        public void run()
+                        {
+                            registration.release();
+                        }
+                    }, timeoutMillis, TimeUnit.MILLISECONDS );
+            }
+            catch ( RejectedExecutionException e )
+            {
+                // stopping, no timeout needed
+            }
+            registration.run();
+        }
+    }
+
+    /**
+     * A registration in progress is released.
+     */
+    private void released()
+    {
+        List< Registration > startable;
+        synchronized ( this )
+        {
+            inProgress--;
+            completed++;
+            if ( queue.isEmpty() && inProgress == 0 )
+            {
+                lastSeriesMillis= TimeUnit.NANOSECONDS.toMillis( System.nanoTime() - seriesStart );
+            }
+            startable= takeStartable();
+        }
+        start( startable );
+    }
+
+    /**
+     * @return The number of registrations waiting to start.
+     */
+    public synchronized int getQueued()
+    {
+        return queue.size();
+    }
+
+    /**
+     * @return The number of registrations in progress.
+     */
+    public synchronized int getInProgress()
+    {
+        return inProgress;
+    }
+
+    /**
+     * @return The number of registrations completed.
+     */
+    public synchronized long getCompleted()
+    {
+        return completed;
+    }
+
+    /**
+     * @return The time in milliseconds the last series of registrations took to complete, 
+     * from the first submission until no registration was waiting or in progress.
+     */
+    public synchronized long getLastSeriesMillis()
+    {
+        return lastSeriesMillis;
+    }
+}
@@ -0,0 +1,139 @@
+/*******************************************************************************
+ * Copyright (c) 2019 (teslanet.nl) Rogier Cobben.
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License - v 2.0 
+ * which accompanies this distribution.
+ * 
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ * 
+ * Contributors:
+ *    (teslanet.nl) Rogier Cobben - initial creation
+ ******************************************************************************/
+package nl.teslanet.mule.transport.coap.client.concurrent;
+
+
+import nl.teslanet.mule.transport.coap.client.config.RejectionPolicy;
+
+
+/**
+ * Executor that runs tasks with the same key one at a time, in submission order,
+ * while tasks with different keys run in parallel.
+ * Keys are mapped onto a fixed number of single threaded lanes, so the number of threads
+ * does not grow with the number of keys.
+ * With zero lanes tasks are run directly on the calling thread.
+ */
+public class StripedExecutor
+{
+    /**
+     * The lanes, each processing its tasks in order.
+     */
+    private final HandlerExecutor[] lanes;
+
+    /**
+     * Constructor
+     * @param name The name used for the threads.
+     * @param laneCount The number of lanes.
+     * @param queueSize The maximum number of waiting tasks per lane.
+     * @param policy The policy to apply when a lane queue is full.
+     * Caller-runs would break the ordering and is applied as block.
+     */
+    public StripedExecutor( String name, int laneCount, int queueSize, RejectionPolicy policy )
+    {
+        RejectionPolicy lanePolicy= ( policy == RejectionPolicy.CALLER_RUNS ? RejectionPolicy.BLOCK : policy );
+        lanes= new HandlerExecutor [Math.max( 0, laneCount )];
+        for ( int i= 0; i < lanes.length; i++ )
+        {
+            lanes[i]= new HandlerExecutor( name + "-" + i, 1, queueSize, lanePolicy );
+        }
+    }
+
+    /**
+     * Execute a task after all tasks earlier submitted with the same key.
+     * @param key The key that determines ordering.
+     * @param task The task to execute.
+     */
+    public void execute( Object key, Runnable task )
+    {
+        if ( lanes.length == 0 )
+        {
+            task.run();
+        }
+        else
+        {
+            lanes[laneOf( key )].execute( task );
+        }
+    }
+
+    /**
+     * Get the lane for the key.
+     * @param key The key.
+     * @return The lane index.
+     */
+    private int laneOf( Object key )
+    {
+        int h= ( key == null ? 0 : key.hashCode() );
+        // spread the bits, uri's often differ only at the end
+        h^= ( h >>> 16 );
+        return ( h & 0x7fffffff ) % lanes.length;
+    }
+
+    /**
+     * Stop accepting tasks. Queued tasks are still processed.
+     */
+    public void shutdown()
+    {
+        for ( HandlerExecutor lane : lanes )
+        {
+            lane.shutdown();
+        }
+    }
+
+    /**
+     * @return The number of lanes.
+     */
+    public int getLaneCount()
+    {
+        return lanes.length;
+    }
+
+    /**
+     * @return The number of tasks waiting in all lanes.
+     */
+    public int getQueueDepth()
+    {
+        int depth= 0;
+        for ( HandlerExecutor lane : lanes )
+        {
+            depth+= lane.getQueueDepth();
+        }
+        return depth;
+    }
+
+    /**
+     * @return The number of tasks that found a lane queue full.
+     */
+    public long getRejectedCount()
+    {
+        long count= 0;
+        for ( HandlerExecutor lane : lanes )
+        {
+            count+= lane.getRejectedCount();
+        }
+        return count;
+    }
+
+    /**
+     * @return The number of tasks that were dropped.
+     */
+    public long getDroppedCount()
+    {
+        long count= 0;
+        for ( HandlerExecutor lane : lanes )
+        {
+            count+= lane.getDroppedCount();
+        }
+        return count;
+    }
+}
@@ -61,6 +61,315 @@ public class CoAPClientConfig extends EndpointConfig
     //@FriendlyName(value = false)
     private boolean logMessages= false;
 
+    /**
+     * The maximum number of preconfigured CoAP clients and compiled request uri's that are kept for reuse.
+     * Each combination of server, resource and confirmable flag uses one client.
+     * When set to 0 a new client and uri is created for every operation.
+     */
+    @Configurable
+    @Default( value= "100")
+    @Placement(tab= "Performance", group= "Client cache")
+    private int clientCacheSize= 100;
+
+    /**
+     * The time in milliseconds a resolved server address of a compiled request uri is used,
+     * before the host name is resolved again. When set to 0 the address is resolved once.
+     */
+    @Configurable
+    @Default( value= "60000")
+    @Placement(tab= "Performance", group= "Client cache")
+    private long addressTtl= 60000L;
+
+    /**
+     * The number of threads that process responses and notifications in Mule flows.
+     * When set to 0 flows are processed on the CoAP protocol threads.
+     */
+    @Configurable
+    @Default( value= "4")
+    @Placement(tab= "Performance", group= "Handler threads")
+    private int handlerThreadCount= 4;
+
+    /**
+     * The maximum number of responses and notifications waiting for a handler thread.
+     */
+    @Configurable
+    @Default( value= "1000")
+    @Placement(tab= "Performance", group= "Handler threads")
+    private int handlerQueueSize= 1000;
+
+    /**
+     * The policy to apply when the handler queue is full.
+     * By default the oldest waiting response is dropped, so the CoAP protocol threads are never held up by flow processing.
+     * BLOCK and CALLER_RUNS stall the CoAP endpoint while the flows catch up.
+     */
+    @Configurable
+    @Default( value= "DROP_OLDEST")
+    @Placement(tab= "Performance", group= "Handler threads")
+    private RejectionPolicy handlerRejectionPolicy= RejectionPolicy.DROP_OLDEST;
+
+    /**
+     * The number of threads that process observe notifications in Mule flows.
+     * Notifications on one resource are processed in order, by the same thread.
+     * When set to 0 notifications are processed on the CoAP protocol threads.
+     */
+    @Configurable
+    @Default( value= "4")
+    @Placement(tab= "Performance", group= "Handler threads")
+    private int observeThreadCount= 4;
+
+    /**
+     * The maximum number of asynchronous requests in flight. When set to 0 the number is not limited.
+     */
+    @Configurable
+    @Default( value= "0")
+    @Placement(tab= "Performance", group= "In-flight limits")
+    private int maxInFlight= 0;
+
+    /**
+     * The maximum number of asynchronous requests in flight per destination host. When set to 0 the number is not limited.
+     */
+    @Configurable
+    @Default( value= "0")
+    @Placement(tab= "Performance", group= "In-flight limits")
+    private int maxInFlightPerHost= 0;
+
+    /**
+     * The policy to apply when a request would exceed an in-flight limit.
+     */
+    @Configurable
+    @Default( value= "BLOCK")
+    @Placement(tab= "Performance", group= "In-flight limits")
+    private InFlightPolicy inFlightPolicy= InFlightPolicy.BLOCK;
+
+    /**
+     * The maximum number of requests waiting for an in-flight slot, when the in-flight policy is QUEUE.
+     * Requests beyond this number are refused.
+     */
+    @Configurable
+    @Default( value= "1000")
+    @Placement(tab= "Performance", group= "In-flight limits")
+    private int inFlightQueueSize= 1000;
+
+    /**
+     * When true, concurrent identical GET requests share one exchange with the server.
+     */
+    @Configurable
+    @Default( value= "false")
+    @Placement(tab= "Performance", group= "Requests")
+    private boolean coalesceRequests= false;
+
+    /**
+     * The maximum number of GET responses kept in the response cache. 
+     * Cached responses are used as long as they are fresh and are revalidated using their ETag.
+     * When set to 0 responses are not cached.
+     */
+    @Configurable
+    @Default( value= "0")
+    @Placement(tab= "Performance", group= "Response cache")
+    private int responseCacheSize= 0;
+
+    /**
+     * The maximum memory in bytes the response cache may use.
+     */
+    @Configurable
+    @Default( value= "1048576")
+    @Placement(tab= "Performance", group= "Response cache")
+    private long responseCacheMaxBytes= 1048576L;
+
+    /**
+     * The number of reads during its freshness lifetime that makes a cached response hot.
+     * Hot responses are revalidated in the background shortly before they become stale.
+     * When set to 0 responses are not refreshed ahead.
+     */
+    @Configurable
+    @Default( value= "0")
+    @Placement(tab= "Performance", group= "Response cache")
+    private int refreshAheadReads= 0;
+
+    /**
+     * The maximum number of refresh-ahead requests in flight.
+     */
+    @Configurable
+    @Default( value= "4")
+    @Placement(tab= "Performance", group= "Response cache")
+    private int refreshAheadConcurrency= 4;
+
+    /**
+     * The number of CoAP endpoints, each with its own socket, the connector spreads traffic over.
+     * All traffic with one server uses the same endpoint. 
+     * The first endpoint binds to the configured local port, the others to ephemeral ports.
+     */
+    @Configurable
+    @Default( value= "1")
+    @Placement(tab= "Performance", group= "Endpoints")
+    private int endpointCount= 1;
+
+    /**
+     * The utilisation in percent of the message id space of a server above which a warning is logged.
+     * A message id stays in use for the exchange lifetime, which limits the rate of new exchanges with one server per endpoint.
+     * When 0 message id use is not tracked.
+     */
+    @Configurable
+    @Default( value= "80")
+    @Placement(tab= "Performance", group= "Endpoints")
+    private int midWarningPercent= 80;
+
+    /**
+     * When true new exchanges with a server are moved to another endpoint 
+     * once its message id utilisation passes the warning level.
+     */
+    @Configurable
+    @Default( value= "false")
+    @Placement(tab= "Performance", group= "Endpoints")
+    private boolean midSpillover= false;
+
+    /**
+     * When true the endpoints are shared with other configurations that have the same endpoint parameters,
+     * including the protocol and network stage threads of the endpoints.
+     * The endpoints are destroyed when the last configuration using them is stopped.
+     */
+    @Configurable
+    @Default( value= "false")
+    @Placement(tab= "Performance", group= "Endpoints")
+    private boolean shareEndpoints= false;
+
+    /**
+     * The maximum number of observe relations cancelled per second when the connector stops.
+     * When 0 the rate is unlimited.
+     */
+    @Configurable
+    @Default( value= "200")
+    @Placement(tab= "Performance", group= "Observe")
+    private int observeCancelRate= 200;
+
+    /**
+     * The time in milliseconds the connector waits for servers to confirm cancellation of observe relations when it stops.
+     * Relations not confirmed in time are abandoned.
+     */
+    @Configurable
+    @Default( value= "2000")
+    @Placement(tab= "Performance", group= "Observe")
+    private long observeCancelGracePeriod= 2000L;
+
+    /**
+     * The delay ceiling in milliseconds of the first re-registration of a failed observe relation.
+     * The ceiling doubles with every failure, the actual delay is chosen randomly below it.
+     */
+    @Configurable
+    @Default( value= "1000")
+    @Placement(tab= "Performance", group= "Observe")
+    private long reregistrationBackoff= 1000L;
+
+    /**
+     * The maximum delay ceiling in milliseconds of re-registrations of a failed observe relation.
+     */
+    @Configurable
+    @Default( value= "60000")
+    @Placement(tab= "Performance", group= "Observe")
+    private long reregistrationMaxBackoff= 60000L;
+
+    /**
+     * The maximum number of re-registrations of failed observe relations per second.
+     * When 0 the rate is unlimited.
+     */
+    @Configurable
+    @Default( value= "50")
+    @Placement(tab= "Performance", group= "Observe")
+    private int reregistrationRate= 50;
+
+    /**
+     * The maximum number of new observe relations registered per second.
+     * When 0 the rate is unlimited.
+     */
+    @Configurable
+    @Default( value= "100")
+    @Placement(tab= "Performance", group= "Observe")
+    private int registrationRate= 100;
+
+    /**
+     * The maximum number of observe registrations waiting for an answer.
+     * When 0 the number is unlimited.
+     */
+    @Configurable
+    @Default( value= "50")
+    @Placement(tab= "Performance", group= "Observe")
+    private int registrationConcurrency= 50;
+
+    /**
+     * When true observe relations are not cancelled when the connector stops, 
+     * but stored in a persistent object store and resumed with their token by the next run.
+     * Servers only recognise resumed relations when the connector binds to a fixed port.
+     */
+    @Configurable
+    @Default( value= "false")
+    @Placement(tab= "Performance", group= "Observe")
+    private boolean persistRelations= false;
+
+    /**
+     * The time in milliseconds after start within which stored observe relations can be resumed.
+     * Stored relations not resumed in time are cancelled.
+     */
+    @Configurable
+    @Default( value= "30000")
+    @Placement(tab= "Performance", group= "Observe")
+    private long relationResumeWindow= 30000L;
+
+    /**
+     * When true blockwise responses to GET requests are delivered as an input stream, 
+     * that is fed block by block as the blocks arrive, instead of a byte array holding the reassembled body.
+     */
+    @Configurable
+    @Default( value= "false")
+    @Placement(tab= "Performance", group= "Blockwise")
+    private boolean streamResponses= false;
+
+    /**
+     * The maximum number of blocks of a streamed response that are buffered and in flight.
+     */
+    @Configurable
+    @Default( value= "4")
+    @Placement(tab= "Performance", group= "Blockwise")
+    private int streamBufferBlocks= 4;
+
+    /**
+     * The maximum time in milliseconds a streamed response may be left unread. 
+     * When it expires the stream is closed, releasing its buffered blocks and cancelling its block requests.
+     * 0 means no limit, a stream that is not read then holds its blocks until it is closed.
+     */
+    @Configurable
+    @Default( value= "60000")
+    @Placement(tab= "Performance", group= "Blockwise")
+    private long streamIdleTimeout= 60000L;
+
+    /**
+     * The maximum number of blocks of a blockwise response to a GET request that are requested concurrently.
+     * Blocks are only requested concurrently when the server announces the size of the resource in the first block.
+     * When larger than 1, blockwise responses are retrieved by the connector even when they are not streamed.
+     */
+    @Configurable
+    @Default( value= "1")
+    @Placement(tab= "Performance", group= "Blockwise")
+    private int blockwiseWindow= 1;
+
+    /**
+     * The maximum size in bytes of a blockwise response, 0 means unlimited.
+     * A response announcing a larger size in its first block is rejected, 
+     * a transfer that exceeds the size is aborted. Operations can override the maximum.
+     */
+    @Configurable
+    @Default( value= "0")
+    @Placement(tab= "Performance", group= "Blockwise")
+    private long maxResponseSize= 0L;
+
+    /**
+     * The maximum number of bytes buffered by all blockwise responses in transfer together, 0 means unlimited.
+     * A transfer that needs more memory than left in the budget is aborted.
+     */
+    @Configurable
+    @Default( value= "0")
+    @Placement(tab= "Performance", group= "Blockwise")
+    private long responseMemoryBudget= 0L;
+
     /**
      * Gets the local address.
      * @return The local socket address to be used by the connector client endpoint. 
@@ -161,4 +470,631 @@ public class CoAPClientConfig extends EndpointConfig
         this.logMessages= logMessages;
     }
 
-}
\ No newline at end of file
+    /**
+     * Gets the maximum number of cached clients.
+     * @return the clientCacheSize
+     */
+    public int getClientCacheSize()
+    {
+        return clientCacheSize;
+    }
+
+    /**
+     * Sets the maximum number of cached clients.
+     * @param clientCacheSize the clientCacheSize to set
+     */
+    public void setClientCacheSize( int clientCacheSize )
+    {
+        this.clientCacheSize= clientCacheSize;
+    }
+
+    /**
+     * Gets the time to live of resolved addresses.
+     * @return the addressTtl
+     */
+    public long getAddressTtl()
+    {
+        return addressTtl;
+    }
+
+    /**
+     * Sets the time to live of resolved addresses.
+     * @param addressTtl the addressTtl to set
+     */
+    public void setAddressTtl( long addressTtl )
+    {
+        this.addressTtl= addressTtl;
+    }
+
+    /**
+     * Gets the number of handler threads.
+     * @return the handlerThreadCount
+     */
+    public int getHandlerThreadCount()
+    {
+        return handlerThreadCount;
+    }
+
+    /**
+     * Sets the number of handler threads.
+     * @param handlerThreadCount the handlerThreadCount to set
+     */
+    public void setHandlerThreadCount( int handlerThreadCount )
+    {
+        this.handlerThreadCount= handlerThreadCount;
+    }
+
+    /**
+     * Gets the maximum number of waiting handler tasks.
+     * @return the handlerQueueSize
+     */
+    public int getHandlerQueueSize()
+    {
+        return handlerQueueSize;
+    }
+
+    /**
+     * Sets the maximum number of waiting handler tasks.
+     * @param handlerQueueSize the handlerQueueSize to set
+     */
+    public void setHandlerQueueSize( int handlerQueueSize )
+    {
+        this.handlerQueueSize= handlerQueueSize;
+    }
+
+    /**
+     * Gets the policy applied when the handler queue is full.
+     * @return the handlerRejectionPolicy
+     */
+    public RejectionPolicy getHandlerRejectionPolicy()
+    {
+        return handlerRejectionPolicy;
+    }
+
+    /**
+     * Sets the policy applied when the handler queue is full.
+     * @param handlerRejectionPolicy the handlerRejectionPolicy to set
+     */
+    public void setHandlerRejectionPolicy( RejectionPolicy handlerRejectionPolicy )
+    {
+        this.handlerRejectionPolicy= handlerRejectionPolicy;
+    }
+
+    /**
+     * Gets the number of observe threads.
+     * @return the observeThreadCount
+     */
+    public int getObserveThreadCount()
+    {
+        return observeThreadCount;
+    }
+
+    /**
+     * Sets the number of observe threads.
+     * @param observeThreadCount the observeThreadCount to set
+     */
+    public void setObserveThreadCount( int observeThreadCount )
+    {
+        this.observeThreadCount= observeThreadCount;
+    }
+
+    /**
+     * Gets the maximum number of requests in flight.
+     * @return the maxInFlight
+     */
+    public int getMaxInFlight()
+    {
+        return maxInFlight;
+    }
+
+    /**
+     * Sets the maximum number of requests in flight.
+     * @param maxInFlight the maxInFlight to set
+     */
+    public void setMaxInFlight( int maxInFlight )
+    {
+        this.maxInFlight= maxInFlight;
+    }
+
+    /**
+     * Gets the maximum number of requests in flight per destination host.
+     * @return the maxInFlightPerHost
+     */
+    public int getMaxInFlightPerHost()
+    {
+        return maxInFlightPerHost;
+    }
+
+    /**
+     * Sets the maximum number of requests in flight per destination host.
+     * @param maxInFlightPerHost the maxInFlightPerHost to set
+     */
+    public void setMaxInFlightPerHost( int maxInFlightPerHost )
+    {
+        this.maxInFlightPerHost= maxInFlightPerHost;
+    }
+
+    /**
+     * Gets the policy applied when an in-flight limit is reached.
+     * @return the inFlightPolicy
+     */
+    public InFlightPolicy getInFlightPolicy()
+    {
+        return inFlightPolicy;
+    }
+
+    /**
+     * Sets the policy applied when an in-flight limit is reached.
+     * @param inFlightPolicy the inFlightPolicy to set
+     */
+    public void setInFlightPolicy( InFlightPolicy inFlightPolicy )
+    {
+        this.inFlightPolicy= inFlightPolicy;
+    }
+
+    /**
+     * Gets the maximum number of requests waiting for an in-flight slot.
+     * @return the inFlightQueueSize
+     */
+    public int getInFlightQueueSize()
+    {
+        return inFlightQueueSize;
+    }
+
+    /**
+     * Sets the maximum number of requests waiting for an in-flight slot.
+     * @param inFlightQueueSize the inFlightQueueSize to set
+     */
+    public void setInFlightQueueSize( int inFlightQueueSize )
+    {
+        this.inFlightQueueSize= inFlightQueueSize;
+    }
+
+    /**
+     * Indicates whether identical concurrent GET requests are coalesced.
+     * @return the coalesceRequests
+     */
+    public boolean isCoalesceRequests()
+    {
+        return coalesceRequests;
+    }
+
+    /**
+     * Set flag that indicates whether identical concurrent GET requests are coalesced.
+     * @param coalesceRequests the coalesceRequests to set
+     */
+    public void setCoalesceRequests( boolean coalesceRequests )
+    {
+        this.coalesceRequests= coalesceRequests;
+    }
+
+    /**
+     * Gets the maximum number of cached responses.
+     * @return the responseCacheSize
+     */
+    public int getResponseCacheSize()
+    {
+        return responseCacheSize;
+    }
+
+    /**
+     * Sets the maximum number of cached responses.
+     * @param responseCacheSize the responseCacheSize to set
+     */
+    public void setResponseCacheSize( int responseCacheSize )
+    {
+        this.responseCacheSize= responseCacheSize;
+    }
+
+    /**
+     * Gets the maximum memory use of the response cache.
+     * @return the responseCacheMaxBytes
+     */
+    public long getResponseCacheMaxBytes()
+    {
+        return responseCacheMaxBytes;
+    }
+
+    /**
+     * Sets the maximum memory use of the response cache.
+     * @param responseCacheMaxBytes the responseCacheMaxBytes to set
+     */
+    public void setResponseCacheMaxBytes( long responseCacheMaxBytes )
+    {
+        this.responseCacheMaxBytes= responseCacheMaxBytes;
+    }
+
+    /**
+     * Gets the number of reads that makes a cached response hot.
+     * @return the refreshAheadReads
+     */
+    public int getRefreshAheadReads()
+    {
+        return refreshAheadReads;
+    }
+
+    /**
+     * Sets the number of reads that makes a cached response hot.
+     * @param refreshAheadReads the refreshAheadReads to set
+     */
+    public void setRefreshAheadReads( int refreshAheadReads )
+    {
+        this.refreshAheadReads= refreshAheadReads;
+    }
+
+    /**
+     * Gets the maximum number of refresh-ahead requests in flight.
+     * @return the refreshAheadConcurrency
+     */
+    public int getRefreshAheadConcurrency()
+    {
+        return refreshAheadConcurrency;
+    }
+
+    /**
+     * Sets the maximum number of refresh-ahead requests in flight.
+     * @param refreshAheadConcurrency the refreshAheadConcurrency to set
+     */
+    public void setRefreshAheadConcurrency( int refreshAheadConcurrency )
+    {
+        this.refreshAheadConcurrency= refreshAheadConcurrency;
+    }
+
+    /**
+     * Gets the number of endpoints.
+     * @return the endpointCount
+     */
+    public int getEndpointCount()
+    {
+        return endpointCount;
+    }
+
+    /**
+     * Sets the number of endpoints.
+     * @param endpointCount the endpointCount to set
+     */
+    public void setEndpointCount( int endpointCount )
+    {
+        this.endpointCount= endpointCount;
+    }
+
+    /**
+     * Gets the message id utilisation warning level.
+     * @return the midWarningPercent
+     */
+    public int getMidWarningPercent()
+    {
+        return midWarningPercent;
+    }
+
+    /**
+     * Sets the message id utilisation warning level.
+     * @param midWarningPercent the midWarningPercent to set
+     */
+    public void setMidWarningPercent( int midWarningPercent )
+    {
+        this.midWarningPercent= midWarningPercent;
+    }
+
+    /**
+     * Gets the message id spillover flag.
+     * @return the midSpillover
+     */
+    public boolean isMidSpillover()
+    {
+        return midSpillover;
+    }
+
+    /**
+     * Sets the message id spillover flag.
+     * @param midSpillover the midSpillover to set
+     */
+    public void setMidSpillover( boolean midSpillover )
+    {
+        this.midSpillover= midSpillover;
+    }
+
+    /**
+     * Gets the endpoint sharing flag.
+     * @return the shareEndpoints
+     */
+    public boolean isShareEndpoints()
+    {
+        return shareEndpoints;
+    }
+
+    /**
+     * Sets the endpoint sharing flag.
+     * @param shareEndpoints the shareEndpoints to set
+     */
+    public void setShareEndpoints( boolean shareEndpoints )
+    {
+        this.shareEndpoints= shareEndpoints;
+    }
+
+    /**
+     * Gets the observe cancel rate.
+     * @return the observeCancelRate
+     */
+    public int getObserveCancelRate()
+    {
+        return observeCancelRate;
+    }
+
+    /**
+     * Sets the observe cancel rate.
+     * @param observeCancelRate the observeCancelRate to set
+     */
+    public void setObserveCancelRate( int observeCancelRate )
+    {
+        this.observeCancelRate= observeCancelRate;
+    }
+
+    /**
+     * Gets the observe cancel grace period.
+     * @return the observeCancelGracePeriod
+     */
+    public long getObserveCancelGracePeriod()
+    {
+        return observeCancelGracePeriod;
+    }
+
+    /**
+     * Sets the observe cancel grace period.
+     * @param observeCancelGracePeriod the observeCancelGracePeriod to set
+     */
+    public void setObserveCancelGracePeriod( long observeCancelGracePeriod )
+    {
+        this.observeCancelGracePeriod= observeCancelGracePeriod;
+    }
+
+    /**
+     * Gets the re-registration backoff.
+     * @return the reregistrationBackoff
+     */
+    public long getReregistrationBackoff()
+    {
+        return reregistrationBackoff;
+    }
+
+    /**
+     * Sets the re-registration backoff.
+     * @param reregistrationBackoff the reregistrationBackoff to set
+     */
+    public void setReregistrationBackoff( long reregistrationBackoff )
+    {
+        this.reregistrationBackoff= reregistrationBackoff;
+    }
+
+    /**
+     * Gets the maximum re-registration backoff.
+     * @return the reregistrationMaxBackoff
+     */
+    public long getReregistrationMaxBackoff()
+    {
+        return reregistrationMaxBackoff;
+    }
+
+    /**
+     * Sets the maximum re-registration backoff.
+     * @param reregistrationMaxBackoff the reregistrationMaxBackoff to set
+     */
+    public void setReregistrationMaxBackoff( long reregistrationMaxBackoff )
+    {
+        this.reregistrationMaxBackoff= reregistrationMaxBackoff;
+    }
+
+    /**
+     * Gets the re-registration rate.
+     * @return the reregistrationRate
+     */
+    public int getReregistrationRate()
+    {
+        return reregistrationRate;
+    }
+
+    /**
+     * Sets the re-registration rate.
+     * @param reregistrationRate the reregistrationRate to set
+     */
+    public void setReregistrationRate( int reregistrationRate )
+    {
+        this.reregistrationRate= reregistrationRate;
+    }
+
+    /**
+     * Gets the registration rate.
+     * @return the registrationRate
+     */
+    public int getRegistrationRate()
+    {
+        return registrationRate;
+    }
+
+    /**
+     * Sets the registration rate.
+     * @param registrationRate the registrationRate to set
+     */
+    public void setRegistrationRate( int registrationRate )
+    {
+        this.registrationRate= registrationRate;
+    }
+
+    /**
+     * Gets the registration concurrency.
+     * @return the registrationConcurrency
+     */
+    public int getRegistrationConcurrency()
+    {
+        return registrationConcurrency;
+    }
+
+    /**
+     * Sets the registration concurrency.
+     * @param registrationConcurrency the registrationConcurrency to set
+     */
+    public void setRegistrationConcurrency( int registrationConcurrency )
+    {
+        this.registrationConcurrency= registrationConcurrency;
+    }
+
+    /**
+     * Gets the persist relations flag.
+     * @return the persistRelations
+     */
+    public boolean isPersistRelations()
+    {
+        return persistRelations;
+    }
+
+    /**
+     * Sets the persist relations flag.
+     * @param persistRelations the persistRelations to set
+     */
+    public void setPersistRelations( boolean persistRelations )
+    {
+        this.persistRelations= persistRelations;
+    }
+
+    /**
+     * Gets the relation resume window.
+     * @return the relationResumeWindow
+     */
+    public long getRelationResumeWindow()
+    {
+        return relationResumeWindow;
+    }
+
+    /**
+     * Sets the relation resume window.
+     * @param relationResumeWindow the relationResumeWindow to set
+     */
+    public void setRelationResumeWindow( long relationResumeWindow )
+    {
+        this.relationResumeWindow= relationResumeWindow;
+    }
+
+    /**
+     * Gets the stream responses flag.
+     * @return the streamResponses
+     */
+    public boolean isStreamResponses()
+    {
+        return streamResponses;
+    }
+
+    /**
+     * Sets the stream responses flag.
+     * @param streamResponses the streamResponses to set
+     */
+    public void setStreamResponses( boolean streamResponses )
+    {
+        this.streamResponses= streamResponses;
+    }
+
+    /**
+     * Gets the stream buffer size in blocks.
+     * @return the streamBufferBlocks
+     */
+    public int getStreamBufferBlocks()
+    {
+        return streamBufferBlocks;
+    }
+
+    /**
+     * Sets the stream buffer size in blocks.
+     * @param streamBufferBlocks the streamBufferBlocks to set
+     */
+    public void setStreamBufferBlocks( int streamBufferBlocks )
+    {
+        this.streamBufferBlocks= streamBufferBlocks;
+    }
+
+    /**
+     * Gets the stream idle timeout.
+     * @return the streamIdleTimeout
+     */
+    public long getStreamIdleTimeout()
+    {
+        return streamIdleTimeout;
+    }
+
+    /**
+     * Sets the stream idle timeout.
+     * @param streamIdleTimeout the streamIdleTimeout to set
+     */
+    public void setStreamIdleTimeout( long streamIdleTimeout )
+    {
+        this.streamIdleTimeout= streamIdleTimeout;
+    }
+
+    /**
+     * Gets the blockwise window.
+     * @return the blockwiseWindow
+     */
+    public int getBlockwiseWindow()
+    {
+        return blockwiseWindow;
+    }
+
+    /**
+     * Sets the blockwise window.
+     * @param blockwiseWindow the blockwiseWindow to set
+     */
+    public void setBlockwiseWindow( int blockwiseWindow )
+    {
+        this.blockwiseWindow= blockwiseWindow;
+    }
+
+    /**
+     * Gets the maximum response size.
+     * @return the maxResponseSize
+     */
+    public long getMaxResponseSize()
+    {
+        return maxResponseSize;
+    }
+
+    /**
+     * Sets the maximum response size.
+     * @param maxResponseSize the maxResponseSize to set
+     */
+    public void setMaxResponseSize( long maxResponseSize )
+    {
+        this.maxResponseSize= maxResponseSize;
+    }
+
+    /**
+     * Gets the response memory budget.
+     * @return the responseMemoryBudget
+     */
+    public long getResponseMemoryBudget()
+    {
+        return responseMemoryBudget;
+    }
+
+    /**
+     * Sets the response memory budget.
+     * @param responseMemoryBudget the responseMemoryBudget to set
+     */
+    public void setResponseMemoryBudget( long responseMemoryBudget )
+    {
+        this.responseMemoryBudget= responseMemoryBudget;
+    }
+
+    /* (non-Javadoc)
+     * @see nl.teslanet.mule.transport.coap.client.config.EndpointConfig#getEndpointSignature()
+     */
+    @Override
+    public String getEndpointSignature()
+    {
+        StringBuilder signature= new StringBuilder( super.getEndpointSignature() );
+        append( signature, "secure", secure );
+        append( signature, "logMessages", logMessages );
+        append( signature, "endpointCount", endpointCount );
+        append( signature, "midWarningPercent", midWarningPercent );
+        append( signature, "midSpillover", midSpillover );
+        return signature.toString();
+    }
+
+}
@@ -15,6 +15,10 @@
 package nl.teslanet.mule.transport.coap.client.config;
 
 
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
 import org.eclipse.californium.core.network.config.NetworkConfig;
 import org.mule.api.annotations.Configurable;
 import org.mule.api.annotations.display.Placement;
@@ -1137,6 +1141,104 @@ public class EndpointConfig
         return config;
     }
 
-  
-
+    /**
+     * Get a signature of the endpoint parameters. 
+     * Configurations with equal signatures create equal endpoints.
+     * Passwords are included as digest only, so the signature can be used as key without disclosing them.
+     * @return The signature.
+     */
+    public String getEndpointSignature()
+    {
+        StringBuilder signature= new StringBuilder();
+        append( signature, "bindToHost", bindToHost );
+        append( signature, "bindToPort", bindToPort );
+        append( signature, "bindToSecurePort", bindToSecurePort );
+        append( signature, "ackTimeout", ackTimeout );
+        append( signature, "ackRandomFactor", ackRandomFactor );
+        append( signature, "ackTimeoutScale", ackTimeoutScale );
+        append( signature, "maxRetransmit", maxRetransmit );
+        append( signature, "exchangeLifetime", exchangeLifetime );
+        append( signature, "nonLifetime", nonLifetime );
+        append( signature, "maxTransmitWait", maxTransmitWait );
+        append( signature, "nstart", nstart );
+        append( signature, "leisure", leisure );
+        append( signature, "probingRate", probingRate );
+        append( signature, "keyStoreLocation", keyStoreLocation );
+        appendSecret( signature, "keyStorePassword", keyStorePassword );
+        append( signature, "privateKeyAlias", privateKeyAlias );
+        append( signature, "trustStoreLocation", trustStoreLocation );
+        appendSecret( signature, "trustStorePassword", trustStorePassword );
+        append( signature, "trustedRootCertificateAlias", trustedRootCertificateAlias );
+        append( signature, "useRandomMidStart", useRandomMidStart );
+        append( signature, "tokenSizeLimit", tokenSizeLimit );
+        append( signature, "preferredBlockSize", preferredBlockSize );
+        append( signature, "maxMessageSize", maxMessageSize );
+        append( signature, "blockwiseStatusLifetime", blockwiseStatusLifetime );
+        append( signature, "notificationCheckIntervalTime", notificationCheckIntervalTime );
+        append( signature, "notificationCheckIntervalCount", notificationCheckIntervalCount );
+        append( signature, "notificationReregistrationBackoff", notificationReregistrationBackoff );
+        append( signature, "useCongestionControl", useCongestionControl );
+        append( signature, "congestionControlAlgorithm", congestionControlAlgorithm );
+        append( signature, "protocolStageThreadCount", protocolStageThreadCount );
+        append( signature, "networkStageReceiverThreadCount", networkStageReceiverThreadCount );
+        append( signature, "networkStageSenderThreadCount", networkStageSenderThreadCount );
+        append( signature, "udpConnectorDatagramSize", udpConnectorDatagramSize );
+        append( signature, "udpConnectorReceiveBuffer", udpConnectorReceiveBuffer );
+        append( signature, "udpConnectorSendBuffer", udpConnectorSendBuffer );
+        append( signature, "udpConnectorOutCapacity", udpConnectorOutCapacity );
+        append( signature, "deduplicator", deduplicator );
+        append( signature, "deduplicatorMarkAndSweep", deduplicatorMarkAndSweep );
+        append( signature, "markAndSweepInterval", markAndSweepInterval );
+        append( signature, "deduplicatorCropRotation", deduplicatorCropRotation );
+        append( signature, "cropRotationPeriod", cropRotationPeriod );
+        append( signature, "noDeduplicator", noDeduplicator );
+        append( signature, "httpPort", httpPort );
+        append( signature, "httpServerSocketTimeout", httpServerSocketTimeout );
+        append( signature, "httpServerSocketBufferSize", httpServerSocketBufferSize );
+        append( signature, "httpCacheResponseMaxAge", httpCacheResponseMaxAge );
+        append( signature, "httpCacheSize", httpCacheSize );
+        append( signature, "healthStatusPrintLevel", healthStatusPrintLevel );
+        append( signature, "healthStatusInterval", healthStatusInterval );
+        return signature.toString();
+    }
+
+    /**
+     * Append a parameter to a signature.
+     * @param signature The signature to append to.
+     * @param name The name of the parameter.
+     * @param value The value of the parameter.
+     */
+    protected static void append( StringBuilder signature, String name, Object value )
+    {
+        signature.append( name ).append( '=' ).append( value ).append( ';' );
+    }
+
+    /**
+     * Append a secret parameter to a signature, as digest of its value.
+     * @param signature The signature to append to.
+     * @param name The name of the parameter.
+     * @param value The value of the parameter.
+     */
+    protected static void appendSecret( StringBuilder signature, String name, String value )
+    {
+        if ( value == null )
+        {
+            append( signature, name, null );
+            return;
+        }
+        try
+        {
+            byte[] digest= MessageDigest.getInstance( "SHA-256" ).digest( value.getBytes( StandardCharsets.UTF_8 ) );
+            StringBuilder hex= new StringBuilder();
+            for ( byte b : digest )
+            {
+                hex.append( Character.forDigit( ( b >> 4 ) & 0xf, 16 ) ).append( Character.forDigit( b & 0xf, 16 ) );
+            }
+            append( signature, name, hex );
+        }
+        catch ( NoSuchAlgorithmException e )
+        {
+            throw new IllegalStateException( "cannot digest endpoint parameter { " + name + " }", e );
+        }
+    }
 }
@@ -0,0 +1,37 @@
+/*******************************************************************************
+ * Copyright (c) 2019 (teslanet.nl) Rogier Cobben.
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License - v 2.0 
+ * which accompanies this distribution.
+ * 
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ * 
+ * Contributors:
+ *    (teslanet.nl) Rogier Cobben - initial creation
+ ******************************************************************************/
+package nl.teslanet.mule.transport.coap.client.config;
+
+
+/**
+ * The policy to apply when an asynchronous request would exceed the in-flight limit.
+ */
+public enum InFlightPolicy
+{
+    /**
+     * The requesting thread waits until the request can be sent.
+     */
+    BLOCK,
+
+    /**
+     * The request is refused with an exception.
+     */
+    FAIL,
+
+    /**
+     * The request is queued and sent when an earlier request completes.
+     * When the queue is full the request is refused with an exception.
+     */
+    QUEUE
+}
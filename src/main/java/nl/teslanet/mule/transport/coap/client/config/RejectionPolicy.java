@@ -0,0 +1,38 @@
+/*******************************************************************************
+ * Copyright (c) 2019 (teslanet.nl) Rogier Cobben.
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License - v 2.0 
+ * which accompanies this distribution.
+ * 
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ * 
+ * Contributors:
+ *    (teslanet.nl) Rogier Cobben - initial creation
+ ******************************************************************************/
+package nl.teslanet.mule.transport.coap.client.config;
+
+
+/**
+ * The policy to apply when the handler queue is full.
+ */
+public enum RejectionPolicy
+{
+    /**
+     * The delivering thread waits until the queue has room.
+     * The CoAP endpoint stalls meanwhile, as the delivering thread is a protocol thread.
+     */
+    BLOCK,
+
+    /**
+     * The oldest queued task is dropped to make room. The delivering thread never waits.
+     */
+    DROP_OLDEST,
+
+    /**
+     * The delivering thread processes the task itself.
+     * The CoAP endpoint stalls meanwhile, as the delivering thread is a protocol thread.
+     */
+    CALLER_RUNS
+}
@@ -0,0 +1,250 @@
+/*******************************************************************************
+ * Copyright (c) 2019 (teslanet.nl) Rogier Cobben.
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License - v 2.0 
+ * which accompanies this distribution.
+ * 
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ * 
+ * Contributors:
+ *    (teslanet.nl) Rogier Cobben - initial creation
+ ******************************************************************************/
+package nl.teslanet.mule.transport.coap.client.endpoint;
+
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.eclipse.californium.core.network.CoapEndpoint;
+import org.eclipse.californium.core.network.interceptors.MessageInterceptor;
+
+import nl.teslanet.mule.transport.coap.client.blockwise.BlockCapture;
+
+
+/**
+ * Pool of CoAP endpoints, each bound to its own socket.
+ * Destinations are mapped to endpoints by consistent hashing, so all traffic with a peer 
+ * uses the same endpoint and its message id, deduplication and exchange state, 
+ * while receiving and matching for different peers is spread over the endpoints.
+ */
+public class EndpointPool
+{
+    /**
+     * Number of points on the hash ring per endpoint, evening out the distribution.
+     */
+    private static final int VIRTUAL_NODES= 64;
+
+    /**
+     * The endpoints.
+     */
+    private final List< CoapEndpoint > endpoints;
+
+    /**
+     * The hash ring, mapping hash points to endpoint index.
+     */
+    private final TreeMap< Integer, Integer > ring= new TreeMap< Integer, Integer >();
+
+    /**
+     * Message id trackers by endpoint index, null when not tracked.
+     */
+    private List< MidTracker > midTrackers= null;
+
+    /**
+     * Utilisation in percent of the message id space above which a peer is spilled to another endpoint.
+     */
+    private int spillPercent= 0;
+
+    /**
+     * Capture of first blocks of streamed responses, null when not enabled.
+     */
+    private BlockCapture blockCapture= null;
+
+    /**
+     * Constructor
+     * @param endpoints The endpoints of the pool, at least one.
+     */
+    public EndpointPool( List< CoapEndpoint > endpoints )
+    {
+        if ( endpoints.isEmpty() ) throw new IllegalArgumentException( "endpoint pool needs at least one endpoint" );
+        this.endpoints= Collections.unmodifiableList( new ArrayList< CoapEndpoint >( endpoints ) );
+        for ( int i= 0; i < endpoints.size(); i++ )
+        {
+            for ( int v= 0; v < VIRTUAL_NODES; v++ )
+            {
+                ring.put( Integer.valueOf( mix( i * 31 * VIRTUAL_NODES + v ) ), Integer.valueOf( i ) );
+            }
+        }
+    }
+
+    /**
+     * Select the endpoint for a destination.
+     * With spillover a destination may be moved to another endpoint, so messages that belong 
+     * to an existing exchange or observe relation must use the endpoint it was started on.
+     * @param address The address of the destination.
+     * @param port The port of the destination.
+     * @return The endpoint.
+     */
+    public CoapEndpoint select( InetAddress address, int port )
+    {
+        if ( endpoints.size() == 1 ) return endpoints.get( 0 );
+        int h= ( address == null ? 0 : address.hashCode() ) * 31 + port;
+        Map.Entry< Integer, Integer > point= ring.ceilingEntry( Integer.valueOf( mix( h ) ) );
+        if ( point == null )
+        {
+            point= ring.firstEntry();
+        }
+        int index= point.getValue().intValue();
+        if ( spillPercent > 0 && address != null )
+        {
+            index= spill( point, new InetSocketAddress( address, port ) );
+        }
+        return endpoints.get( index );
+    }
+
+    /**
+     * Find the endpoint for a destination whose message id space is not nearly exhausted, 
+     * following the hash ring from the point of the destination.
+     * When all endpoints are exhausted the endpoint of the destination is used.
+     * @param point The point of the destination on the ring.
+     * @param peer The destination.
+     * @return The endpoint index.
+     */
+    private int spill( Map.Entry< Integer, Integer > point, InetSocketAddress peer )
+    {
+        int first= point.getValue().intValue();
+        boolean[] tried= new boolean [endpoints.size()];
+        int remaining= endpoints.size();
+        Map.Entry< Integer, Integer > current= point;
+        while ( remaining > 0 )
+        {
+            int index= current.getValue().intValue();
+            if ( !tried[index] )
+            {
+                if ( midTrackers.get( index ).getUtilisation( peer ) < spillPercent ) return index;
+                tried[index]= true;
+                remaining--;
+            }
+            current= ring.higherEntry( current.getKey() );
+            if ( current == null ) current= ring.firstEntry();
+        }
+        return first;
+    }
+
+    /**
+     * Track message id use per peer on all endpoints.
+     * @param lifetimeMillis The time a message id stays in use, in milliseconds.
+     * @param warnPercent The utilisation in percent of the message id space of a peer above which a warning is logged.
+     * @param spill When true new exchanges with a peer are moved to another endpoint once the utilisation passes the warning level.
+     */
+    public void enableMidTracking( long lifetimeMillis, int warnPercent, boolean spill )
+    {
+        ArrayList< MidTracker > trackers= new ArrayList< MidTracker >();
+        for ( int i= 0; i < endpoints.size(); i++ )
+        {
+            MidTracker tracker= new MidTracker( "endpoint-" + i, lifetimeMillis, warnPercent );
+            endpoints.get( i ).addInterceptor( tracker );
+            trackers.add( tracker );
+        }
+        midTrackers= Collections.unmodifiableList( trackers );
+        spillPercent= ( spill ? Math.max( 1, warnPercent ) : 0 );
+    }
+
+    /**
+     * @return The message id trackers by endpoint index, null when not tracked.
+     */
+    public List< MidTracker > getMidTrackers()
+    {
+        return midTrackers;
+    }
+
+    /**
+     * Capture first blocks of responses on all endpoints, so blockwise responses can be streamed.
+     */
+    public void enableBlockCapture()
+    {
+        blockCapture= new BlockCapture();
+        addInterceptor( blockCapture );
+    }
+
+    /**
+     * @return The capture of first blocks, null when not enabled.
+     */
+    public BlockCapture getBlockCapture()
+    {
+        return blockCapture;
+    }
+
+    /**
+     * Spread the bits of a hash value.
+     * @param h The value.
+     * @return The mixed value.
+     */
+    private static int mix( int h )
+    {
+        h^= ( h >>> 16 );
+        h*= 0x85ebca6b;
+        h^= ( h >>> 13 );
+        h*= 0xc2b2ae35;
+        h^= ( h >>> 16 );
+        return h;
+    }
+
+    /**
+     * Add an interceptor to all endpoints.
+     * @param interceptor The interceptor.
+     */
+    public void addInterceptor( MessageInterceptor interceptor )
+    {
+        for ( CoapEndpoint endpoint : endpoints )
+        {
+            endpoint.addInterceptor( interceptor );
+        }
+    }
+
+    /**
+     * Start all endpoints.
+     * @throws IOException when an endpoint cannot be started.
+     */
+    public void start() throws IOException
+    {
+        for ( CoapEndpoint endpoint : endpoints )
+        {
+            endpoint.start();
+        }
+    }
+
+    /**
+     * Destroy all endpoints, freeing their sockets.
+     */
+    public void destroy()
+    {
+        for ( CoapEndpoint endpoint : endpoints )
+        {
+            endpoint.destroy();
+        }
+    }
+
+    /**
+     * @return The endpoints.
+     */
+    public List< CoapEndpoint > getEndpoints()
+    {
+        return endpoints;
+    }
+
+    /**
+     * @return The number of endpoints.
+     */
+    public int size()
+    {
+        return endpoints.size();
+    }
+}
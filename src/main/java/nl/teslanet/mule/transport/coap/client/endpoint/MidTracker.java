@@ -0,0 +1,275 @@
+/*******************************************************************************
+ * Copyright (c) 2019 (teslanet.nl) Rogier Cobben.
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License - v 2.0 
+ * which accompanies this distribution.
+ * 
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ * 
+ * Contributors:
+ *    (teslanet.nl) Rogier Cobben - initial creation
+ ******************************************************************************/
+package nl.teslanet.mule.transport.coap.client.endpoint;
+
+
+import java.net.InetSocketAddress;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.californium.core.coap.EmptyMessage;
+import org.eclipse.californium.core.coap.MessageObserverAdapter;
+import org.eclipse.californium.core.coap.Request;
+import org.eclipse.californium.core.coap.Response;
+import org.eclipse.californium.core.network.interceptors.MessageInterceptor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Tracks the message ids an endpoint uses per peer. 
+ * A message id stays in use for the exchange lifetime, so a peer can only be sent 
+ * a limited number of new requests per lifetime before its 16-bit message id space is exhausted.
+ * Retransmissions reuse their message id and are not counted.
+ */
+public class MidTracker implements MessageInterceptor
+{
+    /**
+     * Logger of the class
+     */
+    private static final Logger logger= LoggerFactory.getLogger( MidTracker.class );
+
+    /**
+     * The number of message ids per peer.
+     */
+    public static final int MID_SPACE= 1 << 16;
+
+    /**
+     * Marks requests that have been counted, so retransmissions are recognised.
+     */
+    private static final MessageObserverAdapter COUNTED= new MessageObserverAdapter()
+        {
+            // marker only
+        };
+
+    /**
+     * The name of the endpoint, used in logging.
+     */
+    private final String name;
+
+    /**
+     * The lifetime of a message id in seconds.
+     */
+    private final int lifetime;
+
+    /**
+     * The utilisation in percent above which a warning is logged.
+     */
+    private final int warnPercent;
+
+    /**
+     * Usage windows by peer.
+     */
+    private final ConcurrentHashMap< InetSocketAddress, Window > peers= new ConcurrentHashMap< InetSocketAddress, Window >();
+
+    /**
+     * Constructor
+     * @param name The name of the endpoint, used in logging.
+     * @param lifetimeMillis The lifetime of a message id in milliseconds.
+     * @param warnPercent The utilisation in percent above which a warning is logged.
+     */
+    public MidTracker( String name, long lifetimeMillis, int warnPercent )
+    {
+        this.name= name;
+        this.lifetime= (int) Math.max( 1L, TimeUnit.MILLISECONDS.toSeconds( lifetimeMillis ) );
+        this.warnPercent= warnPercent;
+    }
+
+    /* (non-Javadoc)
+     * @see org.eclipse.californium.core.network.interceptors.MessageInterceptor#sendRequest(org.eclipse.californium.core.coap.Request)
+     */
+    @Override
+    public void sendRequest( Request request )
+    {
+        if ( request.getMessageObservers().contains( COUNTED ) ) return;
+        request.addMessageObserver( COUNTED );
+
+        InetSocketAddress peer= new InetSocketAddress( request.getDestination(), request.getDestinationPort() );
+        Window window= peers.get( peer );
+        if ( window == null )
+        {
+            Window created= new Window( lifetime );
+            window= peers.putIfAbsent( peer, created );
+            if ( window == null ) window= created;
+        }
+        int percent= window.add( now() );
+        if ( percent >= warnPercent && window.warn( true ) )
+        {
+            logger.warn( "endpoint { " + name + " } uses " + percent + "% of message ids of peer { " + peer + " }" );
+        }
+        else if ( percent < warnPercent )
+        {
+            window.warn( false );
+        }
+    }
+
+    /* (non-Javadoc)
+     * @see org.eclipse.californium.core.network.interceptors.MessageInterceptor#sendResponse(org.eclipse.californium.core.coap.Response)
+     */
+    @Override
+    public void sendResponse( Response response )
+    {
+        // responses are not originated by the client
+    }
+
+    /* (non-Javadoc)
+     * @see org.eclipse.californium.core.network.interceptors.MessageInterceptor#sendEmptyMessage(org.eclipse.californium.core.coap.EmptyMessage)
+     */
+    @Override
+    public void sendEmptyMessage( EmptyMessage message )
+    {
+        // acknowledgements and resets reuse the message id of the peer
+    }
+
+    /* (non-Javadoc)
+     * @see org.eclipse.californium.core.network.interceptors.MessageInterceptor#receiveRequest(org.eclipse.californium.core.coap.Request)
+     */
+    @Override
+    public void receiveRequest( Request request )
+    {
+        // no message ids used
+    }
+
+    /* (non-Javadoc)
+     * @see org.eclipse.californium.core.network.interceptors.MessageInterceptor#receiveResponse(org.eclipse.californium.core.coap.Response)
+     */
+    @Override
+    public void receiveResponse( Response response )
+    {
+        // no message ids used
+    }
+
+    /* (non-Javadoc)
+     * @see org.eclipse.californium.core.network.interceptors.MessageInterceptor#receiveEmptyMessage(org.eclipse.californium.core.coap.EmptyMessage)
+     */
+    @Override
+    public void receiveEmptyMessage( EmptyMessage message )
+    {
+        // no message ids used
+    }
+
+    /**
+     * Get the message id utilisation of a peer.
+     * @param peer The address of the peer.
+     * @return The utilisation in percent.
+     */
+    public int getUtilisation( InetSocketAddress peer )
+    {
+        Window window= peers.get( peer );
+        return ( window == null ? 0 : window.percent( now() ) );
+    }
+
+    /**
+     * Get the message id utilisation of all peers in use. Peers without message ids in use are forgotten.
+     * @return The utilisation in percent by peer.
+     */
+    public Map< InetSocketAddress, Integer > getUtilisation()
+    {
+        HashMap< InetSocketAddress, Integer > result= new HashMap< InetSocketAddress, Integer >();
+        long now= now();
+        Iterator< Map.Entry< InetSocketAddress, Window > > it= peers.entrySet().iterator();
+        while ( it.hasNext() )
+        {
+            Map.Entry< InetSocketAddress, Window > entry= it.next();
+            if ( entry.getValue().count( now ) == 0 )
+            {
+                it.remove();
+            }
+            else
+            {
+                result.put( entry.getKey(), Integer.valueOf( entry.getValue().percent( now ) ) );
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return The current time in seconds.
+     */
+    private static long now()
+    {
+        return TimeUnit.NANOSECONDS.toSeconds( System.nanoTime() );
+    }
+
+    /**
+     * Sliding window counting message ids used per second, over the lifetime.
+     */
+    private static final class Window
+    {
+        private final int[] buckets;
+
+        private long last;
+
+        private int total= 0;
+
+        private boolean warned= false;
+
+        private Window( int lifetime )
+        {
+            buckets= new int [lifetime];
+            last= now();
+        }
+
+        /**
+         * Drop the counts that have left the window.
+         * @param now The current time in seconds.
+         */
+        private void advance( long now )
+        {
+            if ( now <= last ) return;
+            long steps= Math.min( now - last, buckets.length );
+            for ( long s= 1; s <= steps; s++ )
+            {
+                int index= (int) ( ( last + s ) % buckets.length );
+                total-= buckets[index];
+                buckets[index]= 0;
+            }
+            last= now;
+        }
+
+        private synchronized int add( long now )
+        {
+            advance( now );
+            buckets[(int) ( now % buckets.length )]++;
+            total++;
+            return (int) ( total * 100L / MID_SPACE );
+        }
+
+        private synchronized int count( long now )
+        {
+            advance( now );
+            return total;
+        }
+
+        private synchronized int percent( long now )
+        {
+            return (int) ( count( now ) * 100L / MID_SPACE );
+        }
+
+        /**
+         * Set the warning state.
+         * @param warn The new state.
+         * @return True when the state changed.
+         */
+        private synchronized boolean warn( boolean warn )
+        {
+            if ( warned == warn ) return false;
+            warned= warn;
+            return true;
+        }
+    }
+}
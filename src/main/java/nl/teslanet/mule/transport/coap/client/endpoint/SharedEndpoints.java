@@ -0,0 +1,129 @@
+/*******************************************************************************
+ * Copyright (c) 2019 (teslanet.nl) Rogier Cobben.
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License - v 2.0 
+ * which accompanies this distribution.
+ * 
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ * 
+ * Contributors:
+ *    (teslanet.nl) Rogier Cobben - initial creation
+ ******************************************************************************/
+package nl.teslanet.mule.transport.coap.client.endpoint;
+
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import nl.teslanet.mule.transport.coap.client.error.EndpointConstructionException;
+
+
+/**
+ * Registry of endpoint pools shared by connector configurations.
+ * Configurations with the same endpoint signature use the same pool, 
+ * which is created by the first and destroyed when the last releases it.
+ */
+public final class SharedEndpoints
+{
+    /**
+     * Creates and starts an endpoint pool.
+     */
+    public interface Factory
+    {
+        /**
+         * Create and start an endpoint pool.
+         * @return The started pool.
+         * @throws EndpointConstructionException when an endpoint could not be created.
+         * @throws IOException when an endpoint could not be started.
+         */
+        EndpointPool create() throws EndpointConstructionException, IOException;
+    }
+
+    /**
+     * The shared pools by signature.
+     */
+    private static final HashMap< String, Shared > registry= new HashMap< String, Shared >();
+
+    /**
+     * No instances.
+     */
+    private SharedEndpoints()
+    {
+        // static only
+    }
+
+    /**
+     * Acquire the pool for a signature, creating it when it is not in use.
+     * @param signature The endpoint signature.
+     * @param factory The factory to create the pool with.
+     * @return The pool.
+     * @throws EndpointConstructionException when an endpoint could not be created.
+     * @throws IOException when an endpoint could not be started.
+     */
+    public static synchronized EndpointPool acquire( String signature, Factory factory ) throws EndpointConstructionException, IOException
+    {
+        Shared shared= registry.get( signature );
+        if ( shared == null )
+        {
+            shared= new Shared( factory.create() );
+            registry.put( signature, shared );
+        }
+        shared.references++;
+        return shared.pool;
+    }
+
+    /**
+     * Release a pool. The pool is destroyed when no longer in use.
+     * @param pool The pool to release.
+     * @return True when the pool was destroyed.
+     */
+    public static synchronized boolean release( EndpointPool pool )
+    {
+        Iterator< Map.Entry< String, Shared > > it= registry.entrySet().iterator();
+        while ( it.hasNext() )
+        {
+            Shared shared= it.next().getValue();
+            if ( shared.pool == pool )
+            {
+                if ( --shared.references > 0 ) return false;
+                it.remove();
+                pool.destroy();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Get the number of configurations using a pool.
+     * @param pool The pool.
+     * @return The number of references, 0 when the pool is not shared.
+     */
+    public static synchronized int getReferences( EndpointPool pool )
+    {
+        for ( Shared shared : registry.values() )
+        {
+            if ( shared.pool == pool ) return shared.references;
+        }
+        return 0;
+    }
+
+    /**
+     * A shared pool and its reference count.
+     */
+    private static final class Shared
+    {
+        private final EndpointPool pool;
+
+        private int references= 0;
+
+        private Shared( EndpointPool pool )
+        {
+            this.pool= pool;
+        }
+    }
+}
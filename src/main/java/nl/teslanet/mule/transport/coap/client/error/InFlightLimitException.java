@@ -0,0 +1,54 @@
+/*******************************************************************************
+ * Copyright (c) 2019 (teslanet.nl) Rogier Cobben.
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License - v 2.0 
+ * which accompanies this distribution.
+ * 
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ * 
+ * Contributors:
+ *    (teslanet.nl) Rogier Cobben - initial creation
+ ******************************************************************************/
+package nl.teslanet.mule.transport.coap.client.error;
+
+
+/**
+ * InFlightLimitException occurs when a request is refused because too many requests are in flight.
+ *
+ */
+public class InFlightLimitException extends Exception
+{
+
+    /**
+     * 
+     */
+    private static final long serialVersionUID= 1L;
+
+    public InFlightLimitException()
+    {
+        super();
+    }
+
+    public InFlightLimitException( String message )
+    {
+        super( message );
+    }
+
+    public InFlightLimitException( Throwable cause )
+    {
+        super( cause );
+    }
+
+    public InFlightLimitException( String message, Throwable cause )
+    {
+        super( message, cause );
+    }
+
+    public InFlightLimitException( String message, Throwable cause, boolean enableSuppression, boolean writableStackTrace )
+    {
+        super( message, cause, enableSuppression, writableStackTrace );
+    }
+
+}
@@ -0,0 +1,401 @@
+/*******************************************************************************
+ * Copyright (c) 2019 (teslanet.nl) Rogier Cobben.
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License - v 2.0 
+ * which accompanies this distribution.
+ * 
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ * 
+ * Contributors:
+ *    (teslanet.nl) Rogier Cobben - initial creation
+ ******************************************************************************/
+package nl.teslanet.mule.transport.coap.client;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetSocketAddress;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.eclipse.californium.core.CoapClient;
+import org.eclipse.californium.core.CoapResource;
+import org.eclipse.californium.core.CoapServer;
+import org.eclipse.californium.core.coap.CoAP.ResponseCode;
+import org.eclipse.californium.core.coap.EmptyMessage;
+import org.eclipse.californium.core.coap.Request;
+import org.eclipse.californium.core.coap.Response;
+import org.eclipse.californium.core.network.CoapEndpoint;
+import org.eclipse.californium.core.network.interceptors.MessageInterceptor;
+import org.eclipse.californium.core.server.resources.CoapExchange;
+import org.eclipse.californium.core.server.resources.Resource;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import nl.teslanet.mule.transport.coap.client.concurrent.RateLimiter;
+
+
+/**
+ * Test the observe registry against a local server. 
+ * Cancelling all relations on stop is tested against a server that confirms 
+ * the cancellation of some relations and ignores the cancellation of others.
+ * The registry is package private, so the test is in its package.
+ */
+public class ObserveRegistryTest
+{
+    /**
+     * Server with responsive and silent resources.
+     */
+    private CoapServer server= null;
+
+    /**
+     * Endpoint of the clients.
+     */
+    private CoapEndpoint endpoint= null;
+
+    /**
+     * The registry under test.
+     */
+    private ObserveRegistry registry= null;
+
+    /**
+     * Resource that can be observed.
+     */
+    private static class ObservableResource extends CoapResource
+    {
+        private ObservableResource( String name )
+        {
+            super( name );
+            setObservable( true );
+        }
+
+        @Override
+        public void handleGET( CoapExchange exchange )
+        {
+            exchange.respond( ResponseCode.CONTENT, "content" );
+        }
+    }
+
+    /**
+     * Interceptor dropping the cancellations of relations on silent resources.
+     */
+    private static class SilentCancellations implements MessageInterceptor
+    {
+        @Override
+        public void receiveRequest( Request request )
+        {
+            Integer observe= request.getOptions().getObserve();
+            if ( observe != null && observe.intValue() == 1 && request.getOptions().getUriPathString().startsWith( "silent" ) )
+            {
+                // dropped before the server sees it
+                request.setCanceled( true );
+            }
+        }
+
+        @Override
+        public void sendRequest( Request request )
+        {
+            // nothing to drop
+        }
+
+        @Override
+        public void sendResponse( Response response )
+        {
+            // nothing to drop
+        }
+
+        @Override
+        public void sendEmptyMessage( EmptyMessage message )
+        {
+            // nothing to drop
+        }
+
+        @Override
+        public void receiveResponse( Response response )
+        {
+            // nothing to drop
+        }
+
+        @Override
+        public void receiveEmptyMessage( EmptyMessage message )
+        {
+            // nothing to drop
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception
+    {
+        server= new CoapServer();
+        CoapEndpoint serverEndpoint= new CoapEndpoint( new InetSocketAddress( "127.0.0.1", 0 ) );
+        serverEndpoint.addInterceptor( new SilentCancellations() );
+        server.addEndpoint( serverEndpoint );
+        CoapResource responsive= new CoapResource( "responsive" );
+        CoapResource silent= new CoapResource( "silent" );
+        for ( int i= 0; i < 10; i++ )
+        {
+            responsive.add( new ObservableResource( "resource" + i ) );
+            silent.add( new ObservableResource( "resource" + i ) );
+        }
+        server.add( responsive );
+        server.add( silent );
+        server.start();
+
+        endpoint= new CoapEndpoint( new InetSocketAddress( "127.0.0.1", 0 ) );
+        endpoint.start();
+        registry= new ObserveRegistry( new ObserveRegistry.Decoder()
+            {
+                @Override
+                public Map< String, Object > decode( Response response, String uri )
+                {
+                    return new HashMap< String, Object >();
+                }
+            } );
+    }
+
+    @After
+    public void tearDown()
+    {
+        if ( endpoint != null )
+        {
+            endpoint.destroy();
+            endpoint= null;
+        }
+        if ( server != null )
+        {
+            server.stop();
+            server.destroy();
+            server= null;
+        }
+    }
+
+    /**
+     * Establish relations on resources.
+     * @param path The path of the parent resource.
+     * @param count The number of relations.
+     * @throws InterruptedException when interrupted.
+     */
+    private void observe( String path, int count ) throws InterruptedException
+    {
+        int port= server.getEndpoints().get( 0 ).getAddress().getPort();
+        final CountDownLatch notified= new CountDownLatch( count );
+        for ( int i= 0; i < count; i++ )
+        {
+            CoapClient client= new CoapClient( "coap://127.0.0.1:" + port + "/" + path + "/resource" + i );
+            client.setEndpoint( endpoint );
+            registry.subscribe( client, true, "owner", new ObserveRegistry.Subscriber()
+                {
+                    private final AtomicBoolean first= new AtomicBoolean( true );
+
+                    @Override
+                    public void onNotification( Response response, Map< String, Object > properties )
+                    {
+                        if ( response != null && first.compareAndSet( true, false ) ) notified.countDown();
+                    }
+                }, true );
+        }
+        assertTrue( "relations not established", notified.await( 10, TimeUnit.SECONDS ) );
+    }
+
+    /**
+     * Subscribe to a resource and wait for the first notification.
+     * @param path The path of the resource.
+     * @param confirmable True when the relation is to use confirmable requests.
+     * @param owner The owner of the subscription.
+     * @return True when a new relation was established.
+     * @throws InterruptedException when interrupted.
+     */
+    private boolean subscribe( String path, boolean confirmable, Object owner ) throws InterruptedException
+    {
+        int port= server.getEndpoints().get( 0 ).getAddress().getPort();
+        CoapClient client= new CoapClient( "coap://127.0.0.1:" + port + "/" + path );
+        client.setEndpoint( endpoint );
+        final CountDownLatch notified= new CountDownLatch( 1 );
+        boolean established= registry.subscribe( client, confirmable, owner, new ObserveRegistry.Subscriber()
+            {
+                @Override
+                public void onNotification( Response response, Map< String, Object > properties )
+                {
+                    if ( response != null ) notified.countDown();
+                }
+            }, true );
+        assertTrue( "no notification", notified.await( 10, TimeUnit.SECONDS ) );
+        return established;
+    }
+
+    /**
+     * @param path The path of the parent resource.
+     * @return The number of observers on the resources under the path.
+     */
+    private int getObservers( String path )
+    {
+        int count= 0;
+        for ( Resource resource : server.getRoot().getChild( path ).getChildren() )
+        {
+            count+= ( (CoapResource) resource ).getObserverCount();
+        }
+        return count;
+    }
+
+    @Test(timeout= 30000)
+    public void testResponsiveAndSilent() throws Exception
+    {
+        observe( "responsive", 10 );
+        observe( "silent", 5 );
+        assertEquals( "wrong relation count", 15, registry.getRelationCount() );
+
+        long start= System.nanoTime();
+        ObserveRegistry.CancelReport report= registry.cancelAll( new RateLimiter( 1000, 1000 ), 1000L );
+        long elapsed= TimeUnit.NANOSECONDS.toMillis( System.nanoTime() - start );
+
+        assertEquals( "wrong number of cancelled relations", 10, report.getCancelled() );
+        assertEquals( "wrong number of abandoned relations", 5, report.getAbandoned() );
+        // silent relations are awaited together, not one after the other
+        assertTrue( "grace period exceeded: " + elapsed + " ms", elapsed < 2000L );
+        assertTrue( "grace period not used: " + elapsed + " ms", elapsed >= 900L );
+        assertEquals( "responsive relations not cancelled on server", 0, getObservers( "responsive" ) );
+        assertEquals( "silent relations cancelled on server", 5, getObservers( "silent" ) );
+        assertEquals( "relations left", 0, registry.getRelationCount() );
+        assertEquals( "subscriptions left", 0, registry.getSubscriptionCount() );
+    }
+
+    @Test(timeout= 30000)
+    public void testAllResponsiveReturnsEarly() throws Exception
+    {
+        observe( "responsive", 10 );
+
+        long start= System.nanoTime();
+        ObserveRegistry.CancelReport report= registry.cancelAll( new RateLimiter( 1000, 1000 ), 10000L );
+        long elapsed= TimeUnit.NANOSECONDS.toMillis( System.nanoTime() - start );
+
+        assertEquals( "wrong number of cancelled relations", 10, report.getCancelled() );
+        assertEquals( "wrong number of abandoned relations", 0, report.getAbandoned() );
+        assertTrue( "not returned when all confirmed: " + elapsed + " ms", elapsed < 5000L );
+    }
+
+    @Test(timeout= 30000)
+    public void testRateBeyondGracePeriod() throws Exception
+    {
+        observe( "responsive", 10 );
+
+        // two cancellations per second do not fit in the grace period
+        long start= System.nanoTime();
+        ObserveRegistry.CancelReport report= registry.cancelAll( new RateLimiter( 2, 2 ), 1000L );
+        long elapsed= TimeUnit.NANOSECONDS.toMillis( System.nanoTime() - start );
+
+        assertEquals( "relations not accounted for", 10, report.getCancelled() + report.getAbandoned() );
+        assertTrue( "too many cancellations sent within grace period: " + report.getCancelled(), report.getCancelled() <= 5 );
+        assertTrue( "no relations abandoned", report.getAbandoned() >= 5 );
+        assertTrue( "grace period exceeded: " + elapsed + " ms", elapsed < 2000L );
+        assertEquals( "abandoned relations cancelled on server", report.getAbandoned(), getObservers( "responsive" ) );
+    }
+
+    @Test(timeout= 30000)
+    public void testInterrupted() throws Exception
+    {
+        observe( "silent", 5 );
+
+        final AtomicReference< ObserveRegistry.CancelReport > report= new AtomicReference< ObserveRegistry.CancelReport >();
+        final AtomicBoolean interruptKept= new AtomicBoolean( false );
+        Thread stopping= new Thread( new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    report.set( registry.cancelAll( new RateLimiter( 1000, 1000 ), 20000L ) );
+                    interruptKept.set( Thread.currentThread().isInterrupted() );
+                }
+            } );
+        long start= System.nanoTime();
+        stopping.start();
+        Thread.sleep( 500L );
+        stopping.interrupt();
+        stopping.join( 5000L );
+        long elapsed= TimeUnit.NANOSECONDS.toMillis( System.nanoTime() - start );
+
+        assertFalse( "cancellation not stopped by interrupt", stopping.isAlive() );
+        assertTrue( "interrupt not waited for: " + elapsed + " ms", elapsed < 5000L );
+        assertEquals( "wrong number of cancelled relations", 0, report.get().getCancelled() );
+        assertEquals( "wrong number of abandoned relations", 5, report.get().getAbandoned() );
+        assertTrue( "interrupt status not restored", interruptKept.get() );
+    }
+
+    @Test(timeout= 30000)
+    public void testConfirmableAndNonConfirmable() throws Exception
+    {
+        String uri= "coap://127.0.0.1:" + server.getEndpoints().get( 0 ).getAddress().getPort() + "/responsive/resource0";
+        assertTrue( "confirmable relation not established", subscribe( "responsive/resource0", true, "owner1" ) );
+        assertTrue( "non-confirmable relation not established", subscribe( "responsive/resource0", false, "owner2" ) );
+        assertFalse( "confirmable relation not shared", subscribe( "responsive/resource0", true, "owner3" ) );
+        assertEquals( "wrong relation count", 2, registry.getRelationCount() );
+        assertEquals( "wrong subscription count", 3, registry.getSubscriptionCount() );
+        assertEquals( "resource not listed once", 1, registry.getDynamicUris().size() );
+
+        // the owner switching message type leaves the confirmable relation
+        assertFalse( "non-confirmable relation not shared", subscribe( "responsive/resource0", false, "owner3" ) );
+        assertEquals( "wrong relation count", 2, registry.getRelationCount() );
+        assertEquals( "subscription not replaced", 3, registry.getSubscriptionCount() );
+
+        assertTrue( "confirmable subscription not removed", registry.unsubscribe( uri, "owner1" ) );
+        assertEquals( "unused relation not cancelled", 1, registry.getRelationCount() );
+        assertEquals( "wrong number of dynamic subscriptions removed", 2, registry.unsubscribeDynamic( uri ) );
+        assertEquals( "relations left", 0, registry.getRelationCount() );
+    }
+
+    @Test(timeout= 30000)
+    public void testReplayWithoutLock() throws Exception
+    {
+        subscribe( "responsive/resource0", true, "owner1" );
+        int port= server.getEndpoints().get( 0 ).getAddress().getPort();
+        final CoapClient client= new CoapClient( "coap://127.0.0.1:" + port + "/responsive/resource0" );
+        client.setEndpoint( endpoint );
+        final CountDownLatch replaying= new CountDownLatch( 1 );
+        final CountDownLatch release= new CountDownLatch( 1 );
+        Thread subscribing= new Thread( new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    registry.subscribe( client, true, "owner2", new ObserveRegistry.Subscriber()
+                        {
+                            @Override
+                            public void onNotification( Response response, Map< String, Object > properties )
+                            {
+                                // a subscriber blocking on a busy executor
+                                replaying.countDown();
+                                try
+                                {
+                                    release.await( 10, TimeUnit.SECONDS );
+                                }
+                                catch ( InterruptedException e )
+                                {
+                                    Thread.currentThread().interrupt();
+                                }
+                            }
+                        }, true );
+                }
+            } );
+        subscribing.start();
+        assertTrue( "latest notification not replayed", replaying.await( 10, TimeUnit.SECONDS ) );
+
+        // the registry is usable while the replay blocks
+        long start= System.nanoTime();
+        assertEquals( "wrong subscription count", 2, registry.getSubscriptionCount() );
+        assertTrue( "owner not unsubscribed", registry.unsubscribe( client.getURI(), "owner1" ) );
+        long elapsed= TimeUnit.NANOSECONDS.toMillis( System.nanoTime() - start );
+        assertTrue( "registry locked during replay: " + elapsed + " ms", elapsed < 1000L );
+
+        release.countDown();
+        subscribing.join( 5000L );
+        assertFalse( "subscribe not returned", subscribing.isAlive() );
+    }
+}
@@ -67,6 +67,8 @@ public class BasicTestServer extends CoapServer
         getRoot().getChild( "basic" ).add( new NoneResource( "do_not_post_me" ) );
         getRoot().getChild( "basic" ).add( new DeleteResource( "delete_me" ) );
         getRoot().getChild( "basic" ).add( new NoneResource( "do_not_delete_me" ) );
+        getRoot().getChild( "basic" ).add( new SilentResource( "no_response" ) );
+        getRoot().getChild( "basic" ).add( new EchoResource( "echo_me" ) );
     }
 
     /**
@@ -95,6 +97,72 @@ public class BasicTestServer extends CoapServer
         }
     }
 
+    /**
+     * Resource that never responds, used to test timeouts
+     */
+    class SilentResource extends CoapResource
+    {
+
+        public SilentResource( String name )
+        {
+
+            // set resource name
+            super( name );
+
+            // set display name
+            getAttributes().setTitle( name );
+        }
+
+        @Override
+        public void handleGET( CoapExchange exchange )
+        {
+            // acknowledge, but do not respond
+            exchange.accept();
+        }
+
+        @Override
+        public void handlePUT( CoapExchange exchange )
+        {
+            exchange.accept();
+        }
+
+        @Override
+        public void handlePOST( CoapExchange exchange )
+        {
+            exchange.accept();
+        }
+
+        @Override
+        public void handleDELETE( CoapExchange exchange )
+        {
+            exchange.accept();
+        }
+    }
+
+    /**
+     * Resource that returns the payload of PUT requests
+     */
+    class EchoResource extends CoapResource
+    {
+
+        public EchoResource( String name )
+        {
+
+            // set resource name
+            super( name );
+
+            // set display name
+            getAttributes().setTitle( name );
+        }
+
+        @Override
+        public void handlePUT( CoapExchange exchange )
+        {
+            // respond with the received payload
+            exchange.respond( ResponseCode.CHANGED, exchange.getRequestPayload() );
+        }
+    }
+
     /**
      * Resource that allows GET only
      */
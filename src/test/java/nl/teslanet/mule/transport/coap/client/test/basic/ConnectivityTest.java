@@ -0,0 +1,96 @@
+/*******************************************************************************
+ * Copyright (c) 2019 (teslanet.nl) Rogier Cobben.
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License - v 2.0 
+ * which accompanies this distribution.
+ * 
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ * 
+ * Contributors:
+ *    (teslanet.nl) Rogier Cobben - initial creation
+ ******************************************************************************/
+package nl.teslanet.mule.transport.coap.client.test.basic;
+
+
+import static org.junit.Assert.assertTrue;
+
+import org.eclipse.californium.core.CoapServer;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import nl.teslanet.mule.transport.coap.client.CoapClientConnector;
+import nl.teslanet.mule.transport.coap.client.config.CoAPClientConfig;
+
+
+/**
+ * Test the connector before it is started, as connectivity testing does. 
+ */
+public class ConnectivityTest
+{
+    /**
+     * Server to test against
+     */
+    private static CoapServer server= null;
+
+    /**
+     * Start the server
+     * @throws Exception when server cannot start
+     */
+    @BeforeClass
+    public static void setUpServer() throws Exception
+    {
+        server= new BasicTestServer();
+        server.start();
+    }
+
+    /**
+     * Stop the server
+     * @throws Exception when the server cannot stop
+     */
+    @AfterClass
+    public static void tearDownServer() throws Exception
+    {
+        if ( server != null )
+        {
+            server.stop();
+            server.destroy();
+            server= null;
+        }
+    }
+
+    /**
+     * Create a connector that is not started.
+     * @return The connector.
+     */
+    private CoapClientConnector createConnector()
+    {
+        CoAPClientConfig config= new CoAPClientConfig();
+        config.setHost( "127.0.0.1" );
+        CoapClientConnector connector= new CoapClientConnector();
+        connector.setConfig( config );
+        return connector;
+    }
+
+    /**
+     * Test connectivity before the endpoints are created.
+     * @throws Exception should not happen in this test
+     */
+    @Test
+    public void testConnectivityNotStarted() throws Exception
+    {
+        createConnector().test();
+    }
+
+    /**
+     * Test ping before the endpoints are created.
+     * @throws Exception should not happen in this test
+     */
+    @Test
+    public void testPingNotStarted() throws Exception
+    {
+        assertTrue( "ping failed", createConnector().ping( null, null ).booleanValue() );
+    }
+}
@@ -0,0 +1,215 @@
+/*******************************************************************************
+ * Copyright (c) 2019 (teslanet.nl) Rogier Cobben.
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License - v 2.0 
+ * which accompanies this distribution.
+ * 
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ * 
+ * Contributors:
+ *    (teslanet.nl) Rogier Cobben - initial creation
+ ******************************************************************************/
+package nl.teslanet.mule.transport.coap.client.test.blockwise;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.Map;
+
+import org.eclipse.californium.core.CoapServer;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.mule.api.MessagingException;
+import org.mule.api.MuleEvent;
+import org.mule.munit.runner.functional.FunctionalMunitSuite;
+
+import nl.teslanet.mule.transport.coap.client.test.utils.Data;
+
+
+/**
+ * Test that requests that are not sent leave no stream or guard registered for their response.
+ */
+public class RefusalTest extends FunctionalMunitSuite
+{
+    /**
+     * Server to test against
+     */
+    private static CoapServer server= null;
+
+    /* (non-Javadoc)
+     * @see org.mule.munit.runner.functional.FunctionalMunitSuite#getConfigResources()
+     */
+    @Override
+    protected String getConfigResources()
+    {
+        return "mule-config/blockwise/testclient6.xml";
+    };
+
+    /* (non-Javadoc)
+     * @see org.mule.munit.runner.functional.FunctionalMunitSuite#haveToDisableInboundEndpoints()
+     */
+    @Override
+    protected boolean haveToDisableInboundEndpoints()
+    {
+        return false;
+    }
+
+    /* (non-Javadoc)
+     * @see org.mule.munit.runner.functional.FunctionalMunitSuite#haveToMockMuleConnectors()
+     */
+    @Override
+    protected boolean haveToMockMuleConnectors()
+    {
+        return false;
+    }
+
+    /**
+     * Start the server
+     * @throws Exception when server cannot start
+     */
+    @BeforeClass
+    public static void setUpServer() throws Exception
+    {
+        server= new TestServer();
+        server.start();
+    }
+
+    /**
+     * Stop the server
+     * @throws Exception when the server cannot stop
+     */
+    @AfterClass
+    public static void tearDownServer() throws Exception
+    {
+        if ( server != null )
+        {
+            server.stop();
+            server.destroy();
+            server= null;
+        }
+    }
+
+    /**
+     * Test that a streamed request refused by the in-flight limit leaves no stream registered.
+     * @throws Exception should not happen in this test
+     */
+    @Test
+    public void testRefusedStreamedRequest() throws Exception
+    {
+        // occupy the only in-flight slot with a request that is not answered
+        runFlow( "async_get_silent", testEvent( Data.getContent( 2 ) ) );
+        assertEquals( "silent request not registered", 1L, getStatistic( "statistics", "blockwise.streams.waiting" ) );
+        try
+        {
+            runFlow( "async_get", testEvent( Data.getContent( 2 ) ) );
+            fail( "request not refused" );
+        }
+        catch ( MessagingException e )
+        {
+            //expected
+        }
+        assertEquals( "refused request left registered", 1L, getStatistic( "statistics", "blockwise.streams.waiting" ) );
+
+        // the silent request times out
+        waitForStatistic( "statistics", "blockwise.streams.waiting", 0L );
+        assertEquals( "stream left registered", 0L, getStatistic( "statistics", "blockwise.streams.waiting" ) );
+        assertEquals( "stream left unclaimed", 0L, getStatistic( "statistics", "blockwise.streams.unclaimed" ) );
+        assertEquals( "blocks left reserved", 0L, getStatistic( "statistics", "blockwise.budget.used" ) );
+    }
+
+    /**
+     * Test that a streamed request with an unknown handler leaves no stream registered.
+     * @throws Exception should not happen in this test
+     */
+    @Test
+    public void testUnknownHandler() throws Exception
+    {
+        try
+        {
+            runFlow( "async_get_no_handler", testEvent( Data.getContent( 2 ) ) );
+            fail( "unknown handler not refused" );
+        }
+        catch ( MessagingException e )
+        {
+            //expected
+        }
+        assertEquals( "refused request left registered", 0L, getStatistic( "statistics", "blockwise.streams.waiting" ) );
+        assertEquals( "stream left unclaimed", 0L, getStatistic( "statistics", "blockwise.streams.unclaimed" ) );
+    }
+
+    /**
+     * Test that a guarded request refused by the in-flight limit leaves no guard registered.
+     * @throws Exception should not happen in this test
+     */
+    @Test
+    public void testRefusedGuardedRequest() throws Exception
+    {
+        // occupy the only in-flight slot with a request that is not answered
+        runFlow( "async_get_silent_guarded", testEvent( Data.getContent( 2 ) ) );
+        assertEquals( "silent request not guarded", 1L, getStatistic( "statistics_guarded", "blockwise.guards" ) );
+        try
+        {
+            runFlow( "async_get_guarded", testEvent( Data.getContent( 2 ) ) );
+            fail( "request not refused" );
+        }
+        catch ( MessagingException e )
+        {
+            //expected
+        }
+        assertEquals( "refused request left guarded", 1L, getStatistic( "statistics_guarded", "blockwise.guards" ) );
+
+        // the silent request times out
+        waitForStatistic( "statistics_guarded", "blockwise.guards", 0L );
+        assertEquals( "guard left registered", 0L, getStatistic( "statistics_guarded", "blockwise.guards" ) );
+        assertEquals( "memory left reserved", 0L, getStatistic( "statistics_guarded", "blockwise.budget.used" ) );
+    }
+
+    /**
+     * Test that a guarded request answered by the cache leaves no guard registered.
+     * @throws Exception should not happen in this test
+     */
+    @Test
+    public void testCachedGuardedRequest() throws Exception
+    {
+        runFlow( "get_guarded", testEvent( Data.getContent( 2 ) ) );
+        long hits= getStatistic( "statistics_guarded", "responsecache.hits" );
+        MuleEvent result= runFlow( "get_guarded", testEvent( Data.getContent( 2 ) ) );
+        assertEquals( "wrong response code", "2.05", result.getMessage().getInboundProperty( "coap.response.code" ) );
+        assertEquals( "response not cached", hits + 1, getStatistic( "statistics_guarded", "responsecache.hits" ) );
+        assertEquals( "cached request left guarded", 0L, getStatistic( "statistics_guarded", "blockwise.guards" ) );
+    }
+
+    /**
+     * Wait until a statistic has the expected value, at most five seconds.
+     * @param flowName The name of the flow retrieving the statistics.
+     * @param name The name of the statistic.
+     * @param expected The expected value.
+     * @throws Exception when the statistics cannot be retrieved.
+     */
+    private void waitForStatistic( String flowName, String name, long expected ) throws Exception
+    {
+        long deadline= System.currentTimeMillis() + 5000L;
+        while ( getStatistic( flowName, name ) != expected && System.currentTimeMillis() < deadline )
+        {
+            Thread.sleep( 100L );
+        }
+    }
+
+    /**
+     * Get a statistic of a client configuration.
+     * @param flowName The name of the flow retrieving the statistics.
+     * @param name The name of the statistic.
+     * @return The value of the statistic.
+     * @throws Exception when the statistics cannot be retrieved.
+     */
+    @SuppressWarnings("unchecked")
+    private long getStatistic( String flowName, String name ) throws Exception
+    {
+        Map< String, Long > statistics= (Map< String, Long >) runFlow( flowName, testEvent( "" ) ).getMessage().getPayload();
+        return statistics.get( name ).longValue();
+    }
+}
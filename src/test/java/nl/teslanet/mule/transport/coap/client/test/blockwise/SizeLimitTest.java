@@ -0,0 +1,164 @@
+/*******************************************************************************
+ * Copyright (c) 2019 (teslanet.nl) Rogier Cobben.
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License - v 2.0 
+ * which accompanies this distribution.
+ * 
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ * 
+ * Contributors:
+ *    (teslanet.nl) Rogier Cobben - initial creation
+ ******************************************************************************/
+package nl.teslanet.mule.transport.coap.client.test.blockwise;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+import org.eclipse.californium.core.CoapServer;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameter;
+import org.junit.runners.Parameterized.Parameters;
+import org.mule.api.MuleEvent;
+import org.mule.api.MuleMessage;
+import org.mule.munit.runner.functional.FunctionalMunitSuite;
+
+import nl.teslanet.mule.transport.coap.client.test.utils.Data;
+
+
+@RunWith(Parameterized.class)
+public class SizeLimitTest extends FunctionalMunitSuite
+{
+    /**
+     * The list of tests with their parameters
+     * @return Test parameters.
+     */
+    @Parameters(name= "flowName= {0}, resourcePath= {1}, requestPayloadSize= {2}, expectedSuccess= {3}, expectedResponsePayloadSize= {4}")
+    public static Collection< Object[] > data()
+    {
+        return Arrays.asList(
+            new Object [] []{
+                { "do_get", "/blockwise/rsp10", 2, true, 10 },
+                { "do_get", "/blockwise/rsp8192", 2, false, 0 },
+                { "do_get", "/blockwise/rsp16001", 2, false, 0 },
+                { "do_get_larger", "/blockwise/rsp8192", 2, true, 8192 },
+                { "do_get_larger", "/blockwise/rsp16001", 2, true, 16001 } 
+        } );
+    }
+
+    /**
+     * The mule flow to call.
+     */
+    @Parameter(0)
+    public String flowName;
+
+    /**
+     * The path of the resource to call.
+     */
+    @Parameter(1)
+    public String resourcePath;
+
+    /**
+     * The request payload size to test.
+     */
+    @Parameter(2)
+    public Integer requestPayloadSize;
+
+    /**
+     * The success flag that is expected.
+     */
+    @Parameter(3)
+    public Boolean expectedSuccess;
+
+    /**
+     * The response payload size to test.
+     */
+    @Parameter(4)
+    public Integer expectedResponsePayloadSize;
+
+    /**
+     * Server to test against
+     */
+    private static CoapServer server= null;
+
+    /* (non-Javadoc)
+     * @see org.mule.munit.runner.functional.FunctionalMunitSuite#getConfigResources()
+     */
+    @Override
+    protected String getConfigResources()
+    {
+        return "mule-config/blockwise/testclient4.xml";
+    };
+
+    /* (non-Javadoc)
+     * @see org.mule.munit.runner.functional.FunctionalMunitSuite#haveToDisableInboundEndpoints()
+     */
+    @Override
+    protected boolean haveToDisableInboundEndpoints()
+    {
+        return false;
+    }
+
+    /* (non-Javadoc)
+     * @see org.mule.munit.runner.functional.FunctionalMunitSuite#haveToMockMuleConnectors()
+     */
+    @Override
+    protected boolean haveToMockMuleConnectors()
+    {
+        return false;
+    }
+
+    /**
+     * Start the server
+     * @throws Exception when server cannot start
+     */
+    @BeforeClass
+    public static void setUpServer() throws Exception
+    {
+        server= new TestServer();
+        server.start();
+    }
+
+    /**
+     * Stop the server
+     * @throws Exception when the server cannot stop
+     */
+    @AfterClass
+    public static void tearDownServer() throws Exception
+    {
+        if ( server != null )
+        {
+            server.stop();
+            server.destroy();
+            server= null;
+        }
+    }
+
+    /**
+     * Test CoAP request with a maximum response size
+     * @throws Exception should not happen in this test
+     */
+    @Test
+    public void testMaxResponseSize() throws Exception
+    {
+        MuleEvent event= testEvent( Data.getContent( requestPayloadSize ) );
+        event.setFlowVariable( "path", resourcePath );
+        MuleEvent result= runFlow( flowName, event );
+        MuleMessage response= result.getMessage();
+        assertEquals( "wrong response success flag", expectedSuccess, response.getInboundProperty( "coap.response.success" ) );
+        if ( expectedSuccess )
+        {
+            assertTrue( "wrong response payload", Data.validateContent( (byte[])response.getPayload(), expectedResponsePayloadSize ) );
+        }
+    }
+
+}
\ No newline at end of file
@@ -0,0 +1,164 @@
+/*******************************************************************************
+ * Copyright (c) 2019 (teslanet.nl) Rogier Cobben.
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License - v 2.0 
+ * which accompanies this distribution.
+ * 
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ * 
+ * Contributors:
+ *    (teslanet.nl) Rogier Cobben - initial creation
+ ******************************************************************************/
+package nl.teslanet.mule.transport.coap.client.test.blockwise;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+
+import org.eclipse.californium.core.CoapServer;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.mule.api.MuleEvent;
+import org.mule.api.MuleMessage;
+import org.mule.munit.runner.functional.FunctionalMunitSuite;
+
+import nl.teslanet.mule.transport.coap.client.test.utils.Data;
+
+
+public class StreamIdleTest extends FunctionalMunitSuite
+{
+    /**
+     * Server to test against
+     */
+    private static CoapServer server= null;
+
+    /* (non-Javadoc)
+     * @see org.mule.munit.runner.functional.FunctionalMunitSuite#getConfigResources()
+     */
+    @Override
+    protected String getConfigResources()
+    {
+        return "mule-config/blockwise/testclient5.xml";
+    };
+
+    /* (non-Javadoc)
+     * @see org.mule.munit.runner.functional.FunctionalMunitSuite#haveToDisableInboundEndpoints()
+     */
+    @Override
+    protected boolean haveToDisableInboundEndpoints()
+    {
+        return false;
+    }
+
+    /* (non-Javadoc)
+     * @see org.mule.munit.runner.functional.FunctionalMunitSuite#haveToMockMuleConnectors()
+     */
+    @Override
+    protected boolean haveToMockMuleConnectors()
+    {
+        return false;
+    }
+
+    /**
+     * Start the server
+     * @throws Exception when server cannot start
+     */
+    @BeforeClass
+    public static void setUpServer() throws Exception
+    {
+        server= new TestServer();
+        server.start();
+    }
+
+    /**
+     * Stop the server
+     * @throws Exception when the server cannot stop
+     */
+    @AfterClass
+    public static void tearDownServer() throws Exception
+    {
+        if ( server != null )
+        {
+            server.stop();
+            server.destroy();
+            server= null;
+        }
+    }
+
+    /**
+     * Test that a streamed response that is left unread is closed and releases its blocks.
+     * @throws Exception should not happen in this test
+     */
+    @Test
+    public void testUnreadStreamReleased() throws Exception
+    {
+        MuleEvent event= testEvent( Data.getContent( 2 ) );
+        event.setFlowVariable( "path", "/blockwise/rsp16000" );
+        MuleEvent result= runFlow( "do_get", event );
+        MuleMessage response= result.getMessage();
+        assertEquals( "wrong response code", "2.05", response.getInboundProperty( "coap.response.code" ) );
+        assertTrue( "response not streamed", response.getPayload() instanceof InputStream );
+        assertTrue( "no blocks buffered", getStatistic( "blockwise.budget.used" ) > 0L );
+
+        long deadline= System.currentTimeMillis() + 5000L;
+        while ( getStatistic( "blockwise.budget.used" ) > 0L && System.currentTimeMillis() < deadline )
+        {
+            Thread.sleep( 100L );
+        }
+        assertEquals( "blocks not released", 0L, getStatistic( "blockwise.budget.used" ) );
+        try
+        {
+            ( (InputStream) response.getPayload() ).read( new byte [100] );
+            fail( "closed stream could be read" );
+        }
+        catch ( IOException e )
+        {
+            //expected
+        }
+    }
+
+    /**
+     * Test that a streamed response that is read slower than the idle timeout is not closed.
+     * @throws Exception should not happen in this test
+     */
+    @Test
+    public void testActiveStreamNotClosed() throws Exception
+    {
+        MuleEvent event= testEvent( Data.getContent( 2 ) );
+        event.setFlowVariable( "path", "/blockwise/rsp16000" );
+        MuleEvent result= runFlow( "do_get", event );
+        InputStream stream= (InputStream) result.getMessage().getPayload();
+        byte[] payload= new byte [16000];
+        int total= 0;
+        int count;
+        while ( ( count= stream.read( payload, total, Math.min( 2000, payload.length - total ) ) ) > 0 )
+        {
+            total+= count;
+            Thread.sleep( 200L );
+        }
+        stream.close();
+        assertTrue( "wrong response payload", Data.validateContent( payload, 16000 ) );
+        assertEquals( "blocks not released", 0L, getStatistic( "blockwise.budget.used" ) );
+    }
+
+    /**
+     * Get a statistic of the client.
+     * @param name The name of the statistic.
+     * @return The value of the statistic.
+     * @throws Exception when the statistics cannot be retrieved.
+     */
+    @SuppressWarnings("unchecked")
+    private long getStatistic( String name ) throws Exception
+    {
+        Map< String, Long > statistics= (Map< String, Long >) runFlow( "statistics", testEvent( "" ) ).getMessage().getPayload();
+        return statistics.get( name ).longValue();
+    }
+}
@@ -0,0 +1,169 @@
+/*******************************************************************************
+ * Copyright (c) 2019 (teslanet.nl) Rogier Cobben.
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License - v 2.0 
+ * which accompanies this distribution.
+ * 
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ * 
+ * Contributors:
+ *    (teslanet.nl) Rogier Cobben - initial creation
+ ******************************************************************************/
+package nl.teslanet.mule.transport.coap.client.test.blockwise;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Collection;
+
+import org.eclipse.californium.core.CoapServer;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameter;
+import org.junit.runners.Parameterized.Parameters;
+import org.mule.api.MuleEvent;
+import org.mule.api.MuleMessage;
+import org.mule.munit.runner.functional.FunctionalMunitSuite;
+
+import nl.teslanet.mule.transport.coap.client.test.utils.Data;
+
+
+@RunWith(Parameterized.class)
+public class StreamingTest extends FunctionalMunitSuite
+{
+    /**
+     * The list of tests with their parameters
+     * @return Test parameters.
+     */
+    @Parameters(name= "resourcePath= {0}, expectedStreamed= {1}, expectedResponsePayloadSize= {2}")
+    public static Collection< Object[] > data()
+    {
+        return Arrays.asList(
+            new Object [] []{
+                { "/blockwise/rsp0", false, 0 },
+                { "/blockwise/rsp10", false, 10 },
+                { "/blockwise/rsp8192", true, 8192 },
+                { "/blockwise/rsp16000", true, 16000 },
+                { "/blockwise/rsp16001", true, 16001 } 
+        } );
+    }
+
+    /**
+     * The path of the resource to call.
+     */
+    @Parameter(0)
+    public String resourcePath;
+
+    /**
+     * True when the response is expected to be streamed.
+     */
+    @Parameter(1)
+    public Boolean expectedStreamed;
+
+    /**
+     * The response payload size to test.
+     */
+    @Parameter(2)
+    public Integer expectedResponsePayloadSize;
+
+    /**
+     * Server to test against
+     */
+    private static CoapServer server= null;
+
+    /* (non-Javadoc)
+     * @see org.mule.munit.runner.functional.FunctionalMunitSuite#getConfigResources()
+     */
+    @Override
+    protected String getConfigResources()
+    {
+        return "mule-config/blockwise/testclient2.xml";
+    };
+
+    /* (non-Javadoc)
+     * @see org.mule.munit.runner.functional.FunctionalMunitSuite#haveToDisableInboundEndpoints()
+     */
+    @Override
+    protected boolean haveToDisableInboundEndpoints()
+    {
+        return false;
+    }
+
+    /* (non-Javadoc)
+     * @see org.mule.munit.runner.functional.FunctionalMunitSuite#haveToMockMuleConnectors()
+     */
+    @Override
+    protected boolean haveToMockMuleConnectors()
+    {
+        return false;
+    }
+
+    /**
+     * Start the server
+     * @throws Exception when server cannot start
+     */
+    @BeforeClass
+    public static void setUpServer() throws Exception
+    {
+        server= new TestServer();
+        server.start();
+    }
+
+    /**
+     * Stop the server
+     * @throws Exception when the server cannot stop
+     */
+    @AfterClass
+    public static void tearDownServer() throws Exception
+    {
+        if ( server != null )
+        {
+            server.stop();
+            server.destroy();
+            server= null;
+        }
+    }
+
+    /**
+     * Test streamed CoAP response
+     * @throws Exception should not happen in this test
+     */
+    @Test
+    public void testStreamedPayload() throws Exception
+    {
+        MuleEvent event= testEvent( Data.getContent( 2 ) );
+        event.setFlowVariable( "path", resourcePath );
+        MuleEvent result= runFlow( "do_get", event );
+        MuleMessage response= result.getMessage();
+        assertEquals( "wrong response code", "2.05", response.getInboundProperty( "coap.response.code" ) );
+        assertEquals( "wrong payload type", expectedStreamed.booleanValue(), response.getPayload() instanceof InputStream );
+        byte[] payload;
+        if ( response.getPayload() instanceof InputStream )
+        {
+            InputStream stream= (InputStream) response.getPayload();
+            ByteArrayOutputStream content= new ByteArrayOutputStream();
+            byte[] buffer= new byte [100];
+            int count;
+            while ( ( count= stream.read( buffer ) ) >= 0 )
+            {
+                content.write( buffer, 0, count );
+            }
+            stream.close();
+            payload= content.toByteArray();
+        }
+        else
+        {
+            payload= (byte[]) response.getPayload();
+        }
+        assertTrue( "wrong response payload", Data.validateContent( payload, expectedResponsePayloadSize ) );
+    }
+}
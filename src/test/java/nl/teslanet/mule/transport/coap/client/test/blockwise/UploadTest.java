@@ -0,0 +1,167 @@
+/*******************************************************************************
+ * Copyright (c) 2019 (teslanet.nl) Rogier Cobben.
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License - v 2.0 
+ * which accompanies this distribution.
+ * 
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ * 
+ * Contributors:
+ *    (teslanet.nl) Rogier Cobben - initial creation
+ ******************************************************************************/
+package nl.teslanet.mule.transport.coap.client.test.blockwise;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collection;
+
+import org.eclipse.californium.core.CoapServer;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameter;
+import org.junit.runners.Parameterized.Parameters;
+import org.mule.api.MuleEvent;
+import org.mule.api.MuleMessage;
+import org.mule.munit.runner.functional.FunctionalMunitSuite;
+
+import nl.teslanet.mule.transport.coap.client.test.utils.Data;
+
+
+@RunWith(Parameterized.class)
+public class UploadTest extends FunctionalMunitSuite
+{
+    /**
+     * The list of tests with their parameters
+     * @return Test parameters.
+     */
+    @Parameters(name= "flowName= {0}, resourcePath= {1}, requestPayloadSize= {2}, payloadType= {3}, expectedResponseCode= {4}")
+    public static Collection< Object[] > data()
+    {
+        return Arrays.asList(
+            new Object [] []{
+                { "do_post", "/blockwise/rq10", 10, "stream", "2.01" },
+                { "do_put", "/blockwise/rq10", 10, "buffer", "2.04" },
+                { "do_post", "/blockwise/rq8192", 8192, "stream", "2.01" },
+                { "do_post", "/blockwise/rq8192", 8192, "buffer", "2.01" },
+                { "do_put", "/blockwise/rq8192", 8192, "stream", "2.04" },
+                { "do_put", "/blockwise/rq8192", 8192, "buffer", "2.04" },
+                { "do_post", "/blockwise/rq16001", 16001, "stream", "2.01" },
+                { "do_put", "/blockwise/rq16001", 16001, "buffer", "2.04" } 
+        } );
+    }
+
+    /**
+     * The mule flow to call.
+     */
+    @Parameter(0)
+    public String flowName;
+
+    /**
+     * The path of the resource to call.
+     */
+    @Parameter(1)
+    public String resourcePath;
+
+    /**
+     * The request payload size to test.
+     */
+    @Parameter(2)
+    public Integer requestPayloadSize;
+
+    /**
+     * The type of payload to upload, stream or buffer.
+     */
+    @Parameter(3)
+    public String payloadType;
+
+    /**
+     * The response code that is expected.
+     */
+    @Parameter(4)
+    public String expectedResponseCode;
+
+    /**
+     * Server to test against
+     */
+    private static CoapServer server= null;
+
+    /* (non-Javadoc)
+     * @see org.mule.munit.runner.functional.FunctionalMunitSuite#getConfigResources()
+     */
+    @Override
+    protected String getConfigResources()
+    {
+        return "mule-config/blockwise/testclient1.xml";
+    };
+
+    /* (non-Javadoc)
+     * @see org.mule.munit.runner.functional.FunctionalMunitSuite#haveToDisableInboundEndpoints()
+     */
+    @Override
+    protected boolean haveToDisableInboundEndpoints()
+    {
+        return false;
+    }
+
+    /* (non-Javadoc)
+     * @see org.mule.munit.runner.functional.FunctionalMunitSuite#haveToMockMuleConnectors()
+     */
+    @Override
+    protected boolean haveToMockMuleConnectors()
+    {
+        return false;
+    }
+
+    /**
+     * Start the server
+     * @throws Exception when server cannot start
+     */
+    @BeforeClass
+    public static void setUpServer() throws Exception
+    {
+        server= new TestServer();
+        server.start();
+    }
+
+    /**
+     * Stop the server
+     * @throws Exception when the server cannot stop
+     */
+    @AfterClass
+    public static void tearDownServer() throws Exception
+    {
+        if ( server != null )
+        {
+            server.stop();
+            server.destroy();
+            server= null;
+        }
+    }
+
+    /**
+     * Test lazily uploaded CoAP request payload
+     * @throws Exception should not happen in this test
+     */
+    @Test
+    public void testUploadedPayload() throws Exception
+    {
+        byte[] content= Data.getContent( requestPayloadSize );
+        Object payload= ( "buffer".equals( payloadType ) ? ByteBuffer.wrap( content ) : new ByteArrayInputStream( content ) );
+        MuleEvent event= testEvent( payload );
+        event.setFlowVariable( "path", resourcePath );
+        MuleEvent result= runFlow( flowName, event );
+        MuleMessage response= result.getMessage();
+        assertEquals( "wrong response code", expectedResponseCode, response.getInboundProperty( "coap.response.code" ) );
+        assertTrue( "wrong response payload", Data.validateContent( (byte[]) response.getPayload(), 2 ) );
+    }
+}
@@ -0,0 +1,275 @@
+/*******************************************************************************
+ * Copyright (c) 2019 (teslanet.nl) Rogier Cobben.
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License - v 2.0 
+ * which accompanies this distribution.
+ * 
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ * 
+ * Contributors:
+ *    (teslanet.nl) Rogier Cobben - initial creation
+ ******************************************************************************/
+package nl.teslanet.mule.transport.coap.client.test.cache;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+import nl.teslanet.mule.transport.coap.client.cache.LruCache;
+
+
+public class LruCacheTest
+{
+    /**
+     * Cache recording its callbacks.
+     */
+    private static class RecordingCache extends LruCache< String, String >
+    {
+        private final ArrayList< String > evictedKeys= new ArrayList< String >();
+
+        private final ArrayList< String > removedKeys= new ArrayList< String >();
+
+        private RecordingCache( int maxSize )
+        {
+            super( maxSize );
+        }
+
+        @Override
+        protected synchronized void evicted( String key, String value )
+        {
+            evictedKeys.add( key );
+        }
+
+        @Override
+        protected synchronized void removed( String key, String value )
+        {
+            removedKeys.add( key );
+        }
+    }
+
+    @Test
+    public void testHitAndMiss()
+    {
+        LruCache< String, String > cache= new LruCache< String, String >( 10 );
+        assertNull( "unexpected value", cache.get( "a" ) );
+        assertNull( "value not added", cache.putIfAbsent( "a", "1" ) );
+        assertEquals( "existing value not returned", "1", cache.putIfAbsent( "a", "2" ) );
+        assertEquals( "wrong value", "1", cache.get( "a" ) );
+        assertEquals( "wrong replaced value", "1", cache.put( "a", "3" ) );
+        assertEquals( "wrong value after put", "3", cache.get( "a" ) );
+        assertEquals( "wrong size", 1, cache.size() );
+        assertEquals( "wrong hits", 2L, cache.getHits() );
+        assertEquals( "wrong misses", 1L, cache.getMisses() );
+    }
+
+    @Test
+    public void testPeekDoesNotCount()
+    {
+        LruCache< String, String > cache= new LruCache< String, String >( 10 );
+        cache.put( "a", "1" );
+        assertEquals( "wrong value", "1", cache.peek( "a" ) );
+        assertNull( "unexpected value", cache.peek( "b" ) );
+        assertEquals( "peek counted as hit", 0L, cache.getHits() );
+        assertEquals( "peek counted as miss", 0L, cache.getMisses() );
+    }
+
+    @Test
+    public void testEviction()
+    {
+        RecordingCache cache= new RecordingCache( 3 );
+        cache.put( "a", "1" );
+        cache.put( "b", "2" );
+        cache.put( "c", "3" );
+        cache.put( "d", "4" );
+        assertEquals( "wrong size", 3, cache.size() );
+        assertEquals( "wrong evictions", 1L, cache.getEvictions() );
+        assertEquals( "wrong evicted entry", "a", cache.evictedKeys.get( 0 ) );
+        assertNull( "evicted entry still cached", cache.peek( "a" ) );
+    }
+
+    @Test
+    public void testRecentlyUsedIsKept()
+    {
+        RecordingCache cache= new RecordingCache( 3 );
+        cache.put( "a", "1" );
+        cache.put( "b", "2" );
+        cache.put( "c", "3" );
+        cache.get( "a" );
+        cache.put( "d", "4" );
+        assertEquals( "used entry evicted", "1", cache.peek( "a" ) );
+        assertNull( "unused entry not evicted", cache.peek( "b" ) );
+        assertEquals( "wrong evicted entries", 1, cache.evictedKeys.size() );
+        assertEquals( "wrong evicted entry", "b", cache.evictedKeys.get( 0 ) );
+    }
+
+    @Test
+    public void testEvictEldest()
+    {
+        RecordingCache cache= new RecordingCache( 10 );
+        assertFalse( "evicted from empty cache", cache.evictEldest() );
+        cache.put( "a", "1" );
+        cache.put( "b", "2" );
+        assertTrue( "nothing evicted", cache.evictEldest() );
+        assertEquals( "wrong evicted entry", "a", cache.evictedKeys.get( 0 ) );
+        assertEquals( "wrong size", 1, cache.size() );
+    }
+
+    @Test
+    public void testRemoveCallback()
+    {
+        RecordingCache cache= new RecordingCache( 2 );
+        cache.put( "a", "1" );
+        assertEquals( "wrong removed value", "1", cache.remove( "a" ) );
+        assertNull( "removed missing entry", cache.remove( "a" ) );
+        assertEquals( "removal not reported", 1, cache.removedKeys.size() );
+        assertEquals( "removal reported as eviction", 0, cache.evictedKeys.size() );
+        // removed entries do not count against the maximum
+        cache.put( "b", "2" );
+        cache.put( "c", "3" );
+        assertEquals( "wrong size", 2, cache.size() );
+        assertEquals( "unexpected eviction", 0L, cache.getEvictions() );
+    }
+
+    @Test
+    public void testReplaceCallback()
+    {
+        RecordingCache cache= new RecordingCache( 2 );
+        cache.put( "a", "1" );
+        assertEquals( "wrong replaced value", "1", cache.put( "a", "2" ) );
+        assertEquals( "replacement not reported", 1, cache.removedKeys.size() );
+        assertEquals( "replacement reported as eviction", 0, cache.evictedKeys.size() );
+        assertEquals( "wrong value after put", "2", cache.peek( "a" ) );
+        // replaced entries do not count against the maximum
+        cache.put( "b", "3" );
+        assertEquals( "wrong size", 2, cache.size() );
+        assertEquals( "unexpected eviction", 0L, cache.getEvictions() );
+    }
+
+    @Test
+    public void testDisabled()
+    {
+        LruCache< String, String > cache= new LruCache< String, String >( 0 );
+        assertNull( "value not accepted", cache.putIfAbsent( "a", "1" ) );
+        assertNull( "value stored in disabled cache", cache.get( "a" ) );
+        assertEquals( "wrong size", 0, cache.size() );
+    }
+
+    @Test
+    public void testConcurrentUse() throws InterruptedException
+    {
+        final LruCache< Integer, Integer > cache= new LruCache< Integer, Integer >( 100 );
+        final CountDownLatch start= new CountDownLatch( 1 );
+        ArrayList< Thread > threads= new ArrayList< Thread >();
+        for ( int i= 0; i < 8; i++ )
+        {
+            final int offset= i * 1000;
+            Thread thread= new Thread( new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        try
+                        {
+                            start.await();
+                        }
+                        catch ( InterruptedException e )
+                        {
+                            return;
+                        }
+                        for ( int j= 0; j < 5000; j++ )
+                        {
+                            Integer key= Integer.valueOf( offset + ( j % 300 ) );
+                            if ( cache.get( key ) == null )
+                            {
+                                cache.putIfAbsent( key, key );
+                            }
+                            if ( j % 7 == 0 ) cache.remove( key );
+                        }
+                    }
+                } );
+            thread.start();
+            threads.add( thread );
+        }
+        start.countDown();
+        for ( Thread thread : threads )
+        {
+            thread.join();
+        }
+        assertTrue( "cache exceeds maximum size", cache.size() <= 100 );
+        assertEquals( "lookups not counted", 8L * 5000L, cache.getHits() + cache.getMisses() );
+    }
+
+    @Test
+    public void testConcurrentReplaceAndEvict() throws InterruptedException
+    {
+        // every value leaves the cache through exactly one callback, so the total is that of the values cached
+        final AtomicLong total= new AtomicLong();
+        final LruCache< Integer, Integer > cache= new LruCache< Integer, Integer >( 10 )
+            {
+                @Override
+                protected void evicted( Integer key, Integer value )
+                {
+                    total.addAndGet( -value.intValue() );
+                }
+
+                @Override
+                protected void removed( Integer key, Integer value )
+                {
+                    total.addAndGet( -value.intValue() );
+                }
+            };
+        final CountDownLatch start= new CountDownLatch( 1 );
+        ArrayList< Thread > threads= new ArrayList< Thread >();
+        for ( int i= 0; i < 8; i++ )
+        {
+            final int seed= i;
+            Thread thread= new Thread( new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        try
+                        {
+                            start.await();
+                        }
+                        catch ( InterruptedException e )
+                        {
+                            return;
+                        }
+                        for ( int j= 0; j < 5000; j++ )
+                        {
+                            Integer value= Integer.valueOf( 1 + ( seed * 5000 + j ) % 97 );
+                            total.addAndGet( value.intValue() );
+                            cache.put( Integer.valueOf( ( seed + j ) % 20 ), value );
+                            if ( j % 5 == 0 ) cache.evictEldest();
+                        }
+                    }
+                } );
+            thread.start();
+            threads.add( thread );
+        }
+        start.countDown();
+        for ( Thread thread : threads )
+        {
+            thread.join();
+        }
+        long cached= 0L;
+        for ( int key= 0; key < 20; key++ )
+        {
+            Integer value= cache.peek( Integer.valueOf( key ) );
+            cached+= ( value == null ? 0 : value.intValue() );
+        }
+        assertTrue( "cache exceeds maximum size", cache.size() <= 10 );
+        assertEquals( "values not accounted for exactly once", cached, total.get() );
+    }
+}
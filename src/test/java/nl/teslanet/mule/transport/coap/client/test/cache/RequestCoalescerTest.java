@@ -0,0 +1,235 @@
+/*******************************************************************************
+ * Copyright (c) 2019 (teslanet.nl) Rogier Cobben.
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License - v 2.0 
+ * which accompanies this distribution.
+ * 
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ * 
+ * Contributors:
+ *    (teslanet.nl) Rogier Cobben - initial creation
+ ******************************************************************************/
+package nl.teslanet.mule.transport.coap.client.test.cache;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetAddress;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.eclipse.californium.core.coap.CoAP.Code;
+import org.eclipse.californium.core.coap.CoAP.ResponseCode;
+import org.eclipse.californium.core.coap.MediaTypeRegistry;
+import org.eclipse.californium.core.coap.Request;
+import org.eclipse.californium.core.coap.Response;
+import org.junit.Test;
+
+import nl.teslanet.mule.transport.coap.client.cache.RequestCoalescer;
+
+
+public class RequestCoalescerTest
+{
+    /**
+     * The requests sent again by the coalescer.
+     */
+    private final CopyOnWriteArrayList< Request > resent= new CopyOnWriteArrayList< Request >();
+
+    /**
+     * Sender recording the requests sent again.
+     */
+    private final RequestCoalescer.Sender sender= new RequestCoalescer.Sender()
+        {
+            @Override
+            public void send( Request request )
+            {
+                resent.add( request );
+            }
+        };
+
+    /**
+     * Create an addressed GET request.
+     * @param path The path of the resource.
+     * @return The request.
+     */
+    private Request createRequest( String path )
+    {
+        Request request= new Request( Code.GET );
+        request.setDestination( InetAddress.getLoopbackAddress() );
+        request.setDestinationPort( 5683 );
+        request.getOptions().setUriPath( path );
+        return request;
+    }
+
+    @Test
+    public void testIdenticalRequestsShareResponse()
+    {
+        RequestCoalescer coalescer= new RequestCoalescer( sender );
+        Request leader= createRequest( "resource" );
+        Request follower1= createRequest( "resource" );
+        Request follower2= createRequest( "resource" );
+
+        assertFalse( "first request must be sent", coalescer.join( leader ) );
+        assertTrue( "identical request not joined", coalescer.join( follower1 ) );
+        assertTrue( "identical request not joined", coalescer.join( follower2 ) );
+        assertEquals( "wrong number of hits", 2, coalescer.getHits() );
+
+        Response response= new Response( ResponseCode.CONTENT );
+        leader.setResponse( response );
+        assertSame( "response not delivered", response, follower1.getResponse() );
+        assertSame( "response not delivered", response, follower2.getResponse() );
+        assertEquals( "flight not closed", 0, coalescer.getFlights() );
+
+        Request next= createRequest( "resource" );
+        assertFalse( "request after completion must be sent", coalescer.join( next ) );
+    }
+
+    @Test
+    public void testDifferentRequestsNotJoined()
+    {
+        RequestCoalescer coalescer= new RequestCoalescer( sender );
+        Request leader= createRequest( "resource" );
+        Request otherPath= createRequest( "other" );
+        Request otherAccept= createRequest( "resource" );
+        otherAccept.getOptions().setAccept( MediaTypeRegistry.APPLICATION_JSON );
+
+        assertFalse( "first request must be sent", coalescer.join( leader ) );
+        assertFalse( "request on other resource joined", coalescer.join( otherPath ) );
+        assertFalse( "request with other accept joined", coalescer.join( otherAccept ) );
+        assertEquals( "wrong number of hits", 0, coalescer.getHits() );
+    }
+
+    @Test
+    public void testConditionalRequestsNotJoined()
+    {
+        RequestCoalescer coalescer= new RequestCoalescer( sender );
+        Request conditional= createRequest( "resource" );
+        conditional.getOptions().addETag( new byte []{ 1, 2 } );
+        Request unconditional= createRequest( "resource" );
+        Request otherEtag= createRequest( "resource" );
+        otherEtag.getOptions().addETag( new byte []{ 3, 4 } );
+        Request sameEtag= createRequest( "resource" );
+        sameEtag.getOptions().addETag( new byte []{ 1, 2 } );
+
+        assertFalse( "first request must be sent", coalescer.join( conditional ) );
+        assertFalse( "unconditional request joined conditional request", coalescer.join( unconditional ) );
+        assertFalse( "request with other etag joined", coalescer.join( otherEtag ) );
+        assertTrue( "request with same etag not joined", coalescer.join( sameEtag ) );
+        assertEquals( "wrong number of hits", 1, coalescer.getHits() );
+
+        Response valid= new Response( ResponseCode.VALID );
+        conditional.setResponse( valid );
+        assertSame( "response not delivered", valid, sameEtag.getResponse() );
+        assertNull( "valid response delivered to unconditional request", unconditional.getResponse() );
+    }
+
+    @Test
+    public void testFailurePropagated()
+    {
+        RequestCoalescer coalescer= new RequestCoalescer( sender );
+        Request leader= createRequest( "resource" );
+        Request follower= createRequest( "resource" );
+        coalescer.join( leader );
+        coalescer.join( follower );
+
+        leader.setTimedOut( true );
+        assertTrue( "timeout not propagated", follower.isTimedOut() );
+        assertNull( "unexpected response", follower.getResponse() );
+    }
+
+    @Test
+    public void testAbort()
+    {
+        RequestCoalescer coalescer= new RequestCoalescer( sender );
+        Request leader= createRequest( "resource" );
+        Request follower= createRequest( "resource" );
+        coalescer.join( leader );
+        coalescer.join( follower );
+
+        coalescer.abort( leader );
+        assertTrue( "follower not cancelled", follower.isCanceled() );
+        assertEquals( "flight not closed", 0, coalescer.getFlights() );
+        assertTrue( "aborted follower sent", resent.isEmpty() );
+    }
+
+    @Test
+    public void testLeaderTimeoutPromotesFollower()
+    {
+        RequestCoalescer coalescer= new RequestCoalescer( sender );
+        Request leader= createRequest( "resource" );
+        Request follower1= createRequest( "resource" );
+        Request follower2= createRequest( "resource" );
+        coalescer.join( leader );
+        coalescer.join( follower1 );
+        coalescer.join( follower2 );
+
+        // the leader has the shortest timeout
+        leader.cancel();
+        assertFalse( "follower cancelled with leader", follower1.isCanceled() );
+        assertFalse( "follower cancelled with leader", follower2.isCanceled() );
+        assertEquals( "not exactly one follower sent", 1, resent.size() );
+        assertSame( "first follower not promoted", follower1, resent.get( 0 ) );
+        assertEquals( "no flight for promoted follower", 1, coalescer.getFlights() );
+
+        Response response= new Response( ResponseCode.CONTENT );
+        follower1.setResponse( response );
+        assertSame( "response not delivered", response, follower2.getResponse() );
+        assertNull( "response delivered to cancelled leader", leader.getResponse() );
+        assertEquals( "flight not closed", 0, coalescer.getFlights() );
+    }
+
+    @Test
+    public void testMixedTimeouts()
+    {
+        RequestCoalescer coalescer= new RequestCoalescer( sender );
+        Request leader= createRequest( "resource" );
+        Request follower1= createRequest( "resource" );
+        Request follower2= createRequest( "resource" );
+        Request follower3= createRequest( "resource" );
+        coalescer.join( leader );
+        coalescer.join( follower1 );
+        coalescer.join( follower2 );
+        coalescer.join( follower3 );
+
+        // a follower times out first, then the leader, then the promoted follower
+        follower1.cancel();
+        assertTrue( "cancelled follower sent", resent.isEmpty() );
+        leader.cancel();
+        assertEquals( "not exactly one follower sent", 1, resent.size() );
+        assertSame( "wrong follower promoted", follower2, resent.get( 0 ) );
+        follower2.cancel();
+        assertEquals( "not exactly one follower sent", 2, resent.size() );
+        assertSame( "wrong follower promoted", follower3, resent.get( 1 ) );
+        assertFalse( "remaining follower cancelled", follower3.isCanceled() );
+
+        Response response= new Response( ResponseCode.CONTENT );
+        follower3.setResponse( response );
+        assertNull( "response delivered to cancelled follower", follower1.getResponse() );
+        assertNull( "response delivered to cancelled follower", follower2.getResponse() );
+        assertEquals( "flight not closed", 0, coalescer.getFlights() );
+        assertEquals( "wrong number of hits", 3, coalescer.getHits() );
+    }
+
+    @Test
+    public void testPromotedFollowerJoinsNewFlight()
+    {
+        RequestCoalescer coalescer= new RequestCoalescer( sender );
+        Request leader= createRequest( "resource" );
+        Request follower= createRequest( "resource" );
+        coalescer.join( leader );
+        coalescer.join( follower );
+
+        leader.cancel();
+        Request next= createRequest( "resource" );
+        assertTrue( "request not joined with promoted follower", coalescer.join( next ) );
+
+        Response response= new Response( ResponseCode.CONTENT );
+        follower.setResponse( response );
+        assertSame( "response not delivered", response, next.getResponse() );
+    }
+}
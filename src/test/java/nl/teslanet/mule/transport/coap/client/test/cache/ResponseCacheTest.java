@@ -0,0 +1,254 @@
+/*******************************************************************************
+ * Copyright (c) 2019 (teslanet.nl) Rogier Cobben.
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License - v 2.0 
+ * which accompanies this distribution.
+ * 
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ * 
+ * Contributors:
+ *    (teslanet.nl) Rogier Cobben - initial creation
+ ******************************************************************************/
+package nl.teslanet.mule.transport.coap.client.test.cache;
+
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetAddress;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.californium.core.CoapResource;
+import org.eclipse.californium.core.CoapServer;
+import org.eclipse.californium.core.coap.CoAP.Code;
+import org.eclipse.californium.core.coap.CoAP.ResponseCode;
+import org.eclipse.californium.core.coap.Request;
+import org.eclipse.californium.core.coap.Response;
+import org.eclipse.californium.core.network.CoapEndpoint;
+import org.eclipse.californium.core.server.resources.CoapExchange;
+import org.junit.Test;
+
+import nl.teslanet.mule.transport.coap.client.cache.ResponseCache;
+import nl.teslanet.mule.transport.coap.client.endpoint.EndpointPool;
+
+
+public class ResponseCacheTest
+{
+    private static final byte[] ETAG= new byte []{ 0x0a, 0x0b };
+
+    /**
+     * Create an addressed GET request.
+     * @param path The path of the resource.
+     * @return The request.
+     */
+    private Request createRequest( String path )
+    {
+        return createRequest( path, 5683 );
+    }
+
+    /**
+     * Create an addressed GET request.
+     * @param path The path of the resource.
+     * @param port The port of the server.
+     * @return The request.
+     */
+    private Request createRequest( String path, int port )
+    {
+        Request request= new Request( Code.GET );
+        request.setDestination( InetAddress.getLoopbackAddress() );
+        request.setDestinationPort( port );
+        request.getOptions().setUriPath( path );
+        return request;
+    }
+
+    /**
+     * Create a content response.
+     * @param maxAge The Max-Age in seconds.
+     * @param payload The payload.
+     * @return The response.
+     */
+    private Response createContent( long maxAge, String payload )
+    {
+        Response response= new Response( ResponseCode.CONTENT );
+        response.getOptions().setMaxAge( maxAge );
+        response.getOptions().addETag( ETAG );
+        response.setPayload( payload );
+        return response;
+    }
+
+    @Test
+    public void testFreshHit()
+    {
+        ResponseCache cache= new ResponseCache( 10, 100000 );
+        ResponseCache.Lookup lookup= cache.lookup( createRequest( "resource" ) );
+        assertNull( "unexpected hit", lookup.getFreshResponse() );
+        Response content= createContent( 60, "value" );
+        assertSame( "wrong response delivered", content, lookup.complete( content ) );
+
+        lookup= cache.lookup( createRequest( "resource" ) );
+        assertSame( "fresh response not returned", content, lookup.getFreshResponse() );
+        assertEquals( "wrong number of hits", 1, cache.getHits() );
+        assertEquals( "wrong number of misses", 1, cache.getMisses() );
+
+        lookup= cache.lookup( createRequest( "other" ) );
+        assertNull( "hit on other resource", lookup.getFreshResponse() );
+    }
+
+    @Test
+    public void testRevalidation() throws InterruptedException
+    {
+        ResponseCache cache= new ResponseCache( 10, 100000 );
+        Response content= createContent( 1, "value" );
+        cache.lookup( createRequest( "resource" ) ).complete( content );
+        Thread.sleep( 1100 );
+
+        Request request= createRequest( "resource" );
+        ResponseCache.Lookup lookup= cache.lookup( request );
+        assertNull( "stale response returned", lookup.getFreshResponse() );
+        assertEquals( "etag not added", 1, request.getOptions().getETagCount() );
+        assertArrayEquals( "wrong etag", ETAG, request.getOptions().getETags().get( 0 ) );
+
+        Response valid= new Response( ResponseCode.VALID );
+        valid.getOptions().addETag( ETAG );
+        valid.getOptions().setMaxAge( 60 );
+        assertSame( "stored response not delivered", content, lookup.complete( valid ) );
+        assertEquals( "wrong number of revalidations", 1, cache.getRevalidations() );
+
+        assertSame( "revalidated response not fresh", content, cache.lookup( createRequest( "resource" ) ).getFreshResponse() );
+    }
+
+    @Test
+    public void testRevalidationAfterEviction() throws InterruptedException
+    {
+        ResponseCache cache= new ResponseCache( 1, 100000 );
+        Response content= createContent( 1, "value" );
+        cache.lookup( createRequest( "resource" ) ).complete( content );
+        Thread.sleep( 1100 );
+
+        Request request= createRequest( "resource" );
+        ResponseCache.Lookup lookup= cache.lookup( request );
+        assertEquals( "etag not added", 1, request.getOptions().getETagCount() );
+
+        // evict the stale entry while the request is in flight
+        cache.lookup( createRequest( "other" ) ).complete( createContent( 60, "other value" ) );
+        assertNull( "stale entry not evicted", cache.lookup( createRequest( "resource" ) ).getFreshResponse() );
+
+        Response valid= new Response( ResponseCode.VALID );
+        valid.getOptions().addETag( ETAG );
+        valid.getOptions().setMaxAge( 60 );
+        assertSame( "stored response not delivered", content, lookup.complete( valid ) );
+        assertEquals( "wrong number of revalidations", 1, cache.getRevalidations() );
+        assertSame( "revalidated response not stored", content, cache.lookup( createRequest( "resource" ) ).getFreshResponse() );
+    }
+
+    @Test
+    public void testConditionalRequestNotAnswered()
+    {
+        ResponseCache cache= new ResponseCache( 10, 100000 );
+        cache.lookup( createRequest( "resource" ) ).complete( createContent( 60, "value" ) );
+
+        Request request= createRequest( "resource" );
+        request.getOptions().addETag( ETAG );
+        ResponseCache.Lookup lookup= cache.lookup( request );
+        assertNull( "conditional request answered", lookup.getFreshResponse() );
+        Response valid= new Response( ResponseCode.VALID );
+        assertSame( "valid response not delivered", valid, lookup.complete( valid ) );
+    }
+
+    @Test
+    public void testMemoryBudget()
+    {
+        ResponseCache cache= new ResponseCache( 100, 2000 );
+        StringBuilder payload= new StringBuilder();
+        for ( int i= 0; i < 500; i++ )
+        {
+            payload.append( 'x' );
+        }
+        for ( int i= 0; i < 10; i++ )
+        {
+            cache.lookup( createRequest( "resource" + i ) ).complete( createContent( 60, payload.toString() ) );
+        }
+        assertTrue( "memory budget exceeded", cache.getBytes() <= 2000 );
+        assertTrue( "nothing evicted", cache.getEvictions() > 0 );
+        assertNotNull( "latest response not kept", cache.lookup( createRequest( "resource9" ) ).getFreshResponse() );
+    }
+
+    @Test
+    public void testRefreshAhead() throws Exception
+    {
+        final AtomicInteger validations= new AtomicInteger();
+        CoapServer server= new CoapServer( 0 );
+        server.add( new CoapResource( "resource" )
+            {
+                @Override
+                public void handleGET( CoapExchange exchange )
+                {
+                    validations.incrementAndGet();
+                    exchange.setETag( ETAG );
+                    exchange.setMaxAge( 60 );
+                    exchange.respond( ResponseCode.VALID );
+                }
+            } );
+        server.start();
+        CoapEndpoint endpoint= new CoapEndpoint( 0 );
+        endpoint.start();
+        ScheduledThreadPoolExecutor scheduler= new ScheduledThreadPoolExecutor( 1 );
+        try
+        {
+            int port= server.getEndpoints().get( 0 ).getAddress().getPort();
+            ResponseCache cache= new ResponseCache( 10, 100000 );
+            cache.enableRefreshAhead( scheduler, new EndpointPool( Arrays.asList( endpoint ) ), 2, 1 );
+            Response content= createContent( 1, "value" );
+            cache.lookup( createRequest( "resource", port ) ).complete( content );
+            cache.lookup( createRequest( "cold", port ) ).complete( createContent( 1, "cold value" ) );
+            // make the entry hot
+            cache.lookup( createRequest( "resource", port ) );
+            cache.lookup( createRequest( "resource", port ) );
+
+            Thread.sleep( 1500 );
+            assertEquals( "wrong number of refreshes", 1, cache.getRefreshes() );
+            assertEquals( "server not asked to validate", 1, validations.get() );
+            assertSame( "refreshed response not fresh", content, cache.lookup( createRequest( "resource", port ) ).getFreshResponse() );
+            assertNull( "cold entry refreshed", cache.lookup( createRequest( "cold", port ) ).getFreshResponse() );
+        }
+        finally
+        {
+            scheduler.shutdownNow();
+            endpoint.destroy();
+            server.destroy();
+        }
+    }
+
+    @Test
+    public void testRefreshCheckIsNoUse() throws Exception
+    {
+        ScheduledThreadPoolExecutor scheduler= new ScheduledThreadPoolExecutor( 1 );
+        try
+        {
+            ResponseCache cache= new ResponseCache( 2, 100000 );
+            cache.enableRefreshAhead( scheduler, new EndpointPool( Collections.singletonList( new CoapEndpoint( 0 ) ) ), 2, 1 );
+            // the cold entry is checked for refresh-ahead, but never read
+            cache.lookup( createRequest( "cold" ) ).complete( createContent( 1, "cold value" ) );
+            Response young= createContent( 60, "young value" );
+            cache.lookup( createRequest( "young" ) ).complete( young );
+            Thread.sleep( 1000 );
+
+            cache.lookup( createRequest( "other" ) ).complete( createContent( 60, "other value" ) );
+            assertEquals( "wrong number of refreshes", 0, cache.getRefreshes() );
+            assertSame( "unused entry kept over younger entry", young, cache.lookup( createRequest( "young" ) ).getFreshResponse() );
+        }
+        finally
+        {
+            scheduler.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,101 @@
+/*******************************************************************************
+ * Copyright (c) 2019 (teslanet.nl) Rogier Cobben.
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License - v 2.0 
+ * which accompanies this distribution.
+ * 
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ * 
+ * Contributors:
+ *    (teslanet.nl) Rogier Cobben - initial creation
+ ******************************************************************************/
+package nl.teslanet.mule.transport.coap.client.test.concurrent;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import nl.teslanet.mule.transport.coap.client.concurrent.BackoffScheduler;
+import nl.teslanet.mule.transport.coap.client.concurrent.RateLimiter;
+
+
+public class BackoffSchedulerTest
+{
+    private ScheduledThreadPoolExecutor executor;
+
+    @Before
+    public void setUp()
+    {
+        executor= new ScheduledThreadPoolExecutor( 1 );
+    }
+
+    @After
+    public void tearDown()
+    {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testCeilingDoubles()
+    {
+        BackoffScheduler scheduler= new BackoffScheduler( executor, 100, 1000, new RateLimiter( 0, 1 ) );
+        assertEquals( "wrong ceiling of attempt 0", 100L, scheduler.getCeiling( 0 ) );
+        assertEquals( "wrong ceiling of attempt 1", 200L, scheduler.getCeiling( 1 ) );
+        assertEquals( "wrong ceiling of attempt 3", 800L, scheduler.getCeiling( 3 ) );
+        assertEquals( "ceiling not capped", 1000L, scheduler.getCeiling( 4 ) );
+        assertEquals( "ceiling not capped on large attempt", 1000L, scheduler.getCeiling( 100 ) );
+    }
+
+    @Test
+    public void testRetriesRun() throws InterruptedException
+    {
+        BackoffScheduler scheduler= new BackoffScheduler( executor, 50, 50, new RateLimiter( 0, 1 ) );
+        final CountDownLatch done= new CountDownLatch( 20 );
+        for ( int i= 0; i < 20; i++ )
+        {
+            scheduler.schedule( new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        done.countDown();
+                    }
+                }, 0 );
+        }
+        assertTrue( "retries not run", done.await( 2, TimeUnit.SECONDS ) );
+        assertEquals( "retries still pending", 0, scheduler.getPending() );
+    }
+
+    @Test
+    public void testRateLimited() throws InterruptedException
+    {
+        BackoffScheduler scheduler= new BackoffScheduler( executor, 1, 1, new RateLimiter( 20, 1 ) );
+        final CountDownLatch done= new CountDownLatch( 10 );
+        long start= System.nanoTime();
+        for ( int i= 0; i < 10; i++ )
+        {
+            scheduler.schedule( new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        done.countDown();
+                    }
+                }, 0 );
+        }
+        assertTrue( "retries not run", done.await( 5, TimeUnit.SECONDS ) );
+        long elapsed= TimeUnit.NANOSECONDS.toMillis( System.nanoTime() - start );
+        assertTrue( "retries not spread by rate, elapsed: " + elapsed, elapsed >= 400 );
+        assertEquals( "retries still pending", 0, scheduler.getPending() );
+    }
+}
@@ -0,0 +1,112 @@
+/*******************************************************************************
+ * Copyright (c) 2019 (teslanet.nl) Rogier Cobben.
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License - v 2.0 
+ * which accompanies this distribution.
+ * 
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ * 
+ * Contributors:
+ *    (teslanet.nl) Rogier Cobben - initial creation
+ ******************************************************************************/
+package nl.teslanet.mule.transport.coap.client.test.concurrent;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+import nl.teslanet.mule.transport.coap.client.concurrent.Conflater;
+import nl.teslanet.mule.transport.coap.client.concurrent.StripedExecutor;
+import nl.teslanet.mule.transport.coap.client.config.RejectionPolicy;
+
+
+public class ConflaterTest
+{
+    @Test(timeout= 30000)
+    public void testLatestValueKept() throws InterruptedException
+    {
+        StripedExecutor executor= new StripedExecutor( "test-conflate", 2, 10, RejectionPolicy.BLOCK );
+        AtomicLong conflated= new AtomicLong();
+        Conflater conflater= new Conflater( "coap://127.0.0.1/resource", conflated );
+        final CountDownLatch blocked= new CountDownLatch( 1 );
+        final CountDownLatch release= new CountDownLatch( 1 );
+        final List< Integer > received= Collections.synchronizedList( new ArrayList< Integer >() );
+        final CountDownLatch last= new CountDownLatch( 1 );
+
+        conflater.submit( executor, new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    received.add( Integer.valueOf( 0 ) );
+                    blocked.countDown();
+                    try
+                    {
+                        release.await();
+                    }
+                    catch ( InterruptedException e )
+                    {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            } );
+        assertTrue( "first task not started", blocked.await( 10, TimeUnit.SECONDS ) );
+
+        final int count= 100;
+        for ( int i= 1; i <= count; i++ )
+        {
+            final Integer value= Integer.valueOf( i );
+            conflater.submit( executor, new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        received.add( value );
+                        if ( value.intValue() == count ) last.countDown();
+                    }
+                } );
+        }
+        release.countDown();
+        assertTrue( "latest task not run", last.await( 10, TimeUnit.SECONDS ) );
+        executor.shutdown();
+
+        assertEquals( "wrong number of tasks run", 2, received.size() );
+        assertEquals( "wrong first task", Integer.valueOf( 0 ), received.get( 0 ) );
+        assertEquals( "wrong latest task", Integer.valueOf( count ), received.get( 1 ) );
+        assertEquals( "wrong number of conflated tasks", count - 1, conflated.get() );
+    }
+
+    @Test
+    public void testInlineWithoutLanes()
+    {
+        StripedExecutor executor= new StripedExecutor( "test-conflate", 0, 10, RejectionPolicy.BLOCK );
+        AtomicLong conflated= new AtomicLong();
+        Conflater conflater= new Conflater( "coap://127.0.0.1/resource", conflated );
+        final List< Integer > received= new ArrayList< Integer >();
+        for ( int i= 0; i < 10; i++ )
+        {
+            final Integer value= Integer.valueOf( i );
+            conflater.submit( executor, new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        received.add( value );
+                    }
+                } );
+        }
+        assertEquals( "wrong number of tasks run", 10, received.size() );
+        assertEquals( "wrong number of conflated tasks", 0, conflated.get() );
+    }
+}
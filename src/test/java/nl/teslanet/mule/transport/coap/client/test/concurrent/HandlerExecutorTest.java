@@ -0,0 +1,236 @@
+/*******************************************************************************
+ * Copyright (c) 2019 (teslanet.nl) Rogier Cobben.
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License - v 2.0 
+ * which accompanies this distribution.
+ * 
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ * 
+ * Contributors:
+ *    (teslanet.nl) Rogier Cobben - initial creation
+ ******************************************************************************/
+package nl.teslanet.mule.transport.coap.client.test.concurrent;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Test;
+
+import nl.teslanet.mule.transport.coap.client.concurrent.DroppableTask;
+import nl.teslanet.mule.transport.coap.client.concurrent.HandlerExecutor;
+import nl.teslanet.mule.transport.coap.client.config.RejectionPolicy;
+
+
+public class HandlerExecutorTest
+{
+    /**
+     * Released to let blocking tasks finish.
+     */
+    private final CountDownLatch gate= new CountDownLatch( 1 );
+
+    /**
+     * The names of the tasks run, in order of execution.
+     */
+    private final List< String > executed= Collections.synchronizedList( new ArrayList< String >() );
+
+    /**
+     * The names of the tasks dropped.
+     */
+    private final List< String > dropped= Collections.synchronizedList( new ArrayList< String >() );
+
+    /**
+     * Task recording its execution and its drop.
+     */
+    private class Task implements DroppableTask
+    {
+        /**
+         * The name of the task.
+         */
+        private final String name;
+
+        /**
+         * Counted down when the task runs.
+         */
+        private final CountDownLatch started= new CountDownLatch( 1 );
+
+        /**
+         * True when the task waits for the gate.
+         */
+        private final boolean blocking;
+
+        /**
+         * The thread the task ran on.
+         */
+        private volatile Thread thread= null;
+
+        /**
+         * Constructor
+         * @param name The name of the task.
+         * @param blocking True when the task waits for the gate.
+         */
+        private Task( String name, boolean blocking )
+        {
+            this.name= name;
+            this.blocking= blocking;
+        }
+
+        @Override
+        public void run()
+        {
+            thread= Thread.currentThread();
+            started.countDown();
+            if ( blocking )
+            {
+                try
+                {
+                    gate.await();
+                }
+                catch ( InterruptedException e )
+                {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            executed.add( name );
+        }
+
+        @Override
+        public void onDrop()
+        {
+            dropped.add( name );
+        }
+    }
+
+    /**
+     * Occupy the only thread of the executor with a blocking task.
+     * @param executor The executor.
+     * @throws InterruptedException when interrupted.
+     */
+    private void occupy( HandlerExecutor executor ) throws InterruptedException
+    {
+        Task busy= new Task( "busy", true );
+        executor.execute( busy );
+        assertTrue( "blocking task not started", busy.started.await( 5, TimeUnit.SECONDS ) );
+    }
+
+    /**
+     * Wait until the executor has no queued or active tasks.
+     * @param executor The executor.
+     * @throws InterruptedException when interrupted.
+     */
+    private static void awaitIdle( HandlerExecutor executor ) throws InterruptedException
+    {
+        long deadline= System.currentTimeMillis() + 5000L;
+        while ( ( executor.getQueueDepth() > 0 || executor.getActiveCount() > 0 ) && System.currentTimeMillis() < deadline )
+        {
+            Thread.sleep( 10L );
+        }
+    }
+
+    @Test
+    public void testInlineWithoutThreads()
+    {
+        HandlerExecutor executor= new HandlerExecutor( "test-handler", 0, 1, RejectionPolicy.DROP_OLDEST );
+        Task task= new Task( "inline", false );
+        executor.execute( task );
+        assertEquals( "task not executed", 1, executed.size() );
+        assertEquals( "task not executed on calling thread", Thread.currentThread(), task.thread );
+        assertEquals( "wrong queue depth", 0, executor.getQueueDepth() );
+        assertEquals( "wrong rejected count", 0L, executor.getRejectedCount() );
+        assertEquals( "wrong dropped count", 0L, executor.getDroppedCount() );
+    }
+
+    @Test(timeout= 30000)
+    public void testBlock() throws InterruptedException
+    {
+        final HandlerExecutor executor= new HandlerExecutor( "test-handler", 1, 1, RejectionPolicy.BLOCK );
+        occupy( executor );
+        executor.execute( new Task( "queued", false ) );
+        assertEquals( "wrong queue depth", 1, executor.getQueueDepth() );
+
+        final AtomicBoolean submitted= new AtomicBoolean( false );
+        Thread deliverer= new Thread( new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    executor.execute( new Task( "blocked", false ) );
+                    submitted.set( true );
+                }
+            } );
+        deliverer.start();
+        deliverer.join( 500L );
+        assertTrue( "delivering thread not blocked", deliverer.isAlive() );
+        assertFalse( "task submitted to full queue", submitted.get() );
+        assertEquals( "wrong rejected count", 1L, executor.getRejectedCount() );
+
+        gate.countDown();
+        deliverer.join( 5000L );
+        assertTrue( "delivering thread not released", submitted.get() );
+        awaitIdle( executor );
+        assertEquals( "wrong tasks executed", "[busy, queued, blocked]", executed.toString() );
+        assertEquals( "wrong dropped count", 0L, executor.getDroppedCount() );
+        executor.shutdown();
+    }
+
+    @Test(timeout= 30000)
+    public void testDropOldest() throws InterruptedException
+    {
+        HandlerExecutor executor= new HandlerExecutor( "test-handler", 1, 2, RejectionPolicy.DROP_OLDEST );
+        occupy( executor );
+        executor.execute( new Task( "oldest", false ) );
+        executor.execute( new Task( "older", false ) );
+        // does not wait for room
+        executor.execute( new Task( "newest", false ) );
+        assertEquals( "wrong queue depth", 2, executor.getQueueDepth() );
+        assertEquals( "wrong rejected count", 1L, executor.getRejectedCount() );
+        assertEquals( "wrong dropped count", 1L, executor.getDroppedCount() );
+        assertEquals( "drop not notified", "[oldest]", dropped.toString() );
+
+        gate.countDown();
+        awaitIdle( executor );
+        assertEquals( "wrong tasks executed", "[busy, older, newest]", executed.toString() );
+        executor.shutdown();
+    }
+
+    @Test(timeout= 30000)
+    public void testCallerRuns() throws InterruptedException
+    {
+        HandlerExecutor executor= new HandlerExecutor( "test-handler", 1, 1, RejectionPolicy.CALLER_RUNS );
+        occupy( executor );
+        executor.execute( new Task( "queued", false ) );
+        Task overflow= new Task( "overflow", false );
+        executor.execute( overflow );
+        assertEquals( "overflow task not run on calling thread", Thread.currentThread(), overflow.thread );
+        assertEquals( "wrong rejected count", 1L, executor.getRejectedCount() );
+        assertEquals( "wrong dropped count", 0L, executor.getDroppedCount() );
+
+        gate.countDown();
+        awaitIdle( executor );
+        assertEquals( "wrong tasks executed", "[overflow, busy, queued]", executed.toString() );
+        executor.shutdown();
+    }
+
+    @Test(timeout= 30000)
+    public void testDroppedAfterShutdown() throws InterruptedException
+    {
+        HandlerExecutor executor= new HandlerExecutor( "test-handler", 1, 1, RejectionPolicy.BLOCK );
+        executor.shutdown();
+        // would block forever when the shutdown were not detected
+        executor.execute( new Task( "late", false ) );
+        assertEquals( "drop not notified", "[late]", dropped.toString() );
+        assertEquals( "wrong rejected count", 1L, executor.getRejectedCount() );
+        assertEquals( "wrong dropped count", 1L, executor.getDroppedCount() );
+        assertTrue( "dropped task executed", executed.isEmpty() );
+    }
+}
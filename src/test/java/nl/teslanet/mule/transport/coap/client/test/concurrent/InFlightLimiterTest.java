@@ -0,0 +1,171 @@
+/*******************************************************************************
+ * Copyright (c) 2019 (teslanet.nl) Rogier Cobben.
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License - v 2.0 
+ * which accompanies this distribution.
+ * 
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ * 
+ * Contributors:
+ *    (teslanet.nl) Rogier Cobben - initial creation
+ ******************************************************************************/
+package nl.teslanet.mule.transport.coap.client.test.concurrent;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import nl.teslanet.mule.transport.coap.client.concurrent.InFlightLimiter;
+import nl.teslanet.mule.transport.coap.client.config.InFlightPolicy;
+import nl.teslanet.mule.transport.coap.client.error.InFlightLimitException;
+
+
+public class InFlightLimiterTest
+{
+    /**
+     * Send task that counts its runs.
+     */
+    private static class CountingSend implements Runnable
+    {
+        private final AtomicInteger count;
+
+        private CountingSend( AtomicInteger count )
+        {
+            this.count= count;
+        }
+
+        @Override
+        public void run()
+        {
+            count.incrementAndGet();
+        }
+    }
+
+    @Test
+    public void testUnlimited() throws InFlightLimitException
+    {
+        InFlightLimiter limiter= new InFlightLimiter( 0, 0, InFlightPolicy.FAIL, 1000 );
+        AtomicInteger sent= new AtomicInteger();
+        for ( int i= 0; i < 1000; i++ )
+        {
+            limiter.submit( "127.0.0.1", new CountingSend( sent ) );
+        }
+        assertEquals( "wrong number of sends", 1000, sent.get() );
+        assertEquals( "wrong in-flight count", 1000, limiter.getInFlight() );
+    }
+
+    @Test(expected= InFlightLimitException.class)
+    public void testFailOnTotalLimit() throws InFlightLimitException
+    {
+        InFlightLimiter limiter= new InFlightLimiter( 2, 0, InFlightPolicy.FAIL, 1000 );
+        AtomicInteger sent= new AtomicInteger();
+        limiter.submit( "127.0.0.1", new CountingSend( sent ) );
+        limiter.submit( "127.0.0.2", new CountingSend( sent ) );
+        limiter.submit( "127.0.0.3", new CountingSend( sent ) );
+    }
+
+    @Test
+    public void testFailOnDestinationLimit() throws InFlightLimitException
+    {
+        InFlightLimiter limiter= new InFlightLimiter( 0, 1, InFlightPolicy.FAIL, 1000 );
+        AtomicInteger sent= new AtomicInteger();
+        limiter.submit( "127.0.0.1", new CountingSend( sent ) );
+        limiter.submit( "127.0.0.2", new CountingSend( sent ) );
+        try
+        {
+            limiter.submit( "127.0.0.1", new CountingSend( sent ) );
+        }
+        catch ( InFlightLimitException e )
+        {
+            // expected
+        }
+        assertEquals( "wrong number of sends", 2, sent.get() );
+        assertEquals( "wrong number of refused", 1, limiter.getRefused() );
+        limiter.release( "127.0.0.1" );
+        limiter.submit( "127.0.0.1", new CountingSend( sent ) );
+        assertEquals( "wrong number of sends", 3, sent.get() );
+    }
+
+    @Test
+    public void testQueue() throws InFlightLimitException
+    {
+        InFlightLimiter limiter= new InFlightLimiter( 10, 2, InFlightPolicy.QUEUE, 1000 );
+        AtomicInteger sent= new AtomicInteger();
+        for ( int i= 0; i < 5; i++ )
+        {
+            limiter.submit( "127.0.0.1", new CountingSend( sent ) );
+        }
+        limiter.submit( "127.0.0.2", new CountingSend( sent ) );
+        assertEquals( "wrong number of sends", 3, sent.get() );
+        assertEquals( "wrong number of queued", 3, limiter.getQueued() );
+        assertEquals( "wrong in-flight count of destination", Integer.valueOf( 2 ), limiter.getInFlightByDestination().get( "127.0.0.1" ) );
+
+        limiter.release( "127.0.0.1" );
+        assertEquals( "wrong number of sends", 4, sent.get() );
+        limiter.release( "127.0.0.1" );
+        limiter.release( "127.0.0.1" );
+        assertEquals( "wrong number of sends", 6, sent.get() );
+        assertEquals( "wrong number of queued", 0, limiter.getQueued() );
+    }
+
+    @Test
+    public void testQueueFull() throws InFlightLimitException
+    {
+        InFlightLimiter limiter= new InFlightLimiter( 1, 0, InFlightPolicy.QUEUE, 2 );
+        AtomicInteger sent= new AtomicInteger();
+        limiter.submit( "127.0.0.1", new CountingSend( sent ) );
+        limiter.submit( "127.0.0.1", new CountingSend( sent ) );
+        limiter.submit( "127.0.0.1", new CountingSend( sent ) );
+        assertEquals( "wrong number of queued", 2, limiter.getQueued() );
+        try
+        {
+            limiter.submit( "127.0.0.1", new CountingSend( sent ) );
+            fail( "request queued beyond queue size" );
+        }
+        catch ( InFlightLimitException e )
+        {
+            // expected
+        }
+        assertEquals( "wrong number of queued", 2, limiter.getQueued() );
+        assertEquals( "wrong number of refused", 1L, limiter.getRefused() );
+        limiter.release( "127.0.0.1" );
+        assertEquals( "wrong number of sends", 2, sent.get() );
+        limiter.submit( "127.0.0.1", new CountingSend( sent ) );
+        assertEquals( "request not queued after room was made", 2, limiter.getQueued() );
+    }
+
+    @Test(timeout= 10000)
+    public void testBlock() throws InFlightLimitException, InterruptedException
+    {
+        final InFlightLimiter limiter= new InFlightLimiter( 1, 0, InFlightPolicy.BLOCK, 1000 );
+        AtomicInteger sent= new AtomicInteger();
+        limiter.submit( "127.0.0.1", new CountingSend( sent ) );
+        Thread releaser= new Thread()
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        Thread.sleep( 200 );
+                    }
+                    catch ( InterruptedException e )
+                    {
+                        Thread.currentThread().interrupt();
+                    }
+                    limiter.release( "127.0.0.1" );
+                }
+            };
+        releaser.start();
+        limiter.submit( "127.0.0.1", new CountingSend( sent ) );
+        releaser.join();
+        assertEquals( "wrong number of sends", 2, sent.get() );
+        assertEquals( "wrong in-flight count", 1, limiter.getInFlight() );
+    }
+}
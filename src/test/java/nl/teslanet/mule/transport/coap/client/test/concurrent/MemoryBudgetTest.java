@@ -0,0 +1,98 @@
+/*******************************************************************************
+ * Copyright (c) 2019 (teslanet.nl) Rogier Cobben.
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License - v 2.0 
+ * which accompanies this distribution.
+ * 
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ * 
+ * Contributors:
+ *    (teslanet.nl) Rogier Cobben - initial creation
+ ******************************************************************************/
+package nl.teslanet.mule.transport.coap.client.test.concurrent;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+import nl.teslanet.mule.transport.coap.client.concurrent.MemoryBudget;
+
+
+public class MemoryBudgetTest
+{
+    @Test
+    public void testUnlimited()
+    {
+        MemoryBudget budget= new MemoryBudget( 0L );
+        for ( int i= 0; i < 1000; i++ )
+        {
+            assertTrue( "unlimited reservation refused", budget.reserve( 1024L * 1024L ) );
+        }
+        assertEquals( "wrong usage", 1000L * 1024L * 1024L, budget.getUsed() );
+        assertEquals( "wrong refusals", 0L, budget.getRefused() );
+    }
+
+    @Test
+    public void testLimit()
+    {
+        MemoryBudget budget= new MemoryBudget( 1000L );
+        assertTrue( "reservation within budget refused", budget.reserve( 600L ) );
+        assertTrue( "reservation up to budget refused", budget.reserve( 400L ) );
+        assertFalse( "reservation beyond budget granted", budget.reserve( 1L ) );
+        assertEquals( "wrong usage", 1000L, budget.getUsed() );
+        assertEquals( "wrong refusals", 1L, budget.getRefused() );
+        budget.release( 600L );
+        assertTrue( "reservation after release refused", budget.reserve( 500L ) );
+        assertEquals( "wrong usage after release", 900L, budget.getUsed() );
+    }
+
+    @Test
+    public void testConcurrentReservations() throws InterruptedException
+    {
+        final MemoryBudget budget= new MemoryBudget( 10000L );
+        final AtomicLong granted= new AtomicLong();
+        final CountDownLatch start= new CountDownLatch( 1 );
+        ArrayList< Thread > threads= new ArrayList< Thread >();
+        for ( int i= 0; i < 8; i++ )
+        {
+            Thread thread= new Thread( new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        try
+                        {
+                            start.await();
+                        }
+                        catch ( InterruptedException e )
+                        {
+                            return;
+                        }
+                        for ( int j= 0; j < 1000; j++ )
+                        {
+                            if ( budget.reserve( 10L ) ) granted.addAndGet( 10L );
+                        }
+                    }
+                } );
+            thread.start();
+            threads.add( thread );
+        }
+        start.countDown();
+        for ( Thread thread : threads )
+        {
+            thread.join();
+        }
+        assertEquals( "budget not fully used", 10000L, granted.get() );
+        assertEquals( "wrong usage", 10000L, budget.getUsed() );
+        assertEquals( "wrong refusals", 8000L - 1000L, budget.getRefused() );
+    }
+}
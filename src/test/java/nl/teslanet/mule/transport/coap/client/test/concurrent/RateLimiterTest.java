@@ -0,0 +1,81 @@
+/*******************************************************************************
+ * Copyright (c) 2019 (teslanet.nl) Rogier Cobben.
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License - v 2.0 
+ * which accompanies this distribution.
+ * 
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ * 
+ * Contributors:
+ *    (teslanet.nl) Rogier Cobben - initial creation
+ ******************************************************************************/
+package nl.teslanet.mule.transport.coap.client.test.concurrent;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import nl.teslanet.mule.transport.coap.client.concurrent.RateLimiter;
+
+
+public class RateLimiterTest
+{
+    @Test
+    public void testUnlimited()
+    {
+        RateLimiter limiter= new RateLimiter( 0, 1 );
+        assertTrue( "unlimited not recognised", limiter.isUnlimited() );
+        for ( int i= 0; i < 10000; i++ )
+        {
+            assertEquals( "unlimited reservation delayed", 0L, limiter.reserve() );
+        }
+    }
+
+    @Test
+    public void testBurst()
+    {
+        RateLimiter limiter= new RateLimiter( 1, 5 );
+        for ( int i= 0; i < 5; i++ )
+        {
+            assertTrue( "permit nr: " + i + " of burst not acquired", limiter.tryAcquire() );
+        }
+        assertFalse( "permit beyond burst acquired", limiter.tryAcquire() );
+    }
+
+    @Test
+    public void testReservationsSpreadOut()
+    {
+        RateLimiter limiter= new RateLimiter( 10, 1 );
+        assertEquals( "first reservation delayed", 0L, limiter.reserve() );
+        long previous= 0L;
+        for ( int i= 1; i < 10; i++ )
+        {
+            long delay= limiter.reserve();
+            long expected= TimeUnit.MILLISECONDS.toNanos( 100 * i );
+            assertTrue( "reservation nr: " + i + " delayed too short", delay > expected - TimeUnit.MILLISECONDS.toNanos( 20 ) );
+            assertTrue( "reservation nr: " + i + " delayed too long", delay <= expected );
+            assertTrue( "reservation nr: " + i + " not after previous", delay > previous );
+            previous= delay;
+        }
+    }
+
+    @Test
+    public void testAcquireWaits() throws InterruptedException
+    {
+        RateLimiter limiter= new RateLimiter( 20, 1 );
+        long start= System.nanoTime();
+        for ( int i= 0; i < 5; i++ )
+        {
+            limiter.acquire();
+        }
+        long elapsed= TimeUnit.NANOSECONDS.toMillis( System.nanoTime() - start );
+        assertTrue( "acquire did not wait, elapsed: " + elapsed, elapsed >= 190 );
+    }
+}
@@ -0,0 +1,135 @@
+/*******************************************************************************
+ * Copyright (c) 2019 (teslanet.nl) Rogier Cobben.
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License - v 2.0 
+ * which accompanies this distribution.
+ * 
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ * 
+ * Contributors:
+ *    (teslanet.nl) Rogier Cobben - initial creation
+ ******************************************************************************/
+package nl.teslanet.mule.transport.coap.client.test.concurrent;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import nl.teslanet.mule.transport.coap.client.concurrent.RateLimiter;
+import nl.teslanet.mule.transport.coap.client.concurrent.RegistrationQueue;
+
+
+public class RegistrationQueueTest
+{
+    private ScheduledThreadPoolExecutor executor;
+
+    /**
+     * Registration that counts its starts.
+     */
+    private static class CountingRegistration extends RegistrationQueue.Registration
+    {
+        private final AtomicInteger started;
+
+        private final CountDownLatch latch;
+
+        private CountingRegistration( AtomicInteger started, CountDownLatch latch )
+        {
+            this.started= started;
+            this.latch= latch;
+        }
+
+        @Override
+        public void run()
+        {
+            started.incrementAndGet();
+            latch.countDown();
+        }
+    }
+
+    @Before
+    public void setUp()
+    {
+        executor= new ScheduledThreadPoolExecutor( 1 );
+    }
+
+    @After
+    public void tearDown()
+    {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testConcurrencyCap()
+    {
+        RegistrationQueue queue= new RegistrationQueue( executor, new RateLimiter( 0, 1 ), 3, 60000 );
+        AtomicInteger started= new AtomicInteger();
+        CountDownLatch latch= new CountDownLatch( 10 );
+        List< CountingRegistration > registrations= new ArrayList< CountingRegistration >();
+        for ( int i= 0; i < 10; i++ )
+        {
+            CountingRegistration registration= new CountingRegistration( started, latch );
+            registrations.add( registration );
+            queue.submit( registration );
+        }
+        assertEquals( "wrong number started", 3, started.get() );
+        assertEquals( "wrong number queued", 7, queue.getQueued() );
+        assertEquals( "wrong number in progress", 3, queue.getInProgress() );
+
+        registrations.get( 0 ).release();
+        registrations.get( 0 ).release();
+        assertEquals( "repeated release counted", 4, started.get() );
+        for ( CountingRegistration registration : registrations )
+        {
+            registration.release();
+        }
+        assertEquals( "not all started", 10, started.get() );
+        assertEquals( "wrong number completed", 10L, queue.getCompleted() );
+        assertEquals( "registrations still in progress", 0, queue.getInProgress() );
+    }
+
+    @Test
+    public void testRateLimited() throws InterruptedException
+    {
+        RegistrationQueue queue= new RegistrationQueue( executor, new RateLimiter( 20, 1 ), 0, 60000 );
+        AtomicInteger started= new AtomicInteger();
+        CountDownLatch latch= new CountDownLatch( 10 );
+        long start= System.nanoTime();
+        for ( int i= 0; i < 10; i++ )
+        {
+            queue.submit( new CountingRegistration( started, latch ) );
+        }
+        assertTrue( "not all started", latch.await( 5, TimeUnit.SECONDS ) );
+        long elapsed= TimeUnit.NANOSECONDS.toMillis( System.nanoTime() - start );
+        assertTrue( "starts not spread by rate, elapsed: " + elapsed, elapsed >= 400 );
+        assertEquals( "registrations queued", 0, queue.getQueued() );
+    }
+
+    @Test
+    public void testTimeoutReleases() throws InterruptedException
+    {
+        RegistrationQueue queue= new RegistrationQueue( executor, new RateLimiter( 0, 1 ), 1, 50 );
+        AtomicInteger started= new AtomicInteger();
+        CountDownLatch latch= new CountDownLatch( 3 );
+        for ( int i= 0; i < 3; i++ )
+        {
+            queue.submit( new CountingRegistration( started, latch ) );
+        }
+        assertTrue( "unanswered registrations not released", latch.await( 2, TimeUnit.SECONDS ) );
+        Thread.sleep( 200 );
+        assertEquals( "wrong number completed", 3L, queue.getCompleted() );
+        assertTrue( "series duration not measured", queue.getLastSeriesMillis() >= 100 );
+    }
+}
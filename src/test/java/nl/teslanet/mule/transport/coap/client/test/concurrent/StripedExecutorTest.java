@@ -0,0 +1,152 @@
+/*******************************************************************************
+ * Copyright (c) 2019 (teslanet.nl) Rogier Cobben.
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License - v 2.0 
+ * which accompanies this distribution.
+ * 
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ * 
+ * Contributors:
+ *    (teslanet.nl) Rogier Cobben - initial creation
+ ******************************************************************************/
+package nl.teslanet.mule.transport.coap.client.test.concurrent;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import nl.teslanet.mule.transport.coap.client.concurrent.StripedExecutor;
+import nl.teslanet.mule.transport.coap.client.config.RejectionPolicy;
+
+
+public class StripedExecutorTest
+{
+    /**
+     * Number of keys used in the tests, representing observed resources.
+     */
+    private static final int KEYS= 1000;
+
+    /**
+     * Number of tasks per key, representing notifications.
+     */
+    private static final int TASKS_PER_KEY= 20;
+
+    @Test(timeout= 60000)
+    public void testOrderPerKey() throws InterruptedException
+    {
+        StripedExecutor executor= new StripedExecutor( "test-striped", 8, 1000, RejectionPolicy.BLOCK );
+        final CountDownLatch done= new CountDownLatch( KEYS * TASKS_PER_KEY );
+        final List< List< Integer > > received= new ArrayList< List< Integer > >();
+        for ( int key= 0; key < KEYS; key++ )
+        {
+            received.add( Collections.synchronizedList( new ArrayList< Integer >() ) );
+        }
+        for ( int sequence= 0; sequence < TASKS_PER_KEY; sequence++ )
+        {
+            for ( int key= 0; key < KEYS; key++ )
+            {
+                final List< Integer > list= received.get( key );
+                final Integer value= Integer.valueOf( sequence );
+                executor.execute( "coap://127.0.0.1/resource/" + key, new Runnable()
+                    {
+                        @Override
+                        public void run()
+                        {
+                            list.add( value );
+                            done.countDown();
+                        }
+                    } );
+            }
+        }
+        assertTrue( "tasks not completed", done.await( 30, TimeUnit.SECONDS ) );
+        executor.shutdown();
+        for ( int key= 0; key < KEYS; key++ )
+        {
+            List< Integer > list= received.get( key );
+            assertEquals( "wrong number of tasks on key " + key, TASKS_PER_KEY, list.size() );
+            for ( int sequence= 0; sequence < TASKS_PER_KEY; sequence++ )
+            {
+                assertEquals( "order broken on key " + key, Integer.valueOf( sequence ), list.get( sequence ) );
+            }
+        }
+    }
+
+    @Test
+    public void testInlineWithoutLanes()
+    {
+        StripedExecutor executor= new StripedExecutor( "test-striped", 0, 1000, RejectionPolicy.BLOCK );
+        final Thread caller= Thread.currentThread();
+        final List< Thread > threads= new ArrayList< Thread >();
+        executor.execute( "coap://127.0.0.1/resource", new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    threads.add( Thread.currentThread() );
+                }
+            } );
+        assertEquals( "task not executed", 1, threads.size() );
+        assertEquals( "task not executed on calling thread", caller, threads.get( 0 ) );
+    }
+
+    /**
+     * Verifies that striped processing of flows that wait, for instance on I/O, 
+     * takes a fraction of the time of processing every notification on the delivering thread, 
+     * which is what happens without observe threads.
+     * @throws InterruptedException
+     */
+    @Test(timeout= 60000)
+    public void testLanesProcessInParallel() throws InterruptedException
+    {
+        long inline= measure( 0 );
+        long striped= measure( 8 );
+        assertTrue( "striped processing not faster, inline: " + inline + " ms, striped: " + striped + " ms", striped * 2 < inline );
+    }
+
+    /**
+     * Process one notification per resource, each with simulated flow work of 20 ms.
+     * @param lanes The number of lanes to use.
+     * @return The elapsed time in milliseconds.
+     * @throws InterruptedException
+     */
+    private long measure( int lanes ) throws InterruptedException
+    {
+        final int resources= 40;
+        StripedExecutor executor= new StripedExecutor( "test-parallel", lanes, 1000, RejectionPolicy.BLOCK );
+        final CountDownLatch done= new CountDownLatch( resources );
+        long start= System.nanoTime();
+        for ( int key= 0; key < resources; key++ )
+        {
+            executor.execute( "coap://127.0.0.1/resource/" + key, new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        try
+                        {
+                            Thread.sleep( 20L );
+                        }
+                        catch ( InterruptedException e )
+                        {
+                            Thread.currentThread().interrupt();
+                        }
+                        done.countDown();
+                    }
+                } );
+        }
+        assertTrue( "tasks not completed", done.await( 30, TimeUnit.SECONDS ) );
+        long elapsed= TimeUnit.NANOSECONDS.toMillis( System.nanoTime() - start );
+        executor.shutdown();
+        return elapsed;
+    }
+}
@@ -154,6 +154,74 @@ public class ClientConfigTest
                 return new ConfigAttributeDesc( AttributeName.secure, null, "false", null, "true", null );
             case logCoapMessages:
                 return new ConfigAttributeDesc( AttributeName.logCoapMessages, null, "false", null, "true", null );
+            case clientCacheSize:
+                return new ConfigAttributeDesc( AttributeName.clientCacheSize, null, "100", null, "250", null );
+            case handlerThreadCount:
+                return new ConfigAttributeDesc( AttributeName.handlerThreadCount, null, "4", null, "16", null );
+            case handlerQueueSize:
+                return new ConfigAttributeDesc( AttributeName.handlerQueueSize, null, "1000", null, "50", null );
+            case handlerRejectionPolicy:
+                return new ConfigAttributeDesc( AttributeName.handlerRejectionPolicy, null, "DROP_OLDEST", null, "BLOCK", null );
+            case observeThreadCount:
+                return new ConfigAttributeDesc( AttributeName.observeThreadCount, null, "4", null, "12", null );
+            case maxInFlight:
+                return new ConfigAttributeDesc( AttributeName.maxInFlight, null, "0", null, "500", null );
+            case maxInFlightPerHost:
+                return new ConfigAttributeDesc( AttributeName.maxInFlightPerHost, null, "0", null, "20", null );
+            case inFlightPolicy:
+                return new ConfigAttributeDesc( AttributeName.inFlightPolicy, null, "BLOCK", null, "QUEUE", null );
+            case coalesceRequests:
+                return new ConfigAttributeDesc( AttributeName.coalesceRequests, null, "false", null, "true", null );
+            case responseCacheSize:
+                return new ConfigAttributeDesc( AttributeName.responseCacheSize, null, "0", null, "200", null );
+            case responseCacheMaxBytes:
+                return new ConfigAttributeDesc( AttributeName.responseCacheMaxBytes, null, "1048576", null, "65536", null );
+            case refreshAheadReads:
+                return new ConfigAttributeDesc( AttributeName.refreshAheadReads, null, "0", null, "5", null );
+            case refreshAheadConcurrency:
+                return new ConfigAttributeDesc( AttributeName.refreshAheadConcurrency, null, "4", null, "2", null );
+            case endpointCount:
+                return new ConfigAttributeDesc( AttributeName.endpointCount, null, "1", null, "4", null );
+            case midWarningPercent:
+                return new ConfigAttributeDesc( AttributeName.midWarningPercent, null, "80", null, "60", null );
+            case midSpillover:
+                return new ConfigAttributeDesc( AttributeName.midSpillover, null, "false", null, "true", null );
+            case shareEndpoints:
+                return new ConfigAttributeDesc( AttributeName.shareEndpoints, null, "false", null, "true", null );
+            case observeCancelRate:
+                return new ConfigAttributeDesc( AttributeName.observeCancelRate, null, "200", null, "50", null );
+            case observeCancelGracePeriod:
+                return new ConfigAttributeDesc( AttributeName.observeCancelGracePeriod, null, "2000", null, "5000", null );
+            case reregistrationBackoff:
+                return new ConfigAttributeDesc( AttributeName.reregistrationBackoff, null, "1000", null, "500", null );
+            case reregistrationMaxBackoff:
+                return new ConfigAttributeDesc( AttributeName.reregistrationMaxBackoff, null, "60000", null, "30000", null );
+            case reregistrationRate:
+                return new ConfigAttributeDesc( AttributeName.reregistrationRate, null, "50", null, "10", null );
+            case registrationRate:
+                return new ConfigAttributeDesc( AttributeName.registrationRate, null, "100", null, "20", null );
+            case registrationConcurrency:
+                return new ConfigAttributeDesc( AttributeName.registrationConcurrency, null, "50", null, "10", null );
+            case persistRelations:
+                return new ConfigAttributeDesc( AttributeName.persistRelations, null, "false", null, "true", null );
+            case relationResumeWindow:
+                return new ConfigAttributeDesc( AttributeName.relationResumeWindow, null, "30000", null, "60000", null );
+            case streamResponses:
+                return new ConfigAttributeDesc( AttributeName.streamResponses, null, "false", null, "true", null );
+            case streamBufferBlocks:
+                return new ConfigAttributeDesc( AttributeName.streamBufferBlocks, null, "4", null, "16", null );
+            case blockwiseWindow:
+                return new ConfigAttributeDesc( AttributeName.blockwiseWindow, null, "1", null, "8", null );
+            case maxResponseSize:
+                return new ConfigAttributeDesc( AttributeName.maxResponseSize, null, "0", null, "65536", null );
+            case responseMemoryBudget:
+                return new ConfigAttributeDesc( AttributeName.responseMemoryBudget, null, "0", null, "1048576", null );
+            case addressTtl:
+                return new ConfigAttributeDesc( AttributeName.addressTtl, null, "60000", null, "5000", null );
+            case inFlightQueueSize:
+                return new ConfigAttributeDesc( AttributeName.inFlightQueueSize, null, "1000", null, "50", null );
+            case streamIdleTimeout:
+                return new ConfigAttributeDesc( AttributeName.streamIdleTimeout, null, "60000", null, "5000", null );
             //from EndpointConfig
             case bindToHost:
                 return new ConfigAttributeDesc( AttributeName.bindToHost, null, null, "somehost.org", null, null );
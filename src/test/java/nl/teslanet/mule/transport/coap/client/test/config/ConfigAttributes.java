@@ -17,6 +17,8 @@ package nl.teslanet.mule.transport.coap.client.test.config;
 import org.eclipse.californium.core.network.config.NetworkConfig;
 
 import nl.teslanet.mule.transport.coap.client.config.CoAPClientConfig;
+import nl.teslanet.mule.transport.coap.client.config.InFlightPolicy;
+import nl.teslanet.mule.transport.coap.client.config.RejectionPolicy;
 
 
 /**
@@ -35,6 +37,40 @@ public class ConfigAttributes
         secure,
         //
         logCoapMessages,
+        clientCacheSize,
+        handlerThreadCount,
+        handlerQueueSize,
+        handlerRejectionPolicy,
+        observeThreadCount,
+        maxInFlight,
+        maxInFlightPerHost,
+        inFlightPolicy,
+        coalesceRequests,
+        responseCacheSize,
+        responseCacheMaxBytes,
+        refreshAheadReads,
+        refreshAheadConcurrency,
+        endpointCount,
+        midWarningPercent,
+        midSpillover,
+        shareEndpoints,
+        observeCancelRate,
+        observeCancelGracePeriod,
+        reregistrationBackoff,
+        reregistrationMaxBackoff,
+        reregistrationRate,
+        registrationRate,
+        registrationConcurrency,
+        persistRelations,
+        relationResumeWindow,
+        streamResponses,
+        streamBufferBlocks,
+        blockwiseWindow,
+        maxResponseSize,
+        responseMemoryBudget,
+        addressTtl,
+        inFlightQueueSize,
+        streamIdleTimeout,
         // from EndpointConfig
         bindToHost,
         bindToPort,
@@ -118,6 +154,108 @@ public class ConfigAttributes
             case logCoapMessages:
                 result= Boolean.toString( config.isLogMessages() );
                 break;
+            case clientCacheSize:
+                result= Integer.toString( config.getClientCacheSize() );
+                break;
+            case handlerThreadCount:
+                result= Integer.toString( config.getHandlerThreadCount() );
+                break;
+            case handlerQueueSize:
+                result= Integer.toString( config.getHandlerQueueSize() );
+                break;
+            case handlerRejectionPolicy:
+                result= config.getHandlerRejectionPolicy().toString();
+                break;
+            case observeThreadCount:
+                result= Integer.toString( config.getObserveThreadCount() );
+                break;
+            case maxInFlight:
+                result= Integer.toString( config.getMaxInFlight() );
+                break;
+            case maxInFlightPerHost:
+                result= Integer.toString( config.getMaxInFlightPerHost() );
+                break;
+            case inFlightPolicy:
+                result= config.getInFlightPolicy().toString();
+                break;
+            case coalesceRequests:
+                result= Boolean.toString( config.isCoalesceRequests() );
+                break;
+            case responseCacheSize:
+                result= Integer.toString( config.getResponseCacheSize() );
+                break;
+            case responseCacheMaxBytes:
+                result= Long.toString( config.getResponseCacheMaxBytes() );
+                break;
+            case refreshAheadReads:
+                result= Integer.toString( config.getRefreshAheadReads() );
+                break;
+            case refreshAheadConcurrency:
+                result= Integer.toString( config.getRefreshAheadConcurrency() );
+                break;
+            case endpointCount:
+                result= Integer.toString( config.getEndpointCount() );
+                break;
+            case midWarningPercent:
+                result= Integer.toString( config.getMidWarningPercent() );
+                break;
+            case midSpillover:
+                result= Boolean.toString( config.isMidSpillover() );
+                break;
+            case shareEndpoints:
+                result= Boolean.toString( config.isShareEndpoints() );
+                break;
+            case observeCancelRate:
+                result= Integer.toString( config.getObserveCancelRate() );
+                break;
+            case observeCancelGracePeriod:
+                result= Long.toString( config.getObserveCancelGracePeriod() );
+                break;
+            case reregistrationBackoff:
+                result= Long.toString( config.getReregistrationBackoff() );
+                break;
+            case reregistrationMaxBackoff:
+                result= Long.toString( config.getReregistrationMaxBackoff() );
+                break;
+            case reregistrationRate:
+                result= Integer.toString( config.getReregistrationRate() );
+                break;
+            case registrationRate:
+                result= Integer.toString( config.getRegistrationRate() );
+                break;
+            case registrationConcurrency:
+                result= Integer.toString( config.getRegistrationConcurrency() );
+                break;
+            case persistRelations:
+                result= Boolean.toString( config.isPersistRelations() );
+                break;
+            case relationResumeWindow:
+                result= Long.toString( config.getRelationResumeWindow() );
+                break;
+            case streamResponses:
+                result= Boolean.toString( config.isStreamResponses() );
+                break;
+            case streamBufferBlocks:
+                result= Integer.toString( config.getStreamBufferBlocks() );
+                break;
+            case blockwiseWindow:
+                result= Integer.toString( config.getBlockwiseWindow() );
+                break;
+            case maxResponseSize:
+                result= Long.toString( config.getMaxResponseSize() );
+                break;
+            case responseMemoryBudget:
+                result= Long.toString( config.getResponseMemoryBudget() );
+                break;
+            case addressTtl:
+                result= Long.toString( config.getAddressTtl() );
+                break;
+            case inFlightQueueSize:
+                result= Integer.toString( config.getInFlightQueueSize() );
+                break;
+            case streamIdleTimeout:
+                result= Long.toString( config.getStreamIdleTimeout() );
+                break;
             case bindToHost:
                 result= ( config.getBindToHost() != null ? config.getBindToHost().toString() : null );
                 break;
@@ -293,6 +431,74 @@ public class ConfigAttributes
                 break;
             case logCoapMessages:
                 break;
+            case clientCacheSize:
+                break;
+            case handlerThreadCount:
+                break;
+            case handlerQueueSize:
+                break;
+            case handlerRejectionPolicy:
+                break;
+            case observeThreadCount:
+                break;
+            case maxInFlight:
+                break;
+            case maxInFlightPerHost:
+                break;
+            case inFlightPolicy:
+                break;
+            case coalesceRequests:
+                break;
+            case responseCacheSize:
+                break;
+            case responseCacheMaxBytes:
+                break;
+            case refreshAheadReads:
+                break;
+            case refreshAheadConcurrency:
+                break;
+            case endpointCount:
+                break;
+            case midWarningPercent:
+                break;
+            case midSpillover:
+                break;
+            case shareEndpoints:
+                break;
+            case observeCancelRate:
+                break;
+            case observeCancelGracePeriod:
+                break;
+            case reregistrationBackoff:
+                break;
+            case reregistrationMaxBackoff:
+                break;
+            case reregistrationRate:
+                break;
+            case registrationRate:
+                break;
+            case registrationConcurrency:
+                break;
+            case persistRelations:
+                break;
+            case relationResumeWindow:
+                break;
+            case streamResponses:
+                break;
+            case streamBufferBlocks:
+                break;
+            case blockwiseWindow:
+                break;
+            case maxResponseSize:
+                break;
+            case responseMemoryBudget:
+                break;
+            case addressTtl:
+                break;
+            case inFlightQueueSize:
+                break;
+            case streamIdleTimeout:
+                break;
             case bindToHost:
                 break;
             case bindToPort:
@@ -679,6 +885,108 @@ public class ConfigAttributes
             case logCoapMessages:
                 config.setLogMessages( new Boolean( value ));
                 break;
+            case clientCacheSize:
+                config.setClientCacheSize( Integer.valueOf( value ) );
+                break;
+            case handlerThreadCount:
+                config.setHandlerThreadCount( Integer.valueOf( value ) );
+                break;
+            case handlerQueueSize:
+                config.setHandlerQueueSize( Integer.valueOf( value ) );
+                break;
+            case handlerRejectionPolicy:
+                config.setHandlerRejectionPolicy( RejectionPolicy.valueOf( value ) );
+                break;
+            case observeThreadCount:
+                config.setObserveThreadCount( Integer.valueOf( value ) );
+                break;
+            case maxInFlight:
+                config.setMaxInFlight( Integer.valueOf( value ) );
+                break;
+            case maxInFlightPerHost:
+                config.setMaxInFlightPerHost( Integer.valueOf( value ) );
+                break;
+            case inFlightPolicy:
+                config.setInFlightPolicy( InFlightPolicy.valueOf( value ) );
+                break;
+            case coalesceRequests:
+                config.setCoalesceRequests( new Boolean( value ));
+                break;
+            case responseCacheSize:
+                config.setResponseCacheSize( Integer.valueOf( value ) );
+                break;
+            case responseCacheMaxBytes:
+                config.setResponseCacheMaxBytes( Long.valueOf( value ) );
+                break;
+            case refreshAheadReads:
+                config.setRefreshAheadReads( Integer.valueOf( value ) );
+                break;
+            case refreshAheadConcurrency:
+                config.setRefreshAheadConcurrency( Integer.valueOf( value ) );
+                break;
+            case endpointCount:
+                config.setEndpointCount( Integer.valueOf( value ) );
+                break;
+            case midWarningPercent:
+                config.setMidWarningPercent( Integer.valueOf( value ) );
+                break;
+            case midSpillover:
+                config.setMidSpillover( new Boolean( value ));
+                break;
+            case shareEndpoints:
+                config.setShareEndpoints( new Boolean( value ));
+                break;
+            case observeCancelRate:
+                config.setObserveCancelRate( Integer.valueOf( value ) );
+                break;
+            case observeCancelGracePeriod:
+                config.setObserveCancelGracePeriod( Long.valueOf( value ) );
+                break;
+            case reregistrationBackoff:
+                config.setReregistrationBackoff( Long.valueOf( value ) );
+                break;
+            case reregistrationMaxBackoff:
+                config.setReregistrationMaxBackoff( Long.valueOf( value ) );
+                break;
+            case reregistrationRate:
+                config.setReregistrationRate( Integer.valueOf( value ) );
+                break;
+            case registrationRate:
+                config.setRegistrationRate( Integer.valueOf( value ) );
+                break;
+            case registrationConcurrency:
+                config.setRegistrationConcurrency( Integer.valueOf( value ) );
+                break;
+            case persistRelations:
+                config.setPersistRelations( new Boolean( value ));
+                break;
+            case relationResumeWindow:
+                config.setRelationResumeWindow( Long.valueOf( value ) );
+                break;
+            case streamResponses:
+                config.setStreamResponses( new Boolean( value ));
+                break;
+            case streamBufferBlocks:
+                config.setStreamBufferBlocks( Integer.valueOf( value ) );
+                break;
+            case blockwiseWindow:
+                config.setBlockwiseWindow( Integer.valueOf( value ) );
+                break;
+            case maxResponseSize:
+                config.setMaxResponseSize( Long.valueOf( value ) );
+                break;
+            case responseMemoryBudget:
+                config.setResponseMemoryBudget( Long.valueOf( value ) );
+                break;
+            case addressTtl:
+                config.setAddressTtl( Long.valueOf( value ) );
+                break;
+            case inFlightQueueSize:
+                config.setInFlightQueueSize( Integer.valueOf( value ) );
+                break;
+            case streamIdleTimeout:
+                config.setStreamIdleTimeout( Long.valueOf( value ) );
+                break;
             case bindToHost:
                 config.setBindToHost( value );
                 break;
@@ -0,0 +1,113 @@
+/*******************************************************************************
+ * Copyright (c) 2019 (teslanet.nl) Rogier Cobben.
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License - v 2.0 
+ * which accompanies this distribution.
+ * 
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ * 
+ * Contributors:
+ *    (teslanet.nl) Rogier Cobben - initial creation
+ ******************************************************************************/
+package nl.teslanet.mule.transport.coap.client.test.endpoint;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.HashSet;
+
+import org.eclipse.californium.core.network.CoapEndpoint;
+import org.junit.Test;
+
+import nl.teslanet.mule.transport.coap.client.endpoint.EndpointPool;
+
+
+public class EndpointPoolTest
+{
+    private static final InetSocketAddress PEER= new InetSocketAddress( InetAddress.getLoopbackAddress(), 5683 );
+
+    /**
+     * Create a pool of endpoints that are not started.
+     * @param size The number of endpoints.
+     * @return The pool.
+     */
+    private EndpointPool createPool( int size )
+    {
+        ArrayList< CoapEndpoint > endpoints= new ArrayList< CoapEndpoint >();
+        for ( int i= 0; i < size; i++ )
+        {
+            endpoints.add( new CoapEndpoint( 0 ) );
+        }
+        return new EndpointPool( endpoints );
+    }
+
+    /**
+     * Use message ids of the peer on an endpoint until it passes the given utilisation.
+     * @param pool The pool.
+     * @param endpoint The endpoint.
+     * @param percent The utilisation in percent.
+     */
+    private void exhaust( EndpointPool pool, CoapEndpoint endpoint, int percent )
+    {
+        MidTrackerTest.send( pool.getMidTrackers().get( pool.getEndpoints().indexOf( endpoint ) ), PEER, MidTrackerTest.requestsFor( percent ) );
+    }
+
+    @Test
+    public void testSelectionIsStable()
+    {
+        EndpointPool pool= createPool( 4 );
+        HashSet< CoapEndpoint > used= new HashSet< CoapEndpoint >();
+        for ( int port= 5683; port < 5783; port++ )
+        {
+            CoapEndpoint endpoint= pool.select( PEER.getAddress(), port );
+            assertSame( "selection not stable", endpoint, pool.select( PEER.getAddress(), port ) );
+            used.add( endpoint );
+        }
+        assertEquals( "destinations not spread", 4, used.size() );
+    }
+
+    @Test
+    public void testSpillover()
+    {
+        EndpointPool pool= createPool( 3 );
+        pool.enableMidTracking( 60000L, 1, true );
+        CoapEndpoint home= pool.select( PEER.getAddress(), PEER.getPort() );
+
+        exhaust( pool, home, 1 );
+        CoapEndpoint spilled= pool.select( PEER.getAddress(), PEER.getPort() );
+        assertNotSame( "peer not spilled", home, spilled );
+        assertSame( "spilled peer not stable", spilled, pool.select( PEER.getAddress(), PEER.getPort() ) );
+    }
+
+    @Test
+    public void testNoSpilloverWhenDisabled()
+    {
+        EndpointPool pool= createPool( 3 );
+        pool.enableMidTracking( 60000L, 1, false );
+        CoapEndpoint home= pool.select( PEER.getAddress(), PEER.getPort() );
+
+        exhaust( pool, home, 1 );
+        assertSame( "peer spilled", home, pool.select( PEER.getAddress(), PEER.getPort() ) );
+    }
+
+    @Test
+    public void testAllExhausted()
+    {
+        EndpointPool pool= createPool( 3 );
+        pool.enableMidTracking( 60000L, 1, true );
+        CoapEndpoint home= pool.select( PEER.getAddress(), PEER.getPort() );
+
+        for ( CoapEndpoint endpoint : pool.getEndpoints() )
+        {
+            exhaust( pool, endpoint, 1 );
+        }
+        assertSame( "exhausted peer not kept on its endpoint", home, pool.select( PEER.getAddress(), PEER.getPort() ) );
+    }
+}
@@ -0,0 +1,111 @@
+/*******************************************************************************
+ * Copyright (c) 2019 (teslanet.nl) Rogier Cobben.
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License - v 2.0 
+ * which accompanies this distribution.
+ * 
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ * 
+ * Contributors:
+ *    (teslanet.nl) Rogier Cobben - initial creation
+ ******************************************************************************/
+package nl.teslanet.mule.transport.coap.client.test.endpoint;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Map;
+
+import org.eclipse.californium.core.coap.CoAP.Code;
+import org.eclipse.californium.core.coap.Request;
+import org.junit.Test;
+
+import nl.teslanet.mule.transport.coap.client.endpoint.MidTracker;
+
+
+public class MidTrackerTest
+{
+    private static final InetSocketAddress PEER1= new InetSocketAddress( InetAddress.getLoopbackAddress(), 5683 );
+
+    private static final InetSocketAddress PEER2= new InetSocketAddress( InetAddress.getLoopbackAddress(), 5684 );
+
+    /**
+     * Send a number of new requests to a peer.
+     * @param tracker The tracker to pass them through.
+     * @param peer The peer.
+     * @param count The number of requests.
+     */
+    static void send( MidTracker tracker, InetSocketAddress peer, int count )
+    {
+        for ( int i= 0; i < count; i++ )
+        {
+            tracker.sendRequest( createRequest( peer ) );
+        }
+    }
+
+    /**
+     * Create an addressed request.
+     * @param peer The destination.
+     * @return The request.
+     */
+    static Request createRequest( InetSocketAddress peer )
+    {
+        Request request= new Request( Code.GET );
+        request.setDestination( peer.getAddress() );
+        request.setDestinationPort( peer.getPort() );
+        return request;
+    }
+
+    /**
+     * Number of requests that use the given percentage of the message id space.
+     * @param percent The percentage.
+     * @return The number of requests.
+     */
+    static int requestsFor( int percent )
+    {
+        return MidTracker.MID_SPACE * percent / 100 + 1;
+    }
+
+    @Test
+    public void testUtilisationPerPeer()
+    {
+        MidTracker tracker= new MidTracker( "test", 60000L, 50 );
+        send( tracker, PEER1, requestsFor( 2 ) );
+        send( tracker, PEER2, 10 );
+
+        assertEquals( "wrong utilisation", 2, tracker.getUtilisation( PEER1 ) );
+        assertEquals( "wrong utilisation", 0, tracker.getUtilisation( PEER2 ) );
+        Map< InetSocketAddress, Integer > utilisation= tracker.getUtilisation();
+        assertEquals( "wrong number of peers", 2, utilisation.size() );
+        assertEquals( "wrong utilisation", Integer.valueOf( 2 ), utilisation.get( PEER1 ) );
+    }
+
+    @Test
+    public void testRetransmissionNotCounted()
+    {
+        MidTracker tracker= new MidTracker( "test", 60000L, 50 );
+        Request request= createRequest( PEER1 );
+        for ( int i= 0; i < requestsFor( 1 ); i++ )
+        {
+            tracker.sendRequest( request );
+        }
+        assertEquals( "retransmissions counted", 0, tracker.getUtilisation( PEER1 ) );
+    }
+
+    @Test
+    public void testLifetimeExpiry() throws InterruptedException
+    {
+        MidTracker tracker= new MidTracker( "test", 1000L, 50 );
+        send( tracker, PEER1, requestsFor( 1 ) );
+        assertEquals( "wrong utilisation", 1, tracker.getUtilisation( PEER1 ) );
+
+        Thread.sleep( 2100 );
+        assertEquals( "message ids not released", 0, tracker.getUtilisation( PEER1 ) );
+        assertTrue( "peer not forgotten", tracker.getUtilisation().isEmpty() );
+    }
+}
@@ -0,0 +1,130 @@
+/*******************************************************************************
+ * Copyright (c) 2019 (teslanet.nl) Rogier Cobben.
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License - v 2.0 
+ * which accompanies this distribution.
+ * 
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ * 
+ * Contributors:
+ *    (teslanet.nl) Rogier Cobben - initial creation
+ ******************************************************************************/
+package nl.teslanet.mule.transport.coap.client.test.endpoint;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.californium.core.network.CoapEndpoint;
+import org.junit.Test;
+
+import nl.teslanet.mule.transport.coap.client.config.CoAPClientConfig;
+import nl.teslanet.mule.transport.coap.client.endpoint.EndpointPool;
+import nl.teslanet.mule.transport.coap.client.endpoint.SharedEndpoints;
+
+
+public class SharedEndpointsTest
+{
+    /**
+     * Number of pools created.
+     */
+    private final AtomicInteger created= new AtomicInteger();
+
+    /**
+     * Factory of pools with one endpoint that is not started.
+     */
+    private final SharedEndpoints.Factory factory= new SharedEndpoints.Factory()
+        {
+            @Override
+            public EndpointPool create()
+            {
+                created.incrementAndGet();
+                return new EndpointPool( Collections.singletonList( new CoapEndpoint( 0 ) ) );
+            }
+        };
+
+    @Test
+    public void testReferenceCounting() throws Exception
+    {
+        EndpointPool first= SharedEndpoints.acquire( "testReferenceCounting", factory );
+        EndpointPool second= SharedEndpoints.acquire( "testReferenceCounting", factory );
+        assertSame( "pool not shared", first, second );
+        assertEquals( "pool not created once", 1, created.get() );
+        assertEquals( "wrong number of references", 2, SharedEndpoints.getReferences( first ) );
+
+        assertFalse( "pool in use destroyed", SharedEndpoints.release( first ) );
+        assertEquals( "wrong number of references", 1, SharedEndpoints.getReferences( first ) );
+        assertTrue( "unused pool not destroyed", SharedEndpoints.release( second ) );
+        assertEquals( "destroyed pool still referenced", 0, SharedEndpoints.getReferences( first ) );
+        assertFalse( "pool released twice", SharedEndpoints.release( first ) );
+    }
+
+    @Test
+    public void testRecreatedAfterRelease() throws Exception
+    {
+        EndpointPool first= SharedEndpoints.acquire( "testRecreatedAfterRelease", factory );
+        SharedEndpoints.release( first );
+        EndpointPool second= SharedEndpoints.acquire( "testRecreatedAfterRelease", factory );
+        try
+        {
+            assertNotSame( "destroyed pool reused", first, second );
+            assertEquals( "pool not created again", 2, created.get() );
+        }
+        finally
+        {
+            SharedEndpoints.release( second );
+        }
+    }
+
+    @Test
+    public void testSignaturesSeparated() throws Exception
+    {
+        CoAPClientConfig config1= new CoAPClientConfig();
+        CoAPClientConfig config2= new CoAPClientConfig();
+        config2.setAckTimeout( "4000" );
+        assertNotEquals( "different configurations have equal signature", config1.getEndpointSignature(), config2.getEndpointSignature() );
+
+        EndpointPool first= SharedEndpoints.acquire( "testSignaturesSeparated" + config1.getEndpointSignature(), factory );
+        EndpointPool second= SharedEndpoints.acquire( "testSignaturesSeparated" + config2.getEndpointSignature(), factory );
+        try
+        {
+            assertNotSame( "pool shared between different signatures", first, second );
+            assertEquals( "wrong number of references", 1, SharedEndpoints.getReferences( first ) );
+            assertEquals( "wrong number of references", 1, SharedEndpoints.getReferences( second ) );
+        }
+        finally
+        {
+            SharedEndpoints.release( first );
+            SharedEndpoints.release( second );
+        }
+    }
+
+    @Test
+    public void testSignatureHidesSecrets()
+    {
+        CoAPClientConfig config1= new CoAPClientConfig();
+        config1.setKeyStorePassword( "keyStoreSecret" );
+        config1.setTrustStorePassword( "trustStoreSecret" );
+        CoAPClientConfig config2= new CoAPClientConfig();
+        config2.setKeyStorePassword( "otherSecret" );
+        config2.setTrustStorePassword( "trustStoreSecret" );
+        CoAPClientConfig config3= new CoAPClientConfig();
+        config3.setKeyStorePassword( "keyStoreSecret" );
+        config3.setTrustStorePassword( "trustStoreSecret" );
+
+        String signature= config1.getEndpointSignature();
+        assertFalse( "password disclosed", signature.contains( "keyStoreSecret" ) );
+        assertFalse( "password disclosed", signature.contains( "trustStoreSecret" ) );
+        assertNotEquals( "different passwords have equal signature", signature, config2.getEndpointSignature() );
+        assertEquals( "equal configurations have different signature", signature, config3.getEndpointSignature() );
+    }
+}
@@ -0,0 +1,198 @@
+/*******************************************************************************
+ * Copyright (c) 2019 (teslanet.nl) Rogier Cobben.
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License - v 2.0 
+ * which accompanies this distribution.
+ * 
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ * 
+ * Contributors:
+ *    (teslanet.nl) Rogier Cobben - initial creation
+ ******************************************************************************/
+package nl.teslanet.mule.transport.coap.client.test.multirequest;
+
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.californium.core.CoapServer;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.mule.api.MuleEvent;
+import org.mule.api.MuleMessage;
+import org.mule.munit.runner.functional.FunctionalMunitSuite;
+
+import nl.teslanet.mule.transport.coap.client.test.basic.BasicTestServer;
+
+
+/**
+ * Test of the multi-request operation.
+ */
+public class MultiRequestTest extends FunctionalMunitSuite
+{
+    /**
+     * Server to test against
+     */
+    private static CoapServer server= null;
+
+    /* (non-Javadoc)
+     * @see org.mule.munit.runner.functional.FunctionalMunitSuite#getConfigResources()
+     */
+    @Override
+    protected String getConfigResources()
+    {
+        return "mule-config/multirequest/testclient1.xml";
+    };
+
+    /* (non-Javadoc)
+     * @see org.mule.munit.runner.functional.FunctionalMunitSuite#haveToDisableInboundEndpoints()
+     */
+    @Override
+    protected boolean haveToDisableInboundEndpoints()
+    {
+        return false;
+    }
+
+    /* (non-Javadoc)
+     * @see org.mule.munit.runner.functional.FunctionalMunitSuite#haveToMockMuleConnectors()
+     */
+    @Override
+    protected boolean haveToMockMuleConnectors()
+    {
+        return false;
+    }
+
+    /**
+     * Start the server
+     * @throws Exception when server cannot start
+     */
+    @BeforeClass
+    public static void setUpServer() throws Exception
+    {
+        server= new BasicTestServer();
+        server.start();
+    }
+
+    /**
+     * Stop the server
+     * @throws Exception when the server cannot stop
+     */
+    @AfterClass
+    public static void tearDownServer() throws Exception
+    {
+        if ( server != null )
+        {
+            server.stop();
+            server.destroy();
+            server= null;
+        }
+    }
+
+    /**
+     * Test get on multiple targets
+     * @throws Exception should not happen in this test
+     */
+    @Test
+    public void testMultiGet() throws Exception
+    {
+        List< Map< String, Object > > results= run( "multi_get", "nothing_important", "/basic/get_me", "/basic" );
+
+        assertEquals( "wrong number of results", 2, results.size() );
+        assertResult( results.get( 0 ), true, "GET called on: /basic/get_me".getBytes() );
+        assertResult( results.get( 1 ), true, "GET called on: /basic".getBytes() );
+    }
+
+    /**
+     * Test put of an input stream payload on multiple targets, the stream is sent to every target
+     * @throws Exception should not happen in this test
+     */
+    @Test
+    public void testMultiPutStream() throws Exception
+    {
+        byte[] content= "some stream content".getBytes();
+        List< Map< String, Object > > results= run( "multi_put", new ByteArrayInputStream( content ), "/basic/echo_me", "/basic/echo_me", "/basic/echo_me" );
+
+        assertEquals( "wrong number of results", 3, results.size() );
+        for ( Map< String, Object > result : results )
+        {
+            assertResult( result, true, content );
+        }
+    }
+
+    /**
+     * Test put of a byte buffer payload on multiple targets
+     * @throws Exception should not happen in this test
+     */
+    @Test
+    public void testMultiPutByteBuffer() throws Exception
+    {
+        byte[] content= "some buffer content".getBytes();
+        List< Map< String, Object > > results= run( "multi_put", ByteBuffer.wrap( content ), "/basic/echo_me", "/basic/echo_me" );
+
+        assertEquals( "wrong number of results", 2, results.size() );
+        for ( Map< String, Object > result : results )
+        {
+            assertResult( result, true, content );
+        }
+    }
+
+    /**
+     * Test that targets not completing in time are reported unsuccessful
+     * @throws Exception should not happen in this test
+     */
+    @Test
+    public void testMultiGetTimeout() throws Exception
+    {
+        List< Map< String, Object > > results= run( "multi_get_timeout", "nothing_important", "/basic/get_me", "/basic/no_response" );
+
+        assertEquals( "wrong number of results", 2, results.size() );
+        assertResult( results.get( 0 ), true, "GET called on: /basic/get_me".getBytes() );
+        assertEquals( "wrong response success flag", Boolean.FALSE, results.get( 1 ).get( "coap.response.success" ) );
+    }
+
+    /**
+     * Run a multi-request flow.
+     * @param flowName The flow to run.
+     * @param payload The message payload.
+     * @param paths The paths of the targets.
+     * @return The results.
+     * @throws Exception when the flow fails
+     */
+    @SuppressWarnings("unchecked")
+    private List< Map< String, Object > > run( String flowName, Object payload, String... paths ) throws Exception
+    {
+        ArrayList< Map< String, Object > > targets= new ArrayList< Map< String, Object > >();
+        for ( String path : paths )
+        {
+            HashMap< String, Object > target= new HashMap< String, Object >();
+            target.put( "path", path );
+            targets.add( target );
+        }
+        MuleEvent event= testEvent( payload );
+        event.setFlowVariable( "targets", targets );
+        MuleMessage response= runFlow( flowName, event ).getMessage();
+        return (List< Map< String, Object > >) response.getPayload();
+    }
+
+    /**
+     * Check the result of a target.
+     * @param result The result.
+     * @param success The expected success flag.
+     * @param payload The expected payload.
+     */
+    private void assertResult( Map< String, Object > result, boolean success, byte[] payload )
+    {
+        assertEquals( "wrong response success flag", Boolean.valueOf( success ), result.get( "coap.response.success" ) );
+        assertArrayEquals( "wrong response payload", payload, (byte[]) result.get( "payload" ) );
+    }
+}
@@ -0,0 +1,195 @@
+/*******************************************************************************
+ * Copyright (c) 2019 (teslanet.nl) Rogier Cobben.
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License - v 2.0 
+ * which accompanies this distribution.
+ * 
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ * 
+ * Contributors:
+ *    (teslanet.nl) Rogier Cobben - initial creation
+ ******************************************************************************/
+package nl.teslanet.mule.transport.coap.client.test.nonblocking;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.californium.core.CoapServer;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.mule.DefaultMuleEvent;
+import org.mule.DefaultMuleMessage;
+import org.mule.MessageExchangePattern;
+import org.mule.NonBlockingVoidMuleEvent;
+import org.mule.api.MessagingException;
+import org.mule.api.MuleEvent;
+import org.mule.api.MuleMessage;
+import org.mule.api.transport.NonBlockingReplyToHandler;
+import org.mule.construct.Flow;
+import org.mule.munit.runner.functional.FunctionalMunitSuite;
+
+import nl.teslanet.mule.transport.coap.client.test.basic.BasicTestServer;
+
+
+/**
+ * Test of request operations in flows with a non-blocking processing strategy. 
+ * The flow thread is released while the request is in progress, 
+ * the flow is resumed by the response through the reply-to handler of the event.
+ */
+public class NonBlockingTest extends FunctionalMunitSuite
+{
+    /**
+     * Server to test against
+     */
+    private static CoapServer server= null;
+
+    /* (non-Javadoc)
+     * @see org.mule.munit.runner.functional.FunctionalMunitSuite#getConfigResources()
+     */
+    @Override
+    protected String getConfigResources()
+    {
+        return "mule-config/nonblocking/testclient1.xml";
+    };
+
+    /* (non-Javadoc)
+     * @see org.mule.munit.runner.functional.FunctionalMunitSuite#haveToDisableInboundEndpoints()
+     */
+    @Override
+    protected boolean haveToDisableInboundEndpoints()
+    {
+        return false;
+    }
+
+    /* (non-Javadoc)
+     * @see org.mule.munit.runner.functional.FunctionalMunitSuite#haveToMockMuleConnectors()
+     */
+    @Override
+    protected boolean haveToMockMuleConnectors()
+    {
+        return false;
+    }
+
+    /**
+     * Start the server
+     * @throws Exception when server cannot start
+     */
+    @BeforeClass
+    public static void setUpServer() throws Exception
+    {
+        server= new BasicTestServer();
+        server.start();
+    }
+
+    /**
+     * Stop the server
+     * @throws Exception when the server cannot stop
+     */
+    @AfterClass
+    public static void tearDownServer() throws Exception
+    {
+        if ( server != null )
+        {
+            server.stop();
+            server.destroy();
+            server= null;
+        }
+    }
+
+    /**
+     * Test the flow is resumed once with the response
+     * @throws Exception should not happen in this test
+     */
+    @Test
+    public void testResumedWithResponse() throws Exception
+    {
+        RecordingReplyToHandler replyTo= run( "nonblocking_get" );
+        assertTrue( "flow not resumed", replyTo.await( 10000L ) );
+        // give a second completion the opportunity to show up
+        Thread.sleep( 500L );
+        assertEquals( "flow not resumed exactly once", 1, replyTo.replies.size() );
+        assertNull( "unexpected exception", replyTo.exception );
+        MuleMessage response= replyTo.replies.get( 0 ).getMessage();
+        assertEquals( "wrong response code", "2.05", response.getInboundProperty( "coap.response.code" ) );
+        assertEquals( "wrong response success flag", true, response.getInboundProperty( "coap.response.success" ) );
+        assertEquals( "steps after operation did not see response", "2.05", replyTo.replies.get( 0 ).getFlowVariable( "responseCode" ) );
+        verifyCallOfMessageProcessor( "echo-component" ).ofNamespace( "mule" ).times( 1 );
+    }
+
+    /**
+     * Test the flow is resumed once when the request times out
+     * @throws Exception should not happen in this test
+     */
+    @Test
+    public void testResumedOnTimeout() throws Exception
+    {
+        RecordingReplyToHandler replyTo= run( "nonblocking_get_timeout" );
+        assertTrue( "flow not resumed", replyTo.await( 10000L ) );
+        Thread.sleep( 1000L );
+        assertEquals( "flow not resumed exactly once", 1, replyTo.replies.size() );
+        assertNull( "unexpected exception", replyTo.exception );
+        MuleMessage response= replyTo.replies.get( 0 ).getMessage();
+        assertEquals( "wrong response success flag", false, response.getInboundProperty( "coap.response.success" ) );
+        assertNull( "unexpected response code", response.getInboundProperty( "coap.response.code" ) );
+        verifyCallOfMessageProcessor( "echo-component" ).ofNamespace( "mule" ).times( 1 );
+    }
+
+    /**
+     * Run a flow non-blocking.
+     * @param flowName The flow to run.
+     * @return The reply-to handler that receives the result of the flow.
+     * @throws Exception when the flow cannot be run
+     */
+    private RecordingReplyToHandler run( String flowName ) throws Exception
+    {
+        Flow flow= (Flow) muleContext.getRegistry().lookupFlowConstruct( flowName );
+        assertNotNull( "flow not found", flow );
+        RecordingReplyToHandler replyTo= new RecordingReplyToHandler();
+        MuleEvent event= new DefaultMuleEvent( new DefaultMuleMessage( "nothing_important", muleContext ), MessageExchangePattern.REQUEST_RESPONSE, replyTo, flow );
+        MuleEvent result= flow.process( event );
+        assertSame( "flow thread not released", NonBlockingVoidMuleEvent.getInstance(), result );
+        return replyTo;
+    }
+
+    /**
+     * Reply-to handler that records the completions of the flow.
+     */
+    private static class RecordingReplyToHandler implements NonBlockingReplyToHandler
+    {
+        private final CopyOnWriteArrayList< MuleEvent > replies= new CopyOnWriteArrayList< MuleEvent >();
+
+        private volatile MessagingException exception= null;
+
+        private final CountDownLatch completed= new CountDownLatch( 1 );
+
+        @Override
+        public void processReplyTo( MuleEvent event, MuleMessage returnMessage, Object replyTo )
+        {
+            replies.add( event );
+            completed.countDown();
+        }
+
+        @Override
+        public void processExceptionReplyTo( MessagingException exception, Object replyTo )
+        {
+            this.exception= exception;
+            completed.countDown();
+        }
+
+        private boolean await( long millis ) throws InterruptedException
+        {
+            return completed.await( millis, TimeUnit.MILLISECONDS );
+        }
+    }
+}
@@ -0,0 +1,193 @@
+/*******************************************************************************
+ * Copyright (c) 2019 (teslanet.nl) Rogier Cobben.
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License - v 2.0 
+ * which accompanies this distribution.
+ * 
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ * 
+ * Contributors:
+ *    (teslanet.nl) Rogier Cobben - initial creation
+ ******************************************************************************/
+package nl.teslanet.mule.transport.coap.client.test.observe;
+
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Map;
+
+import org.eclipse.californium.core.CoapResource;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.mule.munit.runner.functional.FunctionalMunitSuite;
+
+
+/**
+ * Test of persisting observe relations on stop and resuming them on start.
+ */
+public class ObserveResumeTest extends FunctionalMunitSuite
+{
+    /**
+     * Server to test against
+     */
+    private static ObserveTestServer server= null;
+
+    /* (non-Javadoc)
+     * @see org.mule.munit.runner.functional.FunctionalMunitSuite#getConfigResources()
+     */
+    @Override
+    protected String getConfigResources()
+    {
+        return "mule-config/observe/testclient2.xml";
+    };
+
+    /* (non-Javadoc)
+     * @see org.mule.munit.runner.functional.FunctionalMunitSuite#haveToDisableInboundEndpoints()
+     */
+    @Override
+    protected boolean haveToDisableInboundEndpoints()
+    {
+        return false;
+    }
+
+    /* (non-Javadoc)
+     * @see org.mule.munit.runner.functional.FunctionalMunitSuite#haveToMockMuleConnectors()
+     */
+    @Override
+    protected boolean haveToMockMuleConnectors()
+    {
+        return false;
+    }
+
+    /**
+     * Start the server
+     * @throws Exception when server cannot start
+     */
+    @BeforeClass
+    public static void setUpServer() throws Exception
+    {
+        server= new ObserveTestServer();
+        server.start();
+    }
+
+    /**
+     * Stop the server
+     * @throws Exception when the server cannot stop
+     */
+    @AfterClass
+    public static void tearDownServer() throws Exception
+    {
+        if ( server != null )
+        {
+            server.stop();
+            server.destroy();
+            server= null;
+        }
+    }
+
+    /**
+     * Test that the relation of a message source is persisted on stop and resumed on start, 
+     * so the server keeps a single relation.
+     * @throws Exception should not happen in this test
+     */
+    @Test
+    public void testPersistAndResume() throws Exception
+    {
+        awaitObservers( "permanent", 1 );
+        long resumed= getStatistic( "statistics", "observe.resumed" );
+
+        muleContext.stop();
+        Thread.sleep( 500 );
+        assertEquals( "relation cancelled on stop", 1, getObservers( "permanent" ) );
+
+        muleContext.start();
+        awaitObservers( "permanent", 1 );
+        // give a registration that is not recognised as resumption the opportunity to show up
+        Thread.sleep( 1500 );
+        assertEquals( "relation not resumed", resumed + 1, getStatistic( "statistics", "observe.resumed" ) );
+        assertEquals( "relation not resumed with same token and port", 1, getObservers( "permanent" ) );
+    }
+
+    /**
+     * Test that a persisted relation that is not resumed is cancelled after the resume window.
+     * @throws Exception should not happen in this test
+     */
+    @Test
+    public void testCancelUnresumed() throws Exception
+    {
+        runFlow( "start_observe", testEvent( "nothing_important" ) );
+        awaitObservers( "temporary", 1 );
+
+        muleContext.stop();
+        Thread.sleep( 500 );
+        assertEquals( "relation cancelled on stop", 1, getObservers( "temporary" ) );
+
+        // dynamic observations are not started again
+        muleContext.start();
+        awaitObservers( "temporary", 0 );
+        assertEquals( "unresumed relation not cancelled", 0, getObservers( "temporary" ) );
+    }
+
+    /**
+     * Test that relations persisted by an endpoint on an ephemeral port are not resumed nor cancelled, 
+     * as the server knows them by a port that is no longer used.
+     * @throws Exception should not happen in this test
+     */
+    @Test
+    public void testNoResumeOnOtherPort() throws Exception
+    {
+        runFlow( "start_observe_ephemeral", testEvent( "nothing_important" ) );
+        awaitObservers( "temporary2", 1 );
+        long abandoned= getStatistic( "statistics_ephemeral", "observe.shutdown.abandoned" );
+        long resumed= getStatistic( "statistics_ephemeral", "observe.resumed" );
+
+        muleContext.stop();
+        muleContext.start();
+        runFlow( "start_observe_ephemeral", testEvent( "nothing_important" ) );
+        awaitObservers( "temporary2", 2 );
+        assertEquals( "relation resumed from other port", resumed, getStatistic( "statistics_ephemeral", "observe.resumed" ) );
+        assertEquals( "relation not reported as abandoned", abandoned + 1, getStatistic( "statistics_ephemeral", "observe.shutdown.abandoned" ) );
+    }
+
+    /**
+     * Get the number of observers of a resource on the server.
+     * @param name The name of the resource.
+     * @return The number of observers.
+     */
+    private int getObservers( String name )
+    {
+        return ( (CoapResource) server.getRoot().getChild( "observe" ).getChild( name ) ).getObserverCount();
+    }
+
+    /**
+     * Wait until a resource has the expected number of observers, at most five seconds.
+     * @param name The name of the resource.
+     * @param expected The expected number of observers.
+     * @throws InterruptedException when interrupted
+     */
+    private void awaitObservers( String name, int expected ) throws InterruptedException
+    {
+        for ( int i= 0; i < 50 && getObservers( name ) != expected; i++ )
+        {
+            Thread.sleep( 100 );
+        }
+        assertEquals( "wrong number of observers", expected, getObservers( name ) );
+    }
+
+    /**
+     * Get a statistic of a configuration.
+     * @param flowName The flow retrieving the statistics of the configuration.
+     * @param name The name of the statistic.
+     * @return The value.
+     * @throws Exception when the statistics cannot be retrieved
+     */
+    @SuppressWarnings("unchecked")
+    private long getStatistic( String flowName, String name ) throws Exception
+    {
+        Map< String, Long > statistics= (Map< String, Long >) runFlow( flowName, testEvent( "" ) ).getMessage().getPayload();
+        return statistics.get( name ).longValue();
+    }
+}
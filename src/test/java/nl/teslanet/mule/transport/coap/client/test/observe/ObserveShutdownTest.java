@@ -0,0 +1,164 @@
+/*******************************************************************************
+ * Copyright (c) 2019 (teslanet.nl) Rogier Cobben.
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License - v 2.0 
+ * which accompanies this distribution.
+ * 
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ * 
+ * Contributors:
+ *    (teslanet.nl) Rogier Cobben - initial creation
+ ******************************************************************************/
+package nl.teslanet.mule.transport.coap.client.test.observe;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Map;
+
+import org.eclipse.californium.core.CoapResource;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.mule.api.MuleEvent;
+import org.mule.munit.runner.functional.FunctionalMunitSuite;
+
+
+/**
+ * Test of cancelling observe relations on stop.
+ */
+public class ObserveShutdownTest extends FunctionalMunitSuite
+{
+    /**
+     * Server to test against
+     */
+    private static ObserveTestServer server= null;
+
+    /* (non-Javadoc)
+     * @see org.mule.munit.runner.functional.FunctionalMunitSuite#getConfigResources()
+     */
+    @Override
+    protected String getConfigResources()
+    {
+        return "mule-config/observe/testclient3.xml";
+    };
+
+    /* (non-Javadoc)
+     * @see org.mule.munit.runner.functional.FunctionalMunitSuite#haveToDisableInboundEndpoints()
+     */
+    @Override
+    protected boolean haveToDisableInboundEndpoints()
+    {
+        return false;
+    }
+
+    /* (non-Javadoc)
+     * @see org.mule.munit.runner.functional.FunctionalMunitSuite#haveToMockMuleConnectors()
+     */
+    @Override
+    protected boolean haveToMockMuleConnectors()
+    {
+        return false;
+    }
+
+    /**
+     * Start the server
+     * @throws Exception when server cannot start
+     */
+    @BeforeClass
+    public static void setUpServer() throws Exception
+    {
+        server= new ObserveTestServer();
+        server.start();
+    }
+
+    /**
+     * Stop the server
+     * @throws Exception when the server cannot stop
+     */
+    @AfterClass
+    public static void tearDownServer() throws Exception
+    {
+        if ( server != null )
+        {
+            server.stop();
+            server.destroy();
+            server= null;
+        }
+    }
+
+    /**
+     * Test that relations the server confirms are reported cancelled, and relations 
+     * that are not confirmed within the grace period are reported abandoned, without waiting for each in turn.
+     * @throws Exception should not happen in this test
+     */
+    @Test
+    public void testCancelOnStop() throws Exception
+    {
+        for ( String path : new String []{ "/observe/temporary", "/observe/temporary2" } )
+        {
+            MuleEvent event= testEvent( "nothing_important" );
+            event.setFlowVariable( "path", path );
+            runFlow( "start_observe", event );
+        }
+        // the registration of this relation is never answered
+        runFlow( "start_observe_silent", testEvent( "nothing_important" ) );
+        awaitObservers( "temporary", 1 );
+        awaitObservers( "temporary2", 1 );
+        long cancelled= getStatistic( "statistics", "observe.shutdown.cancelled" );
+        long abandoned= getStatistic( "statistics", "observe.shutdown.abandoned" );
+
+        long start= System.currentTimeMillis();
+        muleContext.stop();
+        long elapsed= System.currentTimeMillis() - start;
+        assertTrue( "grace period exceeded: " + elapsed + " ms", elapsed < 3000L );
+        assertEquals( "relation not cancelled on server", 0, getObservers( "temporary" ) );
+        assertEquals( "relation not cancelled on server", 0, getObservers( "temporary2" ) );
+
+        muleContext.start();
+        assertEquals( "wrong number of cancelled relations", cancelled + 2, getStatistic( "statistics", "observe.shutdown.cancelled" ) );
+        assertEquals( "wrong number of abandoned relations", abandoned + 1, getStatistic( "statistics", "observe.shutdown.abandoned" ) );
+    }
+
+    /**
+     * Get the number of observers of a resource on the server.
+     * @param name The name of the resource.
+     * @return The number of observers.
+     */
+    private int getObservers( String name )
+    {
+        return ( (CoapResource) server.getRoot().getChild( "observe" ).getChild( name ) ).getObserverCount();
+    }
+
+    /**
+     * Wait until a resource has the expected number of observers, at most five seconds.
+     * @param name The name of the resource.
+     * @param expected The expected number of observers.
+     * @throws InterruptedException when interrupted
+     */
+    private void awaitObservers( String name, int expected ) throws InterruptedException
+    {
+        for ( int i= 0; i < 50 && getObservers( name ) != expected; i++ )
+        {
+            Thread.sleep( 100 );
+        }
+        assertEquals( "wrong number of observers", expected, getObservers( name ) );
+    }
+
+    /**
+     * Get a statistic of a configuration.
+     * @param flowName The flow retrieving the statistics of the configuration.
+     * @param name The name of the statistic.
+     * @return The value.
+     * @throws Exception when the statistics cannot be retrieved
+     */
+    @SuppressWarnings("unchecked")
+    private long getStatistic( String flowName, String name ) throws Exception
+    {
+        Map< String, Long > statistics= (Map< String, Long >) runFlow( flowName, testEvent( "" ) ).getMessage().getPayload();
+        return statistics.get( name ).longValue();
+    }
+}
@@ -483,4 +483,59 @@ public class ObserveTest extends FunctionalMunitSuite
         assertEquals( "wrong number of observations", 0, ( (List< String >) response.getPayload() ).size() );
 
     }
-}
\ No newline at end of file
+
+    /**
+     * Test observe relation shared by two handlers
+     * @throws Exception should not happen in this test
+     */
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testSharedObserve() throws Exception
+    {
+        MuleEvent event;
+        MuleEvent result;
+        MuleMessage response;
+        String spiedProcessor= "echo-component";
+        String spiedProcessorNamespace= "mule";
+        Attribute firstDocName= Attribute.attribute( "name" ).ofNamespace( "doc" ).withValue( "handler_temporary2" );
+        Attribute secondDocName= Attribute.attribute( "name" ).ofNamespace( "doc" ).withValue( "handler_temporary2_shared" );
+
+        //let asynchronous work happen
+        Thread.sleep( PAUZE );
+
+        event= testEvent( "nothing_important" );
+        result= runFlow( "start_observe2", event );
+        event= testEvent( "nothing_important" );
+        result= runFlow( "start_observe2_shared", event );
+
+        //one relation for both handlers
+        Thread.sleep( PAUZE );
+        event= testEvent( "nothing_important" );
+        result= runFlow( "observation_list", event );
+        response= result.getMessage();
+        assertEquals( "wrong number of observations", 1, ( (List< String >) response.getPayload() ).size() );
+        assertEquals( "wrong observation uri", "coap://127.0.0.1:5683/observe/temporary2", ( (List< String >) response.getPayload() ).get( 0 ) );
+
+        for ( int i= 1; i < contents.size(); i++ )
+        {
+            Thread.sleep( PAUZE );
+            event= testEvent( contents.get( i ) );
+            result= runFlow( "do_put_temporary2", event );
+            response= result.getMessage();
+            assertEquals( "put nr: " + i + " gave wrong response", ResponseCode.CHANGED.toString(), response.getInboundProperty( "coap.response.code" ) );
+        }
+        Thread.sleep( PAUZE );
+        // the second handler received the latest notification on joining
+        verifyCallOfMessageProcessor( spiedProcessor ).ofNamespace( spiedProcessorNamespace ).withAttributes( firstDocName ).times( contents.size() );
+        verifyCallOfMessageProcessor( spiedProcessor ).ofNamespace( spiedProcessorNamespace ).withAttributes( secondDocName ).times( contents.size() );
+
+        event= testEvent( "nothing_important" );
+        result= runFlow( "stop_observe2", event );
+
+        Thread.sleep( PAUZE );
+        event= testEvent( "nothing_important" );
+        result= runFlow( "observation_list", event );
+        response= result.getMessage();
+        assertEquals( "wrong number of observations", 0, ( (List< String >) response.getPayload() ).size() );
+    }
+}
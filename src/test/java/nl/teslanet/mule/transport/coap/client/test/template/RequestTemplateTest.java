@@ -0,0 +1,111 @@
+/*******************************************************************************
+ * Copyright (c) 2019 (teslanet.nl) Rogier Cobben.
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License - v 2.0 
+ * which accompanies this distribution.
+ * 
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ * 
+ * Contributors:
+ *    (teslanet.nl) Rogier Cobben - initial creation
+ ******************************************************************************/
+package nl.teslanet.mule.transport.coap.client.test.template;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetAddress;
+import java.net.URI;
+import java.util.Arrays;
+
+import org.eclipse.californium.core.coap.CoAP.Code;
+import org.eclipse.californium.core.coap.Request;
+import org.junit.Test;
+
+import nl.teslanet.mule.transport.coap.client.RequestTemplate;
+
+
+public class RequestTemplateTest
+{
+    @Test
+    public void testIpLiteral() throws Exception
+    {
+        RequestTemplate template= RequestTemplate.compile( new URI( "coap://127.0.0.1:5683/some/path?a=1&b=2" ), 60000L );
+        Request request= new Request( Code.GET );
+        template.applyTo( request );
+        assertEquals( "wrong destination", InetAddress.getByName( "127.0.0.1" ), request.getDestination() );
+        assertEquals( "wrong destination port", 5683, request.getDestinationPort() );
+        assertNull( "unexpected Uri-Host", request.getOptions().getUriHost() );
+        assertFalse( "unexpected Uri-Port", request.getOptions().hasUriPort() );
+        assertEquals( "wrong Uri-Path", Arrays.asList( "some", "path" ), request.getOptions().getUriPath() );
+        assertEquals( "wrong Uri-Query", Arrays.asList( "a=1", "b=2" ), request.getOptions().getUriQuery() );
+    }
+
+    @Test
+    public void testHostName() throws Exception
+    {
+        RequestTemplate template= RequestTemplate.compile( new URI( "coap://localhost:5685/resource" ), 60000L );
+        Request request= new Request( Code.GET );
+        template.applyTo( request );
+        assertEquals( "wrong destination", InetAddress.getByName( "localhost" ), request.getDestination() );
+        assertEquals( "wrong destination port", 5685, request.getDestinationPort() );
+        assertEquals( "wrong Uri-Host", "localhost", request.getOptions().getUriHost() );
+        assertEquals( "wrong Uri-Port", Integer.valueOf( 5685 ), request.getOptions().getUriPort() );
+        assertEquals( "wrong Uri-Path", Arrays.asList( "resource" ), request.getOptions().getUriPath() );
+        assertTrue( "unexpected Uri-Query", request.getOptions().getUriQuery().isEmpty() );
+    }
+
+    @Test
+    public void testSecureDefaultPort() throws Exception
+    {
+        RequestTemplate template= RequestTemplate.compile( new URI( "coaps://127.0.0.1/" ), 60000L );
+        Request request= new Request( Code.GET );
+        template.applyTo( request );
+        assertEquals( "wrong destination port", 5684, request.getDestinationPort() );
+        assertFalse( "unexpected Uri-Port", request.getOptions().hasUriPort() );
+        assertTrue( "unexpected Uri-Path", request.getOptions().getUriPath().isEmpty() );
+    }
+
+    @Test
+    public void testOverrulesRequestOptions() throws Exception
+    {
+        RequestTemplate template= RequestTemplate.compile( new URI( "coap://localhost:5685/resource?a=1" ), 60000L );
+        Request request= new Request( Code.GET );
+        // as set from outbound properties
+        request.getOptions().setUriHost( "otherhost" );
+        request.getOptions().setUriPort( 1234 );
+        request.getOptions().addUriPath( "other" );
+        request.getOptions().addUriQuery( "b=2" );
+        template.applyTo( request );
+        assertEquals( "wrong Uri-Host", "localhost", request.getOptions().getUriHost() );
+        assertEquals( "wrong Uri-Port", Integer.valueOf( 5685 ), request.getOptions().getUriPort() );
+        assertEquals( "wrong Uri-Path", Arrays.asList( "resource" ), request.getOptions().getUriPath() );
+        assertEquals( "wrong Uri-Query", Arrays.asList( "a=1" ), request.getOptions().getUriQuery() );
+    }
+
+    @Test
+    public void testKeepsRequestQueryWhenNotSet() throws Exception
+    {
+        RequestTemplate template= RequestTemplate.compile( new URI( "coap://127.0.0.1/resource" ), 60000L );
+        Request request= new Request( Code.GET );
+        request.getOptions().addUriQuery( "b=2" );
+        template.applyTo( request );
+        assertEquals( "wrong Uri-Query", Arrays.asList( "b=2" ), request.getOptions().getUriQuery() );
+    }
+
+    @Test
+    public void testAddressResolvedAgain() throws Exception
+    {
+        RequestTemplate template= RequestTemplate.compile( new URI( "coap://localhost/resource" ), 10L );
+        InetAddress first= template.getDestination();
+        Thread.sleep( 50L );
+        Request request= new Request( Code.GET );
+        template.applyTo( request );
+        assertEquals( "wrong destination after resolving again", first, request.getDestination() );
+    }
+}
@@ -0,0 +1,201 @@
+/*******************************************************************************
+ * Copyright (c) 2019 (teslanet.nl) Rogier Cobben.
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License - v 2.0 
+ * which accompanies this distribution.
+ * 
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ * 
+ * Contributors:
+ *    (teslanet.nl) Rogier Cobben - initial creation
+ ******************************************************************************/
+package nl.teslanet.mule.transport.coap.client.test.timeout;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.californium.core.CoapServer;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.mule.DefaultMuleEvent;
+import org.mule.DefaultMuleMessage;
+import org.mule.MessageExchangePattern;
+import org.mule.NonBlockingVoidMuleEvent;
+import org.mule.api.MessagingException;
+import org.mule.api.MuleEvent;
+import org.mule.api.MuleException;
+import org.mule.api.MuleMessage;
+import org.mule.api.transport.NonBlockingReplyToHandler;
+import org.mule.construct.Flow;
+import org.mule.munit.common.mocking.SpyProcess;
+import org.mule.munit.runner.functional.FunctionalMunitSuite;
+
+import nl.teslanet.mule.transport.coap.client.test.basic.BasicTestServer;
+
+
+/**
+ * Test of the timeout of request operations against a resource that never responds.
+ */
+public class TimeoutTest extends FunctionalMunitSuite
+{
+    /**
+     * Server to test against
+     */
+    private static CoapServer server= null;
+
+    /* (non-Javadoc)
+     * @see org.mule.munit.runner.functional.FunctionalMunitSuite#getConfigResources()
+     */
+    @Override
+    protected String getConfigResources()
+    {
+        return "mule-config/timeout/testclient1.xml";
+    };
+
+    /* (non-Javadoc)
+     * @see org.mule.munit.runner.functional.FunctionalMunitSuite#haveToDisableInboundEndpoints()
+     */
+    @Override
+    protected boolean haveToDisableInboundEndpoints()
+    {
+        return false;
+    }
+
+    /* (non-Javadoc)
+     * @see org.mule.munit.runner.functional.FunctionalMunitSuite#haveToMockMuleConnectors()
+     */
+    @Override
+    protected boolean haveToMockMuleConnectors()
+    {
+        return false;
+    }
+
+    /**
+     * Start the server
+     * @throws Exception when server cannot start
+     */
+    @BeforeClass
+    public static void setUpServer() throws Exception
+    {
+        server= new BasicTestServer();
+        server.start();
+    }
+
+    /**
+     * Stop the server
+     * @throws Exception when the server cannot stop
+     */
+    @AfterClass
+    public static void tearDownServer() throws Exception
+    {
+        if ( server != null )
+        {
+            server.stop();
+            server.destroy();
+            server= null;
+        }
+    }
+
+    /**
+     * Test synchronous request timeout
+     * @throws Exception should not happen in this test
+     */
+    @Test
+    public void testSyncTimeout() throws Exception
+    {
+        long timedOut= getTimedOut();
+        long start= System.currentTimeMillis();
+        MuleEvent result= runFlow( "sync_get_timeout", testEvent( "nothing_important" ) );
+        long elapsed= System.currentTimeMillis() - start;
+        MuleMessage response= result.getMessage();
+        assertEquals( "wrong response success flag", false, response.getInboundProperty( "coap.response.success" ) );
+        assertTrue( "timeout not applied, elapsed: " + elapsed, elapsed >= 500L && elapsed < 5000L );
+        assertEquals( "request not cancelled", timedOut + 1, getTimedOut() );
+    }
+
+    /**
+     * Test asynchronous request timeout
+     * @throws Exception should not happen in this test
+     */
+    @Test
+    public void testAsyncTimeout() throws Exception
+    {
+        long timedOut= getTimedOut();
+        final CopyOnWriteArrayList< MuleMessage > handled= new CopyOnWriteArrayList< MuleMessage >();
+        SpyProcess spy= new SpyProcess()
+            {
+                @Override
+                public void spy( MuleEvent event ) throws MuleException
+                {
+                    handled.add( event.getMessage() );
+                }
+            };
+        spyMessageProcessor( "echo-component" ).ofNamespace( "mule" ).before( spy );
+        runFlow( "async_get_timeout", testEvent( "nothing_important" ) );
+
+        // let the timeout expire and give a second completion the opportunity to show up
+        Thread.sleep( 2000L );
+        assertEquals( "handler not called exactly once", 1, handled.size() );
+        assertEquals( "wrong response success flag", false, handled.get( 0 ).getInboundProperty( "coap.response.success" ) );
+        assertEquals( "request not cancelled", timedOut + 1, getTimedOut() );
+    }
+
+    /**
+     * Test non-blocking request timeout
+     * @throws Exception should not happen in this test
+     */
+    @Test
+    public void testNonBlockingTimeout() throws Exception
+    {
+        long timedOut= getTimedOut();
+        Flow flow= (Flow) muleContext.getRegistry().lookupFlowConstruct( "nonblocking_get_timeout" );
+        assertNotNull( "flow not found", flow );
+        final CopyOnWriteArrayList< MuleEvent > replies= new CopyOnWriteArrayList< MuleEvent >();
+        final CountDownLatch completed= new CountDownLatch( 1 );
+        NonBlockingReplyToHandler replyTo= new NonBlockingReplyToHandler()
+            {
+                @Override
+                public void processReplyTo( MuleEvent event, MuleMessage returnMessage, Object replyTo )
+                {
+                    replies.add( event );
+                    completed.countDown();
+                }
+
+                @Override
+                public void processExceptionReplyTo( MessagingException exception, Object replyTo )
+                {
+                    completed.countDown();
+                }
+            };
+        MuleEvent event= new DefaultMuleEvent( new DefaultMuleMessage( "nothing_important", muleContext ), MessageExchangePattern.REQUEST_RESPONSE, replyTo, flow );
+        assertSame( "flow thread not released", NonBlockingVoidMuleEvent.getInstance(), flow.process( event ) );
+        assertTrue( "flow not resumed", completed.await( 10, TimeUnit.SECONDS ) );
+        Thread.sleep( 1000L );
+        assertEquals( "flow not resumed exactly once with a result", 1, replies.size() );
+        assertEquals( "wrong response success flag", false, replies.get( 0 ).getMessage().getInboundProperty( "coap.response.success" ) );
+        assertEquals( "request not cancelled", timedOut + 1, getTimedOut() );
+    }
+
+    /**
+     * Get the number of requests cancelled by their timeout.
+     * @return The count.
+     * @throws Exception when the statistics cannot be retrieved
+     */
+    @SuppressWarnings("unchecked")
+    private long getTimedOut() throws Exception
+    {
+        Map< String, Long > statistics= (Map< String, Long >) runFlow( "statistics", testEvent( "" ) ).getMessage().getPayload();
+        return statistics.get( "requests.timedout" ).longValue();
+    }
+}